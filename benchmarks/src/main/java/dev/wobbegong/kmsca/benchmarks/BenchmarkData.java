@@ -0,0 +1,169 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+
+/**
+ * Test data shared by the benchmarks. Certificates are generated with BouncyCastle so the benchmarks do not depend on
+ * the resources of the main project's tests.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    static KeyPair keyPair(String algorithm, int size) {
+        try {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(algorithm);
+            keyPairGenerator.initialize(size);
+            return keyPairGenerator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param rsaBits The size of the RSA key of the certificate.
+     * @return The DER encoding of a self-signed certificate.
+     */
+    static byte[] certificate(int rsaBits) {
+        KeyPair keyPair = keyPair("RSA", rsaBits);
+        X500Name name = new X500Name("C=US, ST=Texas, L=Austin, O=Wobbegong, OU=Benchmarks, CN=benchmark.wobbegong.dev");
+        Instant now = Instant.now();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                name,
+                BigInteger.valueOf(now.toEpochMilli()),
+                Date.from(now),
+                Date.from(now.plus(365, ChronoUnit.DAYS)),
+                name,
+                keyPair.getPublic());
+        try {
+            return builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())).getEncoded();
+        } catch (OperatorCreationException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param rsaBits  The size of the RSA key of the certificate.
+     * @param dnsNames The number of DNS subject alternative names.
+     * @return The DER encoding of a TLS server certificate with the extensions a public CA would include.
+     */
+    static byte[] serverCertificate(int rsaBits, int dnsNames) {
+        KeyPair keyPair = keyPair("RSA", rsaBits);
+        X500Name issuer = new X500Name("C=US, O=Wobbegong, CN=Wobbegong Benchmark CA");
+        X500Name subject = new X500Name("CN=www0.benchmark.wobbegong.dev");
+        GeneralName[] names = new GeneralName[dnsNames];
+        for (int i = 0; i < dnsNames; i++) {
+            names[i] = new GeneralName(GeneralName.dNSName, "www" + i + ".benchmark.wobbegong.dev");
+        }
+        Instant now = Instant.now();
+        try {
+            JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+            X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                    issuer,
+                    BigInteger.valueOf(now.toEpochMilli()),
+                    Date.from(now),
+                    Date.from(now.plus(90, ChronoUnit.DAYS)),
+                    subject,
+                    keyPair.getPublic())
+                    .addExtension(Extension.authorityKeyIdentifier, false, extensionUtils.createAuthorityKeyIdentifier(keyPair.getPublic()))
+                    .addExtension(Extension.subjectKeyIdentifier, false, extensionUtils.createSubjectKeyIdentifier(keyPair.getPublic()))
+                    .addExtension(Extension.subjectAlternativeName, false, new GeneralNames(names))
+                    .addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment))
+                    .addExtension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(new KeyPurposeId[]{KeyPurposeId.id_kp_serverAuth, KeyPurposeId.id_kp_clientAuth}))
+                    .addExtension(Extension.cRLDistributionPoints, false, new CRLDistPoint(new DistributionPoint[]{
+                            new DistributionPoint(new DistributionPointName(new GeneralNames(
+                                    new GeneralName(GeneralName.uniformResourceIdentifier, "http://crl.benchmark.wobbegong.dev/ca.crl"))), null, null)}))
+                    .addExtension(Extension.authorityInfoAccess, false, new AuthorityInformationAccess(new AccessDescription[]{
+                            new AccessDescription(AccessDescription.id_ad_ocsp, new GeneralName(GeneralName.uniformResourceIdentifier, "http://ocsp.benchmark.wobbegong.dev")),
+                            new AccessDescription(AccessDescription.id_ad_caIssuers, new GeneralName(GeneralName.uniformResourceIdentifier, "http://ca.benchmark.wobbegong.dev/ca.crt"))}))
+                    .addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+            return builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())).getEncoded();
+        } catch (OperatorCreationException | IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param rsaBits The size of the RSA keys of the certificates.
+     * @return The DER encodings of a leaf, an intermediate CA that issued it and a root CA that issued the
+     * intermediate, linked by key identifiers.
+     */
+    static byte[][] chain(int rsaBits) {
+        KeyPair rootKey = keyPair("RSA", rsaBits);
+        KeyPair intermediateKey = keyPair("RSA", rsaBits);
+        KeyPair leafKey = keyPair("RSA", rsaBits);
+        X500Name root = new X500Name("C=US, O=Wobbegong, CN=Wobbegong Benchmark Root");
+        X500Name intermediate = new X500Name("C=US, O=Wobbegong, CN=Wobbegong Benchmark CA");
+        return new byte[][]{
+                chainCertificate(new X500Name("CN=www.benchmark.wobbegong.dev"), leafKey, intermediate, intermediateKey, null),
+                chainCertificate(intermediate, intermediateKey, root, rootKey, new BasicConstraints(0)),
+                chainCertificate(root, rootKey, root, rootKey, new BasicConstraints(true))};
+    }
+
+    private static byte[] chainCertificate(X500Name subject, KeyPair subjectKey, X500Name issuer, KeyPair issuerKey, BasicConstraints basicConstraints) {
+        Instant now = Instant.now();
+        try {
+            JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+            X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                    issuer,
+                    BigInteger.valueOf(now.toEpochMilli()),
+                    Date.from(now),
+                    Date.from(now.plus(365, ChronoUnit.DAYS)),
+                    subject,
+                    subjectKey.getPublic())
+                    .addExtension(Extension.authorityKeyIdentifier, false, extensionUtils.createAuthorityKeyIdentifier(issuerKey.getPublic()))
+                    .addExtension(Extension.subjectKeyIdentifier, false, extensionUtils.createSubjectKeyIdentifier(subjectKey.getPublic()));
+            if (basicConstraints != null) {
+                builder.addExtension(Extension.basicConstraints, true, basicConstraints)
+                        .addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+            }
+            return builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKey.getPrivate())).getEncoded();
+        } catch (OperatorCreationException | IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param keyPair The key of the requester.
+     * @return The DER encoding of a certificate request signed with SHA-256.
+     */
+    static byte[] certificateRequest(KeyPair keyPair) {
+        X500Name name = new X500Name("C=US, O=Wobbegong, OU=Benchmarks, CN=benchmark.wobbegong.dev");
+        String algorithm = keyPair.getPrivate().getAlgorithm().equals("RSA") ? "SHA256withRSA" : "SHA256withECDSA";
+        try {
+            return new JcaPKCS10CertificationRequestBuilder(name, keyPair.getPublic())
+                    .build(new JcaContentSignerBuilder(algorithm).build(keyPair.getPrivate()))
+                    .getEncoded();
+        } catch (OperatorCreationException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.exceptions.PEMFormatException;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.io.CertificateBundleLoader;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+import dev.wobbegong.kmsca.utils.X509Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a PEM bundle of 10,000 certificates into {@link SignedX509Certificate}s: one at a time with
+ * {@link PEMUtils#parsePEMs} and {@link X509Utils#toCertificate(ASN1Sequence)}, and with the
+ * {@link CertificateBundleLoader} on a pool of the given parallelism.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BundleLoaderBenchmark {
+
+    private static final int CERTIFICATES = 10_000;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private byte[] bundle;
+    private ForkJoinPool pool;
+    private CertificateBundleLoader loader;
+
+    @Setup
+    public void setup() {
+        String pem = PEMUtils.pemFor("CERTIFICATE", BenchmarkData.certificate(2048));
+        bundle = pem.repeat(CERTIFICATES).getBytes(StandardCharsets.US_ASCII);
+        pool = new ForkJoinPool(parallelism);
+        loader = new CertificateBundleLoader(pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public List<SignedX509Certificate> sequential() throws IOException, PEMFormatException, X509CertException {
+        List<SignedX509Certificate> certificates = new ArrayList<>(CERTIFICATES);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bundle), StandardCharsets.US_ASCII))) {
+            for (PEMObject pem : PEMUtils.parsePEMs(reader)) {
+                certificates.add(X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(pem.content()))));
+            }
+        }
+        return certificates;
+    }
+
+    @Benchmark
+    public List<CertificateBundleLoader.Entry> loader() {
+        return loader.load(ByteBuffer.wrap(bundle));
+    }
+}
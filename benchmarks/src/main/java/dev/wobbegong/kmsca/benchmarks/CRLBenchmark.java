@@ -0,0 +1,86 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.crl.CRLIssuer;
+import dev.wobbegong.kmsca.crl.RevocationStore;
+import dev.wobbegong.kmsca.entities.CertificateAuthority;
+import dev.wobbegong.kmsca.entities.pkcs12.RevocationReason;
+import dev.wobbegong.kmsca.signing.LocalSigningProvider;
+import dev.wobbegong.kmsca.utils.CertificateUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a complete CRL of random 16 octet serial numbers, half with a reason code, to a stream that only counts what
+ * it is given, and a delta CRL of the last thousand revocations on top of it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CRLBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int entries;
+
+    private CRLIssuer issuer;
+    private Instant thisUpdate;
+    private Instant nextUpdate;
+    private final CountingOutputStream out = new CountingOutputStream();
+
+    @Setup
+    public void setup() throws IOException {
+        KeyPair keys = BenchmarkData.keyPair("EC", 256);
+        CertificateAuthority ca = new CertificateAuthority(new byte[]{0x30, 0x00},
+                CertificateUtils.subjectKeyIdentifierFor(keys.getPublic().getEncoded()), new LocalSigningProvider(keys));
+
+        RevocationStore store = new RevocationStore();
+        Random random = new Random(42);
+        Instant revoked = Instant.parse("2026-01-01T00:00:00Z");
+        RevocationReason[] reasons = RevocationReason.values();
+        for (int i = 0; i < entries; i++) {
+            store.revoke(new BigInteger(127, random).add(BigInteger.ONE), revoked.plusSeconds(i), i % 2 == 0 ? reasons[random.nextInt(6)] : null);
+        }
+        thisUpdate = revoked.plus(Duration.ofDays(30));
+        nextUpdate = thisUpdate.plus(Duration.ofDays(1));
+        issuer = new CRLIssuer(ca, store);
+        issuer.writeCRL(out, thisUpdate, nextUpdate);
+        for (int i = 0; i < 1000; i++) {
+            store.revoke(new BigInteger(127, random).add(BigInteger.ONE), thisUpdate, RevocationReason.keyCompromise);
+        }
+    }
+
+    @Benchmark
+    public long complete() throws IOException {
+        return issuer.writeCRL(out, thisUpdate, nextUpdate).length();
+    }
+
+    @Benchmark
+    public long delta() throws IOException {
+        return issuer.writeDeltaCRL(out, thisUpdate, nextUpdate).length();
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
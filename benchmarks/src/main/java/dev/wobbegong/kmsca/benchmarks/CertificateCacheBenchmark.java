@@ -0,0 +1,47 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.cache.CertificateCache;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.X509Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting a certificate presented again, as gateways do for intermediates and roots: from the cache, which hashes and
+ * compares the encoding, and by parsing it every time. Run with {@code -t} to measure contention on the cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CertificateCacheBenchmark {
+
+    @Param({"2", "50"})
+    public int dnsNames;
+
+    private byte[] certificate;
+    private CertificateCache cache;
+
+    @Setup
+    public void setup() {
+        certificate = BenchmarkData.serverCertificate(2048, dnsNames);
+        cache = new CertificateCache();
+    }
+
+    @Benchmark
+    public SignedX509Certificate cached() throws X509CertException {
+        return cache.get(certificate);
+    }
+
+    @Benchmark
+    public SignedX509Certificate parse() throws X509CertException {
+        return X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(certificate)));
+    }
+}
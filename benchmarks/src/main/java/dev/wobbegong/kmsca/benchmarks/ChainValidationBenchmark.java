@@ -0,0 +1,58 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.chain.CertificateChainValidator;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.X509Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validating a leaf, intermediate and root chain: again with a validator that remembers the signatures it verified, as
+ * gateways see the same chains over and over, and from scratch, which verifies both signatures every time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChainValidationBenchmark {
+
+    private List<SignedX509Certificate> chain;
+    private List<SignedX509Certificate> presented;
+    private Instant at;
+    private CertificateChainValidator remembering;
+    private CertificateChainValidator forgetting;
+
+    @Setup
+    public void setup() throws X509CertException {
+        chain = new ArrayList<>();
+        for (byte[] der : BenchmarkData.chain(2048)) {
+            chain.add(X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der))));
+        }
+        presented = chain.subList(0, 2);
+        at = Instant.now().plusSeconds(60);
+        List<SignedX509Certificate> anchors = List.of(chain.get(2));
+        remembering = new CertificateChainValidator(anchors);
+        forgetting = new CertificateChainValidator(anchors, List.of(), new CertificateChainValidator.Options(8, 8, 0), ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public List<SignedX509Certificate> remembered() throws X509CertException {
+        return remembering.validate(presented, at);
+    }
+
+    @Benchmark
+    public List<SignedX509Certificate> verified() throws X509CertException {
+        return forgetting.validate(presented, at);
+    }
+}
@@ -0,0 +1,87 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.io.SegmentedAESGCMOutputStream;
+import dev.wobbegong.kmsca.utils.CryptoUtils;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AES-GCM encryption of a PKCS#8 sized payload and of a multi-megabyte blob.
+ *
+ * <ul>
+ *     <li>{@code newCipher} looks up a cipher for every call, as {@link CryptoUtils} did before it pooled them.</li>
+ *     <li>{@code pooledCipher} uses the byte array methods of {@link CryptoUtils}.</li>
+ *     <li>{@code inPlaceDirect} encrypts a direct buffer in place, allocating nothing.</li>
+ *     <li>{@code segmentedStream} writes a {@link SegmentedAESGCMOutputStream} with 64 KiB segments.</li>
+ * </ul>
+ *
+ * <p>Every call uses a new IV, since a GCM cipher refuses to encrypt twice with the same key and IV.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CryptoBenchmark {
+
+    /**
+     * About the size of a PKCS#8 RSA-2048 key, and 4 MiB.
+     */
+    @Param({"1216", "4194304"})
+    public int size;
+
+    private byte[] key;
+    private SecretKey secretKey;
+    private byte[] data;
+    private ByteBuffer direct;
+    private final byte[] iv = new byte[CryptoUtils.GCM_IV_SIZE];
+    private long counter;
+
+    @Setup
+    public void setup() {
+        key = CryptoUtils.randomKey();
+        secretKey = CryptoUtils.aesKey(key);
+        data = CryptoUtils.randomBytes(size);
+        direct = ByteBuffer.allocateDirect(size + CryptoUtils.GCM_TAG_SIZE);
+    }
+
+    @Benchmark
+    public byte[] newCipher() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, nextIV()));
+        return cipher.doFinal(data);
+    }
+
+    @Benchmark
+    public byte[] pooledCipher() {
+        return CryptoUtils.aesGCMEncrypt(data, key, nextIV());
+    }
+
+    @Benchmark
+    public ByteBuffer inPlaceDirect() {
+        direct.clear().limit(size);
+        CryptoUtils.aesGCMEncryptInPlace(direct, secretKey, nextIV());
+        return direct;
+    }
+
+    @Benchmark
+    public void segmentedStream() throws IOException {
+        try (OutputStream out = new SegmentedAESGCMOutputStream(OutputStream.nullOutputStream(), key)) {
+            out.write(data);
+        }
+    }
+
+    private byte[] nextIV() {
+        ByteBuffer.wrap(iv).putLong(4, ++counter);
+        return iv;
+    }
+}
@@ -0,0 +1,73 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.pkcs1.ECPublicKey;
+import dev.wobbegong.kmsca.entities.pkcs12.X509PublicKey;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.ECCurveUtils;
+import dev.wobbegong.kmsca.utils.X509PublicKeyUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the EC key of a certificate: decoding the subject public key info, decompressing a compressed point,
+ * converting the key to a JCA key through the cache, and the JCA key factory for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ECKeyBenchmark {
+
+    @Param({"256", "384"})
+    public int curveBits;
+
+    private byte[] subjectPublicKeyInfo;
+    private byte[] compressed;
+    private KnownOids curve;
+    private KeyFactory keyFactory;
+
+    @Setup
+    public void setup() throws GeneralSecurityException, X509CertException {
+        subjectPublicKeyInfo = BenchmarkData.keyPair("EC", curveBits).getPublic().getEncoded();
+        curve = curveBits == 256 ? KnownOids.prime256v1 : KnownOids.ansip384r1;
+        compressed = ECCurveUtils.compressPoint(curve, decode().publicKey.w());
+        keyFactory = KeyFactory.getInstance("EC");
+    }
+
+    @SuppressWarnings("unchecked")
+    private X509PublicKey<ECPublicKey> decode() throws X509CertException {
+        ASN1Sequence keyInfo = (ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(subjectPublicKeyInfo));
+        return (X509PublicKey<ECPublicKey>) X509PublicKeyUtils.fromASN1Item(keyInfo);
+    }
+
+    @Benchmark
+    public X509PublicKey<ECPublicKey> decodeSubjectPublicKeyInfo() throws X509CertException {
+        return decode();
+    }
+
+    @Benchmark
+    public ECPublicKey.ECPoint decompress() throws X509CertException {
+        return ECCurveUtils.decodePoint(curve, compressed);
+    }
+
+    @Benchmark
+    public PublicKey cachedJcaKey() throws X509CertException {
+        return X509PublicKeyUtils.publicKeyFor(subjectPublicKeyInfo);
+    }
+
+    @Benchmark
+    public PublicKey jcaKeyFactory() throws GeneralSecurityException {
+        return keyFactory.generatePublic(new X509EncodedKeySpec(subjectPublicKeyInfo));
+    }
+}
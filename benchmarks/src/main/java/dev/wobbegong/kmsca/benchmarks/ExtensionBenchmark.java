@@ -0,0 +1,79 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.pkcs12.GeneralName;
+import dev.wobbegong.kmsca.entities.pkcs12.X509Extensions;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.X509Utils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the extensions of a TLS server certificate, as a policy check on every certificate would: only the subject
+ * alternative names from a lazily parsed tree, the names after a full parse, every extension after a full parse, and the
+ * names through the JDK for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ExtensionBenchmark {
+
+    @Param({"2", "50"})
+    public int dnsNames;
+
+    private byte[] certificate;
+    private CertificateFactory certificateFactory;
+
+    @Setup
+    public void setup() throws CertificateException {
+        certificate = BenchmarkData.serverCertificate(2048, dnsNames);
+        certificateFactory = CertificateFactory.getInstance("X.509");
+    }
+
+    @Benchmark
+    public List<GeneralName> lazySubjectAltNames() throws X509CertException {
+        ASN1Sequence root = (ASN1Sequence) DERDecodingUtils.lazyNextASN1(ByteBuffer.wrap(certificate));
+        return X509Utils.extensionsOf(root).subjectAltNames();
+    }
+
+    @Benchmark
+    public List<GeneralName> subjectAltNames() throws X509CertException {
+        ASN1Sequence root = (ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(certificate));
+        return X509Utils.toCertificate(root).tbsCertificate().extensions().subjectAltNames();
+    }
+
+    @Benchmark
+    public void allExtensions(Blackhole blackhole) throws X509CertException {
+        ASN1Sequence root = (ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(certificate));
+        X509Extensions extensions = X509Utils.toCertificate(root).tbsCertificate().extensions();
+        blackhole.consume(extensions.subjectAltNames());
+        blackhole.consume(extensions.keyUsage());
+        blackhole.consume(extensions.extendedKeyUsage());
+        blackhole.consume(extensions.basicConstraints());
+        blackhole.consume(extensions.subjectKeyIdentifier());
+        blackhole.consume(extensions.authorityKeyIdentifier());
+        blackhole.consume(extensions.crlDistributionPoints());
+        blackhole.consume(extensions.authorityInfoAccess());
+        blackhole.consume(extensions.nameConstraints());
+    }
+
+    @Benchmark
+    public Collection<List<?>> jdkSubjectAltNames() throws CertificateException, CertificateParsingException {
+        X509Certificate parsed = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(certificate));
+        return parsed.getSubjectAlternativeNames();
+    }
+}
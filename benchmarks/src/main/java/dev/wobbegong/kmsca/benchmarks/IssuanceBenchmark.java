@@ -0,0 +1,57 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.entities.CertificateAuthority;
+import dev.wobbegong.kmsca.entities.CertificateSigningRequest;
+import dev.wobbegong.kmsca.entities.pkcs12.IssuanceProfile;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.signing.LocalSigningProvider;
+import dev.wobbegong.kmsca.utils.CertificateUtils;
+import dev.wobbegong.kmsca.utils.PKCS10Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end latency of issuing a certificate with an in-memory CA key: parse the DER request, verify its signature,
+ * build the TBS certificate and sign it. Sample time mode reports the latency percentiles.
+ *
+ * <p>The CA and the requester use the same key algorithm, P-256 or RSA-2048. RSA private key operations dominate the
+ * RSA case.</p>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IssuanceBenchmark {
+
+    @Param({"EC", "RSA"})
+    public String algorithm;
+
+    private byte[] request;
+    private CertificateAuthority ca;
+    private IssuanceProfile profile;
+
+    @Setup
+    public void setup() throws X509CertException {
+        int size = algorithm.equals("RSA") ? 2048 : 256;
+        request = BenchmarkData.certificateRequest(BenchmarkData.keyPair(algorithm, size));
+
+        // The issuer name only needs to be a valid name, so the request subject stands in for it
+        KeyPair caKeyPair = BenchmarkData.keyPair(algorithm, size);
+        ca = new CertificateAuthority(
+                PKCS10Utils.fromDER(request).subject(),
+                new byte[20],
+                new LocalSigningProvider(caKeyPair));
+        profile = IssuanceProfile.tlsServer(Duration.ofDays(90)).withDnsNames("benchmark.wobbegong.dev");
+    }
+
+    @Benchmark
+    public byte[] issue() throws X509CertException {
+        CertificateSigningRequest csr = PKCS10Utils.fromDER(request);
+        return CertificateUtils.issue(csr, profile, ca);
+    }
+}
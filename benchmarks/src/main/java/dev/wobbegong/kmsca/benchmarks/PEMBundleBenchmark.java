@@ -0,0 +1,58 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.exceptions.PEMFormatException;
+import dev.wobbegong.kmsca.io.PEMStreamReader;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a bundle of 10,000 PEM certificates with the regular expression line reader and with the
+ * {@link PEMStreamReader} state machine. Both decode every object. The stream reader reads from a heap buffer here, as
+ * it would from a memory mapped file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PEMBundleBenchmark {
+
+    private static final int CERTIFICATES = 10_000;
+
+    private byte[] bundle;
+
+    @Setup
+    public void setup() {
+        String pem = PEMUtils.pemFor("CERTIFICATE", BenchmarkData.certificate(2048));
+        bundle = pem.repeat(CERTIFICATES).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public List<PEMObject> lineReader() throws IOException, PEMFormatException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bundle), StandardCharsets.US_ASCII))) {
+            return PEMUtils.parsePEMs(reader);
+        }
+    }
+
+    @Benchmark
+    public long streamReader() throws IOException, PEMFormatException {
+        long bytes = 0;
+        PEMStreamReader reader = new PEMStreamReader(ByteBuffer.wrap(bundle));
+        PEMObject pem;
+        while ((pem = reader.next()) != null) {
+            bytes += pem.content().length;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,97 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.io.PEMWriter;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding the PEM chain returned with an issued certificate: a leaf, an intermediate and a root.
+ *
+ * <ul>
+ *     <li>{@code stringBuilder} is how {@link PEMUtils#pemFor(String, byte[])} encoded before it wrote through
+ *     {@link PEMWriter}, once per certificate, concatenated.</li>
+ *     <li>{@code pemFor} calls {@link PEMUtils#pemFor(String, byte[])} per certificate, concatenated.</li>
+ *     <li>{@code chainString} and {@code chainBytes} encode the chain with one allocation.</li>
+ *     <li>{@code directBuffer} writes the chain into a reused response buffer.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PEMWriterBenchmark {
+
+    private List<PEMObject> chain;
+    private ByteBuffer response;
+
+    @Setup
+    public void setup() {
+        chain = List.of(
+                new PEMObject("CERTIFICATE", BenchmarkData.certificate(2048)),
+                new PEMObject("CERTIFICATE", BenchmarkData.certificate(3072)),
+                new PEMObject("CERTIFICATE", BenchmarkData.certificate(4096)));
+        response = ByteBuffer.allocate(PEMWriter.DEFAULT.pemLength(chain));
+    }
+
+    @Benchmark
+    public String stringBuilder() {
+        StringBuilder sb = new StringBuilder();
+        for (PEMObject object : chain) {
+            sb.append(stringBuilderPEM(object.type(), object.content()));
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public String pemFor() {
+        StringBuilder sb = new StringBuilder();
+        for (PEMObject object : chain) {
+            sb.append(PEMUtils.pemFor(object.type(), object.content()));
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public String chainString() {
+        return PEMUtils.pemFor(chain);
+    }
+
+    @Benchmark
+    public byte[] chainBytes() {
+        return PEMWriter.DEFAULT.encode(chain);
+    }
+
+    @Benchmark
+    public ByteBuffer directBuffer() {
+        response.clear();
+        for (PEMObject object : chain) {
+            PEMWriter.DEFAULT.write(object.type(), object.content(), response);
+        }
+        return response;
+    }
+
+    private static String stringBuilderPEM(String type, byte[] encoded) {
+        String base64 = Base64.getEncoder().encodeToString(encoded);
+        CharBuffer buffer = CharBuffer.wrap(base64);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("-----BEGIN ").append(type).append("-----").append(PEMUtils.LINE_SEPARATOR);
+        while (buffer.hasRemaining()) {
+            char[] line = new char[Math.min(64, buffer.remaining())];
+            buffer.get(line);
+            sb.append(line);
+            sb.append(PEMUtils.LINE_SEPARATOR);
+        }
+        sb.append("-----END ").append(type).append("-----").append(PEMUtils.LINE_SEPARATOR);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.random.PrefetchingRandomSource;
+import dev.wobbegong.kmsca.random.RandomSource;
+import dev.wobbegong.kmsca.random.SecureRandomSource;
+import dev.wobbegong.kmsca.random.ThreadLocalDRBGSource;
+import dev.wobbegong.kmsca.utils.CryptoUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention on the random sources when many threads generate serial numbers at once. Each operation draws 16 bytes.
+ *
+ * <ul>
+ *     <li>{@code shared} is the single {@link CryptoUtils#SRAND} every thread used before.</li>
+ *     <li>{@code perThread} gives every thread its own DRBG.</li>
+ *     <li>{@code prefetching} serves per-thread DRBG bytes from a ring filled in the background.</li>
+ * </ul>
+ *
+ * <p>Compare thread counts with {@code -t}, for example {@code -t 1}, {@code -t 8} and {@code -t 64}.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RandomBenchmark {
+
+    @Param({"shared", "perThread", "prefetching"})
+    public String source;
+
+    private RandomSource random;
+
+    @Setup
+    public void setup() {
+        random = switch (source) {
+            case "shared" -> new SecureRandomSource(CryptoUtils.SRAND);
+            case "perThread" -> new ThreadLocalDRBGSource();
+            case "prefetching" -> new PrefetchingRandomSource(new ThreadLocalDRBGSource());
+            default -> throw new IllegalArgumentException(source);
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (random instanceof PrefetchingRandomSource prefetching) {
+            prefetching.close();
+        }
+    }
+
+    @Benchmark
+    public byte[] serialNumberBytes() {
+        return random.nextBytes(16);
+    }
+}
@@ -0,0 +1,90 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.crl.CRLIssuer;
+import dev.wobbegong.kmsca.crl.RevocationIndex;
+import dev.wobbegong.kmsca.crl.RevocationStore;
+import dev.wobbegong.kmsca.entities.CertificateAuthority;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.signing.LocalSigningProvider;
+import dev.wobbegong.kmsca.utils.CertificateUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking serial numbers against an index of a CRL of a million random 16 octet serial numbers: ones that are revoked,
+ * which take the binary search, and ones that are not, which the Bloom filter mostly answers. Parsing the CRL into the
+ * index is measured separately, in milliseconds.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RevocationIndexBenchmark {
+
+    private static final int ENTRIES = 1_000_000;
+    private static final int PROBES = 1024;
+
+    private byte[] crl;
+    private PublicKey issuerKey;
+    private RevocationIndex index;
+    private final BigInteger[] revoked = new BigInteger[PROBES];
+    private final BigInteger[] valid = new BigInteger[PROBES];
+    private int next;
+
+    @Setup
+    public void setup() throws IOException, X509CertException {
+        KeyPair keys = BenchmarkData.keyPair("EC", 256);
+        issuerKey = keys.getPublic();
+        CertificateAuthority ca = new CertificateAuthority(new byte[]{0x30, 0x00},
+                CertificateUtils.subjectKeyIdentifierFor(keys.getPublic().getEncoded()), new LocalSigningProvider(keys));
+
+        RevocationStore store = new RevocationStore();
+        Random random = new Random(42);
+        Instant revocationDate = Instant.parse("2026-01-01T00:00:00Z");
+        for (int i = 0; i < ENTRIES; i++) {
+            BigInteger serialNumber = new BigInteger(127, random).add(BigInteger.ONE);
+            store.revoke(serialNumber, revocationDate, null);
+            if (i < PROBES) {
+                revoked[i] = serialNumber;
+            }
+        }
+        for (int i = 0; i < PROBES; i++) {
+            valid[i] = new BigInteger(127, random).add(BigInteger.ONE);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CRLIssuer(ca, store).writeCRL(out, revocationDate, revocationDate.plus(Duration.ofDays(1)));
+        crl = out.toByteArray();
+        index = RevocationIndex.parse(new ByteArrayInputStream(crl), issuerKey);
+    }
+
+    @Benchmark
+    public boolean revoked() {
+        return index.isRevoked(revoked[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public boolean notRevoked() {
+        return index.isRevoked(valid[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2, time = 5)
+    @Measurement(iterations = 3, time = 5)
+    public RevocationIndex parse() throws IOException, X509CertException {
+        return RevocationIndex.parse(new ByteArrayInputStream(crl), issuerKey);
+    }
+}
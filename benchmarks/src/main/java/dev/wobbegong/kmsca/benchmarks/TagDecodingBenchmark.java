@@ -0,0 +1,97 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
+import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Set;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-TLV cost of decoding identifier octets. {@code linearScan} is the decoding used before identifiers were table
+ * driven: a switch for the tag class, a stream over {@link ASN1TagType#values()} and a new {@link ASN1Identifier} for
+ * every item. {@code tableLookup} is {@link DERDecodingUtils#nextIdentifierFrom(ByteBuffer)}.
+ *
+ * <p>The identifiers are the ones found in a generated certificate, repeated to fill {@link #TLV_COUNT} items.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TagDecodingBenchmark {
+
+    static final int TLV_COUNT = 1024;
+
+    private ByteBuffer identifiers;
+
+    @Setup
+    public void setup() {
+        List<Integer> octets = new ArrayList<>();
+        collectIdentifiers(DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(BenchmarkData.certificate(2048))), octets);
+
+        byte[] repeated = new byte[TLV_COUNT];
+        for (int i = 0; i < repeated.length; i++) {
+            repeated[i] = (byte) (int) octets.get(i % octets.size());
+        }
+        identifiers = ByteBuffer.wrap(repeated);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TLV_COUNT)
+    public void linearScan(Blackhole blackhole) {
+        identifiers.rewind();
+        while (identifiers.hasRemaining()) {
+            blackhole.consume(linearScanIdentifierFrom(identifiers));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TLV_COUNT)
+    public void tableLookup(Blackhole blackhole) {
+        identifiers.rewind();
+        while (identifiers.hasRemaining()) {
+            blackhole.consume(DERDecodingUtils.nextIdentifierFrom(identifiers));
+        }
+    }
+
+    private static void collectIdentifiers(ASN1Item item, List<Integer> octets) {
+        octets.add(item.identifier().firstOctet());
+        if (item instanceof ASN1Sequence sequence) {
+            sequence.asn1ItemList().forEach(child -> collectIdentifiers(child, octets));
+        } else if (item instanceof ASN1Set set) {
+            set.asn1ItemList().forEach(child -> collectIdentifiers(child, octets));
+        }
+    }
+
+    private static ASN1Identifier linearScanIdentifierFrom(ByteBuffer buffer) {
+        byte firstByte = buffer.get();
+
+        ASN1Identifier.TagClass tagClass = switch ((firstByte >> 6) & 0b00000011) {
+            case 0 -> ASN1Identifier.TagClass.Universal;
+            case 1 -> ASN1Identifier.TagClass.Application;
+            case 2 -> ASN1Identifier.TagClass.ContextSpecific;
+            default -> ASN1Identifier.TagClass.Private;
+        };
+        int primitiveConstructed = (firstByte >> 5) & DERDecodingUtils.FIVE_BIT_MASK;
+        int tagType = firstByte & DERDecodingUtils.FIVE_BIT_MASK;
+
+        return new ASN1Identifier(
+                tagClass,
+                primitiveConstructed == 0,
+                Arrays.stream(ASN1TagType.values())
+                        .filter(type -> type.ordinal == tagType)
+                        .findFirst()
+                        .orElseThrow(() -> new RuntimeException("Cannot find tag type for: " + tagType))
+        );
+    }
+}
@@ -0,0 +1,79 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.DEREncodingUtils;
+import dev.wobbegong.kmsca.utils.SignatureUtils;
+import dev.wobbegong.kmsca.utils.X509Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a certificate and checking its signature against an already known issuer key, as chain validation does for
+ * every link: over the kept slice of the TBS certificate, after re-encoding the parsed TBS certificate, and through the
+ * JDK for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VerifyBenchmark {
+
+    @Param({"2048", "4096"})
+    public int rsaBits;
+
+    private byte[] certificate;
+    private PublicKey issuerKey;
+    private CertificateFactory certificateFactory;
+    private Signature jdkSignature;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        certificate = BenchmarkData.certificate(rsaBits);
+        certificateFactory = CertificateFactory.getInstance("X.509");
+        X509Certificate parsed = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(certificate));
+        issuerKey = parsed.getPublicKey();
+        jdkSignature = Signature.getInstance(parsed.getSigAlgName());
+    }
+
+    @Benchmark
+    public boolean verify() throws X509CertException {
+        ASN1Sequence root = (ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(certificate));
+        return X509Utils.toCertificate(root).verify(issuerKey);
+    }
+
+    @Benchmark
+    public boolean reencodeAndVerify() throws X509CertException {
+        ASN1Sequence root = (ASN1Sequence) DERDecodingUtils.parseNextASN1(ByteBuffer.wrap(certificate));
+        SignedX509Certificate parsed = X509Utils.toCertificate(root);
+        byte[] tbs = DEREncodingUtils.encodeItem(root.asn1ItemList().get(0));
+        byte[] signature = parsed.signature();
+        return SignatureUtils.verify(issuerKey, parsed.signatureAlgorithm().oid(), tbs, Arrays.copyOfRange(signature, 1, signature.length));
+    }
+
+    /**
+     * The JDK caches parsed certificates by their encoding, and each certificate remembers the key it was verified
+     * with, so {@link X509Certificate#verify(PublicKey)} would only be measured once. The TBS certificate and signature
+     * are verified with a cached {@link Signature} instead.
+     */
+    @Benchmark
+    public boolean jdkVerify() throws GeneralSecurityException {
+        X509Certificate parsed = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(certificate));
+        jdkSignature.initVerify(issuerKey);
+        jdkSignature.update(parsed.getTBSCertificate());
+        return jdkSignature.verify(parsed.getSignature());
+    }
+}
@@ -0,0 +1,56 @@
+package dev.wobbegong.kmsca.benchmarks;
+
+import dev.wobbegong.kmsca.entities.pkcs12.X500Name;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.X500NameUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching an issuer name against the subject names of many CAs, as chain building and CRL lookup do: finding it in a
+ * map keyed by name, which costs one hash check and one compare of the canonical forms, and decoding a name, which
+ * builds the canonical form once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class X500NameBenchmark {
+
+    @Param({"1000"})
+    public int names;
+
+    private byte[] issuerEncoding;
+    private X500Name issuer;
+    private Map<X500Name, Integer> bySubject;
+
+    @Setup
+    public void setup() throws IOException, X509CertException {
+        bySubject = new HashMap<>();
+        for (int i = 0; i < names; i++) {
+            bySubject.put(X500NameUtils.fromDER(name(i)), i);
+        }
+        issuerEncoding = name(names / 2);
+        issuer = X500NameUtils.fromDER(issuerEncoding);
+    }
+
+    @Benchmark
+    public Integer lookup() {
+        return bySubject.get(issuer);
+    }
+
+    @Benchmark
+    public X500Name decode() throws X509CertException {
+        return X500NameUtils.fromDER(issuerEncoding);
+    }
+
+    private static byte[] name(int i) throws IOException {
+        return new org.bouncycastle.asn1.x500.X500Name("C=US, O=Wobbegong, OU=Certificate Authorities, CN=Wobbegong Issuing CA " + i).getEncoded();
+    }
+}
@@ -0,0 +1,398 @@
+package dev.wobbegong.kmsca.cache;
+
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.X509Utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of parsed certificates keyed by their DER encoding, so the same intermediate and root certificates are
+ * not parsed again every time they are presented.
+ *
+ * <ul>
+ *     <li>Entries are found by a 128-bit hash of the encoding, and the encoding is compared octet by octet on every hit,
+ *     so a hash collision can never return the wrong certificate.</li>
+ *     <li>Each entry weighs the length of its encoding. The cache holds at most {@link Options#maxWeight()} octets of
+ *     encodings, split evenly between {@link Options#segments()} independently locked segments.</li>
+ *     <li>Each segment is a segmented LRU: new entries are put on probation, and only entries hit again are protected.
+ *     A scan of certificates seen once evicts other probationary entries, not the protected ones.</li>
+ * </ul>
+ *
+ * <p>Lookups do not lock. A hit only reorders its segment if the segment's lock is free, so threads hitting the same
+ * hot certificate do not queue behind each other; a busy segment just misses a recency update. Certificates are parsed
+ * from a private copy of their encoding, so the cache never keeps the caller's buffer, such as a mapped bundle file,
+ * reachable. Parsing happens outside the segment's lock. Two threads missing on the same certificate at once may both
+ * parse it, and the first to finish is cached.</p>
+ */
+public class CertificateCache {
+
+    /**
+     * The share of a segment's weight held by protected entries.
+     */
+    private static final double PROTECTED_SHARE = 0.8;
+
+    /**
+     * @param maxWeight The most octets of certificate encodings held at once.
+     * @param segments  The number of independently locked segments. Must be a power of two.
+     */
+    public record Options(long maxWeight, int segments) {
+
+        public Options {
+            if (maxWeight < 1) {
+                throw new IllegalArgumentException("Max weight must be at least 1.");
+            }
+            if (segments < 1 || Integer.bitCount(segments) != 1) {
+                throw new IllegalArgumentException("Segments must be a power of two. Actual: " + segments);
+            }
+        }
+
+        /**
+         * @return 64 MiB of encodings in 16 segments.
+         */
+        public static Options defaults() {
+            return new Options(64L * 1024 * 1024, 16);
+        }
+    }
+
+    /**
+     * @param hits      Lookups answered from the cache.
+     * @param misses    Lookups that had to parse.
+     * @param evictions Entries removed to stay under the max weight.
+     * @param entries   The number of certificates held.
+     * @param weight    The octets of encodings held.
+     */
+    public record Metrics(long hits, long misses, long evictions, long entries, long weight) {
+
+        /**
+         * @return The share of lookups answered from the cache, or 0 before any lookup.
+         */
+        public double hitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CertificateCache() {
+        this(Options.defaults());
+    }
+
+    public CertificateCache(Options options) {
+        this.segments = new Segment[options.segments()];
+        long segmentWeight = Math.max(1, options.maxWeight() / options.segments());
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(segmentWeight);
+        }
+        this.segmentMask = options.segments() - 1;
+    }
+
+    /**
+     * Get a parsed certificate, parsing and caching it if it is not cached.
+     *
+     * @param der The DER encoding of exactly one certificate. The array is not retained.
+     * @return The certificate.
+     * @throws X509CertException If the data is not a certificate. Failures are not cached.
+     */
+    public SignedX509Certificate get(byte[] der) throws X509CertException {
+        return get(ByteBuffer.wrap(der));
+    }
+
+    /**
+     * Get a parsed certificate, parsing and caching it if it is not cached.
+     *
+     * @param der The DER encoding of exactly one certificate, from its position to its limit. The position is not
+     *            moved, and the buffer is not retained.
+     * @return The certificate.
+     * @throws X509CertException If the data is not a certificate. Failures are not cached.
+     */
+    public SignedX509Certificate get(ByteBuffer der) throws X509CertException {
+        Key key = hash(der);
+        Segment segment = segmentFor(key);
+        Node node = segment.nodes.get(key);
+        if (node != null && node.matches(der)) {
+            hits.increment();
+            if (segment.lock.tryLock()) {
+                try {
+                    segment.hit(node);
+                } finally {
+                    segment.lock.unlock();
+                }
+            }
+            return node.certificate;
+        }
+        misses.increment();
+
+        byte[] encoded = new byte[der.remaining()];
+        der.get(der.position(), encoded);
+        SignedX509Certificate certificate = parse(encoded);
+        segment.lock.lock();
+        try {
+            node = segment.nodes.get(key);
+            if (node == null) {
+                segment.add(new Node(key, encoded, certificate));
+            } else if (node.matches(der)) {
+                return node.certificate;
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+        return certificate;
+    }
+
+    /**
+     * @param der The DER encoding of a certificate, from its position to its limit. The position is not moved.
+     * @return The cached certificate, or null. Does not count as a hit or a miss.
+     */
+    public SignedX509Certificate getIfPresent(ByteBuffer der) {
+        Key key = hash(der);
+        Node node = segmentFor(key).nodes.get(key);
+        return node != null && node.matches(der) ? node.certificate : null;
+    }
+
+    public Metrics metrics() {
+        long entries = 0;
+        long weight = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                entries += segment.nodes.size();
+                weight += segment.probationWeight + segment.protectedWeight;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return new Metrics(hits.sum(), misses.sum(), evictions.sum(), entries, weight);
+    }
+
+    /**
+     * Remove every entry. Removed entries are not counted as evictions.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.clear();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    private Segment segmentFor(Key key) {
+        // The high bits, as the map of the segment spreads entries by the low bits of the hash
+        return segments[(int) (key.high >>> 32) & segmentMask];
+    }
+
+    private static SignedX509Certificate parse(byte[] encoded) throws X509CertException {
+        try {
+            if (!(DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(encoded)) instanceof ASN1Sequence root)) {
+                throw new X509CertException("Certificate is not a sequence as expected.");
+            }
+            if (root.encodedBuffer().remaining() != encoded.length) {
+                throw new X509CertException("Unexpected data after the certificate.");
+            }
+            return X509Utils.toCertificate(root);
+        } catch (RuntimeException e) {
+            throw new X509CertException("Malformed certificate.", e);
+        }
+    }
+
+    /**
+     * The 128-bit MurmurHash3 (x64 variant) of the remaining octets. It is not a cryptographic hash: collisions are
+     * handled by comparing the encodings.
+     */
+    private static Key hash(ByteBuffer data) {
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        int offset = buffer.position();
+        int length = buffer.remaining();
+        long h1 = 0;
+        long h2 = 0;
+
+        int end = offset + (length & ~15);
+        for (int i = offset; i < end; i += 16) {
+            long k1 = buffer.getLong(i);
+            long k2 = buffer.getLong(i + 8);
+
+            h1 ^= Long.rotateLeft(k1 * c1, 31) * c2;
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= Long.rotateLeft(k2 * c2, 33) * c1;
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        int tail = length & 15;
+        for (int i = tail - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (buffer.get(end + i) & 0xffL);
+        }
+        for (int i = Math.min(tail, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (buffer.get(end + i) & 0xffL);
+        }
+        h2 ^= Long.rotateLeft(k2 * c2, 33) * c1;
+        h1 ^= Long.rotateLeft(k1 * c1, 31) * c2;
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new Key(h1, h2);
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private record Key(long low, long high) {
+        @Override
+        public int hashCode() {
+            return (int) low;
+        }
+    }
+
+    private static final class Node {
+        final Key key;
+        final byte[] encoded;
+        final SignedX509Certificate certificate;
+        boolean isProtected;
+        Node previous;
+        Node next;
+
+        Node(Key key, byte[] encoded, SignedX509Certificate certificate) {
+            this.key = key;
+            this.encoded = encoded;
+            this.certificate = certificate;
+        }
+
+        boolean matches(ByteBuffer der) {
+            return der.remaining() == encoded.length && der.mismatch(ByteBuffer.wrap(encoded)) == -1;
+        }
+
+        void unlink() {
+            previous.next = next;
+            next.previous = previous;
+        }
+
+        /**
+         * Link this node as the most recently used after the head of a list.
+         */
+        void linkAfter(Node head) {
+            previous = head;
+            next = head.next;
+            head.next.previous = this;
+            head.next = this;
+        }
+    }
+
+    /**
+     * One independently locked part of the cache. The map is read without the lock, but only changed with it. Each
+     * list is circular around a sentinel head, with the most recently used entry after the head and the least recently
+     * used before it. Must hold the lock to use the lists and weights.
+     */
+    private final class Segment {
+        final Map<Key, Node> nodes = new ConcurrentHashMap<>();
+        final ReentrantLock lock = new ReentrantLock();
+        final Node probation = sentinel();
+        final Node protectedEntries = sentinel();
+        final long maxWeight;
+        final long maxProtectedWeight;
+        long probationWeight;
+        long protectedWeight;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+            this.maxProtectedWeight = (long) (maxWeight * PROTECTED_SHARE);
+        }
+
+        void hit(Node node) {
+            // Evicted since it was found
+            if (node.next == null) {
+                return;
+            }
+            node.unlink();
+            if (!node.isProtected) {
+                node.isProtected = true;
+                probationWeight -= node.encoded.length;
+                protectedWeight += node.encoded.length;
+            }
+            node.linkAfter(protectedEntries);
+
+            // Demote the least recently used protected entries back to probation
+            while (protectedWeight > maxProtectedWeight) {
+                Node demoted = protectedEntries.previous;
+                demoted.unlink();
+                demoted.isProtected = false;
+                protectedWeight -= demoted.encoded.length;
+                probationWeight += demoted.encoded.length;
+                demoted.linkAfter(probation);
+            }
+        }
+
+        void add(Node node) {
+            // Entries heavier than the whole segment would only evict everything else
+            if (node.encoded.length > maxWeight) {
+                return;
+            }
+            nodes.put(node.key, node);
+            node.linkAfter(probation);
+            probationWeight += node.encoded.length;
+
+            while (probationWeight + protectedWeight > maxWeight) {
+                Node victim = probation.previous != probation ? probation.previous : protectedEntries.previous;
+                victim.unlink();
+                if (victim.isProtected) {
+                    protectedWeight -= victim.encoded.length;
+                } else {
+                    probationWeight -= victim.encoded.length;
+                }
+                victim.next = victim.previous = null;
+                nodes.remove(victim.key);
+                evictions.increment();
+            }
+        }
+
+        void clear() {
+            for (Node node : nodes.values()) {
+                node.next = node.previous = null;
+            }
+            nodes.clear();
+            probation.next = probation.previous = probation;
+            protectedEntries.next = protectedEntries.previous = protectedEntries;
+            probationWeight = 0;
+            protectedWeight = 0;
+        }
+    }
+
+    private static Node sentinel() {
+        Node head = new Node(null, null, null);
+        head.next = head.previous = head;
+        return head;
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Contains caches of parsed objects shared between threads.
+ *
+ * <p>Caches are bounded by the encoded size of what they hold and keep hit and eviction counts, so they can be sized
+ * from production metrics.</p>
+ */
+package dev.wobbegong.kmsca.cache;
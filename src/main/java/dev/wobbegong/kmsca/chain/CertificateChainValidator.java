@@ -0,0 +1,524 @@
+package dev.wobbegong.kmsca.chain;
+
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.pkcs12.BasicConstraints;
+import dev.wobbegong.kmsca.entities.pkcs12.KeyUsage;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.entities.pkcs12.ToBeSignedCertificate;
+import dev.wobbegong.kmsca.entities.pkcs12.X509Extension;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Builds and validates certificate paths from a leaf certificate to a trust anchor.
+ *
+ * <ul>
+ *     <li>Trust anchors and intermediates are indexed by subject name and subject key identifier. Issuers are found
+ *     through the authority key identifier when a certificate has one, and by issuer name otherwise.</li>
+ *     <li>Paths are built depth first, ending at an anchor as soon as one issued the last certificate, and at most
+ *     {@link Options#maxCandidatePaths()} are built. Certificates presented with the leaf are tried before the
+ *     intermediates held by the validator.</li>
+ *     <li>The signatures of every candidate path are verified together, on a {@link ForkJoinPool}, over the TBS octets
+ *     kept by the parser. The first path, in the order they were built, whose signatures all verify is returned.</li>
+ *     <li>The outcome of every issuer to subject signature is remembered, keyed by the subject's TBS octets and
+ *     signature and the issuer's public key, so validating the same chain again verifies no signature. As the key is
+ *     the signed content itself, a forged certificate cannot reuse the outcome of the one it copies.</li>
+ * </ul>
+ *
+ * <p>Every certificate but the anchor must be valid at the validation time, and every issuer but the anchor must be a
+ * CA, allowed to sign certificates by its key usage, and within its path length constraint. Anchors are trusted for
+ * their name and key only, as in RFC 5280 6.1.1, so version 1 roots are accepted. Name constraints and certificate
+ * policies are not processed, and a certificate with either marked critical is rejected along with any other critical
+ * extension that is not understood.</p>
+ *
+ * <p>When a purpose such as {@link KnownOids#serverAuth} is requested, every certificate but the anchor that has an
+ * extended key usage extension must allow it or {@link KnownOids#anyExtendedKeyUsage}. An extended key usage on an
+ * intermediate limits the certificates it issues, as browsers treat it. Without a purpose the extension is not checked,
+ * so a certificate with it marked critical is rejected.</p>
+ *
+ * <p>Instances are thread safe.</p>
+ *
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-6">RFC-5280 6</a>
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc4158">RFC-4158</a>
+ */
+public class CertificateChainValidator {
+
+    /**
+     * The critical extensions understood by the validator. The extended key usage is also understood when a purpose is
+     * requested.
+     */
+    private static final Set<String> UNDERSTOOD_EXTENSIONS = Set.of(
+            KnownOids.basicConstraints.oid,
+            KnownOids.keyUsage.oid,
+            KnownOids.subjectAltName.oid,
+            KnownOids.subjectKeyIdentifier.oid,
+            KnownOids.authorityKeyIdentifier.oid,
+            KnownOids.cRLDistributionPoints.oid);
+
+    /**
+     * @param maxPathLength        The most intermediate certificates between the leaf and the anchor.
+     * @param maxCandidatePaths    The most paths built for one validation.
+     * @param verifiedEdgeCapacity The most signature outcomes remembered. 0 remembers none.
+     */
+    public record Options(int maxPathLength, int maxCandidatePaths, int verifiedEdgeCapacity) {
+
+        public Options {
+            if (maxPathLength < 0) {
+                throw new IllegalArgumentException("Max path length must not be negative. Actual: " + maxPathLength);
+            }
+            if (maxCandidatePaths < 1) {
+                throw new IllegalArgumentException("Max candidate paths must be at least 1. Actual: " + maxCandidatePaths);
+            }
+            if (verifiedEdgeCapacity < 0) {
+                throw new IllegalArgumentException("Verified edge capacity must not be negative. Actual: " + verifiedEdgeCapacity);
+            }
+        }
+
+        /**
+         * @return Up to 8 intermediates, 8 candidate paths and 4096 remembered signatures.
+         */
+        public static Options defaults() {
+            return new Options(8, 8, 4096);
+        }
+    }
+
+    /**
+     * @param hits   Signatures whose outcome was remembered.
+     * @param misses Signatures verified.
+     * @param edges  The number of outcomes remembered.
+     */
+    public record Metrics(long hits, long misses, long edges) {
+
+        /**
+         * @return The share of signatures answered from remembered outcomes, or 0 before any validation.
+         */
+        public double hitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    private final CertificateIndex anchors;
+    private final CertificateIndex intermediates;
+    private final Options options;
+    private final ForkJoinPool pool;
+    private final Map<EdgeKey, Boolean> verifiedEdges;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param trustAnchors The trusted certificates paths must end at.
+     */
+    public CertificateChainValidator(Collection<SignedX509Certificate> trustAnchors) {
+        this(trustAnchors, List.of(), Options.defaults(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param trustAnchors  The trusted certificates paths must end at.
+     * @param intermediates Intermediate certificates that may complete a path, such as those of a CA bundle. They are
+     *                      not trusted.
+     */
+    public CertificateChainValidator(Collection<SignedX509Certificate> trustAnchors, Collection<SignedX509Certificate> intermediates) {
+        this(trustAnchors, intermediates, Options.defaults(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param trustAnchors  The trusted certificates paths must end at.
+     * @param intermediates Intermediate certificates that may complete a path, such as those of a CA bundle. They are
+     *                      not trusted.
+     * @param options       The path and memo limits.
+     * @param pool          The pool signatures are verified on.
+     */
+    public CertificateChainValidator(Collection<SignedX509Certificate> trustAnchors, Collection<SignedX509Certificate> intermediates,
+                                     Options options, ForkJoinPool pool) {
+        if (trustAnchors.isEmpty()) {
+            throw new IllegalArgumentException("At least one trust anchor is required.");
+        }
+        this.anchors = new CertificateIndex(trustAnchors);
+        this.intermediates = intermediates.isEmpty() ? CertificateIndex.EMPTY : new CertificateIndex(intermediates);
+        this.options = options;
+        this.pool = pool;
+        int capacity = options.verifiedEdgeCapacity();
+        this.verifiedEdges = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<EdgeKey, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Validate a chain in the order a TLS server sends it.
+     *
+     * @param chain The leaf certificate, then any certificates sent with it, in any order.
+     * @param at    The time the certificates must be valid at.
+     * @return The validated path, from the leaf to the trust anchor.
+     * @throws X509CertException If no path to a trust anchor is valid.
+     */
+    public List<SignedX509Certificate> validate(List<SignedX509Certificate> chain, Instant at) throws X509CertException {
+        return validate(chain, at, null);
+    }
+
+    /**
+     * Validate a chain in the order a TLS server sends it, for a purpose.
+     *
+     * @param chain   The leaf certificate, then any certificates sent with it, in any order.
+     * @param at      The time the certificates must be valid at.
+     * @param purpose The extended key usage the path must allow, such as {@link KnownOids#serverAuth}, or null to not
+     *                check it.
+     * @return The validated path, from the leaf to the trust anchor.
+     * @throws X509CertException If no path to a trust anchor is valid.
+     */
+    public List<SignedX509Certificate> validate(List<SignedX509Certificate> chain, Instant at, KnownOids purpose) throws X509CertException {
+        if (chain.isEmpty()) {
+            throw new IllegalArgumentException("The chain must contain at least the leaf certificate.");
+        }
+        return validate(chain.get(0), chain.subList(1, chain.size()), at, purpose);
+    }
+
+    /**
+     * @param leaf      The certificate to validate.
+     * @param presented Certificates presented with the leaf that may complete a path. They are not trusted.
+     * @param at        The time the certificates must be valid at.
+     * @return The validated path, from the leaf to the trust anchor. If the leaf is a trust anchor, only the anchor.
+     * @throws X509CertException If no path to a trust anchor is valid.
+     */
+    public List<SignedX509Certificate> validate(SignedX509Certificate leaf, Collection<SignedX509Certificate> presented, Instant at) throws X509CertException {
+        return validate(leaf, presented, at, null);
+    }
+
+    /**
+     * @param leaf      The certificate to validate.
+     * @param presented Certificates presented with the leaf that may complete a path. They are not trusted.
+     * @param at        The time the certificates must be valid at.
+     * @param purpose   The extended key usage the path must allow, such as {@link KnownOids#serverAuth}, or null to
+     *                  not check it.
+     * @return The validated path, from the leaf to the trust anchor. If the leaf is a trust anchor, only the anchor.
+     * @throws X509CertException If no path to a trust anchor is valid.
+     */
+    public List<SignedX509Certificate> validate(SignedX509Certificate leaf, Collection<SignedX509Certificate> presented, Instant at,
+                                                KnownOids purpose) throws X509CertException {
+        SignedX509Certificate anchor = anchors.find(leaf);
+        if (anchor != null) {
+            return List.of(anchor);
+        }
+        String problem = certificateProblem(leaf, at, purpose);
+        if (problem != null) {
+            throw new X509CertException("Leaf certificate " + problem);
+        }
+
+        PathBuilder builder = new PathBuilder(presented.isEmpty() ? CertificateIndex.EMPTY : new CertificateIndex(presented), at, purpose);
+        List<SignedX509Certificate> path = new ArrayList<>();
+        path.add(leaf);
+        builder.extend(path);
+        if (builder.paths.isEmpty()) {
+            throw new X509CertException(builder.problem == null
+                    ? "No path to a trust anchor for " + leaf.tbsCertificate().subject() + "."
+                    : "No path to a trust anchor for " + leaf.tbsCertificate().subject() + ": an issuer " + builder.problem);
+        }
+
+        Map<EdgeKey, Boolean> outcomes = verify(builder.paths);
+        for (List<SignedX509Certificate> candidate : builder.paths) {
+            if (verified(candidate, outcomes)) {
+                return List.copyOf(candidate);
+            }
+        }
+        throw new X509CertException("No path to a trust anchor for " + leaf.tbsCertificate().subject() + " has valid signatures.");
+    }
+
+    /**
+     * @return The signature memo counts since the validator was created.
+     */
+    public Metrics metrics() {
+        int edges;
+        synchronized (verifiedEdges) {
+            edges = verifiedEdges.size();
+        }
+        return new Metrics(hits.sum(), misses.sum(), edges);
+    }
+
+    /**
+     * Forget every remembered signature outcome.
+     */
+    public void clear() {
+        synchronized (verifiedEdges) {
+            verifiedEdges.clear();
+        }
+    }
+
+    /**
+     * Find the outcome of every distinct signature of the paths, verifying those not remembered.
+     */
+    private Map<EdgeKey, Boolean> verify(List<List<SignedX509Certificate>> paths) {
+        Map<EdgeKey, Boolean> outcomes = new LinkedHashMap<>();
+        List<Edge> unknown = new ArrayList<>();
+        synchronized (verifiedEdges) {
+            for (List<SignedX509Certificate> path : paths) {
+                for (int i = 0; i + 1 < path.size(); i++) {
+                    EdgeKey key = new EdgeKey(path.get(i), path.get(i + 1));
+                    if (outcomes.containsKey(key)) {
+                        continue;
+                    }
+                    Boolean outcome = verifiedEdges.get(key);
+                    outcomes.put(key, outcome);
+                    if (outcome == null) {
+                        unknown.add(new Edge(key, path.get(i), path.get(i + 1)));
+                    }
+                }
+            }
+        }
+        hits.add(outcomes.size() - unknown.size());
+        misses.add(unknown.size());
+        if (unknown.isEmpty()) {
+            return outcomes;
+        }
+
+        // Verifying happens outside the lock. A single signature is not worth a task.
+        Edge[] edges = unknown.toArray(new Edge[0]);
+        if (edges.length == 1) {
+            edges[0].verify();
+        } else {
+            pool.invoke(new VerifyTask(edges, 0, edges.length));
+        }
+        synchronized (verifiedEdges) {
+            for (Edge edge : edges) {
+                outcomes.put(edge.key, edge.verified);
+                verifiedEdges.put(edge.key, edge.verified);
+            }
+        }
+        return outcomes;
+    }
+
+    private static boolean verified(List<SignedX509Certificate> path, Map<EdgeKey, Boolean> outcomes) {
+        for (int i = 0; i + 1 < path.size(); i++) {
+            if (!outcomes.get(new EdgeKey(path.get(i), path.get(i + 1)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Why a certificate that is not an anchor cannot be in a path at a time, or null if it can.
+     */
+    private static String certificateProblem(SignedX509Certificate certificate, Instant at, KnownOids purpose) {
+        ToBeSignedCertificate tbs = certificate.tbsCertificate();
+        if (at.isBefore(tbs.issued().toInstant()) || at.isAfter(tbs.expires().toInstant())) {
+            return tbs.subject() + " is not valid at " + at + ".";
+        }
+        for (X509Extension extension : tbs.extensions().critical()) {
+            if (!UNDERSTOOD_EXTENSIONS.contains(extension.oid())
+                    && !(purpose != null && extension.oid().equals(KnownOids.extKeyUsage.oid))) {
+                return tbs.subject() + " has an unsupported critical extension " + extension.oid() + ".";
+            }
+        }
+        if (purpose != null) {
+            try {
+                List<String> extendedKeyUsage = tbs.extensions().extendedKeyUsage();
+                if (extendedKeyUsage != null && !extendedKeyUsage.contains(purpose.oid)
+                        && !extendedKeyUsage.contains(KnownOids.anyExtendedKeyUsage.oid)) {
+                    return tbs.subject() + " may not be used for " + purpose.name() + ".";
+                }
+            } catch (X509CertException e) {
+                return tbs.subject() + " has a malformed extension: " + e.getMessage();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param below The number of intermediates between the issuer and the leaf.
+     * @return Why a certificate that is not an anchor cannot issue the next certificate of a path, or null if it can.
+     */
+    private static String issuerProblem(SignedX509Certificate issuer, int below, Instant at, KnownOids purpose) {
+        String problem = certificateProblem(issuer, at, purpose);
+        if (problem != null) {
+            return problem;
+        }
+        ToBeSignedCertificate tbs = issuer.tbsCertificate();
+        try {
+            BasicConstraints basicConstraints = tbs.extensions().basicConstraints();
+            if (basicConstraints == null || !basicConstraints.certificateAuthority()) {
+                return tbs.subject() + " is not a CA.";
+            }
+            if (basicConstraints.pathLength() != BasicConstraints.UNLIMITED_PATH_LENGTH && below > basicConstraints.pathLength()) {
+                return tbs.subject() + " allows " + basicConstraints.pathLength() + " intermediates below it, not " + below + ".";
+            }
+            Set<KeyUsage> keyUsage = tbs.extensions().keyUsage();
+            if (keyUsage != null && !keyUsage.contains(KeyUsage.keyCertSign)) {
+                return tbs.subject() + " may not sign certificates.";
+            }
+        } catch (X509CertException e) {
+            return tbs.subject() + " has a malformed extension: " + e.getMessage();
+        }
+        return null;
+    }
+
+    /**
+     * Builds the candidate paths of one validation.
+     */
+    private final class PathBuilder {
+        private final CertificateIndex presented;
+        private final Instant at;
+        private final KnownOids purpose;
+        private final List<List<SignedX509Certificate>> paths = new ArrayList<>();
+        private String problem;
+
+        PathBuilder(CertificateIndex presented, Instant at, KnownOids purpose) {
+            this.presented = presented;
+            this.at = at;
+            this.purpose = purpose;
+        }
+
+        void extend(List<SignedX509Certificate> path) {
+            SignedX509Certificate last = path.get(path.size() - 1);
+            for (SignedX509Certificate anchor : anchors.issuersOf(last)) {
+                if (paths.size() >= options.maxCandidatePaths()) {
+                    return;
+                }
+                if (!contains(path, anchor)) {
+                    List<SignedX509Certificate> candidate = new ArrayList<>(path.size() + 1);
+                    candidate.addAll(path);
+                    candidate.add(anchor);
+                    paths.add(candidate);
+                }
+            }
+
+            int below = path.size() - 1;
+            if (below >= options.maxPathLength()) {
+                return;
+            }
+            extend(path, presented.issuersOf(last), below, false);
+            extend(path, intermediates.issuersOf(last), below, true);
+        }
+
+        private void extend(List<SignedX509Certificate> path, List<SignedX509Certificate> issuers, int below, boolean held) {
+            for (SignedX509Certificate issuer : issuers) {
+                if (paths.size() >= options.maxCandidatePaths()) {
+                    return;
+                }
+                // Anchors were tried above, and a held intermediate that was also presented was tried with the others
+                if (contains(path, issuer) || anchors.find(issuer) != null || (held && presented.find(issuer) != null)) {
+                    continue;
+                }
+                String issuerProblem = issuerProblem(issuer, below, at, purpose);
+                if (issuerProblem != null) {
+                    problem = issuerProblem;
+                    continue;
+                }
+                path.add(issuer);
+                extend(path);
+                path.remove(path.size() - 1);
+            }
+        }
+
+        /**
+         * @return True if the path has a certificate with the same subject and key, which would make a loop even
+         * through a different certificate (RFC 4158 5.2).
+         */
+        private static boolean contains(List<SignedX509Certificate> path, SignedX509Certificate certificate) {
+            ToBeSignedCertificate tbs = certificate.tbsCertificate();
+            for (SignedX509Certificate member : path) {
+                if (member.tbsCertificate().subject().equals(tbs.subject())
+                        && Arrays.equals(member.tbsCertificate().publicKey(), tbs.publicKey())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Identifies an issuer to subject signature by what it signs and the key it is checked with. The hash only covers
+     * the signature, which already differs between any two signed contents, since hashing the TBS octets of every key
+     * would cost more than the rest of a remembered validation.
+     */
+    private static final class EdgeKey {
+        private final SignedX509Certificate subject;
+        private final ByteBuffer subjectTBS;
+        private final byte[] signature;
+        private final byte[] issuerPublicKey;
+        private final int hash;
+
+        EdgeKey(SignedX509Certificate subject, SignedX509Certificate issuer) {
+            this.subject = subject;
+            this.subjectTBS = subject.encodedTBS();
+            this.signature = subject.signature();
+            this.issuerPublicKey = issuer.tbsCertificate().publicKey();
+            this.hash = Arrays.hashCode(signature);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof EdgeKey other
+                    && hash == other.hash
+                    && Arrays.equals(signature, other.signature)
+                    && Arrays.equals(issuerPublicKey, other.issuerPublicKey)
+                    // The same parsed certificate is presented again most of the time. Without its TBS octets a
+                    // certificate only matches itself.
+                    && (subject == other.subject || subjectTBS != null && subjectTBS.equals(other.subjectTBS));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Edge {
+        private final EdgeKey key;
+        private final SignedX509Certificate subject;
+        private final SignedX509Certificate issuer;
+        private boolean verified;
+
+        Edge(EdgeKey key, SignedX509Certificate subject, SignedX509Certificate issuer) {
+            this.key = key;
+            this.subject = subject;
+            this.issuer = issuer;
+        }
+
+        void verify() {
+            try {
+                verified = subject.verify(issuer);
+            } catch (X509CertException | RuntimeException e) {
+                // An issuer key that cannot check the signature, such as one of another algorithm, did not sign it
+                verified = false;
+            }
+        }
+    }
+
+    private static final class VerifyTask extends RecursiveAction {
+        private final Edge[] edges;
+        private final int from;
+        private final int to;
+
+        VerifyTask(Edge[] edges, int from, int to) {
+            this.edges = edges;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new VerifyTask(edges, from, middle), new VerifyTask(edges, middle, to));
+                return;
+            }
+            edges[from].verify();
+        }
+    }
+}
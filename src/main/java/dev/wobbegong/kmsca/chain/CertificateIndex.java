@@ -0,0 +1,126 @@
+package dev.wobbegong.kmsca.chain;
+
+import dev.wobbegong.kmsca.entities.pkcs12.AuthorityKeyIdentifier;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.entities.pkcs12.X500Name;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Certificates indexed by subject name and by subject key identifier, to find the candidate issuers of a certificate.
+ * Instances are not modified after they are built, so they can be shared between threads.
+ */
+final class CertificateIndex {
+
+    static final CertificateIndex EMPTY = new CertificateIndex(List.of());
+
+    private final Map<X500Name, List<SignedX509Certificate>> bySubject = new HashMap<>();
+    private final Map<ByteBuffer, List<SignedX509Certificate>> byKeyIdentifier = new HashMap<>();
+    private final Map<SignedX509Certificate, Boolean> members = new IdentityHashMap<>();
+
+    /**
+     * @param certificates The certificates. A certificate with a malformed subject key identifier is only indexed by
+     *                     subject name.
+     */
+    CertificateIndex(Collection<SignedX509Certificate> certificates) {
+        for (SignedX509Certificate certificate : certificates) {
+            if (members.put(certificate, Boolean.TRUE) != null) {
+                continue;
+            }
+            bySubject.computeIfAbsent(certificate.tbsCertificate().subject(), subject -> new ArrayList<>(1)).add(certificate);
+            byte[] keyIdentifier = subjectKeyIdentifier(certificate);
+            if (keyIdentifier != null) {
+                byKeyIdentifier.computeIfAbsent(ByteBuffer.wrap(keyIdentifier), key -> new ArrayList<>(1)).add(certificate);
+            }
+        }
+    }
+
+    /**
+     * @param certificate A certificate.
+     * @return The indexed certificate with the same encoding, or null. A certificate whose TBS octets were not kept
+     * only matches itself.
+     */
+    SignedX509Certificate find(SignedX509Certificate certificate) {
+        if (members.containsKey(certificate)) {
+            return certificate;
+        }
+        ByteBuffer encodedTBS = certificate.encodedTBS();
+        List<SignedX509Certificate> candidates = bySubject.get(certificate.tbsCertificate().subject());
+        if (candidates != null && encodedTBS != null) {
+            for (SignedX509Certificate candidate : candidates) {
+                if (Arrays.equals(candidate.signature(), certificate.signature()) && encodedTBS.equals(candidate.encodedTBS())) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the certificates that may have issued a certificate: those whose subject is its issuer and, when both key
+     * identifiers are known, whose subject key identifier is its authority key identifier (RFC 5280 4.2.1.1). When no
+     * certificate with that key identifier has the issuer name, those with the name and no key identifier are found.
+     *
+     * @param certificate The issued certificate.
+     * @return The candidates, in the order they were indexed.
+     */
+    List<SignedX509Certificate> issuersOf(SignedX509Certificate certificate) {
+        X500Name issuer = certificate.tbsCertificate().issuer();
+        byte[] authorityKeyIdentifier = authorityKeyIdentifier(certificate);
+        if (authorityKeyIdentifier != null) {
+            List<SignedX509Certificate> byKey = byKeyIdentifier.get(ByteBuffer.wrap(authorityKeyIdentifier));
+            if (byKey != null) {
+                List<SignedX509Certificate> candidates = new ArrayList<>(byKey.size());
+                for (SignedX509Certificate candidate : byKey) {
+                    if (candidate.tbsCertificate().subject().equals(issuer)) {
+                        candidates.add(candidate);
+                    }
+                }
+                if (!candidates.isEmpty()) {
+                    return candidates;
+                }
+            }
+        }
+
+        List<SignedX509Certificate> bySubjectName = bySubject.get(issuer);
+        if (bySubjectName == null) {
+            return List.of();
+        }
+        if (authorityKeyIdentifier == null) {
+            return bySubjectName;
+        }
+        // Certificates indexed by key identifier did not match it, so only those without one can be the issuer
+        List<SignedX509Certificate> candidates = new ArrayList<>(bySubjectName.size());
+        for (SignedX509Certificate candidate : bySubjectName) {
+            if (subjectKeyIdentifier(candidate) == null) {
+                candidates.add(candidate);
+            }
+        }
+        return candidates;
+    }
+
+    static byte[] subjectKeyIdentifier(SignedX509Certificate certificate) {
+        try {
+            return certificate.tbsCertificate().extensions().subjectKeyIdentifier();
+        } catch (X509CertException e) {
+            return null;
+        }
+    }
+
+    static byte[] authorityKeyIdentifier(SignedX509Certificate certificate) {
+        try {
+            AuthorityKeyIdentifier authorityKeyIdentifier = certificate.tbsCertificate().extensions().authorityKeyIdentifier();
+            return authorityKeyIdentifier == null ? null : authorityKeyIdentifier.keyIdentifier();
+        } catch (X509CertException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * Contains certificate path building and validation.
+ *
+ * <p>Paths are built from parsed {@link dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate}s, matched by their
+ * {@link dev.wobbegong.kmsca.entities.pkcs12.X500Name}s and key identifiers, and their signatures are checked with
+ * {@link dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate#verify(dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate)}
+ * over the kept TBS octets.</p>
+ */
+package dev.wobbegong.kmsca.chain;
@@ -0,0 +1,303 @@
+package dev.wobbegong.kmsca.crl;
+
+import dev.wobbegong.kmsca.entities.CertificateAuthority;
+import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.pkcs12.RevocationReason;
+import dev.wobbegong.kmsca.io.DERWriter;
+import dev.wobbegong.kmsca.utils.CertificateUtils;
+import dev.wobbegong.kmsca.utils.DEREncodingUtils;
+import dev.wobbegong.kmsca.utils.SignatureUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+
+/**
+ * Issues X.509 v2 CRLs and delta CRLs for a CA from a {@link RevocationStore}.
+ *
+ * <p>CRLs are streamed rather than built: the length of every entry is worked out from its serial number, date and
+ * reason without encoding it, so the headers can be written first. The TBS cert list is then encoded one entry at a
+ * time twice, once into the digest that is signed and once into the output, with the signature after it. Memory use
+ * does not grow with the number of entries beyond the store's own.</p>
+ *
+ * <p>Complete and delta CRLs share one sequence of CRL numbers. A delta CRL lists the certificates revoked since the
+ * last complete CRL written by this issuer, which is its base.</p>
+ *
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-5">RFC-5280 5</a>
+ */
+public class CRLIssuer {
+
+    /**
+     * @param crlNumber     The CRL number.
+     * @param baseCRLNumber The CRL number of the complete CRL a delta CRL extends, or null for a complete CRL.
+     * @param thisUpdate    When the CRL was issued.
+     * @param nextUpdate    When the next CRL will be issued by.
+     * @param entries       The number of revoked certificates listed.
+     * @param length        The number of octets written.
+     */
+    public record IssuedCRL(long crlNumber, Long baseCRLNumber, Instant thisUpdate, Instant nextUpdate, int entries,
+                            long length) {
+
+        public boolean delta() {
+            return baseCRLNumber != null;
+        }
+    }
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Revocation dates from 1950 through 2049 are UTCTimes, and other dates GeneralizedTimes (RFC 5280 5.1.2.6).
+     */
+    private static final long FIRST_UTC_TIME_SECONDS = -631152000L;
+    private static final long FIRST_GENERALIZED_TIME_SECONDS = 2524608000L;
+    private static final int UTC_TIME_LENGTH = 15;
+    private static final int GENERALIZED_TIME_LENGTH = 17;
+
+    private final CertificateAuthority ca;
+    private final RevocationStore store;
+
+    /**
+     * The encoded crlEntryExtensions of each reason code. Reason code 0 is left out, as RFC 5280 5.3.1 asks.
+     */
+    private final byte[][] reasonExtensions;
+
+    private long nextCRLNumber;
+    private Long baseCRLNumber;
+    private long baseSequence;
+
+    public CRLIssuer(CertificateAuthority ca, RevocationStore store) {
+        this(ca, store, 1);
+    }
+
+    /**
+     * @param ca            The issuer of the CRLs.
+     * @param store         The certificates the CA has revoked.
+     * @param nextCRLNumber The CRL number of the first CRL, which must be greater than that of any CRL the CA has
+     *                      issued before.
+     */
+    public CRLIssuer(CertificateAuthority ca, RevocationStore store, long nextCRLNumber) {
+        if (nextCRLNumber < 0) {
+            throw new IllegalArgumentException("CRL number must not be negative. Actual: " + nextCRLNumber);
+        }
+        this.ca = ca;
+        this.store = store;
+        this.nextCRLNumber = nextCRLNumber;
+        this.reasonExtensions = reasonExtensions();
+    }
+
+    /**
+     * Write a complete CRL of every certificate revoked so far. It becomes the base of later delta CRLs.
+     *
+     * @param out        Where to write the DER encoding of the CRL. The stream is flushed but not closed.
+     * @param thisUpdate The issue date of the CRL.
+     * @param nextUpdate When the next CRL will be issued by.
+     * @return What was written.
+     * @throws IOException                                     If the CRL could not be written.
+     * @throws dev.wobbegong.kmsca.exceptions.SigningException If the signer of the CA could not sign.
+     */
+    public synchronized IssuedCRL writeCRL(OutputStream out, Instant thisUpdate, Instant nextUpdate) throws IOException {
+        RevocationStore.Snapshot snapshot = store.snapshot();
+        IssuedCRL crl = write(out, snapshot, 0, null, thisUpdate, nextUpdate);
+        baseCRLNumber = crl.crlNumber();
+        baseSequence = snapshot.sequence();
+        return crl;
+    }
+
+    /**
+     * Write a delta CRL of the certificates revoked since the last complete CRL.
+     *
+     * @param out        Where to write the DER encoding of the CRL. The stream is flushed but not closed.
+     * @param thisUpdate The issue date of the CRL.
+     * @param nextUpdate When the next CRL will be issued by.
+     * @return What was written.
+     * @throws IOException                                     If the CRL could not be written.
+     * @throws IllegalStateException                           If no complete CRL has been written yet.
+     * @throws dev.wobbegong.kmsca.exceptions.SigningException If the signer of the CA could not sign.
+     */
+    public synchronized IssuedCRL writeDeltaCRL(OutputStream out, Instant thisUpdate, Instant nextUpdate) throws IOException {
+        if (baseCRLNumber == null) {
+            throw new IllegalStateException("A complete CRL must be written before a delta CRL.");
+        }
+        return write(out, store.snapshot(), baseSequence, baseCRLNumber, thisUpdate, nextUpdate);
+    }
+
+    private IssuedCRL write(OutputStream out, RevocationStore.Snapshot snapshot, long afterSequence, Long base,
+                            Instant thisUpdate, Instant nextUpdate) throws IOException {
+        if (!nextUpdate.isAfter(thisUpdate)) {
+            throw new IllegalArgumentException("Next update must be after this update.");
+        }
+        KnownOids signatureAlgorithm = ca.signatureAlgorithm();
+        // The number is used up even if writing fails, since CRL numbers only have to increase
+        long crlNumber = nextCRLNumber++;
+
+        TBSCertList tbs = new TBSCertList(snapshot, afterSequence);
+        DERWriter writer = new DERWriter(256);
+        tbs.head = head(writer, signatureAlgorithm, thisUpdate, nextUpdate);
+        tbs.extensions = extensions(writer, crlNumber, base);
+        tbs.measure(writer);
+
+        MessageDigest digest = SignatureUtils.messageDigest(signatureAlgorithm);
+        try (OutputStream digestOut = new BufferedOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest), CHUNK_SIZE)) {
+            tbs.writeTo(digestOut, writer);
+        }
+        byte[] signature = ca.signer().signDigest(digest.digest());
+
+        writer.reset();
+        writer.bitString(signature);
+        CertificateUtils.writeAlgorithmIdentifier(writer, signatureAlgorithm);
+        byte[] signatureTail = writer.toByteArray();
+
+        // CertificateList ::= SEQUENCE { tbsCertList TBSCertList, signatureAlgorithm AlgorithmIdentifier, signatureValue BIT STRING }
+        int contentsLength = Math.addExact(tbs.length, signatureTail.length);
+        writer.reset().sequenceHeader(contentsLength);
+        long length = writer.size() + (long) contentsLength;
+
+        BufferedOutputStream buffered = new BufferedOutputStream(out, CHUNK_SIZE);
+        writer.writeTo(buffered);
+        tbs.writeTo(buffered, writer);
+        buffered.write(signatureTail);
+        buffered.flush();
+        return new IssuedCRL(crlNumber, base, thisUpdate, nextUpdate, tbs.entries, length);
+    }
+
+    /**
+     * version, signature, issuer, thisUpdate and nextUpdate.
+     */
+    private byte[] head(DERWriter writer, KnownOids signatureAlgorithm, Instant thisUpdate, Instant nextUpdate) {
+        writer.reset();
+        writer.validityTime(nextUpdate).validityTime(thisUpdate);
+        writer.encoded(ca.subject());
+        CertificateUtils.writeAlgorithmIdentifier(writer, signatureAlgorithm);
+        // v2
+        writer.integer(1);
+        return writer.toByteArray();
+    }
+
+    /**
+     * crlExtensions [0] EXPLICIT Extensions: the authority key identifier, CRL number and, for a delta CRL, the
+     * critical delta CRL indicator (RFC 5280 5.2).
+     */
+    private byte[] extensions(DERWriter writer, long crlNumber, Long base) {
+        writer.reset();
+        int extensionsMark = writer.mark();
+        int extensionSequenceMark = writer.mark();
+        if (base != null) {
+            int extensionMark = writer.mark();
+            int valueMark = writer.mark();
+            writer.integer(base);
+            CertificateUtils.endExtension(writer, extensionMark, valueMark, KnownOids.deltaCRLIndicator, true);
+        }
+        int extensionMark = writer.mark();
+        int valueMark = writer.mark();
+        writer.integer(crlNumber);
+        CertificateUtils.endExtension(writer, extensionMark, valueMark, KnownOids.cRLNumber, false);
+        CertificateUtils.writeAuthorityKeyIdentifier(writer, ca.keyIdentifier());
+        writer.sequence(extensionSequenceMark).explicit(0, extensionsMark);
+        return writer.toByteArray();
+    }
+
+    private static byte[][] reasonExtensions() {
+        byte[][] extensions = new byte[RevocationReason.aACompromise.code + 1][];
+        DERWriter writer = new DERWriter(32);
+        for (RevocationReason reason : RevocationReason.values()) {
+            if (reason == RevocationReason.unspecified) {
+                continue;
+            }
+            writer.reset();
+            int extensionsMark = writer.mark();
+            int extensionMark = writer.mark();
+            int valueMark = writer.mark();
+            writer.enumerated(reason.code);
+            CertificateUtils.endExtension(writer, extensionMark, valueMark, KnownOids.reasonCode, false);
+            writer.sequence(extensionsMark);
+            extensions[reason.code] = writer.toByteArray();
+        }
+        return extensions;
+    }
+
+    private static int timeLength(long seconds) {
+        return seconds >= FIRST_UTC_TIME_SECONDS && seconds < FIRST_GENERALIZED_TIME_SECONDS ? UTC_TIME_LENGTH : GENERALIZED_TIME_LENGTH;
+    }
+
+    /**
+     * The parts of a TBS cert list, with the revoked certificates left in the snapshot until they are written.
+     */
+    private final class TBSCertList {
+
+        private final RevocationStore.Snapshot snapshot;
+        private final long afterSequence;
+        private byte[] head;
+        private byte[] extensions;
+        private byte[] header;
+        private byte[] revokedHeader;
+        private int entries;
+        /**
+         * The length of the whole TBS cert list, with its header.
+         */
+        private int length;
+
+        private TBSCertList(RevocationStore.Snapshot snapshot, long afterSequence) {
+            this.snapshot = snapshot;
+            this.afterSequence = afterSequence;
+        }
+
+        /**
+         * Work out the length of the revoked certificates and encode the headers that depend on it.
+         */
+        private void measure(DERWriter writer) {
+            long revokedLength = 0;
+            for (int i = 0; i < snapshot.size(); i++) {
+                if (snapshot.sequence(i) > afterSequence) {
+                    entries++;
+                    revokedLength += entryLength(i);
+                }
+            }
+
+            // revokedCertificates is left out when there are none (RFC 5280 5.1.2.6)
+            revokedHeader = entries == 0 ? new byte[0] : writer.reset().sequenceHeader(Math.toIntExact(revokedLength)).toByteArray();
+            int contentsLength = Math.toIntExact(head.length + revokedHeader.length + revokedLength + extensions.length);
+            header = writer.reset().sequenceHeader(contentsLength).toByteArray();
+            length = Math.addExact(header.length, contentsLength);
+        }
+
+        /**
+         * revokedCertificates SEQUENCE OF SEQUENCE { userCertificate CertificateSerialNumber, revocationDate Time,
+         * crlEntryExtensions Extensions OPTIONAL }
+         */
+        private int entryLength(int index) {
+            int contentsLength = 2 + snapshot.serialLength(index) + timeLength(snapshot.revocationSeconds(index));
+            int reasonCode = snapshot.reasonCode(index);
+            if (reasonCode > 0) {
+                contentsLength += reasonExtensions[reasonCode].length;
+            }
+            return 1 + DEREncodingUtils.lengthOctetsFor(contentsLength) + contentsLength;
+        }
+
+        private void writeTo(OutputStream out, DERWriter writer) throws IOException {
+            out.write(header);
+            out.write(head);
+            out.write(revokedHeader);
+            byte[] serials = snapshot.serials();
+            for (int i = 0; i < snapshot.size(); i++) {
+                if (snapshot.sequence(i) <= afterSequence) {
+                    continue;
+                }
+                writer.reset();
+                int entryMark = writer.mark();
+                int reasonCode = snapshot.reasonCode(i);
+                if (reasonCode > 0) {
+                    writer.encoded(reasonExtensions[reasonCode]);
+                }
+                writer.validityTime(Instant.ofEpochSecond(snapshot.revocationSeconds(i)));
+                writer.primitive(ASN1TagType.INTEGER, serials, snapshot.serialOffset(i), snapshot.serialLength(i));
+                writer.sequence(entryMark);
+                writer.writeTo(out);
+            }
+            out.write(extensions);
+        }
+    }
+}
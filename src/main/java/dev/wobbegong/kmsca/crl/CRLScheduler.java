@@ -0,0 +1,153 @@
+package dev.wobbegong.kmsca.crl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publishes a complete CRL every {@link Options#crlInterval()} and a delta CRL every {@link Options#deltaInterval()}
+ * from a {@link CRLIssuer}, on a background thread.
+ *
+ * <p>The first complete CRL is published at once. Each CRL's next update is the time of the next one of its kind plus
+ * {@link Options#grace()}, so relying parties never hold an expired CRL while the next is being written. A CRL that
+ * fails to be written is logged and the schedule carries on.</p>
+ *
+ * <p>Only one CRL is written at a time, whether scheduled or asked for with {@link #publish(boolean)}, so CRL numbers,
+ * this update times and the base of the delta CRLs advance in the order the CRLs reach the destination.</p>
+ */
+public class CRLScheduler implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CRLScheduler.class);
+
+    /**
+     * @param crlInterval   How often a complete CRL is published.
+     * @param deltaInterval How often a delta CRL is published.
+     * @param grace         How long after the next CRL is due a CRL stays valid.
+     */
+    public record Options(Duration crlInterval, Duration deltaInterval, Duration grace) {
+
+        public Options {
+            if (crlInterval.isNegative() || crlInterval.isZero() || deltaInterval.isNegative() || deltaInterval.isZero()) {
+                throw new IllegalArgumentException("CRL and delta CRL intervals must be positive.");
+            }
+            if (deltaInterval.compareTo(crlInterval) > 0) {
+                throw new IllegalArgumentException("Delta CRL interval must not be longer than the CRL interval. Actual: " + deltaInterval);
+            }
+            if (grace.isNegative()) {
+                throw new IllegalArgumentException("Grace must not be negative. Actual: " + grace);
+            }
+        }
+
+        /**
+         * @return A complete CRL daily and a delta CRL hourly, each valid for an hour past the next.
+         */
+        public static Options defaults() {
+            return new Options(Duration.ofDays(1), Duration.ofHours(1), Duration.ofHours(1));
+        }
+    }
+
+    /**
+     * Where CRLs are published, such as files served by a CRL distribution point.
+     */
+    public interface Destination {
+
+        /**
+         * @param delta Whether the CRL is a delta CRL.
+         * @return A stream for the next CRL. It is closed once the CRL is written.
+         * @throws IOException If the stream could not be opened.
+         */
+        OutputStream open(boolean delta) throws IOException;
+
+        /**
+         * Called once a CRL has been written and its stream closed, such as to move a file into place.
+         */
+        default void published(CRLIssuer.IssuedCRL crl) throws IOException {
+        }
+    }
+
+    private static final AtomicInteger SCHEDULER_COUNT = new AtomicInteger();
+
+    private final CRLIssuer issuer;
+    private final Destination destination;
+    private final Options options;
+    private final ScheduledExecutorService executor;
+    private final ReentrantLock publishLock = new ReentrantLock();
+
+    /**
+     * Start publishing CRLs.
+     *
+     * @param issuer      The issuer to write CRLs with. Nothing else should write complete CRLs with it, since they
+     *                    change the base of the delta CRLs.
+     * @param destination Where to write the CRLs.
+     * @param options     How often to publish.
+     */
+    public CRLScheduler(CRLIssuer issuer, Destination destination, Options options) {
+        this.issuer = issuer;
+        this.destination = destination;
+        this.options = options;
+
+        String threadName = "crl-scheduler-" + SCHEDULER_COUNT.incrementAndGet();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long crlNanos = options.crlInterval().toNanos();
+        long deltaNanos = options.deltaInterval().toNanos();
+        executor.scheduleAtFixedRate(() -> publishScheduled(false), 0, crlNanos, TimeUnit.NANOSECONDS);
+        executor.scheduleAtFixedRate(() -> publishScheduled(true), deltaNanos, deltaNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Publish a CRL now, outside the schedule. Waits for a CRL being written to finish first.
+     *
+     * @param delta Whether to publish a delta CRL.
+     * @return What was published.
+     * @throws IOException           If the CRL could not be written.
+     * @throws IllegalStateException If a delta CRL is asked for before any complete CRL was published.
+     */
+    public CRLIssuer.IssuedCRL publish(boolean delta) throws IOException {
+        publishLock.lock();
+        try {
+            // Taken under the lock, so this update times follow the CRL numbers
+            Instant thisUpdate = Instant.now();
+            Instant nextUpdate = thisUpdate.plus(delta ? options.deltaInterval() : options.crlInterval()).plus(options.grace());
+            CRLIssuer.IssuedCRL crl;
+            try (OutputStream out = destination.open(delta)) {
+                crl = delta
+                        ? issuer.writeDeltaCRL(out, thisUpdate, nextUpdate)
+                        : issuer.writeCRL(out, thisUpdate, nextUpdate);
+            }
+            destination.published(crl);
+            return crl;
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /**
+     * Stop publishing. A CRL being written is finished.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private void publishScheduled(boolean delta) {
+        try {
+            publish(delta);
+        } catch (Exception e) {
+            // A periodic task that throws is never run again, so keep the schedule going
+            LOGGER.error("Could not publish {}.", delta ? "delta CRL" : "CRL", e);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package dev.wobbegong.kmsca.crl;
+
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
+import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.pkcs12.X509Extension;
+import dev.wobbegong.kmsca.entities.pkcs12.X509Extensions;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.io.DERStreamReader;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.SignatureUtils;
+import dev.wobbegong.kmsca.utils.X509ExtensionUtils;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Parses a CRL with a {@link DERStreamReader}, one revoked certificate at a time, into a {@link RevocationIndex}.
+ *
+ * <p>Only the serial number of each entry is kept; dates are skipped unread and entry extensions are only scanned for
+ * ones that would change what the entry means. The TBS cert list is fed to a {@link Signature} as it is read, so the
+ * CRL is verified in the same single pass.</p>
+ */
+final class CRLStreamParser {
+
+    /**
+     * CRL extensions that can be marked critical without changing which certificates a complete CRL revokes.
+     */
+    private static final Set<String> UNDERSTOOD_EXTENSIONS = Set.of(
+            KnownOids.authorityKeyIdentifier.oid,
+            KnownOids.cRLNumber.oid,
+            KnownOids.freshestCRL.oid);
+
+    private static final byte[] CERTIFICATE_ISSUER = KnownOids.certificateIssuer.encoded();
+
+    private final DERStreamReader reader;
+    private final VerifyingChannel channel;
+    private final RevocationIndex.SerialList serials = new RevocationIndex.SerialList();
+    private final byte[] serial = new byte[RevocationIndex.MAX_SERIAL_NUMBER_OCTETS + 1];
+    private final byte[] oid = new byte[16];
+
+    private CRLStreamParser(ReadableByteChannel crl) {
+        this.channel = new VerifyingChannel(crl);
+        this.reader = new DERStreamReader(channel);
+    }
+
+    static RevocationIndex parse(ReadableByteChannel crl, PublicKey issuerKey) throws IOException, X509CertException {
+        try {
+            return new CRLStreamParser(crl).parse(issuerKey);
+        } catch (RuntimeException e) {
+            throw new X509CertException("Malformed CRL.", e);
+        }
+    }
+
+    /**
+     * CertificateList ::= SEQUENCE { tbsCertList TBSCertList, signatureAlgorithm AlgorithmIdentifier, signatureValue BIT STRING }
+     */
+    private RevocationIndex parse(PublicKey issuerKey) throws IOException, X509CertException {
+        expectSequence("certificate list");
+        expectSequence("TBS cert list");
+        long tbsOffset = reader.offset();
+        long tbsEnd = tbsOffset + reader.headerLength() + reader.length();
+
+        // version Version OPTIONAL, which must be v2 when present
+        DERStreamReader.Event event = reader.next();
+        if (event == DERStreamReader.Event.PRIMITIVE && reader.tagType() == ASN1TagType.INTEGER) {
+            BigInteger version = DERDecodingUtils.decodeInteger(reader.valueItem());
+            if (!version.equals(BigInteger.ONE)) {
+                throw new X509CertException("Unsupported CRL version: " + version);
+            }
+            event = reader.next();
+        }
+
+        // signature AlgorithmIdentifier, which says how to verify what has been read so far
+        KnownOids signatureAlgorithm = algorithmOf(event);
+        channel.verifyRange(SignatureUtils.newVerifier(issuerKey, signatureAlgorithm), tbsOffset, tbsEnd);
+
+        expectSequence("issuer");
+        reader.skipItem();
+
+        Instant thisUpdate = time(reader.next());
+        Instant nextUpdate = null;
+        event = reader.next();
+        if (isTime(event)) {
+            nextUpdate = time(event);
+            event = reader.next();
+        }
+
+        // revokedCertificates SEQUENCE OF SEQUENCE OPTIONAL
+        if (event == DERStreamReader.Event.START_CONSTRUCTED && reader.tagClass() == ASN1Identifier.TagClass.Universal) {
+            readRevokedCertificates();
+            event = reader.next();
+        }
+
+        // crlExtensions [0] EXPLICIT Extensions OPTIONAL
+        if (event == DERStreamReader.Event.START_CONSTRUCTED && reader.tagClass() == ASN1Identifier.TagClass.ContextSpecific) {
+            checkExtensions(reader.readItem());
+            event = reader.next();
+        }
+        if (event != DERStreamReader.Event.END_CONSTRUCTED || reader.depth() != 1) {
+            throw new X509CertException("Unexpected item at the end of the TBS cert list at offset " + reader.offset());
+        }
+
+        if (algorithmOf(reader.next()) != signatureAlgorithm) {
+            throw new X509CertException("The signature algorithms of the CRL and its TBS cert list differ.");
+        }
+        if (reader.next() != DERStreamReader.Event.PRIMITIVE || reader.tagType() != ASN1TagType.BIT_STRING) {
+            throw new X509CertException("Expected the signature of the CRL at offset " + reader.offset());
+        }
+        byte[] signature = DERDecodingUtils.decodeBitString(reader.valueItem()).data();
+        if (reader.next() != DERStreamReader.Event.END_CONSTRUCTED || reader.next() != null) {
+            throw new X509CertException("Unexpected data after the signature of the CRL.");
+        }
+        if (!channel.verify(signature)) {
+            throw new X509CertException("CRL signature is invalid.");
+        }
+        return RevocationIndex.build(serials, thisUpdate, nextUpdate, channel.digest());
+    }
+
+    /**
+     * SEQUENCE { userCertificate CertificateSerialNumber, revocationDate Time, crlEntryExtensions Extensions OPTIONAL }
+     */
+    private void readRevokedCertificates() throws IOException, X509CertException {
+        while (reader.next() == DERStreamReader.Event.START_CONSTRUCTED) {
+            if (reader.next() != DERStreamReader.Event.PRIMITIVE || reader.tagType() != ASN1TagType.INTEGER) {
+                throw new X509CertException("Expected a serial number at offset " + reader.offset());
+            }
+            if (reader.length() < 1 || reader.length() > serial.length) {
+                throw new X509CertException("Serial number at offset " + reader.offset() + " has an unsupported length: " + reader.length());
+            }
+            int length = reader.value(serial);
+
+            // Drop octets that only repeat the sign, as a lenient encoder may have written
+            int start = 0;
+            while (start < length - 1 && (serial[start] == 0 && serial[start + 1] >= 0 || serial[start] == -1 && serial[start + 1] < 0)) {
+                start++;
+            }
+            if (length - start > RevocationIndex.MAX_SERIAL_NUMBER_OCTETS) {
+                throw new X509CertException("Serial number at offset " + reader.offset() + " is longer than " + RevocationIndex.MAX_SERIAL_NUMBER_OCTETS + " octets.");
+            }
+            serials.add(serial, start, length - start);
+
+            if (!isTime(reader.next())) {
+                throw new X509CertException("Expected a revocation date at offset " + reader.offset());
+            }
+            DERStreamReader.Event event = reader.next();
+            if (event == DERStreamReader.Event.START_CONSTRUCTED) {
+                checkEntryExtensions();
+                event = reader.next();
+            }
+            if (event != DERStreamReader.Event.END_CONSTRUCTED) {
+                throw new X509CertException("Unexpected item in a revoked certificate at offset " + reader.offset());
+            }
+        }
+        if (reader.event() != DERStreamReader.Event.END_CONSTRUCTED) {
+            throw new X509CertException("Expected a revoked certificate at offset " + reader.offset());
+        }
+    }
+
+    /**
+     * An indirect CRL names other issuers in its entries, and an entry with a critical extension may not mean what it
+     * seems, so neither can be indexed by serial number alone (RFC 5280 5.3).
+     */
+    private void checkEntryExtensions() throws IOException, X509CertException {
+        while (reader.next() == DERStreamReader.Event.START_CONSTRUCTED) {
+            if (reader.next() != DERStreamReader.Event.PRIMITIVE || reader.tagType() != ASN1TagType.OBJECT_IDENTIFIER || reader.length() > oid.length) {
+                throw new X509CertException("Expected a CRL entry extension at offset " + reader.offset());
+            }
+            int length = reader.value(oid);
+            if (Arrays.equals(oid, 0, length, CERTIFICATE_ISSUER, 0, CERTIFICATE_ISSUER.length)) {
+                throw new X509CertException("Indirect CRLs are not supported.");
+            }
+            DERStreamReader.Event event = reader.next();
+            if (event == DERStreamReader.Event.PRIMITIVE && reader.tagType() == ASN1TagType.BOOLEAN) {
+                byte[] critical = reader.value();
+                if (critical.length == 1 && critical[0] != 0) {
+                    throw new X509CertException("CRL entry has a critical extension: " + DERDecodingUtils.buildOID(Arrays.copyOf(oid, length)));
+                }
+                event = reader.next();
+            }
+            // extnValue OCTET STRING
+            if (event != DERStreamReader.Event.PRIMITIVE || reader.tagType() != ASN1TagType.OCTET_STRING) {
+                throw new X509CertException("Expected the value of a CRL entry extension at offset " + reader.offset());
+            }
+            if (reader.next() != DERStreamReader.Event.END_CONSTRUCTED) {
+                throw new X509CertException("Unexpected item in a CRL entry extension at offset " + reader.offset());
+            }
+        }
+        if (reader.event() != DERStreamReader.Event.END_CONSTRUCTED) {
+            throw new X509CertException("Expected a CRL entry extension at offset " + reader.offset());
+        }
+    }
+
+    private static void checkExtensions(ASN1Item crlExtensions) throws X509CertException {
+        X509Extensions extensions = X509ExtensionUtils.fromASN1Item(crlExtensions);
+        if (extensions.get(KnownOids.deltaCRLIndicator) != null) {
+            throw new X509CertException("Delta CRLs cannot be indexed alone.");
+        }
+        for (X509Extension extension : extensions.critical()) {
+            if (!UNDERSTOOD_EXTENSIONS.contains(extension.oid())) {
+                throw new X509CertException("CRL has a critical extension that is not understood: " + extension.oid());
+            }
+        }
+    }
+
+    private KnownOids algorithmOf(DERStreamReader.Event event) throws IOException, X509CertException {
+        if (event != DERStreamReader.Event.START_CONSTRUCTED || reader.tagType() != ASN1TagType.SEQUENCE) {
+            throw new X509CertException("Expected a signature algorithm at offset " + reader.offset());
+        }
+        ASN1Item algorithm = reader.readItem();
+        ASN1Item oidItem = ((ASN1Sequence) algorithm).asn1ItemList().get(0);
+        return DERDecodingUtils.decodeKnownOID(oidItem)
+                .orElseThrow(() -> new X509CertException("Unknown CRL signature algorithm OID: " + DERDecodingUtils.decodeOID(oidItem)));
+    }
+
+    private void expectSequence(String name) throws IOException, X509CertException {
+        if (reader.next() != DERStreamReader.Event.START_CONSTRUCTED || reader.tagType() != ASN1TagType.SEQUENCE) {
+            throw new X509CertException("Expected the " + name + " sequence at offset " + reader.offset());
+        }
+    }
+
+    private boolean isTime(DERStreamReader.Event event) {
+        return event == DERStreamReader.Event.PRIMITIVE
+                && (reader.tagType() == ASN1TagType.UTCTime || reader.tagType() == ASN1TagType.GeneralizedTime);
+    }
+
+    private Instant time(DERStreamReader.Event event) throws IOException, X509CertException {
+        if (!isTime(event)) {
+            throw new X509CertException("Expected a time at offset " + reader.offset());
+        }
+        return DERDecodingUtils.decodeTime(reader.valueItem());
+    }
+
+    /**
+     * Passes the input through, feeding the octets of one range of it to a {@link Signature}. The reader reads ahead,
+     * so the range is usually only known after its first octets have passed; those are kept until then. Every octet
+     * is also digested, for the index to record which CRL it was built from.
+     */
+    private static final class VerifyingChannel implements ReadableByteChannel {
+
+        /**
+         * The signature algorithm comes a few dozen octets into the TBS cert list, so the range is known well within
+         * the reader's first read. Anything more is not a CRL.
+         */
+        private static final int MAX_KEPT = 64 * 1024;
+
+        private final ReadableByteChannel channel;
+        private final MessageDigest digest = RevocationIndex.newCRLDigest();
+        private ByteBuffer kept = ByteBuffer.allocate(8192);
+        private long position;
+        private Signature signature;
+        private long start;
+        private long end;
+
+        private VerifyingChannel(ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void verifyRange(Signature signature, long start, long end) {
+            this.signature = signature;
+            this.start = start;
+            this.end = end;
+            kept.flip();
+            update(kept, 0);
+            kept = null;
+        }
+
+        /**
+         * @return The digest of everything read, which is the whole CRL once the reader reached its end.
+         */
+        byte[] digest() {
+            return digest.digest();
+        }
+
+        boolean verify(byte[] signatureValue) {
+            try {
+                return signature.verify(signatureValue);
+            } catch (SignatureException e) {
+                // Thrown for signatures that are not even well-formed
+                return false;
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            int from = destination.position();
+            int read = channel.read(destination);
+            if (read > 0) {
+                ByteBuffer octets = destination.duplicate().flip().position(from);
+                digest.update(octets.duplicate());
+                if (kept != null) {
+                    if (kept.position() + read > MAX_KEPT) {
+                        throw new IOException("CRL signature algorithm not found within the first " + MAX_KEPT + " octets.");
+                    }
+                    if (kept.remaining() < read) {
+                        kept = ByteBuffer.allocate(Math.min(MAX_KEPT, kept.capacity() * 2 + read)).put(kept.flip());
+                    }
+                    kept.put(octets);
+                } else {
+                    update(octets, position);
+                }
+                position += read;
+            }
+            return read;
+        }
+
+        /**
+         * Feed the part of the octets within the range, given the offset of the first octet in the input.
+         */
+        private void update(ByteBuffer octets, long offset) {
+            long from = Math.max(start, offset);
+            long to = Math.min(end, offset + octets.remaining());
+            if (from >= to) {
+                return;
+            }
+            ByteBuffer range = octets.duplicate();
+            range.position(octets.position() + (int) (from - offset)).limit(octets.position() + (int) (to - offset));
+            try {
+                signature.update(range);
+            } catch (SignatureException e) {
+                throw new IllegalStateException("Signature is not initialised for verification.", e);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
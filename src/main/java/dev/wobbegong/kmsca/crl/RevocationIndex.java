@@ -0,0 +1,548 @@
+package dev.wobbegong.kmsca.crl;
+
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * The serial numbers revoked by a CRL, for checking the certificates a service receives.
+ *
+ * <p>The index is one buffer: a short header, a Bloom filter of about ten bits per serial number, and the serial
+ * numbers as fixed width, sorted records. Each record is the two's complement serial number sign extended to a
+ * multiple of 8 octets, so records compare as unsigned big-endian longs. A certificate that is not revoked, the common
+ * case, is almost always answered by the Bloom filter alone; the rest take a binary search of the records.</p>
+ *
+ * <p>The buffer is the file format too, so {@link #writeTo(Path)} saves an index as is and {@link #map(Path)} maps it
+ * back without parsing anything, which lets a service restart without parsing the CRL again. The header is checked
+ * against the length of the file, and holds the SHA-256 digest of the CRL the index was built from, so
+ * {@link #map(Path, byte[])} can also refuse an index of another CRL. The records themselves are not read until they
+ * are searched.</p>
+ *
+ * <p>Instances are immutable and thread safe.</p>
+ */
+public final class RevocationIndex {
+
+    private static final int MAGIC = 0x4B524958; // "KRIX"
+    private static final int VERSION = 2;
+
+    // Header fields
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int COUNT_OFFSET = 8;
+    private static final int WIDTH_OFFSET = 12;
+    private static final int BLOOM_WORDS_OFFSET = 16;
+    private static final int BLOOM_HASHES_OFFSET = 20;
+    private static final int THIS_UPDATE_OFFSET = 24;
+    private static final int NEXT_UPDATE_OFFSET = 32;
+    private static final int CRL_DIGEST_OFFSET = 40;
+    private static final int HEADER_LENGTH = 72;
+
+    private static final String CRL_DIGEST_ALGORITHM = "SHA-256";
+    private static final int CRL_DIGEST_LENGTH = 32;
+
+    private static final long NO_NEXT_UPDATE = Long.MIN_VALUE;
+
+    /**
+     * Ten bits a serial number and seven hashes give about one false positive in a hundred. The filter is rounded up to
+     * a power of two bits, so it is often better than that.
+     */
+    private static final int BLOOM_BITS_PER_SERIAL = 10;
+    private static final int BLOOM_HASHES = 7;
+    private static final int MAX_BLOOM_HASHES = 64;
+    private static final int MAX_BLOOM_WORDS = 1 << 24;
+
+    /**
+     * RFC 5280 4.1.2.2 allows 20 octets, but CAs have issued longer serial numbers, and a CRL listing one must still
+     * be usable.
+     */
+    static final int MAX_SERIAL_NUMBER_OCTETS = 32;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int width;
+    private final int words;
+    private final int bloomWords;
+    private final int bloomHashes;
+    private final int recordsOffset;
+    private final Instant thisUpdate;
+    private final Instant nextUpdate;
+
+    private RevocationIndex(ByteBuffer buffer) throws IOException {
+        checkHeader(buffer, buffer.remaining());
+        this.buffer = buffer;
+        this.count = buffer.getInt(COUNT_OFFSET);
+        this.width = buffer.getInt(WIDTH_OFFSET);
+        this.bloomWords = buffer.getInt(BLOOM_WORDS_OFFSET);
+        this.bloomHashes = buffer.getInt(BLOOM_HASHES_OFFSET);
+        this.words = width / 8;
+        this.recordsOffset = HEADER_LENGTH + 8 * bloomWords;
+        try {
+            this.thisUpdate = Instant.ofEpochSecond(buffer.getLong(THIS_UPDATE_OFFSET));
+            long nextUpdateSeconds = buffer.getLong(NEXT_UPDATE_OFFSET);
+            this.nextUpdate = nextUpdateSeconds == NO_NEXT_UPDATE ? null : Instant.ofEpochSecond(nextUpdateSeconds);
+        } catch (DateTimeException e) {
+            throw new IOException("Revocation index has an invalid update time.", e);
+        }
+    }
+
+    /**
+     * Check a header against the length of the index it starts.
+     *
+     * @param header At least the header, from index 0.
+     * @param length The length of the whole index.
+     * @throws IOException If it is not an index, is of another version, or its records and Bloom filter do not fill
+     *                     exactly the length.
+     */
+    private static void checkHeader(ByteBuffer header, long length) throws IOException {
+        if (length < HEADER_LENGTH || header.limit() < HEADER_LENGTH || header.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException("Not a revocation index.");
+        }
+        if (header.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("Unsupported revocation index version: " + header.getInt(VERSION_OFFSET));
+        }
+        int count = header.getInt(COUNT_OFFSET);
+        int width = header.getInt(WIDTH_OFFSET);
+        int bloomWords = header.getInt(BLOOM_WORDS_OFFSET);
+        int bloomHashes = header.getInt(BLOOM_HASHES_OFFSET);
+        if (count < 0 || width < 8 || width > MAX_SERIAL_NUMBER_OCTETS || width % 8 != 0) {
+            throw new IOException("Revocation index has an invalid record count or width: " + count + " records of " + width + " octets.");
+        }
+        if (bloomWords < 1 || bloomWords > MAX_BLOOM_WORDS || Integer.bitCount(bloomWords) != 1
+                || bloomHashes < 1 || bloomHashes > MAX_BLOOM_HASHES) {
+            throw new IOException("Revocation index has an invalid Bloom filter: " + bloomWords + " words and " + bloomHashes + " hashes.");
+        }
+        long expectedLength = HEADER_LENGTH + 8L * bloomWords + (long) count * width;
+        if (length != expectedLength) {
+            throw new IOException("Revocation index of " + count + " records should be " + expectedLength + " bytes. Actual: " + length);
+        }
+    }
+
+    /**
+     * Parse a CRL as it is read, keeping only its revoked serial numbers. The CRL is never held in memory, and its
+     * signature is verified as it streams past.
+     *
+     * @param crl       The DER encoding of the CRL.
+     * @param issuerKey The public key of the CA that issued the CRL.
+     * @return The index.
+     * @throws IOException       If the CRL cannot be read.
+     * @throws X509CertException If the CRL is malformed, its signature is invalid, or it cannot be used alone, such as
+     *                           a delta CRL or a CRL with a critical extension that is not understood.
+     */
+    public static RevocationIndex parse(InputStream crl, PublicKey issuerKey) throws IOException, X509CertException {
+        return parse(Channels.newChannel(crl), issuerKey);
+    }
+
+    /**
+     * @see #parse(InputStream, PublicKey)
+     */
+    public static RevocationIndex parse(ReadableByteChannel crl, PublicKey issuerKey) throws IOException, X509CertException {
+        return CRLStreamParser.parse(crl, issuerKey);
+    }
+
+    /**
+     * Map an index saved with {@link #writeTo(Path)}. The mapping stays valid after the file is replaced.
+     *
+     * @param path The index file.
+     * @return The index.
+     * @throws IOException If the file cannot be mapped, is not an index, or its header does not match its length.
+     */
+    public static RevocationIndex map(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (file.size() > Integer.MAX_VALUE) {
+                throw new IOException("Revocation index is too large to map: " + file.size() + " bytes.");
+            }
+            // Check the header against the file before mapping it
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            while (header.hasRemaining()) {
+                if (file.read(header, header.position()) < 0) {
+                    throw new IOException("Not a revocation index.");
+                }
+            }
+            checkHeader(header, file.size());
+            // The mapping stays valid after the channel is closed
+            return new RevocationIndex(file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()));
+        }
+    }
+
+    /**
+     * Map an index saved with {@link #writeTo(Path)}, checking that it was built from a given CRL, such as the one a
+     * service is about to use.
+     *
+     * @param path      The index file.
+     * @param crlDigest The SHA-256 digest of the DER encoding of the CRL, as from {@link #crlDigest(Path)}.
+     * @return The index.
+     * @throws IOException If the file cannot be mapped, is not an index, or was built from another CRL.
+     */
+    public static RevocationIndex map(Path path, byte[] crlDigest) throws IOException {
+        RevocationIndex index = map(path);
+        if (!MessageDigest.isEqual(index.crlDigest(), crlDigest)) {
+            throw new IOException("Revocation index was built from the CRL with digest " + HexFormat.of().formatHex(index.crlDigest())
+                    + ", not " + HexFormat.of().formatHex(crlDigest) + ".");
+        }
+        return index;
+    }
+
+    /**
+     * @param crl The DER encoding of a CRL.
+     * @return The SHA-256 digest of the CRL, to compare with {@link #crlDigest()}.
+     * @throws IOException If the file cannot be read.
+     */
+    public static byte[] crlDigest(Path crl) throws IOException {
+        MessageDigest digest = newCRLDigest();
+        try (FileChannel file = FileChannel.open(crl, StandardOpenOption.READ)) {
+            ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+            while (file.read(chunk) >= 0) {
+                digest.update(chunk.flip());
+                chunk.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    static MessageDigest newCRLDigest() {
+        try {
+            return MessageDigest.getInstance(CRL_DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(CRL_DIGEST_ALGORITHM + " is not available.", e);
+        }
+    }
+
+    /**
+     * Build an index from serial numbers.
+     *
+     * @param serials    The serial numbers, as the contents octets of their INTEGERs.
+     * @param thisUpdate The issue date of the CRL.
+     * @param nextUpdate The next update of the CRL, or null if it has none.
+     * @param crlDigest  The SHA-256 digest of the CRL.
+     */
+    static RevocationIndex build(SerialList serials, Instant thisUpdate, Instant nextUpdate, byte[] crlDigest) {
+        int width = Math.max(8, (serials.maxLength() + 7) / 8 * 8);
+        int words = width / 8;
+        long[] records = serials.records(words);
+        int count = sortUnique(records, words);
+
+        int bloomWords = bloomWordsFor(count);
+        long[] bloom = new long[bloomWords];
+        long[] key = new long[words];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(records, i * words, key, 0, words);
+            addToBloom(bloom, key);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(HEADER_LENGTH + 8L * bloomWords + (long) count * width));
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(width).putInt(bloomWords).putInt(BLOOM_HASHES)
+                .putLong(thisUpdate.getEpochSecond())
+                .putLong(nextUpdate == null ? NO_NEXT_UPDATE : nextUpdate.getEpochSecond())
+                .put(crlDigest);
+        buffer.asLongBuffer().put(bloom);
+        buffer.position(buffer.position() + 8 * bloomWords);
+        buffer.asLongBuffer().put(records, 0, count * words);
+        buffer.clear();
+        try {
+            return new RevocationIndex(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException("Built an invalid revocation index.", e);
+        }
+    }
+
+    /**
+     * @return True if the CRL revoked the serial number.
+     */
+    public boolean isRevoked(BigInteger serialNumber) {
+        byte[] octets = serialNumber.toByteArray();
+        if (octets.length > width) {
+            return false;
+        }
+        long[] key = key(octets, octets.length, words);
+        return mightContain(key) && indexOf(key) >= 0;
+    }
+
+    /**
+     * @return The number of serial numbers in the index.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return The issue date of the CRL.
+     */
+    public Instant thisUpdate() {
+        return thisUpdate;
+    }
+
+    /**
+     * @return The date by which the next CRL will be issued, or null if the CRL did not say.
+     */
+    public Instant nextUpdate() {
+        return nextUpdate;
+    }
+
+    /**
+     * @return The SHA-256 digest of the DER encoding of the CRL the index was built from.
+     */
+    public byte[] crlDigest() {
+        byte[] digest = new byte[CRL_DIGEST_LENGTH];
+        buffer.get(CRL_DIGEST_OFFSET, digest);
+        return digest;
+    }
+
+    /**
+     * Save the index, replacing the file once it is completely written.
+     *
+     * @param path The index file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writeTo(Path path) throws IOException {
+        Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer contents = buffer.duplicate().clear();
+                while (contents.hasRemaining()) {
+                    file.write(contents);
+                }
+                file.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static int bloomWordsFor(int count) {
+        long bits = Math.max(64, (long) count * BLOOM_BITS_PER_SERIAL);
+        // A power of two, so that a hash is reduced to a bit with a mask
+        long rounded = Long.highestOneBit(bits - 1) << 1;
+        return (int) Math.min(MAX_BLOOM_WORDS, rounded / 64);
+    }
+
+    private boolean mightContain(long[] key) {
+        long hash = hash(key);
+        long step = mix(hash) | 1;
+        int mask = bloomWords * 64 - 1;
+        for (int i = 0; i < bloomHashes; i++) {
+            int bit = (int) (hash & mask);
+            if ((buffer.getLong(HEADER_LENGTH + 8 * (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+            hash += step;
+        }
+        return true;
+    }
+
+    private int indexOf(long[] key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int record = recordsOffset + middle * width;
+            int comparison = 0;
+            for (int w = 0; w < words && comparison == 0; w++) {
+                comparison = Long.compareUnsigned(buffer.getLong(record + 8 * w), key[w]);
+            }
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private static void addToBloom(long[] bloom, long[] key) {
+        long hash = hash(key);
+        long step = mix(hash) | 1;
+        int mask = bloom.length * 64 - 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (int) (hash & mask);
+            bloom[bit >>> 6] |= 1L << bit;
+            hash += step;
+        }
+    }
+
+    private static long hash(long[] key) {
+        long hash = 0;
+        for (long word : key) {
+            hash = mix(hash ^ word);
+        }
+        return hash;
+    }
+
+    /**
+     * The finaliser of SplitMix64, which spreads every input bit over the whole output.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * Sign extend two's complement octets to a record of big-endian words.
+     */
+    static long[] key(byte[] octets, int length, int words) {
+        long[] key = new long[words];
+        long fill = length > 0 && octets[0] < 0 ? -1L : 0L;
+        int padding = words * 8 - length;
+        for (int i = 0; i < words * 8; i++) {
+            long octet = i < padding ? fill & 0xFF : octets[i - padding] & 0xFF;
+            key[i >>> 3] = (key[i >>> 3] << 8) | octet;
+        }
+        return key;
+    }
+
+    /**
+     * Sort records of {@code words} longs as unsigned big-endian numbers and drop repeats.
+     *
+     * @return The number of records left at the start of the array.
+     */
+    private static int sortUnique(long[] records, int words) {
+        int count = records.length / words;
+        long[] pivot = new long[words];
+        quicksort(records, words, 0, count - 1, pivot);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique > 0 && compare(records, words, unique - 1, i) == 0) {
+                continue;
+            }
+            if (unique != i) {
+                System.arraycopy(records, i * words, records, unique * words, words);
+            }
+            unique++;
+        }
+        return unique;
+    }
+
+    private static void quicksort(long[] records, int words, int low, int high, long[] pivot) {
+        while (high - low > 16) {
+            int middle = (low + high) >>> 1;
+            // Median of three, so CRLs that are already sorted, as most are, split evenly
+            if (compare(records, words, middle, low) < 0) {
+                swap(records, words, middle, low);
+            }
+            if (compare(records, words, high, low) < 0) {
+                swap(records, words, high, low);
+            }
+            if (compare(records, words, high, middle) < 0) {
+                swap(records, words, high, middle);
+            }
+            System.arraycopy(records, middle * words, pivot, 0, words);
+
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compareTo(records, words, i, pivot) < 0) {
+                    i++;
+                }
+                while (compareTo(records, words, j, pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(records, words, i++, j--);
+                }
+            }
+            // Recurse into the smaller side, so the stack stays shallow
+            if (j - low < high - i) {
+                quicksort(records, words, low, j, pivot);
+                low = i;
+            } else {
+                quicksort(records, words, i, high, pivot);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && compare(records, words, j - 1, j) > 0; j--) {
+                swap(records, words, j - 1, j);
+            }
+        }
+    }
+
+    private static int compare(long[] records, int words, int a, int b) {
+        for (int w = 0; w < words; w++) {
+            int comparison = Long.compareUnsigned(records[a * words + w], records[b * words + w]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareTo(long[] records, int words, int a, long[] key) {
+        for (int w = 0; w < words; w++) {
+            int comparison = Long.compareUnsigned(records[a * words + w], key[w]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    private static void swap(long[] records, int words, int a, int b) {
+        for (int w = 0; w < words; w++) {
+            long record = records[a * words + w];
+            records[a * words + w] = records[b * words + w];
+            records[b * words + w] = record;
+        }
+    }
+
+    /**
+     * Serial numbers gathered while parsing, packed as a length octet and then the octets of each.
+     */
+    static final class SerialList {
+
+        private byte[] octets = new byte[4096];
+        private int size;
+        private int count;
+        private int maxLength;
+
+        void add(byte[] serial, int offset, int length) {
+            if (size + length + 1 > octets.length) {
+                octets = Arrays.copyOf(octets, Math.max(octets.length * 2, size + length + 1));
+            }
+            octets[size++] = (byte) length;
+            System.arraycopy(serial, offset, octets, size, length);
+            size += length;
+            count++;
+            maxLength = Math.max(maxLength, length);
+        }
+
+        int maxLength() {
+            return maxLength;
+        }
+
+        /**
+         * @return The serial numbers as records of {@code words} longs each.
+         */
+        long[] records(int words) {
+            long[] records = new long[Math.multiplyExact(count, words)];
+            int position = 0;
+            byte[] serial = new byte[MAX_SERIAL_NUMBER_OCTETS];
+            for (int i = 0; i < count; i++) {
+                int length = octets[position++];
+                System.arraycopy(octets, position, serial, 0, length);
+                position += length;
+                System.arraycopy(key(serial, length, words), 0, records, i * words, words);
+            }
+            return records;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package dev.wobbegong.kmsca.crl;
+
+import dev.wobbegong.kmsca.entities.pkcs12.RevocationReason;
+import dev.wobbegong.kmsca.entities.pkcs12.RevokedCertificate;
+
+import java.math.BigInteger;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+/**
+ * The revoked certificates of a CA, sorted by serial number.
+ *
+ * <p>Most entries are kept in a {@link Snapshot}: packed arrays of serial number octets, dates, reasons and revocation
+ * sequence numbers, a few dozen bytes an entry and no object per entry. New revocations go to a small sorted map and
+ * are merged into a new snapshot when the map grows to {@code mergeThreshold} entries or an eighth of the snapshot,
+ * whichever is larger, so each entry is copied a bounded number of times however large the store grows. Snapshots
+ * never change, so a {@link CRLIssuer} can stream one while revocations continue.</p>
+ *
+ * <p>Every revocation is given the next sequence number, which is how a delta CRL finds what was revoked after its
+ * base CRL. Certificates cannot be taken off hold, so {@link RevocationReason#removeFromCRL} is not accepted.</p>
+ *
+ * <p>Instances are thread safe.</p>
+ */
+public class RevocationStore {
+
+    public static final int DEFAULT_MERGE_THRESHOLD = 4096;
+
+    /**
+     * RFC 5280 4.1.2.2 limits serial numbers to 20 octets.
+     */
+    private static final int MAX_SERIAL_NUMBER_OCTETS = 20;
+
+    /**
+     * GeneralizedTime can only hold years 0 to 9999.
+     */
+    private static final long MIN_REVOCATION_SECONDS = -62167219200L;
+    private static final long MAX_REVOCATION_SECONDS = 253402300799L;
+
+    private static final byte NO_REASON = -1;
+
+    private record Pending(long revocationSeconds, byte reason, long sequence) {
+
+    }
+
+    private final int mergeThreshold;
+    private final TreeMap<BigInteger, Pending> pending = new TreeMap<>();
+    private Snapshot snapshot = Snapshot.EMPTY;
+    private long sequence;
+
+    public RevocationStore() {
+        this(DEFAULT_MERGE_THRESHOLD);
+    }
+
+    /**
+     * @param mergeThreshold The fewest new revocations that are merged into the packed entries at once.
+     */
+    public RevocationStore(int mergeThreshold) {
+        if (mergeThreshold < 1) {
+            throw new IllegalArgumentException("Merge threshold must be at least 1. Actual: " + mergeThreshold);
+        }
+        this.mergeThreshold = mergeThreshold;
+    }
+
+    /**
+     * Revoke a certificate.
+     *
+     * @param serialNumber   The serial number of the certificate. Must be positive.
+     * @param revocationDate When the certificate was revoked. Fractions of a second are dropped.
+     * @param reason         Why the certificate was revoked, or null to give no reason.
+     * @return False if the certificate was already revoked, in which case nothing changes.
+     */
+    public synchronized boolean revoke(BigInteger serialNumber, Instant revocationDate, RevocationReason reason) {
+        byte[] serial = serialOctets(serialNumber);
+        long seconds = revocationDate.getEpochSecond();
+        if (seconds < MIN_REVOCATION_SECONDS || seconds > MAX_REVOCATION_SECONDS) {
+            throw new IllegalArgumentException("Revocation date must be within years 0 to 9999. Actual: " + revocationDate);
+        }
+        if (reason == RevocationReason.removeFromCRL) {
+            throw new IllegalArgumentException("Certificates cannot be removed from CRLs.");
+        }
+        if (pending.containsKey(serialNumber) || snapshot.indexOf(serial) >= 0) {
+            return false;
+        }
+
+        pending.put(serialNumber, new Pending(seconds, reason == null ? NO_REASON : (byte) reason.code, ++sequence));
+        if (pending.size() >= Math.max(mergeThreshold, snapshot.size() / 8)) {
+            merge();
+        }
+        return true;
+    }
+
+    /**
+     * @return The entry of a revoked certificate, or null if it has not been revoked.
+     */
+    public synchronized RevokedCertificate get(BigInteger serialNumber) {
+        Pending entry = pending.get(serialNumber);
+        if (entry != null) {
+            return new RevokedCertificate(serialNumber, Instant.ofEpochSecond(entry.revocationSeconds()), reasonFor(entry.reason()));
+        }
+        if (serialNumber.signum() <= 0) {
+            return null;
+        }
+        int index = snapshot.indexOf(serialNumber.toByteArray());
+        return index < 0 ? null : snapshot.get(index);
+    }
+
+    public boolean isRevoked(BigInteger serialNumber) {
+        return get(serialNumber) != null;
+    }
+
+    /**
+     * @return The number of revoked certificates.
+     */
+    public synchronized int size() {
+        return snapshot.size() + pending.size();
+    }
+
+    /**
+     * @return All entries revoked so far, merging any new ones first.
+     */
+    synchronized Snapshot snapshot() {
+        if (!pending.isEmpty()) {
+            merge();
+        }
+        return snapshot;
+    }
+
+    private void merge() {
+        snapshot = snapshot.merge(pending, sequence);
+        pending.clear();
+    }
+
+    private static byte[] serialOctets(BigInteger serialNumber) {
+        if (serialNumber.signum() <= 0) {
+            throw new IllegalArgumentException("Serial number must be positive.");
+        }
+        byte[] serial = serialNumber.toByteArray();
+        if (serial.length > MAX_SERIAL_NUMBER_OCTETS) {
+            throw new IllegalArgumentException("Serial number must be at most " + MAX_SERIAL_NUMBER_OCTETS + " octets. Actual: " + serial.length);
+        }
+        return serial;
+    }
+
+    private static RevocationReason reasonFor(byte code) {
+        if (code == NO_REASON) {
+            return null;
+        }
+        for (RevocationReason reason : RevocationReason.values()) {
+            if (reason.code == code) {
+                return reason;
+            }
+        }
+        throw new IllegalStateException("Unknown reason code: " + code);
+    }
+
+    /**
+     * An immutable, sorted set of entries. Serial numbers are kept as the contents octets of their DER INTEGERs, which
+     * for positive numbers sort the same as the numbers when compared by length and then octet by octet.
+     */
+    static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(new byte[0], new int[]{0}, new long[0], new byte[0], new long[0], 0);
+
+        private final byte[] serials;
+        /**
+         * The offset of each serial number in {@link #serials}, and its end as the next offset.
+         */
+        private final int[] offsets;
+        private final long[] revocationSeconds;
+        private final byte[] reasons;
+        private final long[] sequences;
+        private final long sequence;
+
+        private Snapshot(byte[] serials, int[] offsets, long[] revocationSeconds, byte[] reasons, long[] sequences, long sequence) {
+            this.serials = serials;
+            this.offsets = offsets;
+            this.revocationSeconds = revocationSeconds;
+            this.reasons = reasons;
+            this.sequences = sequences;
+            this.sequence = sequence;
+        }
+
+        int size() {
+            return revocationSeconds.length;
+        }
+
+        /**
+         * @return The sequence number of the last revocation included.
+         */
+        long sequence() {
+            return sequence;
+        }
+
+        byte[] serials() {
+            return serials;
+        }
+
+        int serialOffset(int index) {
+            return offsets[index];
+        }
+
+        int serialLength(int index) {
+            return offsets[index + 1] - offsets[index];
+        }
+
+        long revocationSeconds(int index) {
+            return revocationSeconds[index];
+        }
+
+        /**
+         * @return The reason code, or -1 if no reason was given.
+         */
+        int reasonCode(int index) {
+            return reasons[index];
+        }
+
+        long sequence(int index) {
+            return sequences[index];
+        }
+
+        RevokedCertificate get(int index) {
+            BigInteger serialNumber = new BigInteger(serials, offsets[index], serialLength(index));
+            return new RevokedCertificate(serialNumber, Instant.ofEpochSecond(revocationSeconds[index]), reasonFor(reasons[index]));
+        }
+
+        /**
+         * @return The index of the serial number octets, or a negative number if they are not here.
+         */
+        int indexOf(byte[] serial) {
+            int low = 0;
+            int high = size() - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = compare(middle, serial);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        private int compare(int index, byte[] serial) {
+            int length = serialLength(index);
+            if (length != serial.length) {
+                return Integer.compare(length, serial.length);
+            }
+            return Arrays.compareUnsigned(serials, offsets[index], offsets[index + 1], serial, 0, serial.length);
+        }
+
+        /**
+         * Merge new entries, none of which are here already, into a new snapshot.
+         */
+        Snapshot merge(TreeMap<BigInteger, Pending> added, long sequence) {
+            int size = size() + added.size();
+            byte[][] addedSerials = new byte[added.size()][];
+            int addedOctets = 0;
+            int a = 0;
+            for (BigInteger serialNumber : added.keySet()) {
+                addedSerials[a] = serialNumber.toByteArray();
+                addedOctets += addedSerials[a++].length;
+            }
+
+            byte[] mergedSerials = new byte[Math.addExact(serials.length, addedOctets)];
+            int[] mergedOffsets = new int[size + 1];
+            long[] mergedSeconds = new long[size];
+            byte[] mergedReasons = new byte[size];
+            long[] mergedSequences = new long[size];
+
+            Iterator<Pending> addedEntries = added.values().iterator();
+            int i = 0;
+            a = 0;
+            int octets = 0;
+            for (int m = 0; m < size; m++) {
+                mergedOffsets[m] = octets;
+                if (a < addedSerials.length && (i == size() || compare(i, addedSerials[a]) > 0)) {
+                    byte[] serial = addedSerials[a++];
+                    Pending entry = addedEntries.next();
+                    System.arraycopy(serial, 0, mergedSerials, octets, serial.length);
+                    octets += serial.length;
+                    mergedSeconds[m] = entry.revocationSeconds();
+                    mergedReasons[m] = entry.reason();
+                    mergedSequences[m] = entry.sequence();
+                } else {
+                    int length = serialLength(i);
+                    System.arraycopy(serials, offsets[i], mergedSerials, octets, length);
+                    octets += length;
+                    mergedSeconds[m] = revocationSeconds[i];
+                    mergedReasons[m] = reasons[i];
+                    mergedSequences[m] = sequences[i];
+                    i++;
+                }
+            }
+            mergedOffsets[size] = octets;
+            return new Snapshot(mergedSerials, mergedOffsets, mergedSeconds, mergedReasons, mergedSequences, sequence);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Contains certificate revocation list generation.
+ *
+ * <p>Revoked certificates are held by a {@link dev.wobbegong.kmsca.crl.RevocationStore} in packed arrays sorted by
+ * serial number, and a {@link dev.wobbegong.kmsca.crl.CRLIssuer} streams CRLs and delta CRLs from them, encoding one
+ * entry at a time, so CRLs of millions of entries are never held in memory.</p>
+ */
+package dev.wobbegong.kmsca.crl;
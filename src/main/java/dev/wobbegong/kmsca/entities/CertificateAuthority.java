@@ -0,0 +1,23 @@
+package dev.wobbegong.kmsca.entities;
+
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.signing.SigningProvider;
+
+/**
+ * The issuer of certificates.
+ *
+ * @param subject       The DER encoding of the CA's subject name, which becomes the issuer name of the certificates it
+ *                      signs.
+ * @param keyIdentifier The subject key identifier of the CA, used as the authority key identifier of the certificates
+ *                      it signs.
+ * @param signer        The key certificates are signed with.
+ */
+public record CertificateAuthority(byte[] subject, byte[] keyIdentifier, SigningProvider signer) {
+
+    /**
+     * @return The signature algorithm used with the key.
+     */
+    public KnownOids signatureAlgorithm() {
+        return signer.signatureAlgorithm();
+    }
+}
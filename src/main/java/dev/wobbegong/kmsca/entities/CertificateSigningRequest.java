@@ -1,5 +1,26 @@
 package dev.wobbegong.kmsca.entities;
 
-public class CertificateSigningRequest {
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.pkcs12.X500Name;
+
+/**
+ * A parsed PKCS#10 certificate signing request. The subject and public key are kept in their original DER encoding so
+ * they can be copied into the issued certificate unchanged.
+ *
+ * @param encoded                  The DER encoding of the whole request.
+ * @param certificationRequestInfo The DER encoding of the signed part of the request.
+ * @param subject                  The DER encoding of the subject name.
+ * @param subjectName              The decoded subject name.
+ * @param subjectPublicKeyInfo     The DER encoding of the subject public key info.
+ * @param publicKeyAlgorithm       The algorithm of the subject public key.
+ * @param signatureAlgorithm       The algorithm the request was self-signed with.
+ * @param signature                The self-signature over the certification request info.
+ * @param requestedSubjectAltName  The DER encoded GeneralNames of a requested subject alternative name extension, or
+ *                                 null if none was requested.
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc2986">RFC-2986</a>
+ */
+public record CertificateSigningRequest(byte[] encoded, byte[] certificationRequestInfo, byte[] subject, X500Name subjectName,
+                                        byte[] subjectPublicKeyInfo, KnownOids publicKeyAlgorithm, KnownOids signatureAlgorithm,
+                                        byte[] signature, byte[] requestedSubjectAltName) {
 
 }
@@ -3,9 +3,10 @@ package dev.wobbegong.kmsca.entities;
 /**
  * Represents an encrypted key. Safe to be stored or transmitted. Requires access to the CA root key in KMS to decrypt.
  *
- * @param kmsEncryptedAESKey The secret encrypted with the AWS KMS Master Key. Used to generate the AES256 key when decrypting the private key.
+ * @param kmsEncryptedAESKey The secret encrypted with the AWS KMS Master Key, Base64 encoded. Used to generate the AES256 key when decrypting the private key.
  * @param iv The initialization vector used to encrypt the private key.
- * @param privateKey The private key encrypted with the encrypted key.
+ * @param privateKey The PKCS#8 private key encrypted with AES GCM under the decrypted key, Base64 encoded.
+ * @see dev.wobbegong.kmsca.keys.DataKeyCache
  */
 public record EncryptedPrivateKey(String kmsEncryptedAESKey, byte[] iv, String privateKey) {
 
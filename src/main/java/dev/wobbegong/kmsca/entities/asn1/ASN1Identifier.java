@@ -1,6 +1,100 @@
 package dev.wobbegong.kmsca.entities.asn1;
 
-public record ASN1Identifier(TagClass tagClass, boolean isPrimitive, ASN1TagType tagType) {
+/**
+ * The decoded identifier octets of an ASN.1 item.
+ *
+ * @param tagClass    The class of the tag, from the top two bits of the first identifier octet.
+ * @param isPrimitive False if the constructed bit of the first identifier octet is set.
+ * @param tagType     The tag type for the tag number. Non-universal tags are mapped by their number, and tag numbers
+ *                    above the known universal types are {@link ASN1TagType#UNKNOWN}.
+ * @param tagNumber   The tag number. Numbers of 31 and up are encoded in base 128 after the first identifier octet.
+ */
+public record ASN1Identifier(TagClass tagClass, boolean isPrimitive, ASN1TagType tagType, int tagNumber) {
+
+    /**
+     * The low five bits of the first identifier octet that mark a tag number encoded in the following octets.
+     */
+    public static final int HIGH_TAG_NUMBER = 0x1F;
+
+    /**
+     * One decoded identifier per possible first identifier octet. Entries for octets that start a high tag number have
+     * a null tag type, as the tag number is only known once the following octets are read.
+     */
+    private static final ASN1Identifier[] BY_OCTET = new ASN1Identifier[256];
+
+    static {
+        for (int octet = 0; octet < BY_OCTET.length; octet++) {
+            TagClass tagClass = TagClass.forValue((octet >> 6) & 0b11);
+            boolean isPrimitive = (octet & 0b0010_0000) == 0;
+            int tagNumber = octet & HIGH_TAG_NUMBER;
+            ASN1TagType tagType = tagNumber == HIGH_TAG_NUMBER ? null : ASN1TagType.fromOrdinal(tagNumber);
+            BY_OCTET[octet] = new ASN1Identifier(tagClass, isPrimitive, tagType, tagNumber);
+        }
+    }
+
+    public ASN1Identifier(TagClass tagClass, boolean isPrimitive, ASN1TagType tagType) {
+        this(tagClass, isPrimitive, tagType, tagNumberOf(tagType));
+    }
+
+    private static int tagNumberOf(ASN1TagType tagType) {
+        if (tagType == ASN1TagType.UNKNOWN) {
+            throw new IllegalArgumentException("An unknown tag type needs its tag number.");
+        }
+        return tagType.ordinal;
+    }
+
+    /**
+     * Decode a single identifier octet with one array load. The returned instances are shared.
+     *
+     * @param octet The first identifier octet.
+     * @return The identifier. If {@link #isHighTagNumber()} is true, the tag number still has to be read from the
+     * following octets.
+     */
+    public static ASN1Identifier forOctet(int octet) {
+        return BY_OCTET[octet & 0xFF];
+    }
+
+    /**
+     * Get the identifier for a tag number that was encoded after the first identifier octet.
+     *
+     * @param firstOctet The first identifier octet.
+     * @param tagNumber  The decoded tag number.
+     * @return The identifier.
+     */
+    public static ASN1Identifier forHighTagNumber(int firstOctet, int tagNumber) {
+        ASN1Identifier first = forOctet(firstOctet);
+        return new ASN1Identifier(first.tagClass, first.isPrimitive, ASN1TagType.fromOrdinal(tagNumber), tagNumber);
+    }
+
+    /**
+     * Get the identifier used when encoding a universal tag type.
+     *
+     * @param tagType The tag type.
+     * @return The identifier, constructed for sequences and sets.
+     */
+    public static ASN1Identifier universal(ASN1TagType tagType) {
+        tagNumberOf(tagType);
+        boolean constructed = tagType == ASN1TagType.SEQUENCE || tagType == ASN1TagType.SET;
+        if (tagType.ordinal < HIGH_TAG_NUMBER) {
+            return forOctet(tagType.ordinal | (constructed ? 0b0010_0000 : 0));
+        }
+        return new ASN1Identifier(TagClass.Universal, !constructed, tagType, tagType.ordinal);
+    }
+
+    /**
+     * @return True if this is a shared entry for a first identifier octet whose tag number has not been read yet.
+     */
+    public boolean isHighTagNumber() {
+        return tagType == null;
+    }
+
+    /**
+     * @return The first identifier octet.
+     */
+    public int firstOctet() {
+        int tagBits = tagNumber < HIGH_TAG_NUMBER ? tagNumber : HIGH_TAG_NUMBER;
+        return (tagClass.value << 6) | (isPrimitive ? 0 : 0b0010_0000) | tagBits;
+    }
 
     public enum TagClass {
         /**
@@ -25,23 +119,22 @@ public record ASN1Identifier(TagClass tagClass, boolean isPrimitive, ASN1TagType
 
         public final int value;
 
+        private static final TagClass[] BY_VALUE = {Universal, Application, ContextSpecific, Private};
+
         TagClass(int value) {
             this.value = value;
         }
 
         public static TagClass forValue(int value) {
-            return switch (value) {
-                case 0 -> Universal;
-                case 1 -> Application;
-                case 2 -> ContextSpecific;
-                case 3 -> Private;
-                default -> throw new IllegalArgumentException("2-bit Tag Class must be between 0 and 3. Actual: " + value);
-            };
+            if (value < 0 || value >= BY_VALUE.length) {
+                throw new IllegalArgumentException("2-bit Tag Class must be between 0 and 3. Actual: " + value);
+            }
+            return BY_VALUE[value];
         }
     }
 
     @Override
     public String toString() {
-        return "{tagClass=\"" + tagClass.name() + "\", isPrimitive=" + isPrimitive + ", tagType=\"" + tagType + "\"}";
+        return "{tagClass=\"" + tagClass.name() + "\", isPrimitive=" + isPrimitive + ", tagType=\"" + tagType + "\", tagNumber=" + tagNumber + "}";
     }
 }
@@ -43,7 +43,12 @@ public enum ASN1TagType {
     DATE_TIME(0x21, "P", "DATE-TIME"),
     DURATION(0x22, "P", "DURATION"),
     OID_IRI(0x23, "P", "OID-IRI"),
-    RELATIVE_OID_IRI(0x24, "P", "RELATIVE-OID-IRI");
+    RELATIVE_OID_IRI(0x24, "P", "RELATIVE-OID-IRI"),
+    /**
+     * Any tag number above the ones listed here, such as the high tag numbers used by context specific and application
+     * tags. The tag number itself is kept by {@link ASN1Identifier#tagNumber()}.
+     */
+    UNKNOWN(-1, "PC", "UNKNOWN");
 
     public final int ordinal;
     public final boolean allowPrimitive;
@@ -73,10 +78,28 @@ public enum ASN1TagType {
         }
     }
 
+    /**
+     * Tag types indexed by their tag number, so that decoding a tag does not have to scan the enum.
+     */
+    private static final ASN1TagType[] BY_ORDINAL;
+
+    static {
+        BY_ORDINAL = new ASN1TagType[Arrays.stream(values()).mapToInt(type -> type.ordinal).max().orElse(0) + 1];
+        for (ASN1TagType type : values()) {
+            if (type != UNKNOWN) {
+                BY_ORDINAL[type.ordinal] = type;
+            }
+        }
+    }
+
+    /**
+     * @param ordinal The tag number.
+     * @return The tag type, or {@link #UNKNOWN} for tag numbers above the ones listed.
+     */
     public static ASN1TagType fromOrdinal(int ordinal) {
-        return Arrays.stream(ASN1TagType.values())
-                .filter(type -> type.ordinal == ordinal)
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("Cannot find tag type for: " + ordinal));
+        if (ordinal < 0) {
+            throw new RuntimeException("Cannot find tag type for: " + ordinal);
+        }
+        return ordinal < BY_ORDINAL.length ? BY_ORDINAL[ordinal] : UNKNOWN;
     }
 }
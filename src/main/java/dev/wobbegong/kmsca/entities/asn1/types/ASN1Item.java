@@ -1,38 +1,180 @@
 package dev.wobbegong.kmsca.entities.asn1.types;
 
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
 import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.utils.DEREncodingUtils;
 import org.bouncycastle.util.encoders.Hex;
 
+import java.nio.ByteBuffer;
+
 public class ASN1Item {
     public final int length;
     public final int start;
     private final ASN1TagType type;
-    private final byte[] derContents;
+    private final ASN1Identifier identifier;
+
+    /**
+     * When parsed as a view, the buffer holding the DER data and the absolute index of the first content octet. The
+     * contents are only copied out of the backing buffer when {@link #contents()} is called.
+     */
+    private final ByteBuffer backing;
+    private final int contentsOffset;
+    private volatile byte[] derContents;
 
     public ASN1Item(int start, ASN1TagType type, byte[] contents) {
         this.start = start;
         this.type = type;
+        this.identifier = ASN1Identifier.universal(type);
         this.derContents = contents;
         this.length = contents.length;
+        this.backing = null;
+        this.contentsOffset = 0;
     }
 
     public ASN1Item(int length, int start, ASN1TagType type, byte[] contents) {
+        this(length, start, ASN1Identifier.universal(type), contents);
+    }
+
+    public ASN1Item(int length, int start, ASN1Identifier identifier, byte[] contents) {
         this.length = length;
         this.start = start;
-        this.type = type;
+        this.type = identifier.tagType();
+        this.identifier = identifier;
         this.derContents = contents;
+        this.backing = null;
+        this.contentsOffset = 0;
+    }
+
+    /**
+     * Create an item that views its contents in a shared buffer instead of owning a copy of them.
+     *
+     * @param length         The length of the contents in octets.
+     * @param start          The absolute index of the identifier octet in the backing buffer.
+     * @param identifier     The decoded identifier of the item.
+     * @param backing        The buffer holding the DER data. Only absolute reads are made against it.
+     * @param contentsOffset The absolute index of the first content octet in the backing buffer.
+     */
+    public ASN1Item(int length, int start, ASN1Identifier identifier, ByteBuffer backing, int contentsOffset) {
+        this.length = length;
+        this.start = start;
+        this.type = identifier.tagType();
+        this.identifier = identifier;
+        this.backing = backing;
+        this.contentsOffset = contentsOffset;
+    }
+
+    /**
+     * Create an item whose contents are only encoded when first read, through {@link #encodeContents()}.
+     *
+     * @param length     The length of the contents in octets.
+     * @param start      The index of the identifier octet.
+     * @param identifier The identifier of the item.
+     */
+    protected ASN1Item(int length, int start, ASN1Identifier identifier) {
+        this.length = length;
+        this.start = start;
+        this.type = identifier.tagType();
+        this.identifier = identifier;
+        this.backing = null;
+        this.contentsOffset = 0;
+    }
+
+    /**
+     * Encode the contents of an item created without them. Only called once the contents are first read.
+     *
+     * @return The content octets.
+     */
+    protected byte[] encodeContents() {
+        throw new IllegalStateException("Item has no contents to encode.");
     }
 
     public ASN1TagType type() {
         return type;
     }
 
+    /**
+     * @return The identifier the item was parsed with, or the universal identifier for its type.
+     */
+    public ASN1Identifier identifier() {
+        return identifier;
+    }
+
+    /**
+     * @return The content octets of the item. Views copy their contents out of the backing buffer on the first call,
+     * and items built from other items encode them on the first call.
+     */
     public byte[] contents() {
-        return derContents;
+        byte[] contents = derContents;
+        if (contents == null) {
+            if (backing == null) {
+                contents = encodeContents();
+            } else {
+                contents = new byte[length];
+                backing.get(contentsOffset, contents);
+            }
+            derContents = contents;
+        }
+        return contents;
+    }
+
+    /**
+     * @return A read-only buffer over the content octets. Views return a slice of the backing buffer without copying.
+     */
+    public ByteBuffer contentsBuffer() {
+        if (backing != null) {
+            return backing.slice(contentsOffset, length).asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(contents()).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return A read-only buffer over the whole DER encoding of the item, including its identifier and length octets.
+     * Views return a slice of the backing buffer without copying, so the octets are exactly those that were parsed.
+     * Other items are encoded.
+     */
+    public ByteBuffer encodedBuffer() {
+        if (backing != null) {
+            return backing.slice(start, contentsOffset + length - start).asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(DEREncodingUtils.encodeItem(this)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Read a single content octet without copying the contents.
+     *
+     * @param index The index of the octet within the contents.
+     * @return The octet at that index.
+     */
+    public byte contentAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside of contents with length " + length);
+        }
+        if (backing != null) {
+            return backing.get(contentsOffset + index);
+        }
+        return contents()[index];
+    }
+
+    /**
+     * @return True if this item views a shared backing buffer rather than owning a copy of its contents.
+     */
+    public boolean isView() {
+        return backing != null;
+    }
+
+    /**
+     * @return For views, the absolute index of the first content octet in the backing buffer. Otherwise 0.
+     */
+    public int contentsOffset() {
+        return contentsOffset;
+    }
+
+    protected ByteBuffer backing() {
+        return backing;
     }
 
     @Override
     public String toString() {
-        return "{ type=\"" + type.name() + "\", contents=\"" + Hex.toHexString(derContents) + "\"}" ;
+        return "{ type=\"" + type.name() + "\", contents=\"" + Hex.toHexString(contents()) + "\"}" ;
     }
 }
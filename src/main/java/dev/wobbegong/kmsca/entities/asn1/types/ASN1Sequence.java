@@ -1,29 +1,104 @@
 package dev.wobbegong.kmsca.entities.asn1.types;
 
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
 import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
 import dev.wobbegong.kmsca.utils.DEREncodingUtils;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
 public class ASN1Sequence extends ASN1Item {
 
-    public final List<ASN1Item> asn1ItemList;
+    /**
+     * Null until first read for lazily parsed sequences.
+     */
+    private volatile List<ASN1Item> asn1ItemList;
+
+    /**
+     * The length of the contents when encoded from the items, or -1 until first computed.
+     */
+    private int encodedContentsLength = -1;
 
     public ASN1Sequence(int length, int start, List<ASN1Item> asn1ItemList, byte[] contents) {
         super(length, start, ASN1TagType.SEQUENCE, contents);
         this.asn1ItemList = List.copyOf(asn1ItemList);
     }
 
+    /**
+     * Create a sequence that views its contents in a shared buffer. The list of items is taken as-is and must not be
+     * modified by the caller afterwards.
+     */
+    public ASN1Sequence(int length, int start, List<ASN1Item> asn1ItemList, ByteBuffer backing, int contentsOffset) {
+        super(length, start, ASN1Identifier.universal(ASN1TagType.SEQUENCE), backing, contentsOffset);
+        this.asn1ItemList = Collections.unmodifiableList(asn1ItemList);
+    }
+
+    /**
+     * Create a lazy sequence that views its contents in a shared buffer. The items inside the sequence are not parsed
+     * until {@link #asn1ItemList()} is first called.
+     */
+    public ASN1Sequence(int length, int start, ByteBuffer backing, int contentsOffset) {
+        super(length, start, ASN1Identifier.universal(ASN1TagType.SEQUENCE), backing, contentsOffset);
+    }
+
+    /**
+     * Create a sequence from items. Only the lengths of the items are computed here. The contents are encoded when
+     * first read, and {@link DEREncodingUtils#encodeInto} writes the items directly without encoding them at all.
+     */
     public ASN1Sequence(List<ASN1Item> asn1ItemList) {
-        super( 0, ASN1TagType.SEQUENCE, DEREncodingUtils.encodeSequenceContents(asn1ItemList));
+        super(DEREncodingUtils.encodedLength(asn1ItemList), 0, ASN1Identifier.universal(ASN1TagType.SEQUENCE));
         this.asn1ItemList = List.copyOf(asn1ItemList);
     }
 
+    @Override
+    protected byte[] encodeContents() {
+        return DEREncodingUtils.encodeSequenceContents(asn1ItemList());
+    }
+
+    /**
+     * @return The items inside the sequence. Lazy sequences parse their direct children on the first call, leaving any
+     * constructed children lazy in turn.
+     */
+    public List<ASN1Item> asn1ItemList() {
+        List<ASN1Item> items = asn1ItemList;
+        if (items == null) {
+            // Parsing is idempotent, so racing threads at worst parse the same children twice.
+            items = Collections.unmodifiableList(DERDecodingUtils.lazyItemsIn(backing(), contentsOffset(), length));
+            asn1ItemList = items;
+        }
+        return items;
+    }
+
+    /**
+     * @return False for lazy sequences whose items have not been read yet.
+     */
+    public boolean isExpanded() {
+        return asn1ItemList != null;
+    }
+
+    /**
+     * @return The length of the contents when encoded from the items. Computed once, as the items cannot change.
+     * Unexpanded sequences are encoded from their original contents.
+     */
+    public int encodedContentsLength() {
+        if (!isExpanded()) {
+            return length;
+        }
+        int contentsLength = encodedContentsLength;
+        if (contentsLength < 0) {
+            contentsLength = DEREncodingUtils.encodedLength(asn1ItemList());
+            encodedContentsLength = contentsLength;
+        }
+        return contentsLength;
+    }
+
     @Override
     public String toString() {
         return "[" +
-                asn1ItemList.stream().map(Object::toString).collect(Collectors.joining(", ")) +
+                asn1ItemList().stream().map(Object::toString).collect(Collectors.joining(", ")) +
                 "]";
 
     }
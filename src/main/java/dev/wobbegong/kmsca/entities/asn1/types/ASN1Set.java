@@ -1,23 +1,105 @@
 package dev.wobbegong.kmsca.entities.asn1.types;
 
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
 import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.DEREncodingUtils;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 public class ASN1Set extends ASN1Item {
 
-    public final Set<ASN1Item> asn1ItemList;
+    /**
+     * Null until first read for lazily parsed sets.
+     */
+    private volatile Set<ASN1Item> asn1ItemList;
+
+    /**
+     * The length of the contents when encoded from the items, or -1 until first computed.
+     */
+    private int encodedContentsLength = -1;
 
     public ASN1Set(int length, int start, Set<ASN1Item> asn1ItemList, byte[] raw) {
         super(length, start, ASN1TagType.SET, raw);
         this.asn1ItemList = Set.copyOf(asn1ItemList);
     }
 
+    /**
+     * Create a set that views its contents in a shared buffer. The set of items is taken as-is and must not be
+     * modified by the caller afterwards. Pass an insertion ordered set to keep the items in their encoded order.
+     */
+    public ASN1Set(int length, int start, Set<ASN1Item> asn1ItemList, ByteBuffer backing, int contentsOffset) {
+        super(length, start, ASN1Identifier.universal(ASN1TagType.SET), backing, contentsOffset);
+        this.asn1ItemList = Collections.unmodifiableSet(asn1ItemList);
+    }
+
+    /**
+     * Create a lazy set that views its contents in a shared buffer. The items inside the set are not parsed until
+     * {@link #asn1ItemList()} is first called.
+     */
+    public ASN1Set(int length, int start, ByteBuffer backing, int contentsOffset) {
+        super(length, start, ASN1Identifier.universal(ASN1TagType.SET), backing, contentsOffset);
+    }
+
+    /**
+     * Create a set from items. Only the lengths of the items are computed here. The contents are encoded in DER order
+     * when first read.
+     */
+    public ASN1Set(Set<ASN1Item> asn1ItemList) {
+        super(DEREncodingUtils.encodedLength(asn1ItemList), 0, ASN1Identifier.universal(ASN1TagType.SET));
+        this.asn1ItemList = Collections.unmodifiableSet(new LinkedHashSet<>(asn1ItemList));
+    }
+
+    @Override
+    protected byte[] encodeContents() {
+        byte[] encoded = DEREncodingUtils.encodeItem(this);
+        return Arrays.copyOfRange(encoded, encoded.length - length, encoded.length);
+    }
+
+    /**
+     * @return The items inside the set. Lazy sets parse their direct children on the first call, in encoded order.
+     */
+    public Set<ASN1Item> asn1ItemList() {
+        Set<ASN1Item> items = asn1ItemList;
+        if (items == null) {
+            items = Collections.unmodifiableSet(new LinkedHashSet<>(DERDecodingUtils.lazyItemsIn(backing(), contentsOffset(), length)));
+            asn1ItemList = items;
+        }
+        return items;
+    }
+
+    /**
+     * @return False for lazy sets whose items have not been read yet.
+     */
+    public boolean isExpanded() {
+        return asn1ItemList != null;
+    }
+
+    /**
+     * @return The length of the contents when encoded from the items. Computed once, as the items cannot change.
+     * Unexpanded sets are encoded from their original contents.
+     */
+    public int encodedContentsLength() {
+        if (!isExpanded()) {
+            return length;
+        }
+        int contentsLength = encodedContentsLength;
+        if (contentsLength < 0) {
+            contentsLength = DEREncodingUtils.encodedLength(asn1ItemList());
+            encodedContentsLength = contentsLength;
+        }
+        return contentsLength;
+    }
+
     @Override
     public String toString() {
         return "[" +
-                asn1ItemList.stream().map(Object::toString).collect(Collectors.joining(", ")) +
+                asn1ItemList().stream().map(Object::toString).collect(Collectors.joining(", ")) +
                 "]";
 
     }
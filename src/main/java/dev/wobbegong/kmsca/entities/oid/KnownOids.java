@@ -1,8 +1,13 @@
 package dev.wobbegong.kmsca.entities.oid;
 
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.utils.DEREncodingUtils;
+
 import java.util.Arrays;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.IntUnaryOperator;
 import java.util.stream.Collectors;
 
 @SuppressWarnings("unused")
@@ -184,25 +189,151 @@ public enum KnownOids {
 
     // PKCS 9 Email OID
     pkcs_9_email("1.2.840.113549.1.9.1", "PKCS #9 Email Address attribute for use in signatures "),
+    extensionRequest("1.2.840.113549.1.9.14", "PKCS #9 Extension request attribute for use in certificate requests"),
+
+    // Certificate extensions (RFC 5280 4.2)
+    subjectKeyIdentifier("2.5.29.14", "Subject key identifier certificate extension"),
+    keyUsage("2.5.29.15", "Key usage certificate extension"),
+    subjectAltName("2.5.29.17", "Subject alternative name certificate extension"),
+    basicConstraints("2.5.29.19", "Basic constraints certificate extension"),
+    authorityKeyIdentifier("2.5.29.35", "Authority key identifier certificate extension"),
+    nameConstraints("2.5.29.30", "Name constraints certificate extension"),
+    cRLDistributionPoints("2.5.29.31", "CRL distribution points certificate extension"),
+    extKeyUsage("2.5.29.37", "Extended key usage certificate extension"),
+
+    // CRL and CRL entry extensions (RFC 5280 5.2, 5.3)
+    cRLNumber("2.5.29.20", "CRL number CRL extension"),
+    reasonCode("2.5.29.21", "Reason code CRL entry extension"),
+    invalidityDate("2.5.29.24", "Invalidity date CRL entry extension"),
+    deltaCRLIndicator("2.5.29.27", "Delta CRL indicator CRL extension"),
+    issuingDistributionPoint("2.5.29.28", "Issuing distribution point CRL extension"),
+    certificateIssuer("2.5.29.29", "Certificate issuer CRL entry extension"),
+    freshestCRL("2.5.29.46", "Freshest CRL certificate and CRL extension"),
+    authorityInfoAccess("1.3.6.1.5.5.7.1.1", "Authority information access certificate extension"),
+
+    // Extended key usage purposes (RFC 5280 4.2.1.12)
+    anyExtendedKeyUsage("2.5.29.37.0", "Any extended key usage"),
+    serverAuth("1.3.6.1.5.5.7.3.1", "TLS web server authentication"),
+    clientAuth("1.3.6.1.5.5.7.3.2", "TLS web client authentication"),
+    codeSigning("1.3.6.1.5.5.7.3.3", "Signing of downloadable executable code"),
+    emailProtection("1.3.6.1.5.5.7.3.4", "Email protection"),
+    timeStamping("1.3.6.1.5.5.7.3.8", "Binding the hash of an object to a time"),
+    ocspSigning("1.3.6.1.5.5.7.3.9", "Signing OCSP responses"),
+
+    // Access methods (RFC 5280 4.2.2.1)
+    ocsp("1.3.6.1.5.5.7.48.1", "Online Certificate Status Protocol"),
+    caIssuers("1.3.6.1.5.5.7.48.2", "Certificates issued to the CA that issued the certificate"),
     ;
     public final String oid;
     public final String desc;
 
+    /**
+     * The DER encoded contents of the OID, without the identifier and length octets.
+     */
+    private final byte[] encoded;
+
     KnownOids(String oid, String desc) {
         this.oid = oid;
         this.desc = desc;
+        this.encoded = DEREncodingUtils.encodeOID(oid);
     }
 
     private static Map<String, KnownOids> MAP;
 
+    /**
+     * Open addressing hash table of the OIDs keyed by their encoded contents, so that decoded OIDs can be resolved
+     * without building their dotted string.
+     */
+    private static final KnownOids[] BY_ENCODED;
+
     static {
         MAP = Arrays.stream(KnownOids.values()).collect(Collectors.toMap(
                 v -> v.oid,
                 v -> v
         ));
+
+        BY_ENCODED = new KnownOids[Integer.highestOneBit(values().length) * 4];
+        for (KnownOids knownOid : values()) {
+            byte[] encoded = knownOid.encoded;
+            int index = hash(encoded.length, i -> encoded[i]) & (BY_ENCODED.length - 1);
+            while (BY_ENCODED[index] != null) {
+                index = (index + 1) & (BY_ENCODED.length - 1);
+            }
+            BY_ENCODED[index] = knownOid;
+        }
     }
 
     public static Optional<KnownOids> forOID(String oid) {
         return Optional.ofNullable(MAP.get(oid));
     }
+
+    /**
+     * Resolve an OID from its DER encoded contents.
+     *
+     * @param oidItem An OBJECT IDENTIFIER item. Its contents are read in place.
+     * @return The known OID, or empty if it is not known.
+     */
+    public static Optional<KnownOids> forEncoded(ASN1Item oidItem) {
+        return Optional.ofNullable(find(oidItem.length, oidItem::contentAt));
+    }
+
+    /**
+     * Resolve an OID from its DER encoded contents.
+     *
+     * @param encoded The array holding the encoded contents.
+     * @param offset  The index of the first octet of the contents.
+     * @param length  The number of octets in the contents.
+     * @return The known OID, or empty if it is not known.
+     */
+    public static Optional<KnownOids> forEncoded(byte[] encoded, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, encoded.length);
+        return Optional.ofNullable(find(length, i -> encoded[offset + i]));
+    }
+
+    /**
+     * @return A copy of the DER encoded contents of the OID.
+     */
+    public byte[] encoded() {
+        return encoded.clone();
+    }
+
+    private static final int FNV_OFFSET_BASIS = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    /**
+     * Look an OID up in {@link #BY_ENCODED}. The contents are read an octet at a time, so a view is not copied.
+     *
+     * @param length  The number of octets in the contents.
+     * @param octetAt The octet of the contents at an index.
+     * @return The known OID, or null.
+     */
+    private static KnownOids find(int length, IntUnaryOperator octetAt) {
+        for (int index = hash(length, octetAt) & (BY_ENCODED.length - 1); BY_ENCODED[index] != null; index = (index + 1) & (BY_ENCODED.length - 1)) {
+            KnownOids candidate = BY_ENCODED[index];
+            if (candidate.encoded.length == length && encodedEquals(candidate.encoded, octetAt)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 32-bit FNV-1a hash of the encoded contents, shared by the table and its lookups.
+     */
+    private static int hash(int length, IntUnaryOperator octetAt) {
+        int hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (octetAt.applyAsInt(i) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static boolean encodedEquals(byte[] encoded, IntUnaryOperator octetAt) {
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] != (byte) octetAt.applyAsInt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,88 @@
+package dev.wobbegong.kmsca.entities.oid;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A bounded, least recently used cache of the dotted strings of OIDs that are not in {@link KnownOids}, keyed by their
+ * DER encoded contents. Repeated unknown OIDs share one String instance instead of being rebuilt on every decode.
+ */
+public final class OIDStringCache {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final OIDStringCache SHARED = new OIDStringCache(DEFAULT_CAPACITY);
+
+    private final Map<EncodedOID, String> cache;
+
+    public OIDStringCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("OID cache capacity must be positive. Actual: " + capacity);
+        }
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<EncodedOID, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return The cache shared by the DER decoder.
+     */
+    public static OIDStringCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Get the cached string for an encoded OID, building and caching it if it is not present.
+     *
+     * @param encoded The DER encoded contents of the OID. The array is not retained.
+     * @param decoder Builds the dotted string from the encoded contents on a cache miss.
+     * @return The shared string for the OID.
+     */
+    public String get(byte[] encoded, Function<byte[], String> decoder) {
+        EncodedOID key = new EncodedOID(encoded);
+        synchronized (cache) {
+            String oid = cache.get(key);
+            if (oid != null) {
+                return oid;
+            }
+        }
+
+        // Decode outside the lock. A racing decode of the same OID keeps whichever string was cached first.
+        String decoded = decoder.apply(encoded);
+        EncodedOID ownedKey = new EncodedOID(encoded.clone(), key.hash);
+        synchronized (cache) {
+            String oid = cache.putIfAbsent(ownedKey, decoded);
+            return oid == null ? decoded : oid;
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * The hash is taken once, when the lookup key is made, and carried over to the copy that is cached.
+     */
+    private record EncodedOID(byte[] encoded, int hash) {
+        EncodedOID(byte[] encoded) {
+            this(encoded, Arrays.hashCode(encoded));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof EncodedOID other && hash == other.hash && Arrays.equals(encoded, other.encoded);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,8 +1,33 @@
 package dev.wobbegong.kmsca.entities.pkcs1;
 
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+
 import java.math.BigInteger;
 
-public record ECPublicKey(ECPoint w, ECParameters parameters, BigInteger n, int h) {
+/**
+ * An elliptic curve public key on a named curve.
+ *
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5480#section-2.2">RFC-5480</a>
+ * @param curve      The OID of the named curve.
+ * @param w          The public point.
+ * @param parameters The domain parameters of the curve. Shared by every key on the same curve.
+ */
+public record ECPublicKey(KnownOids curve, ECPoint w, ECParameters parameters) {
+
+    /**
+     * @return The order of the generator, AKA: n
+     */
+    public BigInteger n() {
+        return parameters.generatorOrder();
+    }
+
+    /**
+     * @return The cofactor of the curve.
+     */
+    public int h() {
+        return parameters.h().intValueExact();
+    }
+
     public record ECPoint(BigInteger x, BigInteger y) {
 
     }
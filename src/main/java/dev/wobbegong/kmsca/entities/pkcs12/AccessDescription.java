@@ -0,0 +1,22 @@
+package dev.wobbegong.kmsca.entities.pkcs12;
+
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+
+/**
+ * One entry of the authority information access certificate extension.
+ *
+ * @param accessMethod   The dotted OID of the kind of service, such as {@link KnownOids#ocsp} or
+ *                       {@link KnownOids#caIssuers}.
+ * @param accessLocation Where the service is, usually a URI.
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-4.2.2.1">RFC-5280 4.2.2.1</a>
+ */
+public record AccessDescription(String accessMethod, GeneralName accessLocation) {
+
+    /**
+     * @param method The access method.
+     * @return True if this entry is for that access method.
+     */
+    public boolean is(KnownOids method) {
+        return method.oid.equals(accessMethod);
+    }
+}
@@ -0,0 +1,20 @@
+package dev.wobbegong.kmsca.entities.pkcs12;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * The authority key identifier certificate extension, which identifies the key that signed the certificate.
+ *
+ * @param keyIdentifier             The subject key identifier of the issuer, or null.
+ * @param authorityCertIssuer       The issuer of the issuer's certificate. Empty if not given.
+ * @param authorityCertSerialNumber The serial number of the issuer's certificate, or null.
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-4.2.1.1">RFC-5280 4.2.1.1</a>
+ */
+public record AuthorityKeyIdentifier(byte[] keyIdentifier, List<GeneralName> authorityCertIssuer,
+                                     BigInteger authorityCertSerialNumber) {
+
+    public AuthorityKeyIdentifier {
+        authorityCertIssuer = List.copyOf(authorityCertIssuer);
+    }
+}
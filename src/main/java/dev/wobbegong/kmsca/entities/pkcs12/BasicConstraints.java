@@ -0,0 +1,14 @@
+package dev.wobbegong.kmsca.entities.pkcs12;
+
+/**
+ * The basic constraints certificate extension.
+ *
+ * @param certificateAuthority True if the certificate may sign other certificates.
+ * @param pathLength           The number of intermediate CAs allowed below this one, or {@link #UNLIMITED_PATH_LENGTH}
+ *                             if the extension has no limit.
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-4.2.1.9">RFC-5280 4.2.1.9</a>
+ */
+public record BasicConstraints(boolean certificateAuthority, int pathLength) {
+
+    public static final int UNLIMITED_PATH_LENGTH = IssuanceProfile.UNLIMITED_PATH_LENGTH;
+}
@@ -0,0 +1,22 @@
+package dev.wobbegong.kmsca.entities.pkcs12;
+
+import dev.wobbegong.kmsca.entities.BitString;
+
+import java.util.List;
+
+/**
+ * One entry of the CRL distribution points certificate extension.
+ *
+ * @param fullName  Where the CRL can be fetched, usually a single URI. Empty if the point has no full name, including
+ *                  when it is named relative to the CRL issuer, which RFC 5280 profiles do not use.
+ * @param reasons   The revocation reasons the CRL covers, or null if it covers all of them.
+ * @param crlIssuer The issuer of the CRL if it is not the issuer of the certificate. Empty if not given.
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-4.2.1.13">RFC-5280 4.2.1.13</a>
+ */
+public record DistributionPoint(List<GeneralName> fullName, BitString reasons, List<GeneralName> crlIssuer) {
+
+    public DistributionPoint {
+        fullName = List.copyOf(fullName);
+        crlIssuer = List.copyOf(crlIssuer);
+    }
+}
@@ -0,0 +1,45 @@
+package dev.wobbegong.kmsca.entities.pkcs12;
+
+/**
+ * A name in a subject alternative name, or in one of the other extensions that carry names.
+ *
+ * @param type    Which kind of name this is.
+ * @param value   The name as text. DNS names, email addresses and URIs as written, IP addresses in their usual notation
+ *                (with a "/" and the mask in name constraints), and registered IDs as dotted OIDs. Null for other names,
+ *                X.400 addresses, directory names and EDI party names, which are only kept encoded.
+ * @param encoded The content octets of the name. For a directory name this is the DER encoding of the Name.
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-4.2.1.6">RFC-5280 4.2.1.6</a>
+ */
+public record GeneralName(Type type, String value, byte[] encoded) {
+
+    public enum Type {
+        otherName(0),
+        rfc822Name(1),
+        dNSName(2),
+        x400Address(3),
+        directoryName(4),
+        ediPartyName(5),
+        uniformResourceIdentifier(6),
+        iPAddress(7),
+        registeredID(8);
+
+        /**
+         * The context specific tag number of the name in the GeneralName CHOICE.
+         */
+        public final int tag;
+
+        private static final Type[] BY_TAG = values();
+
+        Type(int tag) {
+            this.tag = tag;
+        }
+
+        /**
+         * @param tag The context specific tag number.
+         * @return The type, or null if no type has that tag.
+         */
+        public static Type forTag(int tag) {
+            return tag >= 0 && tag < BY_TAG.length ? BY_TAG[tag] : null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package dev.wobbegong.kmsca.entities.pkcs12;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What a certificate issued from a certificate signing request is allowed to contain.
+ *
+ * @param validity                    How long the certificate is valid for, from the time it is issued.
+ * @param backdate                    How far before the time of issue the certificate becomes valid, to allow for clock
+ *                                    skew between the CA and relying parties.
+ * @param keyUsage                    The key usage bits of the certificate. Omitted from the certificate if empty.
+ *                                    keyEncipherment is only set for RSA subject keys.
+ * @param certificateAuthority        True to issue a CA certificate that can sign other certificates.
+ * @param pathLength                  For CA certificates, the number of intermediate CAs allowed below this one. Or
+ *                                    {@link #UNLIMITED_PATH_LENGTH}.
+ * @param dnsNames                    DNS subject alternative names to put in the certificate. These replace any the
+ *                                    request asked for.
+ * @param copyRequestedSubjectAltName True to copy the subject alternative names from the extension request of the CSR
+ *                                    when the profile has no DNS names of its own. The names are copied as requested,
+ *                                    so only set this when the caller has already checked the requester may use them.
+ */
+public record IssuanceProfile(Duration validity, Duration backdate, Set<KeyUsage> keyUsage, boolean certificateAuthority,
+                              int pathLength, List<String> dnsNames, boolean copyRequestedSubjectAltName) {
+
+    public static final int UNLIMITED_PATH_LENGTH = -1;
+
+    private static final Duration DEFAULT_BACKDATE = Duration.ofMinutes(5);
+
+    public IssuanceProfile {
+        if (validity.isNegative() || validity.isZero()) {
+            throw new IllegalArgumentException("Validity must be positive. Actual: " + validity);
+        }
+        if (backdate.isNegative()) {
+            throw new IllegalArgumentException("Backdate cannot be negative. Actual: " + backdate);
+        }
+        if (pathLength < UNLIMITED_PATH_LENGTH) {
+            throw new IllegalArgumentException("Path length must be positive or UNLIMITED_PATH_LENGTH. Actual: " + pathLength);
+        }
+        keyUsage = keyUsage.isEmpty() ? Set.of() : Set.copyOf(EnumSet.copyOf(keyUsage));
+        dnsNames = List.copyOf(dnsNames);
+    }
+
+    /**
+     * @param validity How long the certificate is valid for.
+     * @return A profile for TLS server certificates. It has no subject alternative names until they are given with
+     * {@link #withDnsNames(String...)} or {@link #withRequestedSubjectAltName()}.
+     */
+    public static IssuanceProfile tlsServer(Duration validity) {
+        return new IssuanceProfile(validity, DEFAULT_BACKDATE, EnumSet.of(KeyUsage.digitalSignature, KeyUsage.keyEncipherment),
+                false, UNLIMITED_PATH_LENGTH, List.of(), false);
+    }
+
+    /**
+     * @param validity   How long the certificate is valid for.
+     * @param pathLength The number of intermediate CAs allowed below this one, or {@link #UNLIMITED_PATH_LENGTH}.
+     * @return A profile for CA certificates.
+     */
+    public static IssuanceProfile certificateAuthority(Duration validity, int pathLength) {
+        return new IssuanceProfile(validity, DEFAULT_BACKDATE, EnumSet.of(KeyUsage.keyCertSign, KeyUsage.cRLSign),
+                true, pathLength, List.of(), false);
+    }
+
+    /**
+     * @return A copy of this profile with the given DNS subject alternative names.
+     */
+    public IssuanceProfile withDnsNames(String... dnsNames) {
+        return new IssuanceProfile(validity, backdate, keyUsage, certificateAuthority, pathLength, List.of(dnsNames), copyRequestedSubjectAltName);
+    }
+
+    /**
+     * Any requester can ask for any name, so this is only for callers that have already checked the names in the
+     * request against what the requester is allowed.
+     *
+     * @return A copy of this profile that copies the subject alternative names the request asked for.
+     */
+    public IssuanceProfile withRequestedSubjectAltName() {
+        return new IssuanceProfile(validity, backdate, keyUsage, certificateAuthority, pathLength, dnsNames, true);
+    }
+}
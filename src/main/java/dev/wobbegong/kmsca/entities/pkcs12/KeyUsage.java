@@ -0,0 +1,27 @@
+package dev.wobbegong.kmsca.entities.pkcs12;
+
+/**
+ * The bits of the key usage certificate extension.
+ *
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-4.2.1.3">RFC-5280 4.2.1.3</a>
+ */
+public enum KeyUsage {
+    digitalSignature(0),
+    nonRepudiation(1),
+    keyEncipherment(2),
+    dataEncipherment(3),
+    keyAgreement(4),
+    keyCertSign(5),
+    cRLSign(6),
+    encipherOnly(7),
+    decipherOnly(8);
+
+    /**
+     * The index of the bit in the BIT STRING, counting from the most significant bit of the first octet.
+     */
+    public final int bit;
+
+    KeyUsage(int bit) {
+        this.bit = bit;
+    }
+}
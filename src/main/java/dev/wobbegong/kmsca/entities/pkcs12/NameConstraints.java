@@ -0,0 +1,21 @@
+package dev.wobbegong.kmsca.entities.pkcs12;
+
+import java.util.List;
+
+/**
+ * The name constraints certificate extension of a CA, limiting the names of the certificates below it.
+ *
+ * <p>Only the base name of each subtree is kept. RFC 5280 requires the minimum to be 0 and the maximum to be
+ * absent.</p>
+ *
+ * @param permitted The names that subject names must fall within, by type. Empty if not given.
+ * @param excluded  The names that subject names must not fall within. Empty if not given.
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-4.2.1.10">RFC-5280 4.2.1.10</a>
+ */
+public record NameConstraints(List<GeneralName> permitted, List<GeneralName> excluded) {
+
+    public NameConstraints {
+        permitted = List.copyOf(permitted);
+        excluded = List.copyOf(excluded);
+    }
+}
@@ -0,0 +1,28 @@
+package dev.wobbegong.kmsca.entities.pkcs12;
+
+/**
+ * The reason codes of the CRL entry reason code extension. Code 7 is not used.
+ *
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-5.3.1">RFC-5280 5.3.1</a>
+ */
+public enum RevocationReason {
+    unspecified(0),
+    keyCompromise(1),
+    cACompromise(2),
+    affiliationChanged(3),
+    superseded(4),
+    cessationOfOperation(5),
+    certificateHold(6),
+    removeFromCRL(8),
+    privilegeWithdrawn(9),
+    aACompromise(10);
+
+    /**
+     * The value of the ENUMERATED.
+     */
+    public final int code;
+
+    RevocationReason(int code) {
+        this.code = code;
+    }
+}
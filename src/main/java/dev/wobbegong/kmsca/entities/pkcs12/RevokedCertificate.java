@@ -0,0 +1,16 @@
+package dev.wobbegong.kmsca.entities.pkcs12;
+
+import java.math.BigInteger;
+import java.time.Instant;
+
+/**
+ * An entry of a certificate revocation list.
+ *
+ * @param serialNumber   The serial number of the revoked certificate.
+ * @param revocationDate When the certificate was revoked, to the second.
+ * @param reason         Why the certificate was revoked, or null if no reason was given.
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-5.1.2.6">RFC-5280 5.1.2.6</a>
+ */
+public record RevokedCertificate(BigInteger serialNumber, Instant revocationDate, RevocationReason reason) {
+
+}
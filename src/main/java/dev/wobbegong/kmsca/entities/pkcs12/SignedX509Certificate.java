@@ -1,10 +1,79 @@
 package dev.wobbegong.kmsca.entities.pkcs12;
 
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.SignatureUtils;
+import dev.wobbegong.kmsca.utils.X509PublicKeyUtils;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+
 /**
  * An X509 certificate including a "To Be Signed" certificate followed by a signature.
+ *
+ * <p>Certificates parsed from a view keep the exact octets of the TBS certificate as a slice of the parsed buffer, so
+ * the signature can be verified without re-encoding anything. The slice keeps the whole buffer reachable, such as a
+ * mapped bundle file, for as long as the certificate is.</p>
+ *
+ * @param signature  The contents of the signature BIT STRING, starting with its unused bits octet.
+ * @param encodedTBS The DER encoding of the TBS certificate, or null if it was not kept.
  */
 public record SignedX509Certificate(ToBeSignedCertificate tbsCertificate,
                                     X509SignatureAlgorithm signatureAlgorithm,
-                                    byte[] signature) {
+                                    byte[] signature,
+                                    ByteBuffer encodedTBS) {
+
+    public SignedX509Certificate {
+        if (encodedTBS != null) {
+            encodedTBS = encodedTBS.slice().asReadOnlyBuffer();
+        }
+    }
+
+    public SignedX509Certificate(ToBeSignedCertificate tbsCertificate, X509SignatureAlgorithm signatureAlgorithm, byte[] signature) {
+        this(tbsCertificate, signatureAlgorithm, signature, null);
+    }
+
+    /**
+     * @return A read-only buffer over the DER encoding of the TBS certificate, from position 0, or null if it was not
+     * kept. Each call returns a new buffer, so callers may move its position.
+     */
+    @Override
+    public ByteBuffer encodedTBS() {
+        return encodedTBS == null ? null : encodedTBS.duplicate();
+    }
+
+    /**
+     * Check that this certificate was signed by the given key.
+     *
+     * @param issuerPublicKey The public key of the issuer.
+     * @return True if the signature is valid.
+     * @throws X509CertException     If the signature algorithm is not supported, the key cannot be used with it, or it
+     *                               does not match the algorithm named in the TBS certificate.
+     * @throws IllegalStateException If the encoding of the TBS certificate was not kept.
+     */
+    public boolean verify(PublicKey issuerPublicKey) throws X509CertException {
+        if (encodedTBS == null) {
+            throw new IllegalStateException("The encoding of the TBS certificate was not kept, so its signature cannot be verified.");
+        }
+        // RFC 5280 4.1.1.2: the outer signature algorithm must be the one signed in the TBS certificate
+        if (tbsCertificate.algorithmOID() != signatureAlgorithm.oid()) {
+            throw new X509CertException("Signature algorithm " + signatureAlgorithm.oid().name()
+                    + " does not match the TBS certificate signature algorithm " + tbsCertificate.algorithmOID().name());
+        }
+        // Signatures are a whole number of octets
+        if (signature.length < 2 || signature[0] != 0) {
+            return false;
+        }
+        return SignatureUtils.verify(issuerPublicKey, signatureAlgorithm.oid(), encodedTBS.duplicate(), signature, 1, signature.length - 1);
+    }
 
+    /**
+     * Check that this certificate was signed by the key of another certificate.
+     *
+     * @param issuer The certificate of the issuer.
+     * @return True if the signature is valid.
+     * @throws X509CertException If the issuer key cannot be read, or see {@link #verify(PublicKey)}.
+     */
+    public boolean verify(SignedX509Certificate issuer) throws X509CertException {
+        return verify(X509PublicKeyUtils.publicKeyFor(issuer.tbsCertificate().publicKey()));
+    }
 }
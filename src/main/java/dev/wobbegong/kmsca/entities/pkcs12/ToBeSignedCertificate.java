@@ -1,10 +1,37 @@
 package dev.wobbegong.kmsca.entities.pkcs12;
 
+import dev.wobbegong.kmsca.entities.BitString;
 import dev.wobbegong.kmsca.entities.oid.KnownOids;
 
 import java.math.BigInteger;
 import java.time.ZonedDateTime;
 
+/**
+ * The signed part of an X509 certificate.
+ *
+ * @param algorithmOID    The algorithm the certificate is signed with.
+ * @param publicKey       The DER encoding of the subject public key info.
+ * @param issuerUniqueID  The issuer unique identifier of a V2 or V3 certificate, or null.
+ * @param subjectUniqueID The subject unique identifier of a V2 or V3 certificate, or null.
+ * @param extensions      The extensions of a V3 certificate, decoded as they are read. {@link X509Extensions#NONE} if
+ *                        there are none.
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-4.1">RFC-5280 4.1</a>
+ */
 public record ToBeSignedCertificate(KnownOids algorithmOID, byte[] publicKey, X509Version version, BigInteger serialNumber, X500Name issuer,
-                                    ZonedDateTime issued, ZonedDateTime expires, X500Name subject) {
+                                    ZonedDateTime issued, ZonedDateTime expires, X500Name subject,
+                                    BitString issuerUniqueID, BitString subjectUniqueID, X509Extensions extensions) {
+
+    public ToBeSignedCertificate {
+        if (extensions == null) {
+            extensions = X509Extensions.NONE;
+        }
+    }
+
+    /**
+     * A certificate without unique identifiers or extensions.
+     */
+    public ToBeSignedCertificate(KnownOids algorithmOID, byte[] publicKey, X509Version version, BigInteger serialNumber, X500Name issuer,
+                                 ZonedDateTime issued, ZonedDateTime expires, X500Name subject) {
+        this(algorithmOID, publicKey, version, serialNumber, issuer, issued, expires, subject, null, null, X509Extensions.NONE);
+    }
 }
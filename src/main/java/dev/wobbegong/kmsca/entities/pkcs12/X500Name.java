@@ -1,11 +1,124 @@
 package dev.wobbegong.kmsca.entities.pkcs12;
 
+import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.utils.X500NameUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
- * @see <a href="https://datatracker.ietf.org/doc/html/rfc1779">RFC-1779</a>
- * @param oidValues A map of OIDs and their corresponding values. EG: Country Name, Org Name, Common Name, etc...
+ * A distinguished name, as the sequence of relative distinguished names it was encoded with.
+ *
+ * <p>The original DER encoding is kept, so a name can be copied into a certificate or CRL unchanged. Names are compared
+ * by a canonical form built once, when the name is created: string values are compared after RFC 4518 style
+ * preparation (Unicode normalisation, case folding and whitespace compression), values that are not strings are
+ * compared by their encoding, and the attributes of a multi-valued RDN are compared as a set, as RFC 5280 7.1
+ * requires. A 64-bit hash of the canonical form is kept too, so comparing two names that differ almost always stops at
+ * the hash, and comparing equal names is one array compare.</p>
+ *
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-4.1.2.4">RFC-5280 4.1.2.4</a>
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-7.1">RFC-5280 7.1</a>
  */
-public record X500Name(Map<String, String> oidValues) {
+public final class X500Name {
+
+    /**
+     * @param oid       The dotted OID of the attribute type.
+     * @param valueType The ASN.1 type the value was encoded with.
+     * @param value     The value. Values of a type that is not a string are the {@code #} and hex form of their DER
+     *                  encoding, as in RFC 4514 2.4.
+     */
+    public record AttributeTypeAndValue(String oid, ASN1TagType valueType, String value) {
+
+    }
+
+    /**
+     * @param attributes The attributes of the RDN, in the order they were encoded. Most RDNs have one.
+     */
+    public record RelativeDistinguishedName(List<AttributeTypeAndValue> attributes) {
+
+        public RelativeDistinguishedName {
+            if (attributes.isEmpty()) {
+                throw new IllegalArgumentException("A relative distinguished name must have at least one attribute.");
+            }
+            attributes = List.copyOf(attributes);
+        }
+    }
+
+    private final byte[] encoded;
+    private final List<RelativeDistinguishedName> rdns;
+    private final Map<String, String> oidValues;
+    private final byte[] canonical;
+    private final long canonicalHash;
+
+    /**
+     * @param encoded The DER encoding of the name. The array is not copied.
+     * @param rdns    The relative distinguished names decoded from it, in encoded order.
+     */
+    public X500Name(byte[] encoded, List<RelativeDistinguishedName> rdns) {
+        this.encoded = encoded;
+        this.rdns = List.copyOf(rdns);
+        Map<String, String> oidValues = new LinkedHashMap<>();
+        for (RelativeDistinguishedName rdn : this.rdns) {
+            for (AttributeTypeAndValue attribute : rdn.attributes()) {
+                // The most specific value of a repeated attribute comes last, so it wins
+                oidValues.remove(attribute.oid());
+                oidValues.put(attribute.oid(), attribute.value());
+            }
+        }
+        this.oidValues = Collections.unmodifiableMap(oidValues);
+        this.canonical = X500NameUtils.canonicalEncoding(this.rdns);
+        this.canonicalHash = X500NameUtils.canonicalHash(canonical);
+    }
+
+    /**
+     * @return A copy of the DER encoding of the name.
+     */
+    public byte[] encoded() {
+        return encoded.clone();
+    }
+
+    /**
+     * @return The relative distinguished names, from the most general, usually the country, to the most specific.
+     */
+    public List<RelativeDistinguishedName> rdns() {
+        return rdns;
+    }
+
+    /**
+     * @return The value of each attribute type, in encoded order. When an attribute type appears more than once, such
+     * as several organisational units, only the last value is here; {@link #rdns()} has them all.
+     */
+    public Map<String, String> oidValues() {
+        return oidValues;
+    }
+
+    /**
+     * @return The 64-bit hash of the canonical form. Equal names have equal hashes.
+     */
+    public long canonicalHash() {
+        return canonicalHash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof X500Name other
+                && canonicalHash == other.canonicalHash
+                && Arrays.equals(canonical, other.canonical);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (canonicalHash ^ (canonicalHash >>> 32));
+    }
 
+    /**
+     * @return The name as an RFC 4514 string, from the most specific RDN to the most general.
+     */
+    @Override
+    public String toString() {
+        return X500NameUtils.toRFC4514String(this);
+    }
 }
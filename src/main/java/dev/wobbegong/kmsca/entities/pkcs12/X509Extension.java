@@ -0,0 +1,13 @@
+package dev.wobbegong.kmsca.entities.pkcs12;
+
+/**
+ * A certificate extension as it was encoded. The value is only decoded when it is read through {@link X509Extensions}.
+ *
+ * @param oid      The dotted OID of the extension.
+ * @param critical True if a relying party that does not understand the extension must reject the certificate.
+ * @param value    The contents of the extnValue OCTET STRING, which is the DER encoding of the extension value.
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-4.2">RFC-5280 4.2</a>
+ */
+public record X509Extension(String oid, boolean critical, byte[] value) {
+
+}
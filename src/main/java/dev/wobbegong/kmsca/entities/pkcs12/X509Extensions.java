@@ -0,0 +1,215 @@
+package dev.wobbegong.kmsca.entities.pkcs12;
+
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.X509ExtensionUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The extensions of a certificate. Parsing a certificate only splits the extensions apart. Each value is decoded the
+ * first time it is read and then kept, so a caller that only reads the subject alternative names never decodes the
+ * rest, and a caller that checks the same certificate repeatedly only decodes it once.
+ *
+ * <p>Methods for extensions with a single value return null if the certificate does not have the extension, as an
+ * absent extension usually means something different from an empty one. Methods for lists return an empty list.</p>
+ *
+ * <p>Instances are thread safe. Threads reading a value for the first time at once may each decode it.</p>
+ *
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-4.2">RFC-5280 4.2</a>
+ */
+public final class X509Extensions {
+
+    public static final X509Extensions NONE = new X509Extensions(List.of());
+
+    private final List<X509Extension> extensions;
+
+    /**
+     * The known OID of each extension, or null, in the order of the extensions.
+     */
+    private final KnownOids[] knownOIDs;
+
+    /**
+     * The decoded value of each extension, or null until first read.
+     */
+    private final AtomicReferenceArray<Object> decoded;
+
+    public X509Extensions(List<X509Extension> extensions) {
+        this.extensions = List.copyOf(extensions);
+        this.knownOIDs = new KnownOids[this.extensions.size()];
+        for (int i = 0; i < knownOIDs.length; i++) {
+            knownOIDs[i] = KnownOids.forOID(this.extensions.get(i).oid()).orElse(null);
+        }
+        this.decoded = new AtomicReferenceArray<>(knownOIDs.length);
+    }
+
+    /**
+     * @return Every extension, in certificate order.
+     */
+    public List<X509Extension> all() {
+        return extensions;
+    }
+
+    public boolean isEmpty() {
+        return extensions.isEmpty();
+    }
+
+    /**
+     * @return The extensions marked critical, which a relying party must understand to accept the certificate.
+     */
+    public List<X509Extension> critical() {
+        List<X509Extension> critical = new ArrayList<>();
+        for (X509Extension extension : extensions) {
+            if (extension.critical()) {
+                critical.add(extension);
+            }
+        }
+        return critical;
+    }
+
+    /**
+     * @param oid The OID of the extension.
+     * @return The extension, or null if the certificate does not have it.
+     */
+    public X509Extension get(KnownOids oid) {
+        int index = indexOf(oid);
+        return index < 0 ? null : extensions.get(index);
+    }
+
+    /**
+     * @param oid The dotted OID of the extension.
+     * @return The extension, or null if the certificate does not have it.
+     */
+    public X509Extension get(String oid) {
+        for (X509Extension extension : extensions) {
+            if (extension.oid().equals(oid)) {
+                return extension;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The subject alternative names. Empty if there are none.
+     * @throws X509CertException If the extension is malformed.
+     */
+    public List<GeneralName> subjectAltNames() throws X509CertException {
+        List<GeneralName> names = decoded(KnownOids.subjectAltName, X509ExtensionUtils::generalNames);
+        return names == null ? List.of() : names;
+    }
+
+    /**
+     * @return The key usage bits that are set, or null if the certificate has no key usage extension.
+     * @throws X509CertException If the extension is malformed.
+     */
+    public Set<KeyUsage> keyUsage() throws X509CertException {
+        return decoded(KnownOids.keyUsage, X509ExtensionUtils::keyUsage);
+    }
+
+    /**
+     * @return The dotted OIDs of the extended key usage purposes, such as {@link KnownOids#serverAuth}, or null if the
+     * certificate has no extended key usage extension.
+     * @throws X509CertException If the extension is malformed.
+     */
+    public List<String> extendedKeyUsage() throws X509CertException {
+        return decoded(KnownOids.extKeyUsage, X509ExtensionUtils::extendedKeyUsage);
+    }
+
+    /**
+     * @return The basic constraints, or null if the certificate has no basic constraints extension.
+     * @throws X509CertException If the extension is malformed.
+     */
+    public BasicConstraints basicConstraints() throws X509CertException {
+        return decoded(KnownOids.basicConstraints, X509ExtensionUtils::basicConstraints);
+    }
+
+    /**
+     * @return A copy of the subject key identifier, or null if the certificate has none.
+     * @throws X509CertException If the extension is malformed.
+     */
+    public byte[] subjectKeyIdentifier() throws X509CertException {
+        byte[] keyIdentifier = decoded(KnownOids.subjectKeyIdentifier, X509ExtensionUtils::subjectKeyIdentifier);
+        return keyIdentifier == null ? null : keyIdentifier.clone();
+    }
+
+    /**
+     * @return The authority key identifier, or null if the certificate has none.
+     * @throws X509CertException If the extension is malformed.
+     */
+    public AuthorityKeyIdentifier authorityKeyIdentifier() throws X509CertException {
+        return decoded(KnownOids.authorityKeyIdentifier, X509ExtensionUtils::authorityKeyIdentifier);
+    }
+
+    /**
+     * @return The CRL distribution points. Empty if there are none.
+     * @throws X509CertException If the extension is malformed.
+     */
+    public List<DistributionPoint> crlDistributionPoints() throws X509CertException {
+        List<DistributionPoint> points = decoded(KnownOids.cRLDistributionPoints, X509ExtensionUtils::crlDistributionPoints);
+        return points == null ? List.of() : points;
+    }
+
+    /**
+     * @return The authority information access descriptions. Empty if there are none.
+     * @throws X509CertException If the extension is malformed.
+     */
+    public List<AccessDescription> authorityInfoAccess() throws X509CertException {
+        List<AccessDescription> descriptions = decoded(KnownOids.authorityInfoAccess, X509ExtensionUtils::authorityInfoAccess);
+        return descriptions == null ? List.of() : descriptions;
+    }
+
+    /**
+     * @return The name constraints, or null if the certificate has none.
+     * @throws X509CertException If the extension is malformed.
+     */
+    public NameConstraints nameConstraints() throws X509CertException {
+        return decoded(KnownOids.nameConstraints, X509ExtensionUtils::nameConstraints);
+    }
+
+    private int indexOf(KnownOids oid) {
+        for (int i = 0; i < knownOIDs.length; i++) {
+            if (knownOIDs[i] == oid) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T decoded(KnownOids oid, Decoder<T> decoder) throws X509CertException {
+        int index = indexOf(oid);
+        if (index < 0) {
+            return null;
+        }
+        Object value = decoded.get(index);
+        if (value == null) {
+            // Decoding is idempotent, so racing threads at worst decode the same value twice
+            value = decoder.decode(extensions.get(index).value());
+            decoded.set(index, value);
+        }
+        return (T) value;
+    }
+
+    @FunctionalInterface
+    private interface Decoder<T> {
+        T decode(byte[] value) throws X509CertException;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("X509Extensions[");
+        for (int i = 0; i < extensions.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(knownOIDs[i] == null ? extensions.get(i).oid() : knownOIDs[i].name());
+            if (extensions.get(i).critical()) {
+                sb.append(" (critical)");
+            }
+        }
+        return sb.append(']').toString();
+    }
+}
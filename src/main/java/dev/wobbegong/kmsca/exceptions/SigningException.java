@@ -0,0 +1,27 @@
+package dev.wobbegong.kmsca.exceptions;
+
+/**
+ * A signing key could not sign. Retryable failures, like throttling or a timeout, may succeed if the same request is
+ * sent again later. Others, like a disabled or deleted key, will not.
+ */
+public class SigningException extends KMSCAException {
+
+    private final boolean retryable;
+
+    public SigningException(String message, boolean retryable) {
+        super(message);
+        this.retryable = retryable;
+    }
+
+    public SigningException(String message, Throwable cause, boolean retryable) {
+        super(message, cause);
+        this.retryable = retryable;
+    }
+
+    /**
+     * @return True if sending the same request again may succeed.
+     */
+    public boolean retryable() {
+        return retryable;
+    }
+}
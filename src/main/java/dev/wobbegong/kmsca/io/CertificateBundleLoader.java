@@ -0,0 +1,327 @@
+package dev.wobbegong.kmsca.io;
+
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.exceptions.PEMFormatException;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.CertificateUtils;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.X509Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads large bundles of certificates, such as trust stores and CT log extracts, from concatenated PEM or DER.
+ *
+ * <ol>
+ *     <li>The file is memory mapped.</li>
+ *     <li>A single pass finds where each object starts: at every line beginning with a PEM BEGIN tag, or from the
+ *     length of every top level DER SEQUENCE. Nothing is decoded yet.</li>
+ *     <li>The objects are decoded and parsed with {@link X509Utils#toCertificate(ASN1Sequence)} in parallel on a
+ *     {@link ForkJoinPool}, each on a view of the mapped file.</li>
+ * </ol>
+ *
+ * <p>The results are in file order. An object that cannot be read fails on its own and the rest are still loaded.
+ * DER objects are found by their lengths, so after a DER object with a broken header the rest of the file is reported
+ * as one failure. A certificate nested too deeply to parse fails on its own as well, but other {@link Error}s, such as
+ * running out of memory, propagate from the load.</p>
+ *
+ * <p>Files are mapped in one piece, so they are limited to 2 GB. Read larger ones with {@link DERStreamReader}.</p>
+ */
+public class CertificateBundleLoader {
+
+    public enum Format {
+        PEM,
+        DER
+    }
+
+    /**
+     * The outcome of loading one object of a bundle.
+     *
+     * @param index       The position of the object in the bundle, counting from 0.
+     * @param offset      The offset of the object in the bundle.
+     * @param certificate The certificate, or null if it could not be loaded.
+     * @param failure     Why the object could not be loaded, or null.
+     */
+    public record Entry(int index, long offset, SignedX509Certificate certificate, Exception failure) {
+
+        public boolean loaded() {
+            return failure == null;
+        }
+    }
+
+    /**
+     * Objects decoded by one task before it stops splitting.
+     */
+    private static final int OBJECTS_PER_TASK = 64;
+
+    private static final byte[] BEGIN = "-----BEGIN ".getBytes(StandardCharsets.US_ASCII);
+    private static final int SEQUENCE = 0x30;
+
+    private final ForkJoinPool pool;
+
+    public CertificateBundleLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CertificateBundleLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Load a bundle file, detecting whether it is PEM or DER.
+     *
+     * @param path The bundle.
+     * @return One entry for every object in the bundle, in file order.
+     * @throws IOException If the file cannot be mapped.
+     */
+    public List<Entry> load(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (file.size() > Integer.MAX_VALUE) {
+                throw new IOException("Bundle is too large to map: " + file.size() + " bytes.");
+            }
+            // The mapping stays valid after the channel is closed
+            return load(file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()));
+        }
+    }
+
+    /**
+     * Load a bundle, detecting whether it is PEM or DER.
+     *
+     * @param bundle The bundle, from its position to its limit. The buffer is not modified.
+     * @return One entry for every object in the bundle, in file order.
+     */
+    public List<Entry> load(ByteBuffer bundle) {
+        return load(bundle, formatOf(bundle));
+    }
+
+    /**
+     * Load a bundle.
+     *
+     * @param bundle The bundle, from its position to its limit. The buffer is not modified.
+     * @param format The format of the bundle.
+     * @return One entry for every object in the bundle, in file order.
+     */
+    public List<Entry> load(ByteBuffer bundle, Format format) {
+        List<Entry> scanFailures = new ArrayList<>(1);
+        int[] bounds = format == Format.PEM ? scanPEM(bundle) : scanDER(bundle, scanFailures);
+        int objects = bounds.length - 1;
+
+        Entry[] entries = new Entry[objects];
+        pool.invoke(new DecodeTask(bundle, format, bounds, entries, 0, objects));
+
+        List<Entry> result = new ArrayList<>(objects + scanFailures.size());
+        result.addAll(Arrays.asList(entries));
+        result.addAll(scanFailures);
+        return result;
+    }
+
+    /**
+     * Decided from the first byte that is not whitespace: '-' starts PEM, and a SEQUENCE that fits in the bundle starts
+     * DER. A SEQUENCE tag is also the character '0', so a text bundle can start with one. Only when the length that
+     * follows is a single octet, which could be text as well, is the bundle searched for a line starting with a BEGIN
+     * tag.
+     *
+     * @return DER if the bundle starts with a SEQUENCE that fits in it and, for a short length, has no line starting
+     * with a BEGIN tag, otherwise PEM.
+     */
+    public static Format formatOf(ByteBuffer bundle) {
+        int start = bundle.position();
+        while (start < bundle.limit() && (bundle.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        if (sequenceEnd(bundle, start) < 0) {
+            return Format.PEM;
+        }
+        // A long form length octet is not ASCII, so this cannot be text
+        if ((bundle.get(start + 1) & 0xFF) >= 0x80) {
+            return Format.DER;
+        }
+        return scanPEM(bundle).length > 1 ? Format.PEM : Format.DER;
+    }
+
+    /**
+     * @return The offset of every line that starts with a BEGIN tag, then the limit.
+     */
+    private static int[] scanPEM(ByteBuffer bundle) {
+        IntList bounds = new IntList();
+        int limit = bundle.limit();
+        int lineStart = bundle.position();
+        while (lineStart < limit) {
+            if (bundle.get(lineStart) == '-' && startsWith(bundle, lineStart, BEGIN)) {
+                bounds.add(lineStart);
+            }
+            // Move to the start of the next line. CR LF is two line breaks here, which only adds an empty line.
+            int i = lineStart;
+            while (i < limit && bundle.get(i) != '\n' && bundle.get(i) != '\r') {
+                i++;
+            }
+            lineStart = i + 1;
+        }
+        bounds.add(limit);
+        return bounds.toArray();
+    }
+
+    /**
+     * @param failures Receives a failure for the rest of the bundle if an object header cannot be read.
+     * @return The offset of every top level SEQUENCE, then the end of the last one.
+     */
+    private static int[] scanDER(ByteBuffer bundle, List<Entry> failures) {
+        IntList bounds = new IntList();
+        int limit = bundle.limit();
+        int offset = bundle.position();
+        while (offset < limit) {
+            int end = sequenceEnd(bundle, offset);
+            if (end < 0) {
+                failures.add(new Entry(bounds.size(), offset, null,
+                        new X509CertException("No certificate SEQUENCE header at offset " + offset + ". The remaining " + (limit - offset) + " bytes were not read.")));
+                break;
+            }
+            bounds.add(offset);
+            offset = end;
+        }
+        bounds.add(offset);
+        return bounds.toArray();
+    }
+
+    /**
+     * @return The end of the SEQUENCE at the offset, or -1 if there is no SEQUENCE header or it runs past the limit.
+     */
+    private static int sequenceEnd(ByteBuffer bundle, int offset) {
+        int limit = bundle.limit();
+        if (limit - offset < 2 || (bundle.get(offset) & 0xFF) != SEQUENCE) {
+            return -1;
+        }
+        int first = bundle.get(offset + 1) & 0xFF;
+        long length;
+        int headerLength;
+        if (first < 0x80) {
+            length = first;
+            headerLength = 2;
+        } else {
+            int octets = first & 0x7F;
+            if (octets == 0 || octets > 4 || limit - offset < 2 + octets) {
+                return -1;
+            }
+            length = 0;
+            for (int i = 0; i < octets; i++) {
+                length = length << 8 | (bundle.get(offset + 2 + i) & 0xFF);
+            }
+            headerLength = 2 + octets;
+        }
+        long end = offset + headerLength + length;
+        return end > limit ? -1 : (int) end;
+    }
+
+    private static boolean startsWith(ByteBuffer bundle, int offset, byte[] prefix) {
+        if (bundle.limit() - offset < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bundle.get(offset + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static SignedX509Certificate decodePEM(ByteBuffer object) throws IOException, PEMFormatException, X509CertException {
+        PEMObject pem = new PEMStreamReader(object).next();
+        if (pem == null) {
+            throw new PEMFormatException("No PEM object found.");
+        }
+        if (!pem.type().equals(CertificateUtils.CERTIFICATE_PEM_TYPE)) {
+            throw new PEMFormatException("PEM object is a " + pem.type() + ", not a " + CertificateUtils.CERTIFICATE_PEM_TYPE + ".");
+        }
+        return decodeDER(ByteBuffer.wrap(pem.content()));
+    }
+
+    private static SignedX509Certificate decodeDER(ByteBuffer object) throws X509CertException {
+        ASN1Item root = DERDecodingUtils.viewNextASN1(object);
+        if (!(root instanceof ASN1Sequence sequence)) {
+            throw new X509CertException("Certificate is not a sequence as expected, but is instead a: " + root.type().name());
+        }
+        return X509Utils.toCertificate(sequence);
+    }
+
+    /**
+     * Decodes a range of objects, splitting it in half until it is small enough.
+     */
+    private static final class DecodeTask extends RecursiveAction {
+        private final ByteBuffer bundle;
+        private final Format format;
+        private final int[] bounds;
+        private final Entry[] entries;
+        private final int from;
+        private final int to;
+
+        DecodeTask(ByteBuffer bundle, Format format, int[] bounds, Entry[] entries, int from, int to) {
+            this.bundle = bundle;
+            this.format = format;
+            this.bounds = bounds;
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > OBJECTS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DecodeTask(bundle, format, bounds, entries, from, middle),
+                        new DecodeTask(bundle, format, bounds, entries, middle, to));
+                return;
+            }
+            // Each task reads through its own view, since buffer positions are not thread safe
+            ByteBuffer view = bundle.duplicate();
+            for (int i = from; i < to; i++) {
+                view.limit(bounds[i + 1]).position(bounds[i]);
+                try {
+                    SignedX509Certificate certificate = format == Format.PEM ? decodePEM(view) : decodeDER(view);
+                    entries[i] = new Entry(i, bounds[i], certificate, null);
+                } catch (Exception e) {
+                    // Malformed data can fail anywhere in the parser, so every exception belongs to this object
+                    entries[i] = new Entry(i, bounds[i], null, e);
+                } catch (StackOverflowError e) {
+                    // So can deep nesting, which would otherwise fail the whole join
+                    entries[i] = new Entry(i, bounds[i], null, new X509CertException("Certificate is nested too deeply to parse.", e));
+                }
+            }
+        }
+    }
+
+    /**
+     * A growable list of offsets, so the scan does not box them.
+     */
+    private static final class IntList {
+        private int[] values = new int[256];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package dev.wobbegong.kmsca.io;
+
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
+import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * A pull parser for DER data, in the style of StAX. Each call to {@link #next()} reads one identifier and length and
+ * reports it as an {@link Event}. Content octets of primitive items are only read when {@link #value()} is called and
+ * are otherwise skipped, so at most one primitive value is held in memory at a time. This makes it possible to scan
+ * inputs that are far larger than the heap, such as multi-gigabyte CRLs or certificate dumps.
+ *
+ * <p>Unlike {@link DERDecodingUtils}, every item with the constructed bit set is reported as constructed. This
+ * includes context specific tags such as the explicit version of a TBS certificate.</p>
+ *
+ * <p>Instances are not thread safe.</p>
+ */
+public class DERStreamReader implements Closeable {
+
+    public enum Event {
+        /**
+         * The identifier and length of a constructed item. Its children follow, then a matching {@link #END_CONSTRUCTED}.
+         */
+        START_CONSTRUCTED,
+        /**
+         * The identifier and length of a primitive item. Its contents can be read with {@link #value()}.
+         */
+        PRIMITIVE,
+        /**
+         * The end of the contents of a constructed item. Tag information refers to the item being closed.
+         */
+        END_CONSTRUCTED
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Identifier, up to 4 tag number octets, length octet and up to 8 long form length octets.
+     */
+    private static final int MAX_HEADER_LENGTH = 1 + 4 + 1 + 8;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+
+    /**
+     * Absolute offset of the next unread byte.
+     */
+    private long position;
+
+    // Open constructed items
+    private int openCount;
+    private long[] openEnds = new long[16];
+    private long[] openOffsets = new long[16];
+    private long[] openLengths = new long[16];
+    private int[] openIdentifiers = new int[16];
+    private int[] openTagNumbers = new int[16];
+    private int[] openHeaderLengths = new int[16];
+
+    // The current item
+    private Event event;
+    private int depth;
+    private long offset;
+    private long length;
+    private int identifier;
+    private int tagNumber;
+    private final byte[] header = new byte[MAX_HEADER_LENGTH];
+    private int headerLength;
+    private long valueRemaining;
+
+    public DERStreamReader(ReadableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    public DERStreamReader(InputStream inputStream) {
+        this(Channels.newChannel(inputStream));
+    }
+
+    /**
+     * Move to the next item. Any part of the current primitive value that has not been read is skipped.
+     *
+     * @return The next event, or null at the end of the input.
+     * @throws IOException  If the input cannot be read.
+     * @throws EOFException If the input ends inside of an item.
+     */
+    public Event next() throws IOException {
+        skip(valueRemaining);
+        valueRemaining = 0;
+
+        // Close the innermost constructed item once all of its contents have been read
+        if (openCount > 0 && position >= openEnds[openCount - 1]) {
+            if (position > openEnds[openCount - 1]) {
+                throw new RuntimeException("Item at offset " + offset + " overruns the end of its parent at offset " + openEnds[openCount - 1]);
+            }
+            openCount--;
+            depth = openCount;
+            offset = openOffsets[openCount];
+            length = openLengths[openCount];
+            identifier = openIdentifiers[openCount];
+            tagNumber = openTagNumbers[openCount];
+            headerLength = openHeaderLengths[openCount];
+            event = Event.END_CONSTRUCTED;
+            return event;
+        }
+
+        if (!fill(1)) {
+            if (openCount > 0) {
+                throw new EOFException("Input ended inside of a constructed item at offset " + openOffsets[openCount - 1]);
+            }
+            event = null;
+            return null;
+        }
+
+        depth = openCount;
+        offset = position;
+        headerLength = 0;
+        identifier = readHeaderByte();
+
+        // Tag numbers of 31 and up are encoded in base 128 after the identifier octet
+        tagNumber = identifier & ASN1Identifier.HIGH_TAG_NUMBER;
+        if (tagNumber == ASN1Identifier.HIGH_TAG_NUMBER) {
+            tagNumber = 0;
+            int tagOctet;
+            do {
+                if (headerLength == 5) {
+                    throw new RuntimeException("Tag number at offset " + offset + " is too large.");
+                }
+                tagOctet = readHeaderByte();
+                tagNumber = (tagNumber << 7) | (tagOctet & 0x7F);
+            } while ((tagOctet & 0x80) != 0);
+        }
+
+        int lengthOctet = readHeaderByte();
+        if ((lengthOctet & 0x80) == 0) {
+            length = lengthOctet;
+        } else {
+            int lengthOctets = lengthOctet & 0x7F;
+            if (lengthOctets == 0) {
+                throw new RuntimeException("Indefinite lengths are not allowed in DER. At offset: " + offset);
+            }
+            if (lengthOctets > 8) {
+                throw new RuntimeException("Length at offset " + offset + " has too many octets: " + lengthOctets);
+            }
+            long value = 0;
+            for (int i = 0; i < lengthOctets; i++) {
+                value = (value << 8) | readHeaderByte();
+            }
+            if (value < 0) {
+                throw new RuntimeException("Length at offset " + offset + " is too large.");
+            }
+            length = value;
+        }
+
+        if (openCount > 0 && position + length > openEnds[openCount - 1]) {
+            throw new RuntimeException("Item at offset " + offset + " overruns the end of its parent at offset " + openEnds[openCount - 1]);
+        }
+
+        if (isConstructed()) {
+            push();
+            event = Event.START_CONSTRUCTED;
+        } else {
+            valueRemaining = length;
+            event = Event.PRIMITIVE;
+        }
+        return event;
+    }
+
+    /**
+     * Read the contents of the current primitive item.
+     *
+     * @return The content octets.
+     * @throws IOException If the input cannot be read.
+     */
+    public byte[] value() throws IOException {
+        if (event != Event.PRIMITIVE || valueRemaining != length) {
+            throw new IllegalStateException("The current event is not an unread primitive value.");
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new RuntimeException("Primitive value at offset " + offset + " is too large to read into memory: " + length);
+        }
+        byte[] value = new byte[(int) length];
+        readFully(value, 0, value.length);
+        valueRemaining = 0;
+        return value;
+    }
+
+    /**
+     * Read the contents of the current primitive item into an array, so that many small values, such as the serial
+     * numbers of a CRL, can be read without allocating an array for each.
+     *
+     * @param destination The array to read into, from its start. It must be at least {@link #length()} long.
+     * @return The number of octets read.
+     * @throws IOException If the input cannot be read.
+     */
+    public int value(byte[] destination) throws IOException {
+        if (event != Event.PRIMITIVE || valueRemaining != length) {
+            throw new IllegalStateException("The current event is not an unread primitive value.");
+        }
+        if (length > destination.length) {
+            throw new IllegalArgumentException("Primitive value at offset " + offset + " is longer than the array: " + length);
+        }
+        readFully(destination, 0, (int) length);
+        valueRemaining = 0;
+        return (int) length;
+    }
+
+    /**
+     * Read the contents of the current primitive item as an {@link ASN1Item} that can be passed to the decoding methods
+     * of {@link DERDecodingUtils}.
+     *
+     * @return The item.
+     * @throws IOException If the input cannot be read.
+     */
+    public ASN1Item valueItem() throws IOException {
+        ASN1Identifier identifier = identifier();
+        byte[] value = value();
+        return new ASN1Item(value.length, (int) Math.min(offset, Integer.MAX_VALUE), identifier, value);
+    }
+
+    /**
+     * Read the whole of the current item, including all of its children, into memory and parse it with
+     * {@link DERDecodingUtils#viewNextASN1(ByteBuffer)}. The reader then continues after the item, without reporting an
+     * {@link Event#END_CONSTRUCTED} for it. Start offsets in the returned tree are relative to the item.
+     *
+     * @return The item.
+     * @throws IOException If the input cannot be read.
+     */
+    public ASN1Item readItem() throws IOException {
+        if (event == Event.START_CONSTRUCTED) {
+            if (position != offset + headerLength) {
+                throw new IllegalStateException("The children of the current item have already been read.");
+            }
+            openCount--;
+        } else if (event != Event.PRIMITIVE || valueRemaining != length) {
+            throw new IllegalStateException("The current event is not the start of an item.");
+        }
+
+        long total = headerLength + length;
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new RuntimeException("Item at offset " + offset + " is too large to read into memory: " + total);
+        }
+        byte[] encoded = Arrays.copyOf(header, (int) total);
+        readFully(encoded, headerLength, (int) length);
+        valueRemaining = 0;
+        event = null;
+        return DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(encoded));
+    }
+
+    /**
+     * Skip the rest of the current item. For constructed items this skips all of their children and the matching
+     * {@link Event#END_CONSTRUCTED}.
+     *
+     * @throws IOException If the input cannot be read.
+     */
+    public void skipItem() throws IOException {
+        if (event == Event.START_CONSTRUCTED) {
+            openCount--;
+            skip(openEnds[openCount] - position);
+            event = null;
+        } else if (event == Event.PRIMITIVE) {
+            skip(valueRemaining);
+            valueRemaining = 0;
+            event = null;
+        } else {
+            throw new IllegalStateException("The current event is not the start of an item.");
+        }
+    }
+
+    /**
+     * @return The current event, or null before the first call to {@link #next()}, after {@link #readItem()} or at the end
+     * of the input.
+     */
+    public Event event() {
+        return event;
+    }
+
+    /**
+     * @return The nesting depth of the current item. Top level items have a depth of 0.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * @return The absolute offset of the identifier octet of the current item.
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * @return The length of the contents of the current item.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return The number of identifier and length octets of the current item.
+     */
+    public int headerLength() {
+        return headerLength;
+    }
+
+    public ASN1Identifier.TagClass tagClass() {
+        return ASN1Identifier.forOctet(identifier).tagClass();
+    }
+
+    /**
+     * @return The decoded identifier of the current item.
+     */
+    public ASN1Identifier identifier() {
+        if ((identifier & ASN1Identifier.HIGH_TAG_NUMBER) != ASN1Identifier.HIGH_TAG_NUMBER) {
+            return ASN1Identifier.forOctet(identifier);
+        }
+        return ASN1Identifier.forHighTagNumber(identifier, tagNumber);
+    }
+
+    public int tagNumber() {
+        return tagNumber;
+    }
+
+    /**
+     * @return The tag type for the tag number of the current item. Non-universal tags are mapped by their number in the
+     * same way as {@link DERDecodingUtils}.
+     */
+    public ASN1TagType tagType() {
+        return ASN1TagType.fromOrdinal(tagNumber);
+    }
+
+    public boolean isConstructed() {
+        return (identifier & 0b0010_0000) != 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void push() {
+        if (openCount == openEnds.length) {
+            int size = openCount * 2;
+            openEnds = Arrays.copyOf(openEnds, size);
+            openOffsets = Arrays.copyOf(openOffsets, size);
+            openLengths = Arrays.copyOf(openLengths, size);
+            openIdentifiers = Arrays.copyOf(openIdentifiers, size);
+            openTagNumbers = Arrays.copyOf(openTagNumbers, size);
+            openHeaderLengths = Arrays.copyOf(openHeaderLengths, size);
+        }
+        openEnds[openCount] = position + length;
+        openOffsets[openCount] = offset;
+        openLengths[openCount] = length;
+        openIdentifiers[openCount] = identifier;
+        openTagNumbers[openCount] = tagNumber;
+        openHeaderLengths[openCount] = headerLength;
+        openCount++;
+    }
+
+    private int readHeaderByte() throws IOException {
+        if (!fill(1)) {
+            throw new EOFException("Input ended inside of the header of the item at offset " + offset);
+        }
+        byte value = buffer.get();
+        position++;
+        header[headerLength++] = value;
+        return value & 0xff;
+    }
+
+    private void readFully(byte[] destination, int destinationOffset, int count) throws IOException {
+        while (count > 0) {
+            if (!fill(1)) {
+                throw new EOFException("Input ended inside of the item at offset " + offset);
+            }
+            int read = Math.min(count, buffer.remaining());
+            buffer.get(destination, destinationOffset, read);
+            destinationOffset += read;
+            count -= read;
+            position += read;
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            if (!fill(1)) {
+                throw new EOFException("Input ended inside of the item at offset " + offset);
+            }
+            int skipped = (int) Math.min(count, buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            count -= skipped;
+            position += skipped;
+        }
+    }
+
+    /**
+     * Make sure at least {@code count} bytes are buffered.
+     *
+     * @return False if the input ended first.
+     */
+    private boolean fill(int count) throws IOException {
+        if (buffer.remaining() >= count) {
+            return true;
+        }
+        buffer.compact();
+        try {
+            while (buffer.position() < count) {
+                if (channel.read(buffer) < 0) {
+                    return false;
+                }
+            }
+        } finally {
+            buffer.flip();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,487 @@
+package dev.wobbegong.kmsca.io;
+
+import dev.wobbegong.kmsca.entities.BitString;
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
+import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.entities.asn1.charsets.PrintableStringCharset;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.utils.DEREncodingUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds DER encodings back to front. Every item is prepended to what has already been written, so the contents of a
+ * constructed item are complete, and their length known, by the time its identifier and length are written. Nothing
+ * is measured ahead of time or copied again as the nesting grows.
+ *
+ * <p>Items have to be written in reverse order: the last field of a sequence first, and the identifier and length of
+ * the sequence last. Take a {@link #mark()} before writing the fields of a constructed item and pass it to
+ * {@link #sequence(int)}, {@link #set(int)} or {@link #explicit(int, int)} afterwards to wrap them:</p>
+ *
+ * <pre>{@code
+ * DERWriter writer = new DERWriter();
+ * int algorithm = writer.mark();
+ * writer.nullValue()
+ *       .oid(KnownOids.sha256WithRSAEncryption)
+ *       .sequence(algorithm);
+ * byte[] algorithmIdentifier = writer.toByteArray();
+ * }</pre>
+ *
+ * <p>Instances are not thread safe.</p>
+ */
+public class DERWriter {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * UTCTime covers 1950 through 2049. Later dates use GeneralizedTime (RFC 5280 4.1.2.5).
+     */
+    private static final int FIRST_UTC_TIME_YEAR = 1950;
+    private static final int LAST_UTC_TIME_YEAR = 2049;
+
+    private byte[] buffer;
+
+    /**
+     * The index of the first written octet. Written octets run from here to the end of the buffer.
+     */
+    private int head;
+
+    public DERWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DERWriter(int initialCapacity) {
+        this.buffer = new byte[Math.max(initialCapacity, 16)];
+        this.head = buffer.length;
+    }
+
+    /**
+     * @return A mark for the octets written so far. Marks stay valid as the buffer grows.
+     */
+    public int mark() {
+        return size();
+    }
+
+    /**
+     * @return The number of octets written.
+     */
+    public int size() {
+        return buffer.length - head;
+    }
+
+    /**
+     * Discard everything written so far, keeping the buffer.
+     */
+    public DERWriter reset() {
+        head = buffer.length;
+        return this;
+    }
+
+    /**
+     * Wrap everything written since the mark in a SEQUENCE.
+     */
+    public DERWriter sequence(int mark) {
+        return constructed(ASN1Identifier.TagClass.Universal, ASN1TagType.SEQUENCE.ordinal, mark);
+    }
+
+    /**
+     * Write only the identifier and length of a SEQUENCE, for contents that are streamed after it rather than written
+     * here.
+     */
+    public DERWriter sequenceHeader(int contentsLength) {
+        prependLength(contentsLength);
+        prependIdentifier(ASN1Identifier.TagClass.Universal, true, ASN1TagType.SEQUENCE.ordinal);
+        return this;
+    }
+
+    /**
+     * Wrap everything written since the mark in a SET. The members are put in DER order, sorted by their encodings.
+     */
+    public DERWriter set(int mark) {
+        sortElements(mark);
+        return constructed(ASN1Identifier.TagClass.Universal, ASN1TagType.SET.ordinal, mark);
+    }
+
+    /**
+     * Wrap everything written since the mark in an explicit context specific tag, such as the [0] version or [3]
+     * extensions of a TBS certificate.
+     */
+    public DERWriter explicit(int tagNumber, int mark) {
+        return constructed(ASN1Identifier.TagClass.ContextSpecific, tagNumber, mark);
+    }
+
+    /**
+     * Wrap everything written since the mark in a constructed item with any tag.
+     */
+    public DERWriter constructed(ASN1Identifier.TagClass tagClass, int tagNumber, int mark) {
+        int contentsLength = contentsSince(mark);
+        prependLength(contentsLength);
+        prependIdentifier(tagClass, true, tagNumber);
+        return this;
+    }
+
+    /**
+     * Replace the tag of the item written last with an implicit context specific tag, keeping its constructed bit.
+     * For example a dNSName general name is {@code writer.ia5String(name).implicit(2)}.
+     */
+    public DERWriter implicit(int tagNumber) {
+        if (size() == 0) {
+            throw new IllegalStateException("Nothing has been written to tag implicitly.");
+        }
+        boolean constructed = (buffer[head] & 0b0010_0000) != 0;
+        head += identifierLengthAt(head);
+        prependIdentifier(ASN1Identifier.TagClass.ContextSpecific, constructed, tagNumber);
+        return this;
+    }
+
+    public DERWriter integer(long value) {
+        // Minimal two's complement: drop leading octets that only repeat the sign bit of the next octet.
+        int octets = 8;
+        while (octets > 1 && (value >> ((octets - 1) * 8 - 1)) == (value >> 63)) {
+            octets--;
+        }
+        ensureCapacity(octets);
+        for (int i = 0; i < octets; i++) {
+            buffer[--head] = (byte) (value >> (i * 8));
+        }
+        return header(ASN1TagType.INTEGER, octets);
+    }
+
+    public DERWriter integer(BigInteger value) {
+        // BigInteger already gives the minimal two's complement encoding that DER requires.
+        return primitive(ASN1TagType.INTEGER, value.toByteArray());
+    }
+
+    /**
+     * Write an ENUMERATED, such as a CRL entry reason code.
+     */
+    public DERWriter enumerated(int value) {
+        integer(value);
+        buffer[head] = (byte) ASN1TagType.ENUMERATED.ordinal;
+        return this;
+    }
+
+    public DERWriter bool(boolean value) {
+        return primitive(ASN1TagType.BOOLEAN, new byte[]{(byte) (value ? 0xFF : 0x00)});
+    }
+
+    public DERWriter nullValue() {
+        return header(ASN1TagType.NULL, 0);
+    }
+
+    public DERWriter oid(KnownOids oid) {
+        return primitive(ASN1TagType.OBJECT_IDENTIFIER, oid.encoded());
+    }
+
+    public DERWriter oid(String oid) {
+        return primitive(ASN1TagType.OBJECT_IDENTIFIER, DEREncodingUtils.encodeOID(oid));
+    }
+
+    public DERWriter bitString(BitString bitString) {
+        ensureCapacity(bitString.data().length + 1);
+        prepend(bitString.data());
+        buffer[--head] = (byte) bitString.unusedBits();
+        return header(ASN1TagType.BIT_STRING, bitString.data().length + 1);
+    }
+
+    /**
+     * Write a BIT STRING with no unused bits, such as a signature or subject public key.
+     */
+    public DERWriter bitString(byte[] data) {
+        return bitString(new BitString(0, data));
+    }
+
+    /**
+     * Wrap everything written since the mark in a BIT STRING with no unused bits.
+     */
+    public DERWriter bitString(int mark) {
+        int contentsLength = contentsSince(mark);
+        ensureCapacity(1);
+        buffer[--head] = 0;
+        return header(ASN1TagType.BIT_STRING, contentsLength + 1);
+    }
+
+    public DERWriter octetString(byte[] contents) {
+        return primitive(ASN1TagType.OCTET_STRING, contents);
+    }
+
+    /**
+     * Wrap everything written since the mark in an OCTET STRING, as for the value of an extension.
+     */
+    public DERWriter octetString(int mark) {
+        return header(ASN1TagType.OCTET_STRING, contentsSince(mark));
+    }
+
+    public DERWriter utf8String(String value) {
+        return primitive(ASN1TagType.UTF8_STRING, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public DERWriter printableString(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (!PrintableStringCharset.VALID_CHARACTERS.contains(value.charAt(i))) {
+                throw new IllegalArgumentException("Character is not valid in a PrintableString: " + value.charAt(i));
+            }
+        }
+        return primitive(ASN1TagType.PRINTABLE_STRING, value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public DERWriter ia5String(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7F) {
+                throw new IllegalArgumentException("Character is not valid in an IA5String: " + value.charAt(i));
+            }
+        }
+        return primitive(ASN1TagType.IA5String, value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Write a UTCTime in the form yymmddhhmmssZ. Fractions of a second are dropped.
+     */
+    public DERWriter utcTime(Instant time) {
+        LocalDateTime dateTime = LocalDateTime.ofEpochSecond(time.getEpochSecond(), 0, ZoneOffset.UTC);
+        if (dateTime.getYear() < FIRST_UTC_TIME_YEAR || dateTime.getYear() > LAST_UTC_TIME_YEAR) {
+            throw new IllegalArgumentException("UTCTime can only hold years " + FIRST_UTC_TIME_YEAR + " to " + LAST_UTC_TIME_YEAR + ". Actual: " + dateTime.getYear());
+        }
+        return time(ASN1TagType.UTCTime, dateTime, 2);
+    }
+
+    /**
+     * Write a GeneralizedTime in the form yyyymmddhhmmssZ. Fractions of a second are dropped.
+     */
+    public DERWriter generalizedTime(Instant time) {
+        LocalDateTime dateTime = LocalDateTime.ofEpochSecond(time.getEpochSecond(), 0, ZoneOffset.UTC);
+        if (dateTime.getYear() < 0 || dateTime.getYear() > 9999) {
+            throw new IllegalArgumentException("GeneralizedTime can only hold years 0 to 9999. Actual: " + dateTime.getYear());
+        }
+        return time(ASN1TagType.GeneralizedTime, dateTime, 4);
+    }
+
+    /**
+     * Write a certificate validity time: UTCTime through 2049 and GeneralizedTime from 2050 on.
+     */
+    public DERWriter validityTime(Instant time) {
+        int year = LocalDateTime.ofEpochSecond(time.getEpochSecond(), 0, ZoneOffset.UTC).getYear();
+        if (year >= FIRST_UTC_TIME_YEAR && year <= LAST_UTC_TIME_YEAR) {
+            return utcTime(time);
+        }
+        return generalizedTime(time);
+    }
+
+    /**
+     * Write a primitive universal item.
+     */
+    public DERWriter primitive(ASN1TagType type, byte[] contents) {
+        ensureCapacity(contents.length);
+        prepend(contents);
+        return header(type, contents.length);
+    }
+
+    /**
+     * Write a primitive universal item from part of an array.
+     */
+    public DERWriter primitive(ASN1TagType type, byte[] contents, int offset, int length) {
+        ensureCapacity(length);
+        head -= length;
+        System.arraycopy(contents, offset, buffer, head, length);
+        return header(type, length);
+    }
+
+    /**
+     * Write octets that are already DER encoded, such as a subject public key info copied from a request.
+     */
+    public DERWriter encoded(byte[] der) {
+        ensureCapacity(der.length);
+        prepend(der);
+        return this;
+    }
+
+    /**
+     * Write octets that are already DER encoded, from the position to the limit of a buffer. The buffer's position is
+     * not changed.
+     */
+    public DERWriter encoded(ByteBuffer der) {
+        int length = der.remaining();
+        ensureCapacity(length);
+        head -= length;
+        der.get(der.position(), buffer, head, length);
+        return this;
+    }
+
+    /**
+     * Write an item from a parsed or built tree.
+     */
+    public DERWriter item(ASN1Item item) {
+        int length = DEREncodingUtils.encodedLength(item);
+        ensureCapacity(length);
+        head -= length;
+        DEREncodingUtils.encodeInto(item, ByteBuffer.wrap(buffer, head, length));
+        return this;
+    }
+
+    /**
+     * @return A copy of everything written.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(buffer, head, buffer.length);
+    }
+
+    /**
+     * @return A read-only view of everything written. It is only valid until the next write.
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buffer, head, size()).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Write everything written to a stream, without copying it first.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, head, size());
+    }
+
+    private DERWriter time(ASN1TagType type, LocalDateTime dateTime, int yearDigits) {
+        int length = yearDigits + 11;
+        ensureCapacity(length);
+        buffer[--head] = 'Z';
+        prependDigits(dateTime.getSecond(), 2);
+        prependDigits(dateTime.getMinute(), 2);
+        prependDigits(dateTime.getHour(), 2);
+        prependDigits(dateTime.getDayOfMonth(), 2);
+        prependDigits(dateTime.getMonthValue(), 2);
+        prependDigits(dateTime.getYear(), yearDigits);
+        return header(type, length);
+    }
+
+    private void prependDigits(int value, int digits) {
+        for (int i = 0; i < digits; i++) {
+            buffer[--head] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private int contentsSince(int mark) {
+        int contentsLength = size() - mark;
+        if (mark < 0 || contentsLength < 0) {
+            throw new IllegalArgumentException("Mark " + mark + " is not within the " + size() + " octets written.");
+        }
+        return contentsLength;
+    }
+
+    private DERWriter header(ASN1TagType type, int contentsLength) {
+        prependLength(contentsLength);
+        prependIdentifier(ASN1Identifier.TagClass.Universal, false, type.ordinal);
+        return this;
+    }
+
+    private void prependLength(int length) {
+        int octets = DEREncodingUtils.lengthOctetsFor(length);
+        ensureCapacity(octets);
+        if (octets == 1) {
+            buffer[--head] = (byte) length;
+            return;
+        }
+        for (int i = 1; i < octets; i++) {
+            buffer[--head] = (byte) length;
+            length >>>= 8;
+        }
+        buffer[--head] = (byte) (0b1000_0000 | (octets - 1));
+    }
+
+    private void prependIdentifier(ASN1Identifier.TagClass tagClass, boolean constructed, int tagNumber) {
+        int classAndForm = (tagClass.value << 6) | (constructed ? 0b0010_0000 : 0);
+        if (tagNumber < ASN1Identifier.HIGH_TAG_NUMBER) {
+            ensureCapacity(1);
+            buffer[--head] = (byte) (classAndForm | tagNumber);
+            return;
+        }
+
+        ensureCapacity(6);
+        buffer[--head] = (byte) (tagNumber & 0b0111_1111);
+        for (int value = tagNumber >>> 7; value != 0; value >>>= 7) {
+            buffer[--head] = (byte) (0b1000_0000 | (value & 0b0111_1111));
+        }
+        buffer[--head] = (byte) (classAndForm | ASN1Identifier.HIGH_TAG_NUMBER);
+    }
+
+    private void prepend(byte[] octets) {
+        head -= octets.length;
+        System.arraycopy(octets, 0, buffer, head, octets.length);
+    }
+
+    private void ensureCapacity(int octets) {
+        if (head >= octets) {
+            return;
+        }
+        int size = size();
+        int capacity = Math.max(buffer.length * 2, Math.addExact(size, octets));
+        byte[] grown = new byte[capacity];
+        System.arraycopy(buffer, head, grown, capacity - size, size);
+        buffer = grown;
+        head = capacity - size;
+    }
+
+    private int identifierLengthAt(int index) {
+        int length = 1;
+        if ((buffer[index] & ASN1Identifier.HIGH_TAG_NUMBER) == ASN1Identifier.HIGH_TAG_NUMBER) {
+            while ((buffer[index + length] & 0b1000_0000) != 0) {
+                length++;
+            }
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * @return The total length of the element starting at the index, including its identifier and length octets.
+     */
+    private int elementLengthAt(int index) {
+        int lengthIndex = index + identifierLengthAt(index);
+        int first = buffer[lengthIndex] & 0xFF;
+        if (first < 0x80) {
+            return lengthIndex + 1 - index + first;
+        }
+        int octets = first & 0x7F;
+        int length = 0;
+        for (int i = 1; i <= octets; i++) {
+            length = (length << 8) | (buffer[lengthIndex + i] & 0xFF);
+        }
+        return lengthIndex + 1 + octets - index + length;
+    }
+
+    /**
+     * Sort the elements written since the mark by their encodings (X.690 11.6).
+     */
+    private void sortElements(int mark) {
+        int end = buffer.length - mark;
+        List<int[]> elements = new ArrayList<>();
+        for (int index = head; index < end; ) {
+            int length = elementLengthAt(index);
+            elements.add(new int[]{index, length});
+            index += length;
+        }
+        if (elements.size() < 2) {
+            return;
+        }
+
+        byte[] original = Arrays.copyOfRange(buffer, head, end);
+        elements.sort((a, b) -> Arrays.compareUnsigned(
+                original, a[0] - head, a[0] - head + a[1],
+                original, b[0] - head, b[0] - head + b[1]));
+        int index = head;
+        for (int[] element : elements) {
+            System.arraycopy(original, element[0] - head, buffer, index, element[1]);
+            index += element[1];
+        }
+    }
+}
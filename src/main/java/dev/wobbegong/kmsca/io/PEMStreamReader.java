@@ -0,0 +1,408 @@
+package dev.wobbegong.kmsca.io;
+
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.exceptions.KMSCAException;
+import dev.wobbegong.kmsca.exceptions.PEMFormatException;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads PEM objects one at a time from a channel or a memory mapped file, such as a CA bundle of tens of thousands of
+ * certificates. It accepts the same input as {@link PEMUtils#readNextPEM(java.io.BufferedReader)}, without regular
+ * expressions or intermediate strings:
+ *
+ * <ul>
+ *     <li>Lines outside of a PEM object are skipped, unless they are a BEGIN tag.</li>
+ *     <li>Between the BEGIN and END tags, every line must be Base64. Blank lines are rejected.</li>
+ *     <li>Base64 is decoded as it is read into a buffer that is reused for every object. Padding is optional, as for
+ *     {@link java.util.Base64#getDecoder()}.</li>
+ * </ul>
+ *
+ * <p>Lines may end in LF, CR LF or CR. Errors name the line they were found on.</p>
+ *
+ * <p>Instances are not thread safe.</p>
+ */
+public class PEMStreamReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] BEGIN = "-----BEGIN ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "-----END ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DASHES = "-----".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The value of each Base64 character, {@link #PADDING} for '=' and {@link #INVALID} for everything else.
+     */
+    private static final byte[] BASE64_VALUES = new byte[256];
+    private static final byte INVALID = -1;
+    private static final byte PADDING = -2;
+
+    static {
+        Arrays.fill(BASE64_VALUES, INVALID);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+        BASE64_VALUES['='] = PADDING;
+    }
+
+    // Base64 decoder states
+    private static final int DATA = 0;
+    private static final int SECOND_PADDING = 1;
+    private static final int PADDED = 2;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private long line = 1;
+
+    private byte[] tagLine = new byte[128];
+    private int tagLength;
+    private byte[] lastType = new byte[0];
+    private String lastTypeString;
+
+    private byte[] decoded = new byte[4096];
+    private int decodedLength;
+    private int quantum;
+    private int quantumLength;
+    private int decoderState;
+
+    public PEMStreamReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+    }
+
+    public PEMStreamReader(InputStream inputStream) {
+        this(Channels.newChannel(inputStream));
+    }
+
+    /**
+     * Read from the remaining bytes of a buffer, such as a memory mapped file. The buffer's position is advanced.
+     *
+     * @param buffer The PEM data.
+     */
+    public PEMStreamReader(ByteBuffer buffer) {
+        this.channel = null;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Read a file. Files under 2 GB are memory mapped, larger ones are read through their channel.
+     *
+     * @param path The file to read.
+     * @return A reader over the file.
+     * @throws IOException If the file cannot be opened or mapped.
+     */
+    public static PEMStreamReader open(Path path) throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        if (file.size() > Integer.MAX_VALUE) {
+            return new PEMStreamReader(file);
+        }
+        try (file) {
+            // The mapping stays valid after the channel is closed
+            return new PEMStreamReader(file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()));
+        }
+    }
+
+    /**
+     * Read the next PEM object.
+     *
+     * @return The next PEM object, or null at the end of the input.
+     * @throws IOException        If the input cannot be read.
+     * @throws PEMFormatException If the input is not a valid PEM file.
+     */
+    public PEMObject next() throws IOException, PEMFormatException {
+        String type = readToBeginTag();
+        if (type == null) {
+            return null;
+        }
+
+        decodedLength = 0;
+        quantum = 0;
+        quantumLength = 0;
+        decoderState = DATA;
+
+        while (true) {
+            int b = nextByte();
+            if (b == -1) {
+                throw new PEMFormatException("Un-closed PEM tag. (Or possibly a malformed END tag)");
+            }
+            if (b == '\n' || b == '\r') {
+                throw new PEMFormatException("Blank line between PEM BEGIN and END tags at line " + line + ".");
+            }
+            if (b == '-') {
+                long tagLineNumber = line;
+                readTagLine(b);
+                String endType = tagType(END);
+                if (endType == null) {
+                    throw new PEMFormatException("Unexpected data in the middle of a PEM at line " + tagLineNumber + ".");
+                }
+                if (!endType.equals(type)) {
+                    // EG: Check that END RSA PUBLIC KEY matches the BEGIN RSA PUBLIC KEY
+                    throw new PEMFormatException("END tag " + endType + " does not match beginning tag " + type);
+                }
+                finishBase64();
+                return new PEMObject(type, Arrays.copyOf(decoded, decodedLength));
+            }
+            if (b <= ' ') {
+                throw whitespaceLine();
+            }
+
+            do {
+                decodeBase64(b);
+                b = nextByte();
+            } while (b != -1 && b != '\n' && b != '\r');
+            endLine(b);
+        }
+    }
+
+    /**
+     * @return The remaining PEM objects. {@link IOException} is rethrown as {@link UncheckedIOException}, and
+     * {@link PEMFormatException} as {@link KMSCAException}.
+     */
+    public Iterator<PEMObject> iterator() {
+        return new Iterator<>() {
+            private PEMObject next;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !done) {
+                    try {
+                        next = PEMStreamReader.this.next();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } catch (PEMFormatException e) {
+                        throw new KMSCAException(e.getMessage(), e);
+                    }
+                    done = next == null;
+                }
+                return next != null;
+            }
+
+            @Override
+            public PEMObject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                PEMObject result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * @return The remaining PEM objects, read as the stream is consumed. Closing the stream closes the reader. Errors
+     * are rethrown as by {@link #iterator()}.
+     */
+    public Stream<PEMObject> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Skip lines until a BEGIN tag. This matches what OpenSSL does.
+     *
+     * @return The type in the BEGIN tag, or null at the end of the input.
+     */
+    private String readToBeginTag() throws IOException {
+        int b;
+        while ((b = nextByte()) != -1) {
+            if (b == '-') {
+                readTagLine(b);
+                String type = tagType(BEGIN);
+                if (type != null) {
+                    return type;
+                }
+            } else {
+                while (b != -1 && b != '\n' && b != '\r') {
+                    b = nextByte();
+                }
+                endLine(b);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collect a line that may be a tag, starting at its first byte, and move to the next line.
+     */
+    private void readTagLine(int b) throws IOException {
+        tagLength = 0;
+        while (b != -1 && b != '\n' && b != '\r') {
+            if (tagLength == tagLine.length) {
+                tagLine = Arrays.copyOf(tagLine, tagLine.length * 2);
+            }
+            tagLine[tagLength++] = (byte) b;
+            b = nextByte();
+        }
+        endLine(b);
+    }
+
+    /**
+     * @param prefix Either {@link #BEGIN} or {@link #END}.
+     * @return The type if the tag line is "prefix TYPE-----" with a type of upper case letters, digits and spaces, or
+     * null.
+     */
+    private String tagType(byte[] prefix) {
+        int typeLength = tagLength - prefix.length - DASHES.length;
+        if (typeLength < 1
+                || !Arrays.equals(tagLine, 0, prefix.length, prefix, 0, prefix.length)
+                || !Arrays.equals(tagLine, tagLength - DASHES.length, tagLength, DASHES, 0, DASHES.length)) {
+            return null;
+        }
+        for (int i = prefix.length; i < prefix.length + typeLength; i++) {
+            byte c = tagLine[i];
+            if (!(c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == ' ')) {
+                return null;
+            }
+        }
+
+        // Bundles repeat the same type, so reuse its string
+        if (!Arrays.equals(tagLine, prefix.length, prefix.length + typeLength, lastType, 0, lastType.length)) {
+            lastType = Arrays.copyOfRange(tagLine, prefix.length, prefix.length + typeLength);
+            lastTypeString = new String(lastType, StandardCharsets.US_ASCII);
+        }
+        return lastTypeString;
+    }
+
+    /**
+     * A line inside a PEM object that starts with whitespace is either blank or has unexpected data.
+     */
+    private PEMFormatException whitespaceLine() throws IOException {
+        long lineNumber = line;
+        boolean blank = true;
+        int b;
+        while ((b = nextByte()) != -1 && b != '\n' && b != '\r') {
+            blank &= b <= ' ';
+        }
+        endLine(b);
+        return new PEMFormatException((blank ? "Blank line between PEM BEGIN and END tags" : "Unexpected data in the middle of a PEM") + " at line " + lineNumber + ".");
+    }
+
+    private void decodeBase64(int b) throws PEMFormatException {
+        byte value = BASE64_VALUES[b];
+        if (value >= 0) {
+            if (decoderState != DATA) {
+                throw new PEMFormatException("Base64 data after padding at line " + line + ".");
+            }
+            quantum = quantum << 6 | value;
+            if (++quantumLength == 4) {
+                ensureDecodedCapacity(3);
+                decoded[decodedLength++] = (byte) (quantum >> 16);
+                decoded[decodedLength++] = (byte) (quantum >> 8);
+                decoded[decodedLength++] = (byte) quantum;
+                quantum = 0;
+                quantumLength = 0;
+            }
+        } else if (value == PADDING) {
+            if (decoderState == SECOND_PADDING) {
+                decoderState = PADDED;
+            } else if (decoderState == DATA && (quantumLength == 2 || quantumLength == 3)) {
+                decoderState = quantumLength == 2 ? SECOND_PADDING : PADDED;
+            } else {
+                throw new PEMFormatException("Misplaced Base64 padding at line " + line + ".");
+            }
+        } else {
+            throw new PEMFormatException("Unexpected data in the middle of a PEM at line " + line + ".");
+        }
+    }
+
+    /**
+     * Decode the final partial quantum.
+     */
+    private void finishBase64() throws PEMFormatException {
+        if (decoderState == SECOND_PADDING || quantumLength == 1) {
+            throw new PEMFormatException("Base64 data ends in an incomplete unit.");
+        }
+        ensureDecodedCapacity(2);
+        if (quantumLength == 2) {
+            decoded[decodedLength++] = (byte) (quantum >> 4);
+        } else if (quantumLength == 3) {
+            decoded[decodedLength++] = (byte) (quantum >> 10);
+            decoded[decodedLength++] = (byte) (quantum >> 2);
+        }
+    }
+
+    private void ensureDecodedCapacity(int extra) {
+        if (decodedLength + extra > decoded.length) {
+            decoded = Arrays.copyOf(decoded, decoded.length * 2);
+        }
+    }
+
+    /**
+     * Consume the LF of a CR LF line ending.
+     *
+     * @param b The byte that ended the line, or -1.
+     */
+    private void endLine(int b) throws IOException {
+        if (b == -1) {
+            return;
+        }
+        line++;
+        if (b == '\r' && peekByte() == '\n') {
+            buffer.get();
+        }
+    }
+
+    private int nextByte() throws IOException {
+        if (buffer.hasRemaining() || fill()) {
+            return buffer.get() & 0xFF;
+        }
+        return -1;
+    }
+
+    private int peekByte() throws IOException {
+        if (buffer.hasRemaining() || fill()) {
+            return buffer.get(buffer.position()) & 0xFF;
+        }
+        return -1;
+    }
+
+    /**
+     * @return True if there is more input.
+     */
+    private boolean fill() throws IOException {
+        if (channel == null) {
+            return false;
+        }
+        buffer.clear();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        buffer.flip();
+        return read > 0;
+    }
+}
@@ -0,0 +1,305 @@
+package dev.wobbegong.kmsca.io;
+
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes PEM objects straight into their output. The exact size is computed up front, so a PEM object, or a whole
+ * chain of them, is encoded into one array without intermediate strings. The Base64 body is wrapped at 64 characters
+ * as RFC 7468 requires, and every line, the last included, ends in the writer's line separator.
+ *
+ * <p>{@link #DEFAULT} writes the same text as {@link PEMUtils#pemFor(String, byte[])}.</p>
+ *
+ * <p>Instances are immutable and thread safe.</p>
+ */
+public final class PEMWriter {
+
+    /**
+     * Writes lines ending in {@link PEMUtils#LINE_SEPARATOR}.
+     */
+    public static final PEMWriter DEFAULT = new PEMWriter(System.lineSeparator());
+
+    public static final int LINE_LENGTH = 64;
+
+    /**
+     * The bytes encoded on each full line.
+     */
+    private static final int LINE_BYTES = LINE_LENGTH / 4 * 3;
+
+    private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BEGIN = "-----BEGIN ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "-----END ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DASHES = "-----".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] lineSeparator;
+
+    /**
+     * @param lineSeparator The end of every line, usually "\n" or "\r\n".
+     */
+    public PEMWriter(String lineSeparator) {
+        if (lineSeparator.isEmpty()) {
+            throw new IllegalArgumentException("Line separator must not be empty.");
+        }
+        this.lineSeparator = ascii(lineSeparator, "Line separator");
+    }
+
+    /**
+     * @param type          The type of the PEM object.
+     * @param contentLength The length of the encoded contents.
+     * @return The length of the PEM text.
+     */
+    public int pemLength(String type, int contentLength) {
+        ascii(type, "PEM type");
+        long base64Length = (contentLength + 2L) / 3 * 4;
+        long lines = (base64Length + LINE_LENGTH - 1) / LINE_LENGTH;
+        long length = BEGIN.length + END.length + 2L * (type.length() + DASHES.length + lineSeparator.length)
+                + base64Length + lines * lineSeparator.length;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("PEM text would be too large: " + length + " bytes.");
+        }
+        return (int) length;
+    }
+
+    /**
+     * @param objects The PEM objects.
+     * @return The length of the PEM text of all of them.
+     */
+    public int pemLength(List<PEMObject> objects) {
+        long length = 0;
+        for (PEMObject object : objects) {
+            length += pemLength(object.type(), object.content().length);
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("PEM text would be too large: " + length + " bytes.");
+        }
+        return (int) length;
+    }
+
+    /**
+     * @param type    The type of the PEM object. EG: CERTIFICATE
+     * @param content The encoded bytes to wrap.
+     * @return The PEM text as ASCII bytes.
+     */
+    public byte[] encode(String type, byte[] content) {
+        byte[] out = new byte[pemLength(type, content.length)];
+        write(type, content, out, 0);
+        return out;
+    }
+
+    /**
+     * Encode a chain of PEM objects into a single array.
+     *
+     * @param objects The PEM objects, in order.
+     * @return The PEM text of all of them, as ASCII bytes.
+     */
+    public byte[] encode(List<PEMObject> objects) {
+        byte[] out = new byte[pemLength(objects)];
+        int offset = 0;
+        for (PEMObject object : objects) {
+            offset = write(object.type(), object.content(), out, offset);
+        }
+        return out;
+    }
+
+    /**
+     * @param type    The type of the PEM object. EG: CERTIFICATE
+     * @param content The encoded bytes to wrap.
+     * @return The PEM text.
+     */
+    public String toPEM(String type, byte[] content) {
+        return new String(encode(type, content), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @param objects The PEM objects, in order.
+     * @return The PEM text of all of them.
+     */
+    public String toPEM(List<PEMObject> objects) {
+        return new String(encode(objects), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Write a PEM object into an array.
+     *
+     * @param type    The type of the PEM object.
+     * @param content The encoded bytes to wrap.
+     * @param out     The array to write to. It needs {@link #pemLength(String, int)} bytes from the offset.
+     * @param offset  Where to start writing.
+     * @return The offset after the PEM text.
+     */
+    public int write(String type, byte[] content, byte[] out, int offset) {
+        if (out.length - offset < pemLength(type, content.length)) {
+            throw new IndexOutOfBoundsException("Output needs " + pemLength(type, content.length) + " bytes from offset " + offset + " but has " + (out.length - offset) + ".");
+        }
+        offset = writeTag(BEGIN, type, out, offset);
+
+        int full = content.length / LINE_BYTES * LINE_BYTES;
+        for (int i = 0; i < full; i += LINE_BYTES) {
+            offset = encodeLine(content, i, LINE_BYTES, out, offset);
+        }
+        if (full < content.length) {
+            offset = encodeLine(content, full, content.length - full, out, offset);
+        }
+
+        return writeTag(END, type, out, offset);
+    }
+
+    /**
+     * Write a PEM object at the position of a buffer, and advance the position past it.
+     *
+     * @param type    The type of the PEM object.
+     * @param content The encoded bytes to wrap.
+     * @param out     The buffer to write to. Heap buffers are written through their array, and direct buffers with
+     *                absolute puts.
+     */
+    public void write(String type, byte[] content, ByteBuffer out) {
+        int length = pemLength(type, content.length);
+        if (out.remaining() < length) {
+            throw new IndexOutOfBoundsException("Output needs " + length + " bytes but has " + out.remaining() + ".");
+        }
+        if (out.hasArray()) {
+            write(type, content, out.array(), out.arrayOffset() + out.position());
+            out.position(out.position() + length);
+            return;
+        }
+
+        int index = writeTag(BEGIN, type, out, out.position());
+        int full = content.length / LINE_BYTES * LINE_BYTES;
+        for (int i = 0; i < full; i += LINE_BYTES) {
+            index = encodeLine(content, i, LINE_BYTES, out, index);
+        }
+        if (full < content.length) {
+            index = encodeLine(content, full, content.length - full, out, index);
+        }
+        out.position(writeTag(END, type, out, index));
+    }
+
+    /**
+     * Write a PEM object to a channel.
+     *
+     * @param type    The type of the PEM object.
+     * @param content The encoded bytes to wrap.
+     * @param channel The channel to write to.
+     * @throws IOException If the channel cannot be written.
+     */
+    public void write(String type, byte[] content, WritableByteChannel channel) throws IOException {
+        writeFully(ByteBuffer.wrap(encode(type, content)), channel);
+    }
+
+    /**
+     * Write a chain of PEM objects to a channel.
+     *
+     * @param objects The PEM objects, in order.
+     * @param channel The channel to write to.
+     * @throws IOException If the channel cannot be written.
+     */
+    public void write(List<PEMObject> objects, WritableByteChannel channel) throws IOException {
+        writeFully(ByteBuffer.wrap(encode(objects)), channel);
+    }
+
+    private static void writeFully(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private int writeTag(byte[] prefix, String type, byte[] out, int offset) {
+        System.arraycopy(prefix, 0, out, offset, prefix.length);
+        offset += prefix.length;
+        // The type was checked to be ASCII by pemLength
+        for (int i = 0; i < type.length(); i++) {
+            out[offset++] = (byte) type.charAt(i);
+        }
+        System.arraycopy(DASHES, 0, out, offset, DASHES.length);
+        offset += DASHES.length;
+        System.arraycopy(lineSeparator, 0, out, offset, lineSeparator.length);
+        return offset + lineSeparator.length;
+    }
+
+    private int writeTag(byte[] prefix, String type, ByteBuffer out, int index) {
+        out.put(index, prefix);
+        index += prefix.length;
+        for (int i = 0; i < type.length(); i++) {
+            out.put(index++, (byte) type.charAt(i));
+        }
+        out.put(index, DASHES);
+        index += DASHES.length;
+        out.put(index, lineSeparator);
+        return index + lineSeparator.length;
+    }
+
+    /**
+     * Encode up to {@link #LINE_BYTES} bytes as one line of Base64, with padding if it is the last line.
+     */
+    private int encodeLine(byte[] content, int from, int length, byte[] out, int offset) {
+        int end = from + length / 3 * 3;
+        for (int i = from; i < end; i += 3) {
+            int bits = (content[i] & 0xFF) << 16 | (content[i + 1] & 0xFF) << 8 | (content[i + 2] & 0xFF);
+            out[offset++] = BASE64[bits >>> 18];
+            out[offset++] = BASE64[bits >>> 12 & 0x3F];
+            out[offset++] = BASE64[bits >>> 6 & 0x3F];
+            out[offset++] = BASE64[bits & 0x3F];
+        }
+        int rest = from + length - end;
+        if (rest == 1) {
+            int bits = (content[end] & 0xFF) << 16;
+            out[offset++] = BASE64[bits >>> 18];
+            out[offset++] = BASE64[bits >>> 12 & 0x3F];
+            out[offset++] = '=';
+            out[offset++] = '=';
+        } else if (rest == 2) {
+            int bits = (content[end] & 0xFF) << 16 | (content[end + 1] & 0xFF) << 8;
+            out[offset++] = BASE64[bits >>> 18];
+            out[offset++] = BASE64[bits >>> 12 & 0x3F];
+            out[offset++] = BASE64[bits >>> 6 & 0x3F];
+            out[offset++] = '=';
+        }
+        System.arraycopy(lineSeparator, 0, out, offset, lineSeparator.length);
+        return offset + lineSeparator.length;
+    }
+
+    /**
+     * {@link #encodeLine(byte[], int, int, byte[], int)} for buffers without an array.
+     */
+    private int encodeLine(byte[] content, int from, int length, ByteBuffer out, int index) {
+        int end = from + length / 3 * 3;
+        for (int i = from; i < end; i += 3) {
+            int bits = (content[i] & 0xFF) << 16 | (content[i + 1] & 0xFF) << 8 | (content[i + 2] & 0xFF);
+            out.put(index++, BASE64[bits >>> 18]);
+            out.put(index++, BASE64[bits >>> 12 & 0x3F]);
+            out.put(index++, BASE64[bits >>> 6 & 0x3F]);
+            out.put(index++, BASE64[bits & 0x3F]);
+        }
+        int rest = from + length - end;
+        if (rest == 1) {
+            int bits = (content[end] & 0xFF) << 16;
+            out.put(index++, BASE64[bits >>> 18]);
+            out.put(index++, BASE64[bits >>> 12 & 0x3F]);
+            out.put(index++, (byte) '=');
+            out.put(index++, (byte) '=');
+        } else if (rest == 2) {
+            int bits = (content[end] & 0xFF) << 16 | (content[end + 1] & 0xFF) << 8;
+            out.put(index++, BASE64[bits >>> 18]);
+            out.put(index++, BASE64[bits >>> 12 & 0x3F]);
+            out.put(index++, BASE64[bits >>> 6 & 0x3F]);
+            out.put(index++, (byte) '=');
+        }
+        out.put(index, lineSeparator);
+        return index + lineSeparator.length;
+    }
+
+    private static byte[] ascii(String text, String what) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7F) {
+                throw new IllegalArgumentException(what + " must be ASCII: " + text);
+            }
+        }
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,108 @@
+package dev.wobbegong.kmsca.io;
+
+import dev.wobbegong.kmsca.utils.CryptoUtils;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The format shared by {@link SegmentedAESGCMOutputStream} and {@link SegmentedAESGCMInputStream}. It follows the
+ * STREAM construction of nonce based online authenticated encryption, as used by Tink's AES-GCM-HKDF streaming AEAD.
+ *
+ * <pre>
+ * header  = version (1) || segment size (4, big endian) || salt (16) || nonce prefix (7)
+ * segment = AES-GCM(segment key, nonce prefix || segment number (4, big endian) || last (1), header as AAD)
+ * </pre>
+ *
+ * <p>The segment key is derived from the stream key and the random salt with HKDF-SHA256, so every stream has its own
+ * key and nonces never repeat across streams. Every segment but the last holds exactly one segment size of plaintext.
+ * The last segment holds the rest, which is only empty for an empty stream, and is marked in its nonce, so a stream cut at a segment boundary
+ * fails authentication like any other modification.</p>
+ */
+final class SegmentedAESGCM {
+
+    static final byte VERSION = 1;
+    static final int SALT_SIZE = 16;
+    static final int NONCE_PREFIX_SIZE = 7;
+    static final int HEADER_SIZE = 1 + 4 + SALT_SIZE + NONCE_PREFIX_SIZE;
+
+    static final int MIN_SEGMENT_SIZE = 16;
+    static final int MAX_SEGMENT_SIZE = 1 << 24;
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+
+    /**
+     * Segment numbers are 4 byte unsigned integers.
+     */
+    static final long MAX_SEGMENTS = 1L << 32;
+
+    private static final String KEY_INFO = "dev.wobbegong.kmsca segmented AES-GCM v1";
+
+    private SegmentedAESGCM() {
+    }
+
+    static void checkSegmentSize(int segmentSize) {
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be from " + MIN_SEGMENT_SIZE + " to " + MAX_SEGMENT_SIZE + " bytes. Actual: " + segmentSize);
+        }
+    }
+
+    static SegmentKey segmentKey(byte[] key, byte[] header) {
+        byte[] salt = Arrays.copyOfRange(header, 5, 5 + SALT_SIZE);
+        return new SegmentKey(CryptoUtils.hkdfSHA256(key, salt, KEY_INFO, 32));
+    }
+
+    /**
+     * @param nonce Receives the nonce. Its first bytes must already hold the nonce prefix.
+     */
+    static void nonce(byte[] nonce, long segment, boolean last) {
+        ByteBuffer.wrap(nonce, NONCE_PREFIX_SIZE, 5).putInt((int) segment).put((byte) (last ? 1 : 0));
+    }
+
+    /**
+     * The derived key of one stream, which the stream zeroes when it is closed. A {@link javax.crypto.spec.SecretKeySpec}
+     * keeps a copy of its bytes that cannot be cleared, while the JCE ciphers zero the copies they take from
+     * {@link #getEncoded()}.
+     */
+    static final class SegmentKey implements SecretKey {
+
+        private final byte[] key;
+        private boolean destroyed;
+
+        /**
+         * Takes ownership of the key bytes.
+         */
+        SegmentKey(byte[] key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "AES";
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            if (destroyed) {
+                throw new IllegalStateException("Segment key was destroyed.");
+            }
+            return key.clone();
+        }
+
+        @Override
+        public void destroy() {
+            Arrays.fill(key, (byte) 0);
+            destroyed = true;
+        }
+
+        @Override
+        public boolean isDestroyed() {
+            return destroyed;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package dev.wobbegong.kmsca.io;
+
+import dev.wobbegong.kmsca.utils.CryptoUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Decrypts a stream written by {@link SegmentedAESGCMOutputStream}, one segment at a time. Every segment is
+ * authenticated before any of its plaintext is returned. A modified, reordered or truncated stream fails with an
+ * {@link IOException} at the first bad segment, so plaintext read before the failure must not be trusted until the
+ * stream has been read to its end.
+ *
+ * <p>Instances are not thread safe.</p>
+ */
+public class SegmentedAESGCMInputStream extends InputStream {
+
+    private final InputStream in;
+    private final byte[] header;
+    private final SegmentedAESGCM.SegmentKey segmentKey;
+    private final byte[] nonce = new byte[CryptoUtils.GCM_IV_SIZE];
+    private final int segmentSize;
+
+    /**
+     * One whole segment and the first byte of the next, which shows whether the segment is the last.
+     */
+    private final byte[] ciphertext;
+    private int carried;
+
+    private final ByteBuffer plaintext;
+    private long segment;
+    private boolean lastRead;
+
+    /**
+     * Reads the header from the stream.
+     *
+     * @param in  The encrypted stream.
+     * @param key The key the stream was written with.
+     * @throws IOException If the header is missing or malformed.
+     */
+    public SegmentedAESGCMInputStream(InputStream in, byte[] key) throws IOException {
+        this.in = in;
+        this.header = in.readNBytes(SegmentedAESGCM.HEADER_SIZE);
+        if (header.length < SegmentedAESGCM.HEADER_SIZE) {
+            throw new IOException("Encrypted stream is too short for its header.");
+        }
+        if (header[0] != SegmentedAESGCM.VERSION) {
+            throw new IOException("Unknown encrypted stream version: " + header[0]);
+        }
+        this.segmentSize = ByteBuffer.wrap(header, 1, 4).getInt();
+        try {
+            SegmentedAESGCM.checkSegmentSize(segmentSize);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed encrypted stream header.", e);
+        }
+
+        System.arraycopy(header, 1 + 4 + SegmentedAESGCM.SALT_SIZE, nonce, 0, SegmentedAESGCM.NONCE_PREFIX_SIZE);
+        this.segmentKey = SegmentedAESGCM.segmentKey(key, header);
+        this.ciphertext = new byte[segmentSize + CryptoUtils.GCM_TAG_SIZE + 1];
+        this.plaintext = ByteBuffer.allocate(segmentSize).flip();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        while (!plaintext.hasRemaining()) {
+            if (lastRead) {
+                return -1;
+            }
+            readSegment();
+        }
+        int n = Math.min(len, plaintext.remaining());
+        plaintext.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return plaintext.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(plaintext.array(), (byte) 0);
+        plaintext.limit(0);
+        segmentKey.destroy();
+        lastRead = true;
+        in.close();
+    }
+
+    private void readSegment() throws IOException {
+        int read = carried + in.readNBytes(ciphertext, carried, ciphertext.length - carried);
+        boolean last = read < ciphertext.length;
+        int length = last ? read : read - 1;
+        if (length < CryptoUtils.GCM_TAG_SIZE) {
+            throw new IOException("Encrypted stream is truncated in segment " + segment + ".");
+        }
+        if (segment >= SegmentedAESGCM.MAX_SEGMENTS) {
+            throw new IOException("Encrypted stream has too many segments.");
+        }
+
+        SegmentedAESGCM.nonce(nonce, segment, last);
+        plaintext.clear();
+        try {
+            CryptoUtils.aesGCMDecrypt(ByteBuffer.wrap(ciphertext, 0, length), plaintext, segmentKey, nonce, header);
+        } catch (SecurityException e) {
+            plaintext.clear().limit(0);
+            throw new IOException("Segment " + segment + " of the encrypted stream failed authentication.", e);
+        }
+        plaintext.flip();
+
+        if (!last) {
+            ciphertext[0] = ciphertext[length];
+            carried = 1;
+        }
+        segment++;
+        lastRead = last;
+    }
+}
@@ -0,0 +1,122 @@
+package dev.wobbegong.kmsca.io;
+
+import dev.wobbegong.kmsca.utils.CryptoUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Encrypts a stream of any length with AES-GCM in fixed size segments, holding only one segment in memory. Suits large
+ * backups of the CA database. Read the output with {@link SegmentedAESGCMInputStream}. The format is described in
+ * {@link SegmentedAESGCM}.
+ *
+ * <p>The output is only complete once the stream is closed, which writes the last segment.</p>
+ *
+ * <p>Instances are not thread safe.</p>
+ */
+public class SegmentedAESGCMOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final byte[] header;
+    private final SegmentedAESGCM.SegmentKey segmentKey;
+    private final byte[] nonce = new byte[CryptoUtils.GCM_IV_SIZE];
+    private final ByteBuffer plaintext;
+    private final byte[] ciphertext;
+    private long segment;
+    private boolean closed;
+
+    public SegmentedAESGCMOutputStream(OutputStream out, byte[] key) throws IOException {
+        this(out, key, SegmentedAESGCM.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Writes the header to the stream.
+     *
+     * @param out         Receives the encrypted stream.
+     * @param key         A 128, 192 or 256 bit key. A key for the stream is derived from it.
+     * @param segmentSize The plaintext bytes in each segment.
+     * @throws IOException If the header could not be written.
+     */
+    public SegmentedAESGCMOutputStream(OutputStream out, byte[] key, int segmentSize) throws IOException {
+        SegmentedAESGCM.checkSegmentSize(segmentSize);
+        this.out = out;
+        this.plaintext = ByteBuffer.allocate(segmentSize);
+        this.ciphertext = new byte[segmentSize + CryptoUtils.GCM_TAG_SIZE];
+
+        byte[] salt = CryptoUtils.randomBytes(SegmentedAESGCM.SALT_SIZE);
+        byte[] noncePrefix = CryptoUtils.randomBytes(SegmentedAESGCM.NONCE_PREFIX_SIZE);
+        this.header = ByteBuffer.allocate(SegmentedAESGCM.HEADER_SIZE)
+                .put(SegmentedAESGCM.VERSION)
+                .putInt(segmentSize)
+                .put(salt)
+                .put(noncePrefix)
+                .array();
+        System.arraycopy(noncePrefix, 0, nonce, 0, noncePrefix.length);
+        this.segmentKey = SegmentedAESGCM.segmentKey(key, header);
+        out.write(header);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (closed) {
+            throw new IOException("Stream is closed.");
+        }
+        while (len > 0) {
+            // A full segment is only written once more data shows it is not the last
+            if (!plaintext.hasRemaining()) {
+                writeSegment(false);
+            }
+            int n = Math.min(len, plaintext.remaining());
+            plaintext.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Flushes the underlying stream. Buffered plaintext is only written once its segment is full or the stream is
+     * closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Write the last segment and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeSegment(true);
+        } finally {
+            Arrays.fill(plaintext.array(), (byte) 0);
+            segmentKey.destroy();
+            out.close();
+        }
+    }
+
+    private void writeSegment(boolean last) throws IOException {
+        if (segment >= SegmentedAESGCM.MAX_SEGMENTS) {
+            throw new IOException("Stream is too long for " + plaintext.capacity() + " byte segments.");
+        }
+        SegmentedAESGCM.nonce(nonce, segment++, last);
+        plaintext.flip();
+        int length = CryptoUtils.aesGCMEncrypt(plaintext, ByteBuffer.wrap(ciphertext), segmentKey, nonce, header);
+        plaintext.clear();
+        out.write(ciphertext, 0, length);
+    }
+}
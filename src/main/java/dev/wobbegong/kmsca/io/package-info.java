@@ -0,0 +1,7 @@
+/**
+ * Contains streaming readers and writers for DER and PEM data.
+ *
+ * <p>Unlike the tree building methods in {@link dev.wobbegong.kmsca.utils.DERDecodingUtils}, the classes in this
+ * package work on data that does not have to fit in memory all at once.</p>
+ */
+package dev.wobbegong.kmsca.io;
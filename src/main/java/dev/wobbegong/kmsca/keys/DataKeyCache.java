@@ -0,0 +1,347 @@
+package dev.wobbegong.kmsca.keys;
+
+import dev.wobbegong.kmsca.entities.EncryptedPrivateKey;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.exceptions.KMSCAException;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.signing.SigningProvider;
+import dev.wobbegong.kmsca.utils.CertificateUtils;
+import dev.wobbegong.kmsca.utils.CryptoUtils;
+import dev.wobbegong.kmsca.utils.SignatureUtils;
+import dev.wobbegong.kmsca.utils.X509PublicKeyUtils;
+
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of unwrapped data keys and the private keys decrypted with them, so that KMS is not called for every
+ * signature.
+ *
+ * <ul>
+ *     <li>Each kind of entry is a least recently used map of at most {@link Options#maxEntries()} entries.</li>
+ *     <li>Entries expire {@link Options#ttl()} after they were unwrapped.</li>
+ *     <li>Entries are dropped after {@link Options#maxUses()} uses, so security policy can bound how much signing one
+ *     unwrap allows.</li>
+ *     <li>Evicted data keys are overwritten with zeros. With {@link Options#offHeap()} they are held in direct buffers,
+ *     which the garbage collector never copies.</li>
+ * </ul>
+ *
+ * <p>JCA private keys cannot be reliably zeroed, since most do not implement
+ * {@link javax.security.auth.Destroyable#destroy()}. The cache drops its references to them, and zeroes the decrypted
+ * PKCS#8 bytes they were made from as soon as the key is built.</p>
+ *
+ * <p>Unwrapping happens outside the cache's lock. Two threads missing on the same key at once may both unwrap it, and
+ * the first to finish is cached.</p>
+ */
+public class DataKeyCache implements AutoCloseable {
+
+    /**
+     * @param maxEntries The most data keys, and the most private keys, held at once.
+     * @param ttl        How long an entry is kept after it was unwrapped.
+     * @param maxUses    How many times an entry may be used before it is unwrapped again.
+     * @param offHeap    True to hold data keys in direct buffers.
+     */
+    public record Options(int maxEntries, Duration ttl, long maxUses, boolean offHeap) {
+
+        public Options {
+            if (maxEntries < 1 || maxUses < 1) {
+                throw new IllegalArgumentException("Max entries and max uses must be at least 1.");
+            }
+            if (ttl.isNegative() || ttl.isZero()) {
+                throw new IllegalArgumentException("TTL must be positive.");
+            }
+        }
+
+        /**
+         * @return 64 entries of each kind, kept for 5 minutes or 10,000 uses, on the heap.
+         */
+        public static Options defaults() {
+            return new Options(64, Duration.ofMinutes(5), 10_000, false);
+        }
+    }
+
+    /**
+     * @param hits      Lookups answered from the cache.
+     * @param misses    Lookups that had to unwrap or decrypt.
+     * @param evictions Entries removed for size, age, use count or by {@link #clear()}.
+     */
+    public record Metrics(long hits, long misses, long evictions) {
+
+    }
+
+    private final DataKeyUnwrapper unwrapper;
+    private final Options options;
+    private final Clock clock;
+
+    private final Map<String, DataKey> dataKeys;
+    private final Map<String, CachedPrivateKey> privateKeys;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DataKeyCache(DataKeyUnwrapper unwrapper) {
+        this(unwrapper, Options.defaults(), Clock.systemUTC());
+    }
+
+    public DataKeyCache(DataKeyUnwrapper unwrapper, Options options, Clock clock) {
+        this.unwrapper = unwrapper;
+        this.options = options;
+        this.clock = clock;
+        this.dataKeys = lruMap();
+        this.privateKeys = lruMap();
+    }
+
+    /**
+     * Get a data key, unwrapping it if it is not cached.
+     *
+     * @param kmsEncryptedAESKey The Base64 encrypted data key.
+     * @return A copy of the plaintext data key. The caller should zero it when done.
+     * @throws KMSCAException If the data key could not be unwrapped.
+     */
+    public byte[] dataKey(String kmsEncryptedAESKey) {
+        synchronized (this) {
+            DataKey cached = lookup(dataKeys, kmsEncryptedAESKey);
+            if (cached != null) {
+                byte[] copy = cached.copy();
+                if (cached.uses >= options.maxUses()) {
+                    dataKeys.remove(kmsEncryptedAESKey);
+                    evict(cached);
+                }
+                return copy;
+            }
+        }
+
+        byte[] plaintext = unwrapper.unwrap(Base64.getDecoder().decode(kmsEncryptedAESKey));
+        DataKey unwrapped = new DataKey(plaintext, options.offHeap(), expiry());
+        byte[] copy = unwrapped.copy();
+        synchronized (this) {
+            if (options.maxUses() == 1 || dataKeys.putIfAbsent(kmsEncryptedAESKey, unwrapped) != null) {
+                unwrapped.destroy();
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Get a CA private key, decrypting it with its data key if it is not cached.
+     *
+     * @param encryptedPrivateKey The encrypted key.
+     * @return The private key.
+     * @throws KMSCAException If the data key could not be unwrapped or the private key could not be decrypted.
+     */
+    public PrivateKey privateKey(EncryptedPrivateKey encryptedPrivateKey) {
+        String cacheKey = cacheKeyFor(encryptedPrivateKey);
+        synchronized (this) {
+            CachedPrivateKey cached = lookup(privateKeys, cacheKey);
+            if (cached != null) {
+                if (cached.uses >= options.maxUses()) {
+                    privateKeys.remove(cacheKey);
+                    evict(cached);
+                }
+                return cached.privateKey;
+            }
+        }
+
+        byte[] dataKey = dataKey(encryptedPrivateKey.kmsEncryptedAESKey());
+        byte[] pkcs8 = null;
+        try {
+            pkcs8 = CryptoUtils.aesGCMDecrypt(Base64.getDecoder().decode(encryptedPrivateKey.privateKey()), dataKey, encryptedPrivateKey.iv());
+            PrivateKey privateKey = CertificateUtils.privateKeyFor(pkcs8);
+            if (options.maxUses() > 1) {
+                synchronized (this) {
+                    privateKeys.putIfAbsent(cacheKey, new CachedPrivateKey(privateKey, expiry()));
+                }
+            }
+            return privateKey;
+        } catch (X509CertException e) {
+            throw new KMSCAException("Decrypted private key is not a PKCS#8 key.", e);
+        } finally {
+            Arrays.fill(dataKey, (byte) 0);
+            if (pkcs8 != null) {
+                Arrays.fill(pkcs8, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * A signer that looks up the private key in the cache for every signature, so every signature counts as a use.
+     *
+     * @param encryptedPrivateKey  The encrypted key.
+     * @param subjectPublicKeyInfo The DER encoding of the public key of the key.
+     * @return The signer. The private key is not decrypted until the first signature.
+     * @throws KMSCAException If the public key is malformed or of an unsupported algorithm.
+     */
+    public SigningProvider signer(EncryptedPrivateKey encryptedPrivateKey, byte[] subjectPublicKeyInfo) {
+        final KnownOids signatureAlgorithm;
+        try {
+            signatureAlgorithm = SignatureUtils.signatureAlgorithmFor(X509PublicKeyUtils.publicKeyFor(subjectPublicKeyInfo));
+        } catch (X509CertException e) {
+            throw new KMSCAException("Could not read the public key of the signer.", e);
+        }
+        byte[] publicKey = subjectPublicKeyInfo.clone();
+        return new SigningProvider() {
+            @Override
+            public KnownOids signatureAlgorithm() {
+                return signatureAlgorithm;
+            }
+
+            @Override
+            public byte[] subjectPublicKeyInfo() {
+                return publicKey.clone();
+            }
+
+            @Override
+            public byte[] signDigest(byte[] digest) {
+                return SignatureUtils.signDigest(privateKey(encryptedPrivateKey), signatureAlgorithm, digest);
+            }
+        };
+    }
+
+    public Metrics metrics() {
+        return new Metrics(hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    /**
+     * Evict every entry.
+     */
+    public synchronized void clear() {
+        dataKeys.values().forEach(this::evict);
+        dataKeys.clear();
+        privateKeys.values().forEach(this::evict);
+        privateKeys.clear();
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    /**
+     * The whole encrypted key, so that a cached private key is only returned for the data key and IV that decrypted it.
+     * None of the parts can contain a colon.
+     */
+    private static String cacheKeyFor(EncryptedPrivateKey encryptedPrivateKey) {
+        return encryptedPrivateKey.kmsEncryptedAESKey() + ':' + Base64.getEncoder().encodeToString(encryptedPrivateKey.iv())
+                + ':' + encryptedPrivateKey.privateKey();
+    }
+
+    private long expiry() {
+        return clock.millis() + options.ttl().toMillis();
+    }
+
+    /**
+     * Must hold the lock.
+     *
+     * @return The live entry, counting a use of it, or null.
+     */
+    private <E extends Entry> E lookup(Map<String, E> map, String key) {
+        E entry = map.get(key);
+        if (entry != null && clock.millis() >= entry.expiresAt) {
+            map.remove(key);
+            evict(entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        entry.uses++;
+        return entry;
+    }
+
+    private void evict(Entry entry) {
+        entry.destroy();
+        evictions.increment();
+    }
+
+    private <E extends Entry> Map<String, E> lruMap() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, E> eldest) {
+                if (size() > options.maxEntries()) {
+                    evict(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    private abstract static class Entry {
+        final long expiresAt;
+
+        /**
+         * The miss that created the entry is its first use.
+         */
+        long uses = 1;
+
+        Entry(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        abstract void destroy();
+    }
+
+    private static final class DataKey extends Entry {
+        private final byte[] heap;
+        private final ByteBuffer direct;
+
+        /**
+         * Takes ownership of the plaintext. Off heap, it is copied into a direct buffer and zeroed.
+         */
+        DataKey(byte[] plaintext, boolean offHeap, long expiresAt) {
+            super(expiresAt);
+            if (offHeap) {
+                this.direct = ByteBuffer.allocateDirect(plaintext.length).put(0, plaintext);
+                this.heap = null;
+                Arrays.fill(plaintext, (byte) 0);
+            } else {
+                this.direct = null;
+                this.heap = plaintext;
+            }
+        }
+
+        byte[] copy() {
+            if (heap != null) {
+                return heap.clone();
+            }
+            byte[] copy = new byte[direct.capacity()];
+            direct.get(0, copy);
+            return copy;
+        }
+
+        @Override
+        void destroy() {
+            if (heap != null) {
+                Arrays.fill(heap, (byte) 0);
+            } else {
+                for (int i = 0; i < direct.capacity(); i++) {
+                    direct.put(i, (byte) 0);
+                }
+            }
+        }
+    }
+
+    private static final class CachedPrivateKey extends Entry {
+        final PrivateKey privateKey;
+
+        CachedPrivateKey(PrivateKey privateKey, long expiresAt) {
+            super(expiresAt);
+            this.privateKey = privateKey;
+        }
+
+        @Override
+        void destroy() {
+            // See the class comment. The reference is dropped with the entry.
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package dev.wobbegong.kmsca.keys;
+
+import dev.wobbegong.kmsca.exceptions.KMSCAException;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.kms.KmsClient;
+
+/**
+ * Decrypts the data keys that CA private keys are encrypted under.
+ */
+@FunctionalInterface
+public interface DataKeyUnwrapper {
+
+    /**
+     * @param encryptedDataKey The encrypted data key.
+     * @return The plaintext data key. The caller owns the array and zeroes it when done.
+     * @throws KMSCAException If the data key could not be decrypted.
+     */
+    byte[] unwrap(byte[] encryptedDataKey);
+
+    /**
+     * @param kms The KMS client.
+     * @return An unwrapper that decrypts data keys with KMS. KMS finds the key from the ciphertext.
+     */
+    static DataKeyUnwrapper kms(KmsClient kms) {
+        return encryptedDataKey -> {
+            try {
+                return kms.decrypt(request -> request.ciphertextBlob(SdkBytes.fromByteArray(encryptedDataKey)))
+                        .plaintext()
+                        .asByteArrayUnsafe();
+            } catch (SdkException e) {
+                throw new KMSCAException("KMS could not decrypt the data key.", e);
+            }
+        };
+    }
+}
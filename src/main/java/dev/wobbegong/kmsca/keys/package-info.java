@@ -0,0 +1,8 @@
+/**
+ * Contains the envelope encryption of CA private keys.
+ *
+ * <p>A CA private key is stored encrypted with AES-GCM under a data key, and the data key is stored encrypted by a KMS
+ * key (see {@link dev.wobbegong.kmsca.entities.EncryptedPrivateKey}). Only a caller allowed to decrypt with the KMS key
+ * can recover the private key.</p>
+ */
+package dev.wobbegong.kmsca.keys;
@@ -0,0 +1,52 @@
+package dev.wobbegong.kmsca.random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Produces the same bytes for the same seed, for tests that need repeatable keys, IVs or serial numbers. The output is
+ * HMAC-SHA256 of the seed over a block counter, so it is the same on every JDK. Never use it outside tests: anyone who
+ * knows the seed knows every byte.
+ */
+public class DeterministicRandomSource implements RandomSource {
+
+    private final Mac hmac;
+    private final byte[] block = new byte[32];
+    private int offset = block.length;
+    private long counter;
+
+    public DeterministicRandomSource(long seed) {
+        try {
+            this.hmac = Mac.getInstance("HmacSHA256");
+            this.hmac.init(new SecretKeySpec(ByteBuffer.allocate(Long.BYTES).putLong(seed).array(), "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Could not initialize HmacSHA256.", e);
+        }
+    }
+
+    @Override
+    public synchronized void nextBytes(byte[] bytes) {
+        int copied = 0;
+        while (copied < bytes.length) {
+            if (offset == block.length) {
+                nextBlock();
+            }
+            int n = Math.min(block.length - offset, bytes.length - copied);
+            System.arraycopy(block, offset, bytes, copied, n);
+            offset += n;
+            copied += n;
+        }
+    }
+
+    private void nextBlock() {
+        try {
+            hmac.update(ByteBuffer.allocate(Long.BYTES).putLong(counter++).array());
+            hmac.doFinal(block, 0);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Could not compute HmacSHA256.", e);
+        }
+        offset = 0;
+    }
+}
@@ -0,0 +1,212 @@
+package dev.wobbegong.kmsca.random;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps a ring of blocks of random bytes filled ahead of time by a background thread, so callers on the hot path copy
+ * bytes instead of generating them.
+ *
+ * <ul>
+ *     <li>Callers take whole blocks from the ring without locking, and each block goes to one thread only. A thread
+ *     serves its small requests from its current block until it runs out.</li>
+ *     <li>Bytes are zeroed in the block as they are handed out. The blocks threads are still using are tracked, so
+ *     that closing the source zeroes what is left of them too.</li>
+ *     <li>When the ring is empty, callers fill a block for themselves instead of waiting. Requests larger than a
+ *     block go to the underlying source directly.</li>
+ * </ul>
+ *
+ * <p>Close the source to stop the background thread.</p>
+ */
+public class PrefetchingRandomSource implements RandomSource, AutoCloseable {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    public static final int DEFAULT_BLOCKS = 64;
+
+    private final RandomSource source;
+    private final int blockSize;
+    private final AtomicReferenceArray<byte[]> ring;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final AtomicInteger full = new AtomicInteger();
+    private final AtomicBoolean fillerWaiting = new AtomicBoolean();
+    private final ThreadLocal<Block> current = new ThreadLocal<>();
+    private final Set<Block> handedOut = ConcurrentHashMap.newKeySet();
+    private final Thread filler;
+    private volatile boolean closed;
+
+    public PrefetchingRandomSource(RandomSource source) {
+        this(source, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS);
+    }
+
+    /**
+     * @param source    The source the blocks are filled from.
+     * @param blockSize The size of each block.
+     * @param blocks    The number of blocks in the ring.
+     */
+    public PrefetchingRandomSource(RandomSource source, int blockSize, int blocks) {
+        if (blockSize < 1 || blocks < 1) {
+            throw new IllegalArgumentException("Block size and blocks must be at least 1.");
+        }
+        this.source = source;
+        this.blockSize = blockSize;
+        this.ring = new AtomicReferenceArray<>(blocks);
+        this.filler = new Thread(this::fill, "kmsca-random-prefetch");
+        this.filler.setDaemon(true);
+        this.filler.start();
+    }
+
+    @Override
+    public void nextBytes(byte[] bytes) {
+        if (bytes.length > blockSize || closed) {
+            source.nextBytes(bytes);
+            return;
+        }
+
+        int copied = 0;
+        while (copied < bytes.length) {
+            Block block = current.get();
+            int n = block == null ? 0 : block.copyTo(bytes, copied);
+            if (n > 0) {
+                copied += n;
+                continue;
+            }
+            if (block != null) {
+                handedOut.remove(block);
+                current.remove();
+            }
+            if (closed) {
+                // A block taken now might never be zeroed
+                byte[] rest = source.nextBytes(bytes.length - copied);
+                System.arraycopy(rest, 0, bytes, copied, rest.length);
+                Arrays.fill(rest, (byte) 0);
+                return;
+            }
+
+            byte[] taken = take();
+            if (taken == null) {
+                // The ring is drained. Generating a whole block is cheaper per byte than small requests, and
+                // faster than waiting for the filler.
+                taken = source.nextBytes(blockSize);
+            }
+            block = new Block(taken);
+            handedOut.add(block);
+            current.set(block);
+            // Either close() sees the block, or this thread sees that the source was closed
+            if (closed) {
+                block.destroy();
+            }
+        }
+    }
+
+    /**
+     * @return The number of full blocks in the ring.
+     */
+    public int available() {
+        return full.get();
+    }
+
+    /**
+     * Stop the background thread, and zero the blocks in the ring and what is left of the blocks threads were using.
+     * Later requests draw from the underlying source.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(filler);
+        drain();
+        for (Block block : handedOut) {
+            block.destroy();
+        }
+        handedOut.clear();
+    }
+
+    /**
+     * @return A full block, now owned by the caller, or null if the ring is empty.
+     */
+    private byte[] take() {
+        byte[] block = null;
+        if (full.get() > 0) {
+            int start = Math.floorMod(nextSlot.getAndIncrement(), ring.length());
+            for (int i = 0; i < ring.length() && block == null; i++) {
+                block = ring.getAndSet((start + i) % ring.length(), null);
+            }
+            if (block != null) {
+                full.decrementAndGet();
+            }
+        }
+        // Waking the filler takes a lock, so only the first caller to find it waiting does
+        if (fillerWaiting.compareAndSet(true, false)) {
+            LockSupport.unpark(filler);
+        }
+        return block;
+    }
+
+    /**
+     * Only the filler thread puts blocks into the ring, so a block is never overwritten.
+     */
+    private void fill() {
+        while (!closed) {
+            boolean filled = false;
+            for (int i = 0; i < ring.length() && !closed; i++) {
+                if (ring.get(i) == null) {
+                    ring.set(i, source.nextBytes(blockSize));
+                    full.incrementAndGet();
+                    filled = true;
+                }
+            }
+            if (!filled) {
+                fillerWaiting.set(true);
+                // A block taken after the last pass would otherwise go unnoticed until the next wake up
+                if (full.get() == ring.length() && !closed) {
+                    LockSupport.park(this);
+                }
+                fillerWaiting.set(false);
+            }
+        }
+        // Blocks may have been added while closing
+        drain();
+    }
+
+    private void drain() {
+        for (int i = 0; i < ring.length(); i++) {
+            byte[] block = ring.getAndSet(i, null);
+            if (block != null) {
+                full.decrementAndGet();
+                Arrays.fill(block, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Used by one thread, but locked so that {@link #close()} cannot zero it in the middle of a copy.
+     */
+    private static final class Block {
+        private final byte[] bytes;
+        private int offset;
+
+        Block(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return The number of bytes copied, which is 0 once the block is used up or destroyed.
+         */
+        synchronized int copyTo(byte[] destination, int destinationOffset) {
+            int n = Math.min(bytes.length - offset, destination.length - destinationOffset);
+            System.arraycopy(bytes, offset, destination, destinationOffset, n);
+            Arrays.fill(bytes, offset, offset + n, (byte) 0);
+            offset += n;
+            return n;
+        }
+
+        synchronized void destroy() {
+            Arrays.fill(bytes, offset, bytes.length, (byte) 0);
+            offset = bytes.length;
+        }
+    }
+}
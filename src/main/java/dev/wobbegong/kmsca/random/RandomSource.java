@@ -0,0 +1,33 @@
+package dev.wobbegong.kmsca.random;
+
+/**
+ * A source of random bytes. Every implementation but {@link DeterministicRandomSource} is cryptographically strong and
+ * safe to share between threads.
+ */
+public interface RandomSource {
+
+    /**
+     * The largest array {@link #nextBytes(int)} returns, which is the largest array every JVM can allocate.
+     */
+    int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Fill an array with random bytes.
+     *
+     * @param bytes The array to fill.
+     */
+    void nextBytes(byte[] bytes);
+
+    /**
+     * @param size The number of bytes, from 0 to {@link #MAX_SIZE}.
+     * @return A new array of random bytes.
+     */
+    default byte[] nextBytes(int size) {
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Size must be between 0 and " + MAX_SIZE + ". Actual: " + size);
+        }
+        byte[] bytes = new byte[size];
+        nextBytes(bytes);
+        return bytes;
+    }
+}
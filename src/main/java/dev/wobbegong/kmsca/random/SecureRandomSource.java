@@ -0,0 +1,21 @@
+package dev.wobbegong.kmsca.random;
+
+import java.security.SecureRandom;
+
+/**
+ * Draws from one {@link SecureRandom}. Most implementations synchronize every call, so threads contend on it, and
+ * depending on the JDK configuration it can block waiting for entropy.
+ */
+public class SecureRandomSource implements RandomSource {
+
+    private final SecureRandom random;
+
+    public SecureRandomSource(SecureRandom random) {
+        this.random = random;
+    }
+
+    @Override
+    public void nextBytes(byte[] bytes) {
+        random.nextBytes(bytes);
+    }
+}
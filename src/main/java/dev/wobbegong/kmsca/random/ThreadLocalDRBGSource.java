@@ -0,0 +1,36 @@
+package dev.wobbegong.kmsca.random;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Gives each thread its own NIST SP 800-90A DRBG, so threads never contend. Each instance is seeded from the system
+ * entropy source when its thread first uses it and then never blocks. The thread's name and id are its personalization
+ * string, so no two instances produce the same output even if seeded alike.
+ */
+public class ThreadLocalDRBGSource implements RandomSource {
+
+    /**
+     * The strength of every instance in bits, the most the JDK's DRBG supports.
+     */
+    public static final int STRENGTH = 256;
+
+    private final ThreadLocal<SecureRandom> drbgs = ThreadLocal.withInitial(ThreadLocalDRBGSource::newDRBG);
+
+    @Override
+    public void nextBytes(byte[] bytes) {
+        drbgs.get().nextBytes(bytes);
+    }
+
+    private static SecureRandom newDRBG() {
+        Thread thread = Thread.currentThread();
+        byte[] personalization = (thread.getName() + "/" + thread.getId()).getBytes(StandardCharsets.UTF_8);
+        try {
+            return SecureRandom.getInstance("DRBG", DrbgParameters.instantiation(STRENGTH, DrbgParameters.Capability.RESEED_ONLY, personalization));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Could not get instance of DRBG.", e);
+        }
+    }
+}
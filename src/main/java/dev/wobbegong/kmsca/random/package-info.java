@@ -0,0 +1,9 @@
+/**
+ * Contains the sources of the random bytes used for keys, IVs and serial numbers.
+ *
+ * <p>{@link dev.wobbegong.kmsca.utils.CryptoUtils#randomBytes(int)} draws from the source set with
+ * {@link dev.wobbegong.kmsca.utils.CryptoUtils#setRandomSource(dev.wobbegong.kmsca.random.RandomSource)}. The default
+ * is a {@link dev.wobbegong.kmsca.random.ThreadLocalDRBGSource}, so issuing threads never wait on each other or on a
+ * shared {@link java.security.SecureRandom}.</p>
+ */
+package dev.wobbegong.kmsca.random;
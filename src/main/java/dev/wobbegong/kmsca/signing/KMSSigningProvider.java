@@ -0,0 +1,137 @@
+package dev.wobbegong.kmsca.signing;
+
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.exceptions.SigningException;
+import dev.wobbegong.kmsca.utils.SignatureUtils;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DependencyTimeoutException;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.KeyUnavailableException;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.KmsInternalException;
+import software.amazon.awssdk.services.kms.model.MessageType;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+/**
+ * Signs with an asymmetric AWS KMS key. Only the digest is sent to KMS, as a {@link MessageType#DIGEST} message, so
+ * requests are small and the certificate never leaves the process.
+ *
+ * <p>Throttling, internal errors, timeouts and client side failures like a lost connection are reported as retryable
+ * {@link SigningException}s. Disabled, missing or misused keys are not retryable.</p>
+ */
+public class KMSSigningProvider implements SigningProvider {
+
+    private final KmsClient kms;
+    private final String keyId;
+    private final KnownOids signatureAlgorithm;
+    private final SigningAlgorithmSpec signingAlgorithm;
+    private final byte[] subjectPublicKeyInfo;
+
+    /**
+     * Look up the public key of a KMS key and sign with SHA-256, or with the hash matching the curve of an EC key.
+     *
+     * @param kms   The KMS client.
+     * @param keyId The key ID, ARN or alias of the key.
+     * @throws SigningException If the public key could not be fetched or the key cannot sign certificates.
+     */
+    public KMSSigningProvider(KmsClient kms, String keyId) {
+        this(kms, keyId, publicKeyFor(kms, keyId));
+    }
+
+    private KMSSigningProvider(KmsClient kms, String keyId, GetPublicKeyResponse publicKey) {
+        this(kms, keyId, signatureAlgorithmFor(keyId, publicKey), publicKey.publicKey().asByteArray());
+    }
+
+    /**
+     * Sign with a KMS key whose public key is already known, without calling KMS.
+     *
+     * @param kms                  The KMS client.
+     * @param keyId                The key ID, ARN or alias of the key.
+     * @param signatureAlgorithm   The X.509 signature algorithm to sign with.
+     * @param subjectPublicKeyInfo The DER encoding of the public key of the KMS key.
+     */
+    public KMSSigningProvider(KmsClient kms, String keyId, KnownOids signatureAlgorithm, byte[] subjectPublicKeyInfo) {
+        this.kms = kms;
+        this.keyId = keyId;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.signingAlgorithm = signingAlgorithmFor(signatureAlgorithm);
+        this.subjectPublicKeyInfo = subjectPublicKeyInfo.clone();
+    }
+
+    @Override
+    public KnownOids signatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    @Override
+    public byte[] subjectPublicKeyInfo() {
+        return subjectPublicKeyInfo.clone();
+    }
+
+    @Override
+    public byte[] signDigest(byte[] digest) {
+        if (digest.length != SignatureUtils.digestLength(signatureAlgorithm)) {
+            throw new SigningException("Expected a " + SignatureUtils.digestLength(signatureAlgorithm) + " byte digest for " + signingAlgorithm + " but got " + digest.length + " bytes.", false);
+        }
+
+        try {
+            SignResponse response = kms.sign(request -> request
+                    .keyId(keyId)
+                    .messageType(MessageType.DIGEST)
+                    .message(SdkBytes.fromByteArray(digest))
+                    .signingAlgorithm(signingAlgorithm));
+            return response.signature().asByteArrayUnsafe();
+        } catch (KmsException e) {
+            throw new SigningException("KMS could not sign with " + keyId + ".", e, isRetryable(e));
+        } catch (SdkClientException e) {
+            throw new SigningException("Could not reach KMS to sign with " + keyId + ".", e, true);
+        }
+    }
+
+    /**
+     * @param signatureAlgorithm An X.509 signature algorithm.
+     * @return The KMS signing algorithm that makes the same signatures.
+     */
+    public static SigningAlgorithmSpec signingAlgorithmFor(KnownOids signatureAlgorithm) {
+        return switch (signatureAlgorithm) {
+            case sha256WithRSAEncryption -> SigningAlgorithmSpec.RSASSA_PKCS1_V1_5_SHA_256;
+            case sha384WithRSAEncryption -> SigningAlgorithmSpec.RSASSA_PKCS1_V1_5_SHA_384;
+            case sha512WithRSAEncryption -> SigningAlgorithmSpec.RSASSA_PKCS1_V1_5_SHA_512;
+            case ecdsa_with_SHA256 -> SigningAlgorithmSpec.ECDSA_SHA_256;
+            case ecdsa_with_SHA384 -> SigningAlgorithmSpec.ECDSA_SHA_384;
+            case ecdsa_with_SHA512 -> SigningAlgorithmSpec.ECDSA_SHA_512;
+            default -> throw new IllegalArgumentException("KMS cannot sign with " + signatureAlgorithm.name() + ".");
+        };
+    }
+
+    private static boolean isRetryable(KmsException e) {
+        return e.isThrottlingException()
+                || e instanceof KmsInternalException
+                || e instanceof DependencyTimeoutException
+                || e instanceof KeyUnavailableException
+                || e.retryable();
+    }
+
+    private static GetPublicKeyResponse publicKeyFor(KmsClient kms, String keyId) {
+        try {
+            return kms.getPublicKey(request -> request.keyId(keyId));
+        } catch (KmsException e) {
+            throw new SigningException("Could not get the public key of " + keyId + ".", e, isRetryable(e));
+        } catch (SdkClientException e) {
+            throw new SigningException("Could not reach KMS to get the public key of " + keyId + ".", e, true);
+        }
+    }
+
+    private static KnownOids signatureAlgorithmFor(String keyId, GetPublicKeyResponse publicKey) {
+        return switch (publicKey.keySpec()) {
+            case RSA_2048, RSA_3072, RSA_4096 -> KnownOids.sha256WithRSAEncryption;
+            case ECC_NIST_P256 -> KnownOids.ecdsa_with_SHA256;
+            case ECC_NIST_P384 -> KnownOids.ecdsa_with_SHA384;
+            case ECC_NIST_P521 -> KnownOids.ecdsa_with_SHA512;
+            default -> throw new SigningException(keyId + " is a " + publicKey.keySpecAsString() + " key, which cannot sign certificates.", false);
+        };
+    }
+}
@@ -0,0 +1,147 @@
+package dev.wobbegong.kmsca.signing;
+
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.exceptions.SigningException;
+import dev.wobbegong.kmsca.utils.SignatureUtils;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Signs with a key held in memory. By default it signs as fast as the JCA can. For load tests it can also behave like
+ * {@link KMSSigningProvider}:
+ *
+ * <ul>
+ *     <li>{@link #withLatency(Duration, Duration)} blocks each request for a random time, like a network round trip.</li>
+ *     <li>{@link #withRequestQuota(int)} throttles requests over a per-second quota with a retryable
+ *     {@link SigningException}, like KMS request quotas.</li>
+ *     <li>{@link #withFailureRate(double)} fails a fraction of requests with a retryable {@link SigningException}, like
+ *     KMS internal errors.</li>
+ * </ul>
+ *
+ * <p>Digests of the wrong length are rejected with a non-retryable {@link SigningException}, as KMS does.</p>
+ */
+public class LocalSigningProvider implements SigningProvider {
+
+    private final PrivateKey privateKey;
+    private final KnownOids signatureAlgorithm;
+    private final byte[] subjectPublicKeyInfo;
+
+    private final long minLatencyNanos;
+    private final long maxLatencyNanos;
+    private final int requestsPerSecond;
+    private final double failureRate;
+
+    private long quotaWindowStart;
+    private int quotaWindowRequests;
+
+    public LocalSigningProvider(KeyPair keyPair) {
+        this(keyPair.getPrivate(), keyPair.getPublic());
+    }
+
+    /**
+     * @param privateKey The signing key.
+     * @param publicKey  The public key of the signing key.
+     */
+    public LocalSigningProvider(PrivateKey privateKey, PublicKey publicKey) {
+        this(privateKey, publicKey.getEncoded());
+    }
+
+    /**
+     * @param privateKey           The signing key.
+     * @param subjectPublicKeyInfo The DER encoding of the public key of the signing key.
+     */
+    public LocalSigningProvider(PrivateKey privateKey, byte[] subjectPublicKeyInfo) {
+        this(privateKey, SignatureUtils.signatureAlgorithmFor(privateKey), subjectPublicKeyInfo.clone(), 0, 0, 0, 0);
+    }
+
+    private LocalSigningProvider(PrivateKey privateKey, KnownOids signatureAlgorithm, byte[] subjectPublicKeyInfo,
+                                 long minLatencyNanos, long maxLatencyNanos, int requestsPerSecond, double failureRate) {
+        this.privateKey = privateKey;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.subjectPublicKeyInfo = subjectPublicKeyInfo;
+        this.minLatencyNanos = minLatencyNanos;
+        this.maxLatencyNanos = maxLatencyNanos;
+        this.requestsPerSecond = requestsPerSecond;
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @param min The least time a request takes.
+     * @param max The most time a request takes.
+     * @return A copy of this provider whose requests take a uniformly random time between min and max.
+     */
+    public LocalSigningProvider withLatency(Duration min, Duration max) {
+        if (min.isNegative() || max.compareTo(min) < 0) {
+            throw new IllegalArgumentException("Latency must be a range of non-negative durations.");
+        }
+        return new LocalSigningProvider(privateKey, signatureAlgorithm, subjectPublicKeyInfo, min.toNanos(), max.toNanos(), requestsPerSecond, failureRate);
+    }
+
+    /**
+     * @param requestsPerSecond The number of requests allowed in each second, or 0 for no limit.
+     * @return A copy of this provider that throttles requests over the quota.
+     */
+    public LocalSigningProvider withRequestQuota(int requestsPerSecond) {
+        if (requestsPerSecond < 0) {
+            throw new IllegalArgumentException("Request quota must not be negative.");
+        }
+        return new LocalSigningProvider(privateKey, signatureAlgorithm, subjectPublicKeyInfo, minLatencyNanos, maxLatencyNanos, requestsPerSecond, failureRate);
+    }
+
+    /**
+     * @param failureRate The probability from 0 to 1 that a request fails.
+     * @return A copy of this provider that fails requests at random.
+     */
+    public LocalSigningProvider withFailureRate(double failureRate) {
+        if (!(failureRate >= 0 && failureRate <= 1)) {
+            throw new IllegalArgumentException("Failure rate must be between 0 and 1.");
+        }
+        return new LocalSigningProvider(privateKey, signatureAlgorithm, subjectPublicKeyInfo, minLatencyNanos, maxLatencyNanos, requestsPerSecond, failureRate);
+    }
+
+    @Override
+    public KnownOids signatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    @Override
+    public byte[] subjectPublicKeyInfo() {
+        return subjectPublicKeyInfo.clone();
+    }
+
+    @Override
+    public byte[] signDigest(byte[] digest) {
+        if (digest.length != SignatureUtils.digestLength(signatureAlgorithm)) {
+            throw new SigningException("Expected a " + SignatureUtils.digestLength(signatureAlgorithm) + " byte digest for " + signatureAlgorithm.name() + " but got " + digest.length + " bytes.", false);
+        }
+        if (requestsPerSecond > 0 && !acquireQuota()) {
+            throw new SigningException("Rate exceeded: over " + requestsPerSecond + " signing requests per second.", true);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (maxLatencyNanos > 0) {
+            LockSupport.parkNanos(minLatencyNanos == maxLatencyNanos ? minLatencyNanos : random.nextLong(minLatencyNanos, maxLatencyNanos));
+        }
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            throw new SigningException("Simulated internal error.", true);
+        }
+        return SignatureUtils.signDigest(privateKey, signatureAlgorithm, digest);
+    }
+
+    /**
+     * Count a request against the quota of the current one second window.
+     */
+    private synchronized boolean acquireQuota() {
+        long now = System.nanoTime();
+        if (now - quotaWindowStart >= 1_000_000_000L || quotaWindowRequests == 0) {
+            quotaWindowStart = now;
+            quotaWindowRequests = 0;
+        }
+        return ++quotaWindowRequests <= requestsPerSecond;
+    }
+}
@@ -0,0 +1,43 @@
+package dev.wobbegong.kmsca.signing;
+
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.exceptions.SigningException;
+import dev.wobbegong.kmsca.utils.SignatureUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A signing key that signs precomputed digests. Implementations must be safe to use from many threads.
+ */
+public interface SigningProvider {
+
+    /**
+     * @return The X.509 signature algorithm the key signs with.
+     */
+    KnownOids signatureAlgorithm();
+
+    /**
+     * @return The DER encoding of the subject public key info of the key.
+     */
+    byte[] subjectPublicKeyInfo();
+
+    /**
+     * Sign a digest made with the hash of {@link #signatureAlgorithm()}.
+     *
+     * @param digest The digest.
+     * @return The signature, in the encoding X.509 uses for the algorithm.
+     * @throws SigningException If the key could not sign.
+     */
+    byte[] signDigest(byte[] digest);
+
+    /**
+     * Hash data locally and sign the digest.
+     *
+     * @param data The data to sign, from its position to its limit. The position is advanced to the limit.
+     * @return The signature, in the encoding X.509 uses for the algorithm.
+     * @throws SigningException If the key could not sign.
+     */
+    default byte[] sign(ByteBuffer data) {
+        return signDigest(SignatureUtils.digest(signatureAlgorithm(), data));
+    }
+}
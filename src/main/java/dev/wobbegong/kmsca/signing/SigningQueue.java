@@ -0,0 +1,487 @@
+package dev.wobbegong.kmsca.signing;
+
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.exceptions.SigningException;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queues signing requests in front of a {@link SigningProvider} so that many concurrent issuers share one key without
+ * exceeding its request quota.
+ *
+ * <ul>
+ *     <li>Requests are gathered into batches of up to {@link Options#maxBatchSize()}, waiting up to
+ *     {@link Options#linger()} for a batch to fill. Each batch is taken from the tenants' queues in turn, so a tenant
+ *     with a burst of requests cannot starve the others.</li>
+ *     <li>At most {@link Options#maxInFlight()} requests are sent to the signer at once. When the signer fails with a
+ *     retryable {@link SigningException}, such as KMS throttling, the request is queued again, the limit is halved and
+ *     the queue pauses for {@link Options#retryBackoff()}. The limit grows back by one for every limit's worth of
+ *     successful requests.</li>
+ *     <li>Once {@link Options#maxQueued()} requests are waiting, new requests fail at once with a retryable
+ *     {@link SigningException}, pushing back on callers instead of growing without bound.</li>
+ *     <li>Every request has a deadline. Requests still queued at their deadline fail at that time instead of being
+ *     sent, even while the queue is paused or every request slot is in flight.</li>
+ * </ul>
+ *
+ * <p>KMS has no batch signing API, so the requests of a batch are sent in parallel. The queue is itself a
+ * {@link SigningProvider} for the default tenant, and {@link #forTenant(String)} gives one for any other tenant.</p>
+ */
+public class SigningQueue implements SigningProvider, AutoCloseable {
+
+    public static final String DEFAULT_TENANT = "";
+
+    /**
+     * @param maxBatchSize    The most requests taken from the queue at once.
+     * @param linger          How long to wait for a batch to fill before sending a partial batch.
+     * @param maxInFlight     The most requests sent to the signer at once.
+     * @param maxQueued       The most requests waiting to be sent.
+     * @param defaultDeadline How long a request may take when no deadline is given.
+     * @param retryBackoff    How long to pause sending after a retryable failure.
+     */
+    public record Options(int maxBatchSize, Duration linger, int maxInFlight, int maxQueued, Duration defaultDeadline,
+                          Duration retryBackoff) {
+
+        public Options {
+            if (maxBatchSize < 1 || maxInFlight < 1 || maxQueued < 1) {
+                throw new IllegalArgumentException("Batch size, in flight and queued limits must be at least 1.");
+            }
+            if (linger.isNegative() || retryBackoff.isNegative() || defaultDeadline.isNegative() || defaultDeadline.isZero()) {
+                throw new IllegalArgumentException("Linger and backoff must not be negative, and the deadline must be positive.");
+            }
+        }
+
+        /**
+         * @return Options suiting a KMS key: batches of 32 lingering 2ms, 16 requests in flight, 4096 queued, 10s
+         * deadlines and 50ms backoff.
+         */
+        public static Options defaults() {
+            return new Options(32, Duration.ofMillis(2), 16, 4096, Duration.ofSeconds(10), Duration.ofMillis(50));
+        }
+    }
+
+    private static final AtomicInteger QUEUE_COUNT = new AtomicInteger();
+
+    private final SigningProvider signer;
+    private final Options options;
+    private final ExecutorService executor;
+    private final Thread dispatcher;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, ArrayDeque<Request>> tenantQueues = new HashMap<>();
+    private final ArrayDeque<String> tenantTurns = new ArrayDeque<>();
+    /**
+     * Queued requests by deadline, so that they can be failed when it passes. Requests that have left the queue are
+     * only removed once they reach the head.
+     */
+    private final PriorityQueue<Request> deadlines = new PriorityQueue<>((a, b) -> Long.compare(a.deadline - b.deadline, 0));
+    private int queued;
+    private int inFlight;
+    private double concurrencyLimit;
+    private long lingerStart;
+    private long pausedUntil;
+    private boolean closed;
+
+    private static final class Request {
+        final String tenant;
+        final byte[] digest;
+        final long deadline;
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        // Guarded by the lock of the queue
+        boolean queued;
+        boolean inDeadlines;
+
+        Request(String tenant, byte[] digest, long deadline) {
+            this.tenant = tenant;
+            this.digest = digest;
+            this.deadline = deadline;
+        }
+
+        boolean expired(long now) {
+            return now - deadline >= 0;
+        }
+    }
+
+    public SigningQueue(SigningProvider signer) {
+        this(signer, Options.defaults());
+    }
+
+    public SigningQueue(SigningProvider signer, Options options) {
+        this.signer = signer;
+        this.options = options;
+        this.concurrencyLimit = options.maxInFlight();
+        this.pausedUntil = System.nanoTime();
+
+        int queueNumber = QUEUE_COUNT.incrementAndGet();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(options.maxInFlight(), runnable -> {
+            Thread thread = new Thread(runnable, "signing-queue-" + queueNumber + "-signer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new Thread(this::dispatch, "signing-queue-" + queueNumber + "-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Queue a digest to be signed.
+     *
+     * @param tenant  The tenant the request is scheduled fairly against.
+     * @param digest  The digest, made with the hash of {@link #signatureAlgorithm()}.
+     * @param timeout How long the request may wait to be signed.
+     * @return The signature, or a {@link SigningException} if the queue is full, the deadline passes or the signer
+     * fails.
+     */
+    public CompletableFuture<byte[]> submit(String tenant, byte[] digest, Duration timeout) {
+        Request request = new Request(tenant, digest, System.nanoTime() + timeout.toNanos());
+        lock.lock();
+        try {
+            if (closed) {
+                request.result.completeExceptionally(new SigningException("Signing queue is closed.", false));
+            } else if (queued >= options.maxQueued()) {
+                request.result.completeExceptionally(new SigningException("Signing queue is full with " + queued + " requests.", true));
+            } else {
+                enqueue(request, false);
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return request.result;
+    }
+
+    /**
+     * @param tenant The tenant to schedule requests for.
+     * @return A signer that queues requests for the tenant with the default deadline.
+     */
+    public SigningProvider forTenant(String tenant) {
+        return new SigningProvider() {
+            @Override
+            public KnownOids signatureAlgorithm() {
+                return signer.signatureAlgorithm();
+            }
+
+            @Override
+            public byte[] subjectPublicKeyInfo() {
+                return signer.subjectPublicKeyInfo();
+            }
+
+            @Override
+            public byte[] signDigest(byte[] digest) {
+                return await(submit(tenant, digest, options.defaultDeadline()));
+            }
+        };
+    }
+
+    @Override
+    public KnownOids signatureAlgorithm() {
+        return signer.signatureAlgorithm();
+    }
+
+    @Override
+    public byte[] subjectPublicKeyInfo() {
+        return signer.subjectPublicKeyInfo();
+    }
+
+    @Override
+    public byte[] signDigest(byte[] digest) {
+        return await(submit(DEFAULT_TENANT, digest, options.defaultDeadline()));
+    }
+
+    /**
+     * @return The number of requests waiting to be sent.
+     */
+    public int queued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of requests that may currently be in flight, which drops below
+     * {@link Options#maxInFlight()} after retryable failures.
+     */
+    public int concurrencyLimit() {
+        lock.lock();
+        try {
+            return (int) concurrencyLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fail all queued requests and stop sending new ones. Requests already in flight complete.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            // Under the lock, so the dispatcher never hands the executor a request after it is shut down
+            closed = true;
+            executor.shutdown();
+            failQueued();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void failQueued() {
+        for (ArrayDeque<Request> tenantQueue : tenantQueues.values()) {
+            for (Request request : tenantQueue) {
+                request.queued = false;
+                request.result.completeExceptionally(new SigningException("Signing queue is closed.", false));
+            }
+        }
+        tenantQueues.clear();
+        tenantTurns.clear();
+        deadlines.clear();
+        queued = 0;
+    }
+
+    private byte[] await(CompletableFuture<byte[]> result) {
+        try {
+            return result.get(options.defaultDeadline().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SigningException signingException) {
+                throw signingException;
+            }
+            throw new SigningException("Signing failed.", e.getCause(), false);
+        } catch (TimeoutException e) {
+            result.cancel(false);
+            throw new SigningException("Signing deadline of " + options.defaultDeadline() + " exceeded.", e, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SigningException("Interrupted while waiting for a signature.", e, false);
+        }
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void enqueue(Request request, boolean first) {
+        ArrayDeque<Request> tenantQueue = tenantQueues.computeIfAbsent(request.tenant, tenant -> new ArrayDeque<>());
+        if (tenantQueue.isEmpty()) {
+            tenantTurns.addLast(request.tenant);
+        }
+        if (first) {
+            tenantQueue.addFirst(request);
+        } else {
+            tenantQueue.addLast(request);
+        }
+        request.queued = true;
+        if (!request.inDeadlines) {
+            request.inDeadlines = true;
+            deadlines.add(request);
+        }
+        if (queued++ == 0) {
+            lingerStart = System.nanoTime();
+        }
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>(options.maxBatchSize());
+        lock.lock();
+        try {
+            while (true) {
+                long waitNanos;
+                while (!closed) {
+                    long now = System.nanoTime();
+                    expireQueued(now);
+                    waitNanos = nanosUntilReady(now);
+                    if (waitNanos == 0) {
+                        break;
+                    }
+                    // Also wake for the next deadline of a queued request
+                    long expiryNanos = deadlines.isEmpty() ? -1 : deadlines.peek().deadline - now;
+                    if (expiryNanos >= 0 && (waitNanos < 0 || expiryNanos < waitNanos)) {
+                        waitNanos = expiryNanos;
+                    }
+                    if (waitNanos < 0) {
+                        changed.await();
+                    } else {
+                        changed.awaitNanos(waitNanos);
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                takeBatch(batch);
+
+                // The executor only queues the task, so this is done under the lock that close() shuts it down with
+                for (Request request : batch) {
+                    try {
+                        executor.execute(() -> sign(request));
+                    } catch (RejectedExecutionException e) {
+                        inFlight--;
+                        request.result.completeExceptionally(new SigningException("Signing queue is closed.", e, false));
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | Error e) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(new SigningException("Signing queue failed.", e, false));
+            }
+            throw e;
+        } finally {
+            // Nothing else would complete what is left if the dispatcher stops for any reason other than close()
+            closed = true;
+            executor.shutdown();
+            failQueued();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fail the queued requests whose deadline has passed. Must hold the lock.
+     */
+    private void expireQueued(long now) {
+        Request request;
+        while ((request = deadlines.peek()) != null && (!request.queued || request.expired(now))) {
+            deadlines.poll();
+            request.inDeadlines = false;
+            if (!request.queued) {
+                continue;
+            }
+            ArrayDeque<Request> tenantQueue = tenantQueues.get(request.tenant);
+            tenantQueue.remove(request);
+            if (tenantQueue.isEmpty()) {
+                tenantQueues.remove(request.tenant);
+                tenantTurns.remove(request.tenant);
+            }
+            request.queued = false;
+            queued--;
+            request.result.completeExceptionally(new SigningException("Signing deadline exceeded while queued.", false));
+        }
+    }
+
+    /**
+     * Must hold the lock.
+     *
+     * @return 0 if a batch should be sent now, the nanoseconds until one should be sent, or -1 to wait for a change.
+     */
+    private long nanosUntilReady(long now) {
+        int available = (int) concurrencyLimit - inFlight;
+        if (queued == 0 || available <= 0) {
+            return -1;
+        }
+        if (now - pausedUntil < 0) {
+            return pausedUntil - now;
+        }
+        if (queued >= Math.min(options.maxBatchSize(), available)) {
+            return 0;
+        }
+        long lingerEnd = lingerStart + options.linger().toNanos();
+        return now - lingerEnd >= 0 ? 0 : lingerEnd - now;
+    }
+
+    /**
+     * Take one request from each tenant in turn until the batch is full. Must hold the lock.
+     */
+    private void takeBatch(List<Request> batch) {
+        long now = System.nanoTime();
+        int size = Math.min(options.maxBatchSize(), (int) concurrencyLimit - inFlight);
+        while (batch.size() < size && !tenantTurns.isEmpty()) {
+            String tenant = tenantTurns.pollFirst();
+            ArrayDeque<Request> tenantQueue = tenantQueues.get(tenant);
+            Request request = tenantQueue.pollFirst();
+            request.queued = false;
+            queued--;
+            if (tenantQueue.isEmpty()) {
+                tenantQueues.remove(tenant);
+            } else {
+                tenantTurns.addLast(tenant);
+            }
+
+            if (request.result.isDone()) {
+                continue;
+            }
+            if (request.expired(now)) {
+                request.result.completeExceptionally(new SigningException("Signing deadline exceeded while queued.", false));
+                continue;
+            }
+            batch.add(request);
+            inFlight++;
+        }
+        lingerStart = now;
+    }
+
+    private void sign(Request request) {
+        SigningException failure;
+        try {
+            byte[] signature = signer.signDigest(request.digest);
+            request.result.complete(signature);
+            completed(null, false);
+            return;
+        } catch (SigningException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new SigningException("Signer failed.", e, false);
+        }
+        if (!completed(failure.retryable() ? request : null, failure.retryable())) {
+            request.result.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * @param retry      A request to queue again if there is time left, or null.
+     * @param overloaded True if the signer failed in a way that may mean it is overloaded.
+     * @return True if the request was queued again.
+     */
+    private boolean completed(Request retry, boolean overloaded) {
+        lock.lock();
+        try {
+            inFlight--;
+            changed.signal();
+
+            long now = System.nanoTime();
+            if (!overloaded) {
+                concurrencyLimit = Math.min(options.maxInFlight(), concurrencyLimit + 1 / concurrencyLimit);
+                return false;
+            }
+
+            // Back off once per pause, however many requests in flight fail together
+            if (now - pausedUntil >= 0) {
+                concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+                pausedUntil = now + options.retryBackoff().toNanos();
+            }
+            if (retry == null || closed || retry.expired(now)) {
+                return false;
+            }
+            enqueue(retry, true);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Contains the keys certificates are signed with.
+ *
+ * <p>A {@link dev.wobbegong.kmsca.signing.SigningProvider} only ever sees the digest of the data being signed. The data
+ * is hashed in process, so a TBS certificate is never sent to a remote key service.</p>
+ */
+package dev.wobbegong.kmsca.signing;
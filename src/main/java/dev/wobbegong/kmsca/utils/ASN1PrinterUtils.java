@@ -1,12 +1,13 @@
 package dev.wobbegong.kmsca.utils;
 
 import dev.wobbegong.kmsca.entities.BitString;
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
 import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
 import dev.wobbegong.kmsca.entities.asn1.charsets.PrintableStringCharset;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Set;
-import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.io.DERStreamReader;
 import org.bouncycastle.util.encoders.Hex;
 
 import java.io.IOException;
@@ -24,26 +25,63 @@ public class ASN1PrinterUtils {
         if (item.type() == ASN1TagType.SEQUENCE && item instanceof ASN1Sequence sequence) {
             toMe.write(hexLocation(sequence.start) + " " + hexOrdinal(sequence.type().ordinal) + " " + hexLength(sequence.length) + " " + paddedLength(sequence.length) + ": " + depthDots + "SEQUENCE\n");
 
-            for (ASN1Item itemInSequence : sequence.asn1ItemList) {
+            for (ASN1Item itemInSequence : sequence.asn1ItemList()) {
                 printASN1(itemInSequence, toMe, depth + 1);
             }
         } else if (item.type() == ASN1TagType.SET && item instanceof ASN1Set set) {
             toMe.write(hexLocation(set.start) + " " + hexOrdinal(set.type().ordinal) + " " + hexLength(set.length) + " " + paddedLength(set.length) + ": " + depthDots + "SET\n");
 
-            for (ASN1Item itemInSequence : set.asn1ItemList) {
+            for (ASN1Item itemInSequence : set.asn1ItemList()) {
                 printASN1(itemInSequence, toMe, depth + 1);
             }
         } else {
             final String value = itemToString(item);
-            toMe.write(hexLocation(item.start) + " " + hexOrdinal(item.type().ordinal) + " " + hexLength(item.length) + " " + paddedLength(item.length) + ": " + depthDots + item.type().ASN1Name + " " + value + "\n");
+            toMe.write(hexLocation(item.start) + " " + hexOrdinal(item.identifier().tagNumber()) + " " + hexLength(item.length) + " " + paddedLength(item.length) + ": " + depthDots + item.type().ASN1Name + " " + value + "\n");
         }
     }
 
+    /**
+     * Print every item read from a stream reader in the same format as {@link #printASN1(ASN1Item, Writer)}. Only the
+     * values of the printed types are read into memory, one at a time, so this works on inputs larger than the heap.
+     *
+     * @param reader The reader to print items from until the end of its input.
+     * @param toMe   The writer to print to.
+     * @throws IOException If the reader or the writer fail.
+     */
+    public static void printASN1(DERStreamReader reader, Writer toMe) throws IOException {
+        DERStreamReader.Event event;
+        while ((event = reader.next()) != null) {
+            if (event == DERStreamReader.Event.END_CONSTRUCTED) {
+                continue;
+            }
+
+            String depthDots = ". ".repeat(reader.depth());
+            int length = (int) Math.min(reader.length(), Integer.MAX_VALUE);
+            String line = hexLocation(reader.offset()) + " " + hexOrdinal(reader.tagNumber()) + " " + hexLength(length) + " " + paddedLength(length) + ": " + depthDots + tagName(reader);
+            if (event == DERStreamReader.Event.PRIMITIVE) {
+                final String value = switch (reader.tagType()) {
+                    case OBJECT_IDENTIFIER, PRINTABLE_STRING, BIT_STRING -> itemToString(reader.valueItem());
+                    default -> "";
+                };
+                toMe.write(line + " " + value + "\n");
+            } else {
+                toMe.write(line + "\n");
+            }
+        }
+    }
+
+    private static String tagName(DERStreamReader reader) {
+        if (reader.tagClass() != ASN1Identifier.TagClass.Universal) {
+            return "[" + reader.tagNumber() + "]";
+        }
+        return reader.tagType().ASN1Name;
+    }
+
     private static String itemToString(ASN1Item item) {
         return switch (item.type()) {
             case OBJECT_IDENTIFIER -> {
                 String oidString = DERDecodingUtils.decodeOID(item);
-                yield oidString + ":" + KnownOids.forOID(oidString).map(oid -> oid.desc).orElse("Unknown");
+                yield oidString + ":" + DERDecodingUtils.decodeKnownOID(item).map(oid -> oid.desc).orElse("Unknown");
             }
             case PRINTABLE_STRING -> "'" + new String(item.contents(), PrintableStringCharset.singleton()) + "'";
             case BIT_STRING -> {
@@ -112,6 +150,15 @@ public class ASN1PrinterUtils {
         return Hex.toHexString(buffer.array());
     }
 
+    private static String hexLocation(long location) {
+        if (location <= Integer.MAX_VALUE) {
+            return hexLocation((int) location);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        buffer.putLong(location);
+        return Hex.toHexString(buffer.array());
+    }
+
     private static String hexOrdinal(int ordinal) {
         byte value = (byte) ordinal;
         return Hex.toHexString(new byte[]{value});
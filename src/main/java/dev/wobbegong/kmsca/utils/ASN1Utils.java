@@ -6,13 +6,11 @@ import dev.wobbegong.kmsca.entities.asn1.charsets.PrintableStringCharset;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Set;
-import dev.wobbegong.kmsca.entities.oid.KnownOids;
 import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.charset.StandardCharsets;
-import java.util.Optional;
 
 /**
  * Abstract Syntax Notation One (ASN.1) is a standard interface description language (IDL) for defining data
@@ -32,12 +30,12 @@ public class ASN1Utils {
         sb.append(item.type().ordinal).append(" ").append(item.type().name()).append("\n");
 
         if (item instanceof ASN1Sequence sequence) {
-            sequence.asn1ItemList.forEach(i -> sb.append(toString(i, indentLevel + 1)));
+            sequence.asn1ItemList().forEach(i -> sb.append(toString(i, indentLevel + 1)));
             return sb.toString();
         }
 
         if (item instanceof ASN1Set set) {
-            set.asn1ItemList.forEach(i -> sb.append(toString(i, indentLevel + 1)));
+            set.asn1ItemList().forEach(i -> sb.append(toString(i, indentLevel + 1)));
             return sb.toString();
         }
 
@@ -45,24 +43,18 @@ public class ASN1Utils {
             case OBJECT_IDENTIFIER -> {
                 sb.append("\t".repeat(Math.max(0, indentLevel + 1)));
 
-                String oid = DERDecodingUtils.decodeOID(item);
-                Optional<String> knownOID = KnownOids.forOID(oid).map(Enum::name);
-
-                String value;
-                if(knownOID.isEmpty()) {
-                    value = oid;
-                } else {
-                    value = knownOID.orElse(oid);
-                }
+                String value = DERDecodingUtils.decodeKnownOID(item)
+                        .map(Enum::name)
+                        .orElseGet(() -> DERDecodingUtils.decodeOID(item));
                 sb.append(value).append("\n");
             }
             case INTEGER -> {
                 sb.append("\t".repeat(Math.max(0, indentLevel + 1)));
                 sb.append(DERDecodingUtils.decodeInteger(item)).append("\n");
             }
-            case UTCTime -> {
+            case UTCTime, GeneralizedTime -> {
                 sb.append("\t".repeat(Math.max(0, indentLevel + 1)));
-                sb.append(DERDecodingUtils.decodeUTCTime(item)).append("\n");
+                sb.append(DERDecodingUtils.decodeTime(item)).append("\n");
             }
             case NULL -> {
                 sb.append("\t".repeat(Math.max(0, indentLevel + 1)));
@@ -1,15 +1,466 @@
 package dev.wobbegong.kmsca.utils;
 
+import dev.wobbegong.kmsca.entities.BitString;
+import dev.wobbegong.kmsca.entities.CertificateAuthority;
+import dev.wobbegong.kmsca.entities.CertificateSigningRequest;
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.pkcs12.IssuanceProfile;
+import dev.wobbegong.kmsca.entities.pkcs12.KeyUsage;
+import dev.wobbegong.kmsca.exceptions.PEMFormatException;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.io.DERWriter;
+import dev.wobbegong.kmsca.random.RandomSource;
+import dev.wobbegong.kmsca.signing.LocalSigningProvider;
+import dev.wobbegong.kmsca.signing.SigningProvider;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Issues X.509 v3 certificates from PKCS#10 certificate signing requests.
+ *
+ * <p>The TBS certificate is built with a {@link DERWriter}. The subject name and public key are copied from the
+ * request as encoded, and the writer's buffer is hashed without copying it. The CA's {@link SigningProvider} only
+ * receives the digest.</p>
+ */
 public class CertificateUtils {
 
+    public static final String CERTIFICATE_PEM_TYPE = "CERTIFICATE";
+
+    private static final int SERIAL_NUMBER_BYTES = 16;
+    private static final byte[] KEY_PAIR_CHECK = "wobbegong key pair check".getBytes(StandardCharsets.US_ASCII);
+    private static final IssuanceProfile SELF_SIGNED_PROFILE = IssuanceProfile.certificateAuthority(Duration.ofDays(3650), IssuanceProfile.UNLIMITED_PATH_LENGTH);
+
+    /**
+     * Self-sign a CSR with the CA private key, as when creating a root CA. The key must be the private key of the CSR.
+     *
+     * @param csr          The CSR to sign, in PEM format.
+     * @param caPrivateKey The PKCS#8 private key matching the CSR, in PEM format.
+     * @return The signed certificate in PEM format.
+     * @throws PEMFormatException If the CSR or key cannot be read from the PEM data.
+     * @throws X509CertException  If the CSR is malformed, its signature is invalid or it does not match the key.
+     */
+    public static String signCSR(String csr, String caPrivateKey) throws PEMFormatException, X509CertException {
+        CertificateSigningRequest request = PKCS10Utils.fromPEM(csr);
+        CertificateAuthority selfSigned = new CertificateAuthority(
+                request.subject(),
+                subjectKeyIdentifierFor(request.subjectPublicKeyInfo()),
+                new LocalSigningProvider(privateKeyFor(caPrivateKey), request.subjectPublicKeyInfo()));
+
+        byte[] certificate = issue(request, SELF_SIGNED_PROFILE, selfSigned);
+
+        // A self-signed certificate must verify with its own public key
+        var publicKey = SignatureUtils.publicKeyFor(request.subjectPublicKeyInfo(), request.publicKeyAlgorithm());
+        ASN1Sequence root = (ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(certificate));
+        byte[] tbs = PKCS10Utils.encodingOf(certificate, root.asn1ItemList().get(0));
+        byte[] signature = DERDecodingUtils.decodeBitString(root.asn1ItemList().get(2)).data();
+        if (!SignatureUtils.verify(publicKey, selfSigned.signatureAlgorithm(), tbs, signature)) {
+            throw new X509CertException("CA private key does not match the public key of the CSR.");
+        }
+        return PEMUtils.pemFor(CERTIFICATE_PEM_TYPE, certificate);
+    }
+
+    /**
+     * Sign a CSR with a CA.
+     *
+     * @param csr           The CSR to sign, in PEM format.
+     * @param caCertificate The certificate of the CA, in PEM format.
+     * @param caPrivateKey  The PKCS#8 private key of the CA, in PEM format.
+     * @param profile       What the issued certificate may contain.
+     * @return The signed certificate in PEM format.
+     * @throws PEMFormatException If the CSR, certificate or key cannot be read from the PEM data.
+     * @throws X509CertException  If the CSR or CA certificate is malformed, or the CSR signature is invalid.
+     */
+    public static String signCSR(String csr, String caCertificate, String caPrivateKey, IssuanceProfile profile) throws PEMFormatException, X509CertException {
+        CertificateSigningRequest request = PKCS10Utils.fromPEM(csr);
+        byte[] certificate = issue(request, profile, certificateAuthority(caCertificate, caPrivateKey));
+        return PEMUtils.pemFor(CERTIFICATE_PEM_TYPE, certificate);
+    }
+
+    /**
+     * Verify a CSR and issue a certificate for it with a random serial number, valid from now.
+     *
+     * @return The DER encoding of the certificate.
+     * @throws X509CertException If the CSR signature is invalid.
+     */
+    public static byte[] issue(CertificateSigningRequest csr, IssuanceProfile profile, CertificateAuthority ca) throws X509CertException {
+        PKCS10Utils.verify(csr);
+        return issue(csr, profile, ca, randomSerialNumber(), Instant.now());
+    }
+
+    /**
+     * Issue a certificate for a CSR whose signature has already been verified. The TBS certificate is hashed here and
+     * only its digest is given to the signer of the CA.
+     *
+     * @param csr          The verified request.
+     * @param profile      What the certificate may contain.
+     * @param ca           The issuer.
+     * @param serialNumber The serial number of the certificate. Must be positive and unique for the CA.
+     * @param now          The time of issue.
+     * @return The DER encoding of the certificate.
+     * @throws dev.wobbegong.kmsca.exceptions.SigningException If the signer of the CA could not sign.
+     */
+    public static byte[] issue(CertificateSigningRequest csr, IssuanceProfile profile, CertificateAuthority ca, BigInteger serialNumber, Instant now) {
+        if (serialNumber.signum() <= 0) {
+            throw new IllegalArgumentException("Serial number must be positive.");
+        }
+        KnownOids signatureAlgorithm = ca.signatureAlgorithm();
+
+        // Fields are written last to first
+        DERWriter tbs = new DERWriter(2048);
+        int tbsMark = tbs.mark();
+
+        int extensionsMark = tbs.mark();
+        int extensionSequenceMark = tbs.mark();
+        writeSubjectAltName(tbs, csr, profile);
+        writeAuthorityKeyIdentifier(tbs, ca.keyIdentifier());
+        writeSubjectKeyIdentifier(tbs, subjectKeyIdentifierFor(csr.subjectPublicKeyInfo()));
+        writeKeyUsage(tbs, profile, csr.publicKeyAlgorithm());
+        writeBasicConstraints(tbs, profile);
+        tbs.sequence(extensionSequenceMark).explicit(3, extensionsMark);
+
+        tbs.encoded(csr.subjectPublicKeyInfo());
+        tbs.encoded(csr.subject());
+
+        int validityMark = tbs.mark();
+        tbs.validityTime(now.plus(profile.validity()))
+                .validityTime(now.minus(profile.backdate()))
+                .sequence(validityMark);
+
+        tbs.encoded(ca.subject());
+        writeAlgorithmIdentifier(tbs, signatureAlgorithm);
+        tbs.integer(serialNumber);
+
+        int versionMark = tbs.mark();
+        tbs.integer(2).explicit(0, versionMark);
+        tbs.sequence(tbsMark);
+
+        ByteBuffer tbsCertificate = tbs.toByteBuffer();
+        byte[] signature = ca.signer().sign(tbsCertificate.duplicate());
+
+        DERWriter certificate = new DERWriter(tbsCertificate.remaining() + signature.length + 32);
+        int certificateMark = certificate.mark();
+        certificate.bitString(signature);
+        writeAlgorithmIdentifier(certificate, signatureAlgorithm);
+        certificate.encoded(tbsCertificate);
+        certificate.sequence(certificateMark);
+        return certificate.toByteArray();
+    }
+
+    /**
+     * Read the issuer details of a CA from its certificate and private key.
+     *
+     * @param caCertificate The certificate of the CA, in PEM format.
+     * @param caPrivateKey  The PKCS#8 private key of the CA, in PEM format.
+     * @return The CA, signing in process.
+     * @throws PEMFormatException If the certificate or key cannot be read from the PEM data.
+     * @throws X509CertException  If the certificate is malformed or the key is not the private key of its public key.
+     */
+    public static CertificateAuthority certificateAuthority(String caCertificate, String caPrivateKey) throws PEMFormatException, X509CertException {
+        byte[] der = pemContent(caCertificate, CERTIFICATE_PEM_TYPE);
+        List<ASN1Item> tbsItems = tbsItemsOf(der);
+        PrivateKey privateKey = privateKeyFor(caPrivateKey);
+        byte[] subjectPublicKeyInfo = PKCS10Utils.encodingOf(der, subjectPublicKeyInfoOf(tbsItems));
+        checkKeyPair(privateKey, subjectPublicKeyInfo);
+        return certificateAuthority(der, tbsItems, new LocalSigningProvider(privateKey, subjectPublicKeyInfo));
+    }
+
+    /**
+     * Sign a fixed message with the private key and verify it with the public key, as a CA that signs with a key other
+     * than the one in its certificate would issue certificates nobody can verify.
+     */
+    private static void checkKeyPair(PrivateKey privateKey, byte[] subjectPublicKeyInfo) throws X509CertException {
+        KnownOids signatureAlgorithm = SignatureUtils.signatureAlgorithmFor(privateKey);
+        byte[] signature = SignatureUtils.sign(privateKey, signatureAlgorithm, ByteBuffer.wrap(KEY_PAIR_CHECK));
+        final PublicKey publicKey;
+        try {
+            publicKey = KeyFactory.getInstance(privateKey.getAlgorithm()).generatePublic(new X509EncodedKeySpec(subjectPublicKeyInfo));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Could not get instance of " + privateKey.getAlgorithm() + " key factory.", e);
+        } catch (InvalidKeySpecException e) {
+            throw new X509CertException("CA private key is not an " + privateKey.getAlgorithm() + " key like the public key of the CA certificate.", e);
+        }
+        if (!SignatureUtils.verify(publicKey, signatureAlgorithm, KEY_PAIR_CHECK, signature)) {
+            throw new X509CertException("CA private key does not match the public key of the CA certificate.");
+        }
+    }
+
+    /**
+     * Read the issuer details of a CA from its certificate, signing with a key held elsewhere.
+     *
+     * @param caCertificate The certificate of the CA, in PEM format.
+     * @param signer        The key of the CA, such as a {@link dev.wobbegong.kmsca.signing.KMSSigningProvider}.
+     * @return The CA.
+     * @throws PEMFormatException If the certificate cannot be read from the PEM data.
+     * @throws X509CertException  If the certificate is malformed or its public key is not the key of the signer.
+     */
+    public static CertificateAuthority certificateAuthority(String caCertificate, SigningProvider signer) throws PEMFormatException, X509CertException {
+        byte[] der = pemContent(caCertificate, CERTIFICATE_PEM_TYPE);
+        List<ASN1Item> tbsItems = tbsItemsOf(der);
+        if (!Arrays.equals(signer.subjectPublicKeyInfo(), PKCS10Utils.encodingOf(der, subjectPublicKeyInfoOf(tbsItems)))) {
+            throw new X509CertException("The public key of the CA certificate is not the key of the signer.");
+        }
+        return certificateAuthority(der, tbsItems, signer);
+    }
+
+    private static CertificateAuthority certificateAuthority(byte[] der, List<ASN1Item> tbsItems, SigningProvider signer) throws X509CertException {
+        // Skip the explicit [0] version if present
+        int offset = tbsItems.get(0).identifier().tagClass() == ASN1Identifier.TagClass.ContextSpecific ? 1 : 0;
+        if (!(tbsItems.get(4 + offset) instanceof ASN1Sequence subject)) {
+            throw new X509CertException("CA certificate is missing its subject.");
+        }
+
+        byte[] keyIdentifier = subjectKeyIdentifierExtension(tbsItems);
+        if (keyIdentifier == null) {
+            keyIdentifier = subjectKeyIdentifierFor(PKCS10Utils.encodingOf(der, subjectPublicKeyInfoOf(tbsItems)));
+        }
+        return new CertificateAuthority(PKCS10Utils.encodingOf(der, subject), keyIdentifier, signer);
+    }
+
+    private static List<ASN1Item> tbsItemsOf(byte[] der) throws X509CertException {
+        if (!(DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der)) instanceof ASN1Sequence root)
+                || !(root.asn1ItemList().get(0) instanceof ASN1Sequence tbs)
+                || tbs.asn1ItemList().size() < 6) {
+            throw new X509CertException("CA certificate must be a sequence starting with a TBS certificate sequence.");
+        }
+        return tbs.asn1ItemList();
+    }
+
+    private static ASN1Item subjectPublicKeyInfoOf(List<ASN1Item> tbsItems) throws X509CertException {
+        int offset = tbsItems.get(0).identifier().tagClass() == ASN1Identifier.TagClass.ContextSpecific ? 1 : 0;
+        if (tbsItems.size() <= 5 + offset || !(tbsItems.get(5 + offset) instanceof ASN1Sequence subjectPublicKeyInfo)) {
+            throw new X509CertException("CA certificate is missing its subject public key info.");
+        }
+        return subjectPublicKeyInfo;
+    }
+
+    /**
+     * Read a PKCS#8 private key.
+     *
+     * @param pem The key in PEM format, with a PRIVATE KEY type.
+     * @return The private key.
+     * @throws PEMFormatException If there is no private key in the PEM data.
+     * @throws X509CertException  If the key algorithm is not supported or the key is malformed.
+     */
+    public static PrivateKey privateKeyFor(String pem) throws PEMFormatException, X509CertException {
+        return privateKeyFor(pemContent(pem, "PRIVATE KEY"));
+    }
+
+    /**
+     * Read a PKCS#8 private key.
+     *
+     * @param der The DER encoding of the key's PrivateKeyInfo.
+     * @return The private key.
+     * @throws X509CertException If the key algorithm is not supported or the key is malformed.
+     */
+    public static PrivateKey privateKeyFor(byte[] der) throws X509CertException {
+        // PrivateKeyInfo ::= SEQUENCE { version INTEGER, privateKeyAlgorithm AlgorithmIdentifier, privateKey OCTET STRING }
+        if (!(DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der)) instanceof ASN1Sequence privateKeyInfo)
+                || privateKeyInfo.asn1ItemList().size() < 3
+                || !(privateKeyInfo.asn1ItemList().get(1) instanceof ASN1Sequence algorithm)) {
+            throw new X509CertException("Malformed PKCS#8 private key.");
+        }
+        ASN1Item algorithmOID = algorithm.asn1ItemList().get(0);
+        KnownOids keyAlgorithm = DERDecodingUtils.decodeKnownOID(algorithmOID)
+                .orElseThrow(() -> new X509CertException("Unknown private key algorithm OID: " + DERDecodingUtils.decodeOID(algorithmOID)));
+
+        String jcaAlgorithm = SignatureUtils.jcaKeyAlgorithm(keyAlgorithm);
+        try {
+            return KeyFactory.getInstance(jcaAlgorithm).generatePrivate(new PKCS8EncodedKeySpec(der));
+        } catch (GeneralSecurityException e) {
+            throw new X509CertException("Could not read " + jcaAlgorithm + " private key.", e);
+        }
+    }
+
+    /**
+     * @return A random positive serial number of up to 127 bits, well under the 20 octet limit of RFC 5280 4.1.2.2.
+     */
+    public static BigInteger randomSerialNumber() {
+        return randomSerialNumber(CryptoUtils.randomSource());
+    }
+
+    /**
+     * @param source The source of the random bits.
+     * @return A random positive serial number of up to 127 bits.
+     */
+    public static BigInteger randomSerialNumber(RandomSource source) {
+        BigInteger serialNumber;
+        do {
+            byte[] bytes = source.nextBytes(SERIAL_NUMBER_BYTES);
+            serialNumber = new BigInteger(1, bytes).clearBit(SERIAL_NUMBER_BYTES * 8 - 1);
+        } while (serialNumber.signum() == 0);
+        return serialNumber;
+    }
+
     /**
-     * Sign a CSR with the CA private key.
-     * @param csr The CSR to sign.
-     * @param caPrivateKey The CA private key to sign the CSR with.
-     * @return The signed CSR.
+     * Compute a key identifier as the SHA-1 hash of the subject public key bits (RFC 5280 4.2.1.2 method 1).
+     *
+     * @param subjectPublicKeyInfo The DER encoding of a subject public key info.
+     * @return The key identifier.
      */
-    public static String signCSR(String csr, String caPrivateKey) {
-        // Sign the csr using the ca private key
+    public static byte[] subjectKeyIdentifierFor(byte[] subjectPublicKeyInfo) {
+        ASN1Sequence keyInfo = (ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(subjectPublicKeyInfo));
+        ByteBuffer publicKeyBits = keyInfo.asn1ItemList().get(1).contentsBuffer();
+        publicKeyBits.get(); // Unused bits
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            sha1.update(publicKeyBits);
+            return sha1.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Could not get instance of SHA-1.", e);
+        }
+    }
+
+    private static byte[] pemContent(String pem, String type) throws PEMFormatException {
+        for (PEMObject pemObject : PEMUtils.parsePEMBytes(pem)) {
+            if (type.equals(pemObject.type())) {
+                return pemObject.content();
+            }
+        }
+        throw new PEMFormatException("No " + type + " found in PEM data.");
+    }
+
+    private static byte[] subjectKeyIdentifierExtension(List<ASN1Item> tbsItems) {
+        for (ASN1Item item : tbsItems) {
+            ASN1Identifier identifier = item.identifier();
+            if (identifier.tagClass() != ASN1Identifier.TagClass.ContextSpecific || identifier.tagNumber() != 3) {
+                continue;
+            }
+            ASN1Sequence extensions = (ASN1Sequence) DERDecodingUtils.viewNextASN1(item.contentsBuffer());
+            for (ASN1Item extension : extensions.asn1ItemList()) {
+                List<ASN1Item> extensionItems = ((ASN1Sequence) extension).asn1ItemList();
+                if (DERDecodingUtils.decodeKnownOID(extensionItems.get(0)).orElse(null) == KnownOids.subjectKeyIdentifier) {
+                    ByteBuffer extensionValue = extensionItems.get(extensionItems.size() - 1).contentsBuffer();
+                    return DERDecodingUtils.viewNextASN1(extensionValue).contents();
+                }
+            }
+        }
         return null;
     }
+
+    /**
+     * Write an AlgorithmIdentifier for a signature algorithm, with NULL parameters where the algorithm has them.
+     */
+    public static void writeAlgorithmIdentifier(DERWriter writer, KnownOids signatureAlgorithm) {
+        int mark = writer.mark();
+        if (SignatureUtils.hasNullParameters(signatureAlgorithm)) {
+            writer.nullValue();
+        }
+        writer.oid(signatureAlgorithm).sequence(mark);
+    }
+
+    /**
+     * Extension ::= SEQUENCE { extnID OBJECT IDENTIFIER, critical BOOLEAN DEFAULT FALSE, extnValue OCTET STRING }.
+     * Call after writing the contents of the extension value since the given marks.
+     */
+    public static void endExtension(DERWriter writer, int extensionMark, int valueMark, KnownOids oid, boolean critical) {
+        writer.octetString(valueMark);
+        if (critical) {
+            writer.bool(true);
+        }
+        writer.oid(oid).sequence(extensionMark);
+    }
+
+    private static void writeBasicConstraints(DERWriter writer, IssuanceProfile profile) {
+        int extensionMark = writer.mark();
+        int valueMark = writer.mark();
+        int constraintsMark = writer.mark();
+        if (profile.certificateAuthority()) {
+            if (profile.pathLength() != IssuanceProfile.UNLIMITED_PATH_LENGTH) {
+                writer.integer(profile.pathLength());
+            }
+            writer.bool(true);
+        }
+        writer.sequence(constraintsMark);
+        endExtension(writer, extensionMark, valueMark, KnownOids.basicConstraints, true);
+    }
+
+    private static void writeKeyUsage(DERWriter writer, IssuanceProfile profile, KnownOids subjectKeyAlgorithm) {
+        // Only RSA keys encipher the keys they are sent, EC keys agree on them instead
+        int highestBit = -1;
+        int bits = 0;
+        for (KeyUsage keyUsage : profile.keyUsage()) {
+            if (keyUsage == KeyUsage.keyEncipherment && subjectKeyAlgorithm != KnownOids.rsaEncryption) {
+                continue;
+            }
+            bits |= 1 << keyUsage.bit;
+            highestBit = Math.max(highestBit, keyUsage.bit);
+        }
+        if (highestBit < 0) {
+            return;
+        }
+
+        // DER drops trailing zero bits, so the string ends at the highest bit set
+        byte[] data = new byte[highestBit / 8 + 1];
+        for (int bit = 0; bit <= highestBit; bit++) {
+            if ((bits & (1 << bit)) != 0) {
+                data[bit / 8] |= (byte) (0x80 >>> (bit % 8));
+            }
+        }
+
+        int extensionMark = writer.mark();
+        int valueMark = writer.mark();
+        writer.bitString(new BitString(7 - highestBit % 8, data));
+        endExtension(writer, extensionMark, valueMark, KnownOids.keyUsage, true);
+    }
+
+    private static void writeSubjectKeyIdentifier(DERWriter writer, byte[] keyIdentifier) {
+        int extensionMark = writer.mark();
+        int valueMark = writer.mark();
+        writer.octetString(keyIdentifier);
+        endExtension(writer, extensionMark, valueMark, KnownOids.subjectKeyIdentifier, false);
+    }
+
+    /**
+     * AuthorityKeyIdentifier ::= SEQUENCE { keyIdentifier [0] IMPLICIT OCTET STRING OPTIONAL, ... }
+     */
+    public static void writeAuthorityKeyIdentifier(DERWriter writer, byte[] keyIdentifier) {
+        if (keyIdentifier == null) {
+            return;
+        }
+        int extensionMark = writer.mark();
+        int valueMark = writer.mark();
+        int identifierMark = writer.mark();
+        writer.octetString(keyIdentifier).implicit(0).sequence(identifierMark);
+        endExtension(writer, extensionMark, valueMark, KnownOids.authorityKeyIdentifier, false);
+    }
+
+    /**
+     * GeneralNames ::= SEQUENCE OF GeneralName, with DNS names as [2] IMPLICIT IA5String.
+     */
+    private static void writeSubjectAltName(DERWriter writer, CertificateSigningRequest csr, IssuanceProfile profile) {
+        int extensionMark = writer.mark();
+        int valueMark = writer.mark();
+        if (!profile.dnsNames().isEmpty()) {
+            int namesMark = writer.mark();
+            List<String> dnsNames = profile.dnsNames();
+            for (int i = dnsNames.size() - 1; i >= 0; i--) {
+                writer.ia5String(dnsNames.get(i)).implicit(2);
+            }
+            writer.sequence(namesMark);
+        } else if (profile.copyRequestedSubjectAltName() && csr.requestedSubjectAltName() != null) {
+            writer.encoded(csr.requestedSubjectAltName());
+        } else {
+            return;
+        }
+        endExtension(writer, extensionMark, valueMark, KnownOids.subjectAltName, false);
+    }
 }
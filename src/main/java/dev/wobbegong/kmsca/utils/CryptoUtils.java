@@ -1,25 +1,82 @@
 package dev.wobbegong.kmsca.utils;
 
+import dev.wobbegong.kmsca.random.RandomSource;
+import dev.wobbegong.kmsca.random.ThreadLocalDRBGSource;
+
+import javax.crypto.AEADBadTagException;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * AES GCM encryption and randomness. Random bytes come from a replaceable {@link RandomSource}.
+ *
+ * <p>{@link Cipher#getInstance(String)} searches the installed providers on every call, so each thread keeps one
+ * AES/GCM cipher and re-initialises it for every operation.</p>
+ *
+ * <p>Once an operation finishes, the kept cipher and MAC are initialised again with a placeholder key. Otherwise they
+ * would keep the last data key reachable from the thread after {@link dev.wobbegong.kmsca.keys.DataKeyCache} has
+ * evicted and zeroed it. Initialization vectors must still never repeat for a key, which random ones from
+ * {@link #randomIV()} ensure.</p>
+ */
 public class CryptoUtils {
 
+    /**
+     * A shared {@link SecureRandom} for callers that need one. The random methods here draw from
+     * {@link #randomSource()} instead.
+     */
     public static final SecureRandom SRAND = new SecureRandom();
 
+    private static volatile RandomSource randomSource = new ThreadLocalDRBGSource();
+
     /**
      * The size of the initialization vector for AES GCM. This is a constant in the AES GCM specification.
      */
     public static final int GCM_IV_SIZE = 12;
 
+    /**
+     * The size of the AES GCM authentication tag appended to every ciphertext.
+     */
+    public static final int GCM_TAG_SIZE = 16;
+
+    private static final ThreadLocal<Cipher> AES_GCM = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new RuntimeException("Could not get instance of AES/GCM/NoPadding cipher.", e);
+        }
+    });
+
+    /**
+     * Random, so that no caller's key can equal it and trip the check against reusing a key and IV.
+     */
+    private static final SecretKey PLACEHOLDER_KEY = new SecretKeySpec(randomPlaceholder(), "AES");
+    private static final AtomicLong PLACEHOLDER_IVS = new AtomicLong();
+    private static final SecretKey PLACEHOLDER_MAC_KEY = new SecretKeySpec(new byte[32], "HmacSHA256");
+
+    private static final ThreadLocal<Mac> HMAC_SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Could not get instance of HmacSHA256.", e);
+        }
+    });
+
     /**
      * Generate a random AES 256 key.
      * @return The random key.
@@ -42,13 +99,33 @@ public class CryptoUtils {
      * @return The random byte array.
      */
     public static byte[] randomBytes(int size) {
-        if(size < 0) {
-            throw new IllegalArgumentException("Size must be greater than 0.");
-        }
+        return randomSource.nextBytes(size);
+    }
 
-        byte[] bytes = new byte[size];
-        SRAND.nextBytes(bytes);
-        return bytes;
+    /**
+     * @return The source of the keys, IVs and serial numbers generated here. A per-thread DRBG by default.
+     */
+    public static RandomSource randomSource() {
+        return randomSource;
+    }
+
+    /**
+     * Replace the source of the keys, IVs and serial numbers generated here, for example with a
+     * {@link dev.wobbegong.kmsca.random.PrefetchingRandomSource}, or a
+     * {@link dev.wobbegong.kmsca.random.DeterministicRandomSource} in tests.
+     *
+     * @param source The new source.
+     */
+    public static void setRandomSource(RandomSource source) {
+        randomSource = Objects.requireNonNull(source);
+    }
+
+    /**
+     * @param key A 128, 192 or 256 bit key.
+     * @return The key for use with the AES ciphers. Reusing it saves copying the key for every operation.
+     */
+    public static SecretKey aesKey(byte[] key) {
+        return new SecretKeySpec(key, "AES");
     }
 
     /**
@@ -64,50 +141,182 @@ public class CryptoUtils {
             throw new IllegalArgumentException("Data is too large to encrypt. Max size is 2,147,483,390 bytes.");
         }
 
-        // Create the AESGCM cipher
-        Cipher cipher;
+        Cipher cipher = aesGCM(Cipher.ENCRYPT_MODE, aesKey(key), iv, null);
         try {
-            cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            throw new RuntimeException("Could not get instance of AES/GCM/NoPadding cipher.", e);
+            return cipher.doFinal(data);
+        } catch (IllegalBlockSizeException | BadPaddingException e) {
+            throw new RuntimeException("Could not doFinal on the data.", e);
+        } finally {
+            release(cipher);
         }
+    }
 
+    public static byte[] aesGCMDecrypt(byte[] ciphertext, byte[] key, byte[] iv) {
+        Cipher cipher = aesGCM(Cipher.DECRYPT_MODE, aesKey(key), iv, null);
         try {
-            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
-        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
-            throw new RuntimeException("Could not initialize cipher using key and initialization vector.", e);
+            return cipher.doFinal(ciphertext);
+        } catch (IllegalBlockSizeException | BadPaddingException e) {
+            throw new RuntimeException("Could not decrypt ciphertext using key/iv.", e);
+        } finally {
+            release(cipher);
         }
+    }
 
+    /**
+     * Encrypt the remaining bytes of a buffer using AES GCM.
+     *
+     * @param input  The plaintext, from its position to its limit. The position is advanced to the limit.
+     * @param output Receives the ciphertext and tag at its position, which is advanced past them. It may be the same
+     *               buffer, or share memory with the input, to encrypt in place.
+     * @param key    The key to use for encryption.
+     * @param iv     The initialization vector to use for encryption.
+     * @param aad    Additional data to authenticate, or null.
+     * @return The number of bytes written: the length of the plaintext plus {@link #GCM_TAG_SIZE}.
+     */
+    public static int aesGCMEncrypt(ByteBuffer input, ByteBuffer output, SecretKey key, byte[] iv, byte[] aad) {
+        Cipher cipher = aesGCM(Cipher.ENCRYPT_MODE, key, iv, aad);
         try {
-            return cipher.doFinal(data);
+            return cipher.doFinal(input, output);
+        } catch (ShortBufferException e) {
+            throw new IllegalArgumentException("Output needs " + (input.remaining() + GCM_TAG_SIZE) + " bytes but has " + output.remaining() + ".", e);
         } catch (IllegalBlockSizeException | BadPaddingException e) {
             throw new RuntimeException("Could not doFinal on the data.", e);
+        } finally {
+            release(cipher);
         }
     }
 
-    public static byte[] aesGCMDecrypt(byte[] ciphertext, byte[] key, byte[] iv) {
-        // Create the Cipher
-        Cipher cipher;
+    /**
+     * Decrypt the remaining bytes of a buffer using AES GCM.
+     *
+     * @param input  The ciphertext and tag, from its position to its limit. The position is advanced to the limit.
+     * @param output Receives the plaintext at its position, which is advanced past it. It may be the same buffer, or
+     *               share memory with the input, to decrypt in place.
+     * @param key    The key to use for decryption.
+     * @param iv     The initialization vector used for encryption.
+     * @param aad    The additional data authenticated when encrypting, or null.
+     * @return The number of bytes written: the length of the input less {@link #GCM_TAG_SIZE}.
+     * @throws SecurityException If the ciphertext, tag or additional data have been modified.
+     */
+    public static int aesGCMDecrypt(ByteBuffer input, ByteBuffer output, SecretKey key, byte[] iv, byte[] aad) {
+        Cipher cipher = aesGCM(Cipher.DECRYPT_MODE, key, iv, aad);
         try {
-            cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            throw new RuntimeException("Could not find an instance of AES/GCM/NoPadding", e);
+            return cipher.doFinal(input, output);
+        } catch (AEADBadTagException e) {
+            throw new SecurityException("AES GCM authentication failed.", e);
+        } catch (ShortBufferException e) {
+            throw new IllegalArgumentException("Output needs " + (input.remaining() - GCM_TAG_SIZE) + " bytes but has " + output.remaining() + ".", e);
+        } catch (IllegalBlockSizeException | BadPaddingException e) {
+            throw new RuntimeException("Could not decrypt ciphertext using key/iv.", e);
+        } finally {
+            release(cipher);
         }
+    }
 
-        // Initialize the Cipher for decryption
+    /**
+     * Encrypt a buffer in place. The plaintext between position and limit is replaced by the ciphertext and tag, and
+     * the limit is moved {@link #GCM_TAG_SIZE} bytes further, so the buffer needs that much room past its limit.
+     *
+     * @param buffer The plaintext. Works with heap and direct buffers.
+     * @param key    The key to use for encryption.
+     * @param iv     The initialization vector to use for encryption.
+     */
+    public static void aesGCMEncryptInPlace(ByteBuffer buffer, SecretKey key, byte[] iv) {
+        if (buffer.capacity() - buffer.limit() < GCM_TAG_SIZE) {
+            throw new IllegalArgumentException("Buffer needs " + GCM_TAG_SIZE + " bytes past its limit for the tag.");
+        }
+        int start = buffer.position();
+        ByteBuffer output = buffer.duplicate().limit(buffer.limit() + GCM_TAG_SIZE);
+        aesGCMEncrypt(buffer, output, key, iv, null);
+        buffer.limit(output.position()).position(start);
+    }
+
+    /**
+     * Decrypt a buffer in place. The ciphertext and tag between position and limit are replaced by the plaintext, and
+     * the limit is moved back {@link #GCM_TAG_SIZE} bytes.
+     *
+     * @param buffer The ciphertext and tag. Works with heap and direct buffers.
+     * @param key    The key to use for decryption.
+     * @param iv     The initialization vector used for encryption.
+     * @throws SecurityException If the ciphertext or tag have been modified.
+     */
+    public static void aesGCMDecryptInPlace(ByteBuffer buffer, SecretKey key, byte[] iv) {
+        int start = buffer.position();
+        ByteBuffer output = buffer.duplicate();
+        aesGCMDecrypt(buffer, output, key, iv, null);
+        buffer.limit(output.position()).position(start);
+    }
+
+    /**
+     * Derive a key with HKDF-SHA256 (RFC 5869).
+     *
+     * @param inputKey The input keying material.
+     * @param salt     A random salt. An empty salt stands for 32 zero bytes, as in the RFC.
+     * @param info     Binds the key to its purpose.
+     * @param length   The length of the derived key, at most 32 bytes.
+     * @return The derived key.
+     */
+    public static byte[] hkdfSHA256(byte[] inputKey, byte[] salt, String info, int length) {
+        if (length < 1 || length > 32) {
+            throw new IllegalArgumentException("HKDF-SHA256 output is limited to 32 bytes here. Requested: " + length);
+        }
+        Mac hmac = HMAC_SHA256.get();
+        try {
+            hmac.init(new SecretKeySpec(salt.length == 0 ? new byte[32] : salt, "HmacSHA256"));
+            byte[] pseudoRandomKey = hmac.doFinal(inputKey);
+
+            // One block of expansion: T(1) = HMAC(PRK, info || 0x01)
+            hmac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+            hmac.update(info.getBytes(StandardCharsets.UTF_8));
+            hmac.update((byte) 1);
+            byte[] block = hmac.doFinal();
+            byte[] derived = Arrays.copyOf(block, length);
+            Arrays.fill(block, (byte) 0);
+            Arrays.fill(pseudoRandomKey, (byte) 0);
+            return derived;
+        } catch (InvalidKeyException e) {
+            throw new RuntimeException("Could not initialize HmacSHA256.", e);
+        } finally {
+            try {
+                hmac.init(PLACEHOLDER_MAC_KEY);
+            } catch (InvalidKeyException e) {
+                HMAC_SHA256.remove();
+            }
+        }
+    }
+
+    private static Cipher aesGCM(int mode, SecretKey key, byte[] iv, byte[] aad) {
+        Cipher cipher = AES_GCM.get();
         try {
-            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+            cipher.init(mode, key, new GCMParameterSpec(GCM_TAG_SIZE * 8, iv));
         } catch (InvalidKeyException e) {
             throw new RuntimeException("Invalid key for AES GCM algorithm.", e);
         } catch (InvalidAlgorithmParameterException e) {
             throw new RuntimeException("Invalid initialization vector for AES GCM algorithm.", e);
         }
+        if (aad != null) {
+            cipher.updateAAD(aad);
+        }
+        return cipher;
+    }
 
-        // Decrypt the ciphertext
+    private static byte[] randomPlaceholder() {
+        byte[] key = new byte[16];
+        SRAND.nextBytes(key);
+        return key;
+    }
+
+    /**
+     * Initialise the kept cipher with the placeholder key, so it no longer holds the key of the last operation. In
+     * encrypt mode, as a GCM cipher keeps the last key it encrypted with until it is next initialised to encrypt. Each
+     * time with a new IV, since it refuses the same key and IV twice in a row.
+     */
+    private static void release(Cipher cipher) {
+        byte[] iv = ByteBuffer.allocate(GCM_IV_SIZE).putLong(GCM_IV_SIZE - 8, PLACEHOLDER_IVS.incrementAndGet()).array();
         try {
-            return cipher.doFinal(ciphertext);
-        } catch (IllegalBlockSizeException | BadPaddingException e) {
-            throw new RuntimeException("Could not decrypt ciphertext using key/iv.", e);
+            cipher.init(Cipher.ENCRYPT_MODE, PLACEHOLDER_KEY, new GCMParameterSpec(GCM_TAG_SIZE * 8, iv));
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+            AES_GCM.remove();
         }
     }
 }
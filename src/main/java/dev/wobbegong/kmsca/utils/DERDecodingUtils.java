@@ -8,19 +8,15 @@ import dev.wobbegong.kmsca.entities.asn1.charsets.IA5Charset;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Set;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.oid.OIDStringCache;
 
 import java.math.BigInteger;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.time.ZoneId;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * DER (Distinguished Encoding Rules) is a restricted variant of BER for producing unequivocal transfer syntax for
@@ -33,23 +29,11 @@ import java.util.stream.Collectors;
  */
 public class DERDecodingUtils {
 
-    private static final List<Pattern> UTC_DATE_PATTERNS;
-    private static final Pattern YY_MM_DD_HH_MM_Z = Pattern.compile("(\\d{10})Z");
-    private static final Pattern YY_MM_DD_HH_MM_SS_Z = Pattern.compile("(\\d{12})Z");
-    private static final Pattern YY_MM_DD_HH_MM_PLUS_HH_MM = Pattern.compile("(\\d{10})\\+(\\d{4})Z");
-    private static final Pattern YY_MM_DD_HH_MM_MINUS_HH_MM = Pattern.compile("(\\d{10})-(\\d{4})Z");
-    private static final Pattern YY_MM_DD_HH_MM_SS_PLUS_HH_MM = Pattern.compile("(\\d{12})\\+(\\d{4})Z");
-    private static final Pattern YY_MM_DD_HH_MM_SS_MINUS_HH_MM = Pattern.compile("(\\d{12})-(\\d{4})Z");
-
-    static {
-        UTC_DATE_PATTERNS = new ArrayList<>();
-        UTC_DATE_PATTERNS.add(YY_MM_DD_HH_MM_Z);
-        UTC_DATE_PATTERNS.add(YY_MM_DD_HH_MM_SS_Z);
-        UTC_DATE_PATTERNS.add(YY_MM_DD_HH_MM_PLUS_HH_MM);
-        UTC_DATE_PATTERNS.add(YY_MM_DD_HH_MM_MINUS_HH_MM);
-        UTC_DATE_PATTERNS.add(YY_MM_DD_HH_MM_SS_PLUS_HH_MM);
-        UTC_DATE_PATTERNS.add(YY_MM_DD_HH_MM_SS_MINUS_HH_MM);
-    }
+    /**
+     * Two digit UTCTime years from this one on are 19yy, and the years below it are 20yy (RFC 5280 4.1.2.5.1). The
+     * same 1950 to 2049 range that {@link dev.wobbegong.kmsca.io.DERWriter} encodes as UTCTime.
+     */
+    private static final int UTC_TIME_PIVOT = 50;
 
     /**
      * 0001 1111 -> 31 -> 1F
@@ -64,14 +48,150 @@ public class DERDecodingUtils {
     public static ASN1Item parseNextASN1(int offset, ByteBuffer buffer) {
         int start = buffer.position() + offset;
         ASN1Identifier identifier = nextIdentifierFrom(buffer);
+        int identifierLength = buffer.position() + offset - start;
 
         return switch (identifier.tagType()) {
-            case SEQUENCE -> parseNextSequence(start, buffer);
-            case SET -> parseNextSet(start, buffer);
+            case SEQUENCE -> parseNextSequence(start, identifierLength, buffer);
+            case SET -> parseNextSet(start, identifierLength, buffer);
             default -> {
                 byte[] contents = parseNextBytes(buffer);
-                yield new ASN1Item(contents.length, start, identifier.tagType(), contents);
+                yield new ASN1Item(contents.length, start, identifier, contents);
+            }
+        };
+    }
+
+    /**
+     * Parse the next ASN.1 item without copying any content octets. Every item in the returned tree is a view over
+     * {@code buffer} and only copies its contents when {@link ASN1Item#contents()} is called, so the buffer must not be
+     * modified while the tree is in use. Item start offsets are absolute indexes into the buffer.
+     *
+     * @param buffer The buffer to parse from. Its position is moved past the parsed item.
+     * @return The parsed item.
+     */
+    public static ASN1Item viewNextASN1(ByteBuffer buffer) {
+        ASN1Item item = viewASN1At(buffer, buffer.position(), buffer.limit(), false);
+        buffer.position(item.contentsOffset() + item.length);
+        return item;
+    }
+
+    /**
+     * Parse the next ASN.1 item lazily. This works like {@link #viewNextASN1(ByteBuffer)} except that sequences and sets
+     * are skipped over using their length and only parse their children when their item list is first read. Reading a
+     * single field then costs time in proportion to the path leading to it rather than the size of the whole item.
+     *
+     * @param buffer The buffer to parse from. Its position is moved past the parsed item.
+     * @return The parsed item.
+     */
+    public static ASN1Item lazyNextASN1(ByteBuffer buffer) {
+        ASN1Item item = viewASN1At(buffer, buffer.position(), buffer.limit(), true);
+        buffer.position(item.contentsOffset() + item.length);
+        return item;
+    }
+
+    /**
+     * Parse the items found in a range of a buffer lazily. Used by lazy sequences and sets to expand their children.
+     *
+     * @param buffer The buffer holding the DER data.
+     * @param offset The absolute index of the first item.
+     * @param length The number of octets to parse.
+     * @return The items in the range, in encoded order.
+     */
+    public static List<ASN1Item> lazyItemsIn(ByteBuffer buffer, int offset, int length) {
+        final int end = offset + length;
+        List<ASN1Item> items = new ArrayList<>();
+        int index = offset;
+        while (index < end) {
+            ASN1Item item = viewASN1At(buffer, index, end, true);
+            items.add(item);
+            index = item.contentsOffset() + item.length;
+        }
+        return items;
+    }
+
+    private static ASN1Item viewASN1At(ByteBuffer buffer, int start, int limit, boolean lazy) {
+        if (start >= limit) {
+            throw new RuntimeException("No bytes remaining to read an identifier at: " + start);
+        }
+        int firstOctet = buffer.get(start) & 0xff;
+        ASN1Identifier identifier = ASN1Identifier.forOctet(firstOctet);
+        int lengthIndex = start + 1;
+        if (identifier.isHighTagNumber()) {
+            int tagNumber = 0;
+            int tagOctet;
+            do {
+                if (lengthIndex >= limit || lengthIndex - start > 4) {
+                    throw new RuntimeException("Cannot read tag number at: " + start);
+                }
+                tagOctet = buffer.get(lengthIndex++) & 0xff;
+                tagNumber = (tagNumber << 7) | (tagOctet & 0x7F);
+            } while ((tagOctet & 0x80) != 0);
+            identifier = ASN1Identifier.forHighTagNumber(firstOctet, tagNumber);
+        }
+        final ASN1TagType tagType = identifier.tagType();
+
+        // Read the length octets in place
+        if (lengthIndex >= limit) {
+            throw new RuntimeException("No bytes remaining to read a length at: " + lengthIndex);
+        }
+        int lengthOctet = buffer.get(lengthIndex) & 0xff;
+        int contentsOffset = lengthIndex + 1;
+        final int length;
+        if ((lengthOctet >> 7) == 1) {
+            int lengthOctets = lengthOctet & 0x7F;
+            if (lengthOctets == 0) {
+                throw new RuntimeException("Indefinite lengths are not allowed in DER. At: " + lengthIndex);
+            }
+            if (lengthOctets > 4 || contentsOffset + lengthOctets > limit) {
+                throw new RuntimeException("Cannot read " + lengthOctets + " length octets at: " + lengthIndex);
+            }
+            long longLength = 0;
+            for (int i = 0; i < lengthOctets; i++) {
+                longLength = (longLength << 8) | (buffer.get(contentsOffset + i) & 0xff);
+            }
+            if (longLength > Integer.MAX_VALUE) {
+                throw new RuntimeException("Length is too large: " + longLength);
+            }
+            length = (int) longLength;
+            contentsOffset += lengthOctets;
+        } else {
+            length = lengthOctet;
+        }
+
+        final int end = contentsOffset + length;
+        if (end > limit) {
+            throw new RuntimeException("Not enough bytes remaining for the item. Need " + length + " but we only have " + (limit - contentsOffset));
+        }
+
+        if (lazy) {
+            return switch (tagType) {
+                case SEQUENCE -> new ASN1Sequence(length, start, buffer, contentsOffset);
+                case SET -> new ASN1Set(length, start, buffer, contentsOffset);
+                default -> new ASN1Item(length, start, identifier, buffer, contentsOffset);
+            };
+        }
+
+        return switch (tagType) {
+            case SEQUENCE -> {
+                List<ASN1Item> asn1ItemList = new ArrayList<>();
+                int index = contentsOffset;
+                while (index < end) {
+                    ASN1Item item = viewASN1At(buffer, index, end, false);
+                    asn1ItemList.add(item);
+                    index = item.contentsOffset() + item.length;
+                }
+                yield new ASN1Sequence(length, start, asn1ItemList, buffer, contentsOffset);
             }
+            case SET -> {
+                Set<ASN1Item> asn1ItemSet = new LinkedHashSet<>();
+                int index = contentsOffset;
+                while (index < end) {
+                    ASN1Item item = viewASN1At(buffer, index, end, false);
+                    asn1ItemSet.add(item);
+                    index = item.contentsOffset() + item.length;
+                }
+                yield new ASN1Set(length, start, asn1ItemSet, buffer, contentsOffset);
+            }
+            default -> new ASN1Item(length, start, identifier, buffer, contentsOffset);
         };
     }
 
@@ -88,55 +208,192 @@ public class DERDecodingUtils {
     }
 
     public static BitString decodeBitString(ASN1Item item) {
-        ByteBuffer buffer = ByteBuffer.wrap(item.contents());
+        ByteBuffer buffer = item.contentsBuffer();
         int unusedBits = buffer.get() & 0xff;
-        byte[] data = new byte[item.contents().length - 1];
+        byte[] data = new byte[item.length - 1];
         buffer.get(data);
         return new BitString(unusedBits, data);
     }
 
     public static Instant decodeUTCTime(ASN1Item item) {
-        String utcTimeString = new String(item.contents(), StandardCharsets.UTF_8);
-        for (Pattern pattern :
-                UTC_DATE_PATTERNS) {
-            Matcher matcher = pattern.matcher(utcTimeString);
-            if(!matcher.matches()) {
-                continue;
-            }
+        return Instant.ofEpochSecond(decodeUTCTimeEpochSeconds(item));
+    }
 
-            /*
-            yymmddhhmmZ yymmddhhmmssZ yymmddhhmm+hhmm yymmddhhmm-hhmm yymmddhhmmss+hhmm yymmddhhmmss-hhmm
-             */
-            String date = matcher.group(1);
-            int year = nearestYearFor(Integer.parseInt(date.substring(0, 2)), ZonedDateTime.now(ZoneId.of("UTC")).getYear());
-            int month = Integer.parseInt(date.substring(2, 4));
-            int day = Integer.parseInt(date.substring(4, 6));
-            int hour = Integer.parseInt(date.substring(6, 8));
-            int minute = Integer.parseInt(date.substring(8, 10));
-            int second;
-            if(date.length() >= 12) {
-                second = Integer.parseInt(date.substring(10, 12));
-            } else {
-                second = 0;
+    public static Instant decodeGeneralizedTime(ASN1Item item) {
+        return Instant.ofEpochSecond(decodeGeneralizedTimeEpochSeconds(item), generalizedTimeFractionNanos(item));
+    }
+
+    /**
+     * Decode a UTCTime or GeneralizedTime item, as used by the validity of a certificate.
+     *
+     * @param item The time item.
+     * @return The decoded time.
+     */
+    public static Instant decodeTime(ASN1Item item) {
+        return switch (item.type()) {
+            case UTCTime -> decodeUTCTime(item);
+            case GeneralizedTime -> decodeGeneralizedTime(item);
+            default -> throw new RuntimeException("Expected UTCTime or GeneralizedTime. Instead found a: " + item.type().name());
+        };
+    }
+
+    /**
+     * Decode a UTCTime or GeneralizedTime item straight from its content octets.
+     *
+     * @param item The time item.
+     * @return The decoded time in seconds since the epoch. Fractions of a second are dropped.
+     */
+    public static long decodeTimeEpochSeconds(ASN1Item item) {
+        return switch (item.type()) {
+            case UTCTime -> decodeUTCTimeEpochSeconds(item);
+            case GeneralizedTime -> decodeGeneralizedTimeEpochSeconds(item);
+            default -> throw new RuntimeException("Expected UTCTime or GeneralizedTime. Instead found a: " + item.type().name());
+        };
+    }
+
+    /**
+     * Decode a UTCTime in one of the forms yymmddhhmm[ss]Z or yymmddhhmm[ss](+|-)hhmm. Two digit years of 50 and up
+     * are 19yy and the rest are 20yy, as in RFC 5280.
+     *
+     * @param item The UTCTime item.
+     * @return The decoded time in seconds since the epoch.
+     */
+    public static long decodeUTCTimeEpochSeconds(ASN1Item item) {
+        int twoDigitYear = timeDigits(item, 0, 2);
+        int year = twoDigitYear >= UTC_TIME_PIVOT ? 1900 + twoDigitYear : 2000 + twoDigitYear;
+        return timeEpochSeconds(item, year, 2, false);
+    }
+
+    /**
+     * Decode a GeneralizedTime in the form yyyymmddhhmm[ss][.fff]Z or yyyymmddhhmm[ss][.fff](+|-)hhmm. Times without
+     * a zone are rejected, as their meaning depends on the local time of whoever encoded them.
+     *
+     * @param item The GeneralizedTime item.
+     * @return The decoded time in seconds since the epoch. Fractions of a second are dropped.
+     */
+    public static long decodeGeneralizedTimeEpochSeconds(ASN1Item item) {
+        int year = timeDigits(item, 0, 4);
+        return timeEpochSeconds(item, year, 4, true);
+    }
+
+    /**
+     * Scan the month, day, time and zone that follow the year of a time item.
+     */
+    private static long timeEpochSeconds(ASN1Item item, int year, int index, boolean allowFraction) {
+        int month = timeDigits(item, index, 2);
+        int day = timeDigits(item, index + 2, 2);
+        int hour = timeDigits(item, index + 4, 2);
+        int minute = timeDigits(item, index + 6, 2);
+        index += 8;
+
+        int second = 0;
+        if (index < item.length && isDigit(item.contentAt(index))) {
+            second = timeDigits(item, index, 2);
+            index += 2;
+        }
+
+        if (allowFraction && index < item.length && (item.contentAt(index) == '.' || item.contentAt(index) == ',')) {
+            index++;
+            int fractionStart = index;
+            while (index < item.length && isDigit(item.contentAt(index))) {
+                index++;
+            }
+            if (index == fractionStart) {
+                throw new RuntimeException("Cannot parse TIME. Fraction of a second has no digits at: " + fractionStart);
             }
+        }
 
-            ZonedDateTime zonedDateTime;
-            if(matcher.groupCount() == 2) {
-                String offset = matcher.group(2);
-                int offsetHour = Integer.parseInt(offset.substring(0, 2));
-                int offsetMinute = Integer.parseInt(offset.substring(2, 4));
-                ZoneOffset offsetObj = ZoneOffset.ofHoursMinutes(offsetHour, offsetMinute);
-                ZoneId zoneID = ZoneId.ofOffset("UTC", offsetObj);
-                zonedDateTime = ZonedDateTime.of(year, month, day, hour, minute, second, 0, zoneID);
-            } else {
-                ZoneId zoneID = ZoneId.of("UTC");
-                zonedDateTime = ZonedDateTime.of(year, month, day, hour, minute, second, 0, zoneID);
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23 || minute > 59 || second > 59) {
+            throw new RuntimeException("Cannot parse TIME. Field out of range: " + year + "-" + month + "-" + day + " " + hour + ":" + minute + ":" + second);
+        }
+
+        if (index >= item.length) {
+            throw new RuntimeException("Cannot parse TIME. Missing time zone.");
+        }
+
+        int offsetSeconds;
+        byte zone = item.contentAt(index++);
+        if (zone == 'Z') {
+            offsetSeconds = 0;
+        } else if (zone == '+' || zone == '-') {
+            int offsetHour = timeDigits(item, index, 2);
+            int offsetMinute = timeDigits(item, index + 2, 2);
+            index += 4;
+            if (offsetHour > 23 || offsetMinute > 59) {
+                throw new RuntimeException("Cannot parse TIME. Offset out of range: " + offsetHour + ":" + offsetMinute);
             }
+            offsetSeconds = (offsetHour * 3600 + offsetMinute * 60) * (zone == '-' ? -1 : 1);
+        } else {
+            throw new RuntimeException("Cannot parse TIME. Unexpected time zone character: " + (char) zone);
+        }
+
+        if (index != item.length) {
+            throw new RuntimeException("Cannot parse TIME. Unexpected trailing octets at: " + index);
+        }
+
+        return epochDay(year, month, day) * 86400L + hour * 3600L + minute * 60L + second - offsetSeconds;
+    }
+
+    /**
+     * @return The fraction of a second of a GeneralizedTime in nanoseconds. Digits past nanosecond precision are dropped.
+     */
+    private static int generalizedTimeFractionNanos(ASN1Item item) {
+        int index = 12;
+        if (index < item.length && isDigit(item.contentAt(index))) {
+            index += 2;
+        }
+        if (index >= item.length || (item.contentAt(index) != '.' && item.contentAt(index) != ',')) {
+            return 0;
+        }
 
-            return zonedDateTime.toInstant();
+        int nanos = 0;
+        int scale = 100_000_000;
+        for (index++; index < item.length && isDigit(item.contentAt(index)); index++) {
+            nanos += (item.contentAt(index) - '0') * scale;
+            scale /= 10;
+        }
+        return nanos;
+    }
 
+    private static int timeDigits(ASN1Item item, int index, int count) {
+        if (index + count > item.length) {
+            throw new RuntimeException("Cannot parse TIME. Expected " + count + " digits at: " + index);
+        }
+        int value = 0;
+        for (int i = index; i < index + count; i++) {
+            byte digit = item.contentAt(i);
+            if (!isDigit(digit)) {
+                throw new RuntimeException("Cannot parse TIME. Expected a digit at: " + i);
+            }
+            value = value * 10 + (digit - '0');
         }
-        throw new RuntimeException("Cannot parse TIME: " + utcTimeString);
+        return value;
+    }
+
+    private static boolean isDigit(byte octet) {
+        return octet >= '0' && octet <= '9';
+    }
+
+    private static int daysInMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    /**
+     * Days since 1970-01-01 for a date in the proleptic Gregorian calendar.
+     *
+     * @see <a href="https://howardhinnant.github.io/date_algorithms.html#days_from_civil">days_from_civil</a>
+     */
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
     }
 
     public static int nearestYearFor(int twoDigitYear, int currentYear) {
@@ -178,48 +435,76 @@ public class DERDecodingUtils {
         return new BigInteger(item.contents());
     }
 
+    /**
+     * Decode an OID to its dotted string. Known OIDs are resolved from their encoded contents and return the constant
+     * {@link KnownOids#oid} string. Unknown OIDs are built once and then shared through {@link OIDStringCache}.
+     *
+     * @param item The OBJECT IDENTIFIER item.
+     * @return The dotted OID string.
+     */
     public static String decodeOID(ASN1Item item) {
-        ByteBuffer oidBuffer = ByteBuffer.wrap(item.contents());
-
-        // The first two nodes of the OID are encoded onto a single byte. The first node is multiplied by the
-        // decimal 40 and the result is added to the value of the second node.
-        byte firstByte = oidBuffer.get();
-        int arc1 = firstByte / 40;
-        int arc2 = firstByte % 40;
-
-        List<Long> nodes = new ArrayList<>();
-        nodes.add((long) arc1);
-        nodes.add((long) arc2);
-
-        while (oidBuffer.hasRemaining()) {
-            nodes.add(parseNextOIDNode(oidBuffer));
+        Optional<KnownOids> knownOid = KnownOids.forEncoded(item);
+        if (knownOid.isPresent()) {
+            return knownOid.get().oid;
         }
+        return OIDStringCache.shared().get(item.contents(), DERDecodingUtils::buildOID);
+    }
 
-        return nodes.stream().map(l -> Long.toString(l)).collect(Collectors.joining("."));
+    /**
+     * Resolve an OID without building its dotted string.
+     *
+     * @param item The OBJECT IDENTIFIER item.
+     * @return The known OID, or empty if it is not known.
+     */
+    public static Optional<KnownOids> decodeKnownOID(ASN1Item item) {
+        return KnownOids.forEncoded(item);
     }
 
-    private static long parseNextOIDNode(ByteBuffer oidBuffer) {
+    /**
+     * Build the dotted string of an encoded OID. Each arc is accumulated as a primitive long, 7 bits per octet.
+     *
+     * @param encoded The DER encoded contents of the OID.
+     * @return The dotted OID string.
+     */
+    public static String buildOID(byte[] encoded) {
+        if (encoded.length == 0) {
+            throw new RuntimeException("Cannot decode OID. No content octets.");
+        }
 
-        // Pull up to 6 bytes of 7-bit data. (8-bits minus a "More" bit)
-        ByteBuffer buffer = ByteBuffer.allocate(6);
-        while (true) {
-            if (!buffer.hasRemaining()) {
-                throw new RuntimeException("Cannot decode OID. Integer overflow. According to RFC 4181, an OID can only have 4 bytes per digit.");
+        StringBuilder oid = new StringBuilder(encoded.length * 3);
+        boolean firstArc = true;
+        long arc = 0;
+        int arcOctets = 0;
+        for (byte octet : encoded) {
+            // An arc is limited to 9 octets of 7-bit data so that it fits in a signed long.
+            if (++arcOctets > 9) {
+                throw new RuntimeException("Cannot decode OID. Integer overflow. Arc is longer than 9 octets.");
+            }
+            arc = (arc << 7) | (octet & 0b0111_1111);
+            if (DERNumberUtils.moreBit(octet)) {
+                continue;
             }
 
-            byte nextByte = oidBuffer.get();
-            buffer.put((byte) (nextByte & 0b0111_1111));
-
-            // Keep pulling bytes until we don't get a "more" bit.
-            if (!DERNumberUtils.moreBit(nextByte)) {
-                break;
+            if (firstArc) {
+                // The first two arcs are encoded together as (arc1 * 40) + arc2. Only arc1 = 2 can have an arc2 of 40
+                // and up.
+                int arc1 = arc < 40 ? 0 : arc < 80 ? 1 : 2;
+                oid.append(arc1).append('.').append(arc - arc1 * 40L);
+                firstArc = false;
+            } else {
+                oid.append('.').append(arc);
             }
+            arc = 0;
+            arcOctets = 0;
+        }
+
+        if (arcOctets != 0) {
+            throw new RuntimeException("Cannot decode OID. Last arc is missing its final octet.");
         }
-        buffer.flip();
-        return DERNumberUtils.oidNumberForBytes(buffer.array(), 0, buffer.remaining()).longValueExact();
+        return oid.toString();
     }
 
-    private static ASN1Set parseNextSet(int start, ByteBuffer buffer) {
+    private static ASN1Set parseNextSet(int start, int identifierLength, ByteBuffer buffer) {
         int bufferInitialPosition = buffer.position();
         final int length = parseNextLength(buffer).intValueExact();
 
@@ -236,8 +521,9 @@ public class DERDecodingUtils {
         }
 
         // Pull the byte data from the buffer for the sequence.
+        // The contents start after the identifier octets and the length octets
         int bytesRead = buffer.position() - bufferInitialPosition;
-        int startOfSetBytes = start + bytesRead;
+        int startOfSetBytes = start + identifierLength + bytesRead;
         byte[] setBytes = new byte[length];
         try {
             buffer.get(setBytes);
@@ -249,15 +535,14 @@ public class DERDecodingUtils {
         ByteBuffer setBuffer = ByteBuffer.wrap(setBytes);
         Set<ASN1Item> asn1Itemset = new HashSet<>();
         while (setBuffer.hasRemaining()) {
-            int position = startOfSetBytes + setBuffer.position();
-            asn1Itemset.add(parseNextASN1(position, setBuffer));
+            asn1Itemset.add(parseNextASN1(startOfSetBytes, setBuffer));
         }
 
         // Return the sequence
         return new ASN1Set(length, start, asn1Itemset, setBytes);
     }
 
-    private static ASN1Sequence parseNextSequence(int start, ByteBuffer buffer) {
+    private static ASN1Sequence parseNextSequence(int start, int identifierLength, ByteBuffer buffer) {
         final int startBufferPosition = buffer.position();
         final int length = parseNextLength(buffer).intValueExact();
 
@@ -274,7 +559,8 @@ public class DERDecodingUtils {
         }
 
         // Pull the byte data from the buffer for the sequence.
-        int positionOfSequenceBytesStart = start + (buffer.position() - startBufferPosition);
+        // The contents start after the identifier octets and the length octets
+        int positionOfSequenceBytesStart = start + identifierLength + (buffer.position() - startBufferPosition);
         byte[] sequenceBytes = new byte[length];
         try {
             buffer.get(sequenceBytes);
@@ -286,8 +572,7 @@ public class DERDecodingUtils {
         ByteBuffer sequenceBuffer = ByteBuffer.wrap(sequenceBytes);
         List<ASN1Item> asn1ItemList = new ArrayList<>();
         while (sequenceBuffer.hasRemaining()) {
-            int itemStartIndex = positionOfSequenceBytesStart + sequenceBuffer.position();
-            asn1ItemList.add(parseNextASN1(itemStartIndex, sequenceBuffer));
+            asn1ItemList.add(parseNextASN1(positionOfSequenceBytesStart, sequenceBuffer));
         }
 
         // Return the sequence
@@ -299,6 +584,9 @@ public class DERDecodingUtils {
 
         final BigInteger length;
         if (lengthOctet.longForm()) {
+            if (lengthOctet.lengthOctets() == 0) {
+                throw new RuntimeException("Indefinite lengths are not allowed in DER. At: " + (buffer.position() - 1));
+            }
             if(lengthOctet.lengthOctets() > buffer.remaining()) {
                 throw new RuntimeException("Byte buffer does not have " + lengthOctet.lengthOctets() + " bytes remaining. Instead it has: " + buffer.remaining());
             }
@@ -312,23 +600,33 @@ public class DERDecodingUtils {
         return length;
     }
 
+    /**
+     * Read the identifier octets of the next item. The first octet is decoded with a single table lookup, and tag numbers
+     * of 31 and up are read from the following base 128 octets.
+     *
+     * @param buffer The buffer to read from. Its position is moved past the identifier octets.
+     * @return The identifier.
+     */
     public static ASN1Identifier nextIdentifierFrom(ByteBuffer buffer) {
-        byte firstByte = buffer.get();
-
-        // First two bits is the tag class
-        ASN1Identifier.TagClass tagClass = ASN1Identifier.TagClass.forValue((firstByte >> 6) & 0b00000011);
-
-        // The third bit is the PC flag
-        int primitiveConstructed = (firstByte >> 5) & FIVE_BIT_MASK;
-
-        // The last 5 bits is the tag type
-        int tagType = firstByte & FIVE_BIT_MASK;
+        int firstOctet = buffer.get() & 0xff;
+        ASN1Identifier identifier = ASN1Identifier.forOctet(firstOctet);
+        if (!identifier.isHighTagNumber()) {
+            return identifier;
+        }
 
-        return new ASN1Identifier(
-                tagClass,
-                primitiveConstructed == 0,
-                ASN1TagType.fromOrdinal(tagType)
-        );
+        // Tag numbers of 31 and up follow 7 bits at a time with a "more" bit. (Limited to 4 octets to fit an int)
+        int tagNumber = 0;
+        for (int octets = 0; ; octets++) {
+            if (octets == 4) {
+                throw new RuntimeException("Cannot decode tag number. More than 4 octets.");
+            }
+            byte nextByte = buffer.get();
+            tagNumber = (tagNumber << 7) | (nextByte & 0b0111_1111);
+            if (!DERNumberUtils.moreBit(nextByte)) {
+                break;
+            }
+        }
+        return ASN1Identifier.forHighTagNumber(firstOctet, tagNumber);
     }
 
     public static ASN1LengthOctet readLengthOctet(ByteBuffer buffer) {
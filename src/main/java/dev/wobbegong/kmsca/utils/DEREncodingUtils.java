@@ -1,98 +1,192 @@
 package dev.wobbegong.kmsca.utils;
 
 import dev.wobbegong.kmsca.entities.BitString;
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Set;
-import org.bouncycastle.util.Arrays;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
+/**
+ * Encodes ASN.1 items to DER in two passes. The first pass computes the encoded length of every node, caching it on
+ * sequences and sets. The second pass writes the identifier, length and content octets of each node straight into a
+ * single buffer that is already the right size.
+ */
 public class DEREncodingUtils {
-    public static byte[] lengthFor(int length) {
-        if (length <= 127) {
-            return new byte[]{(byte) length};
-        } else {
-            BigInteger lengthBigInt = BigInteger.valueOf(length);
-            byte[] value = lengthBigInt.toByteArray();
-            byte valueBytes = (byte) (0b1000_0000 | value.length);
-
-            return Arrays.concatenate(new byte[]{valueBytes}, value);
-        }
 
+    /**
+     * Encode a length with the minimum number of octets. Lengths of 128 and up use the long form, a count of length
+     * octets followed by the big-endian length without leading zeros.
+     */
+    public static byte[] lengthFor(int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(lengthOctetsFor(length));
+        writeLength(length, buffer);
+        return buffer.array();
     }
 
-    public static byte[] encodeItem(ASN1Item item) {
-        // Re-encode sequences and sets using their contents
-        if (item instanceof ASN1Sequence asn1Sequence) {
-            return encodeSequence(asn1Sequence);
+    /**
+     * @return The number of octets {@link #lengthFor(int)} encodes a length with.
+     */
+    public static int lengthOctetsFor(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Cannot encode a negative length: " + length);
         }
+        if (length <= 127) {
+            return 1;
+        }
+        return 1 + (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 7) / 8;
+    }
 
-        if (item instanceof ASN1Set asn1Set) {
-            return encodeSet(asn1Set);
+    /**
+     * @return The number of identifier octets of an identifier. Tag numbers of 31 and up are written 7 bits per octet
+     * after the first.
+     */
+    public static int identifierLength(ASN1Identifier identifier) {
+        int tagNumber = identifier.tagNumber();
+        if (tagNumber < ASN1Identifier.HIGH_TAG_NUMBER) {
+            return 1;
         }
+        return 1 + (Integer.SIZE - Integer.numberOfLeadingZeros(tagNumber) + 6) / 7;
+    }
 
-        // All other items follow the same pattern
-        byte[] length = lengthFor(item.length);
-        ByteBuffer buffer = ByteBuffer.allocate(item.length + length.length + 1);
-        buffer.put((byte) item.type().ordinal);
-        buffer.put(length);
-        buffer.put(item.contents());
-        throw new RuntimeException("Not Yet Implemented");
+    /**
+     * @param item The item to encode.
+     * @return The number of octets the DER encoding of the item takes, including its identifier and length octets.
+     */
+    public static int encodedLength(ASN1Item item) {
+        int contentsLength = contentsLengthOf(item);
+        return Math.addExact(identifierLength(item.identifier()) + lengthOctetsFor(contentsLength), contentsLength);
     }
 
-    private static byte[] encodeSet(ASN1Set asn1Set) {
+    /**
+     * @param items The items to encode one after another.
+     * @return The total number of octets of their DER encodings.
+     */
+    public static int encodedLength(Collection<? extends ASN1Item> items) {
+        int length = 0;
+        for (ASN1Item item : items) {
+            length = Math.addExact(length, encodedLength(item));
+        }
+        return length;
+    }
 
-        // Encode underlying items
-        List<byte[]> items = asn1Set.asn1ItemList.stream().map(DEREncodingUtils::encodeItem).toList();
+    public static byte[] encodeItem(ASN1Item item) {
+        byte[] encoded = new byte[encodedLength(item)];
+        writeItem(item, ByteBuffer.wrap(encoded));
+        return encoded;
+    }
 
-        // Calculate the total length of the contents
-        int contentsLength = items.stream().mapToInt(b -> b.length).sum();
-        byte type = (byte) asn1Set.type().ordinal;
-        byte[] length = lengthFor(contentsLength);
-        int totalDEREncodedLength = contentsLength + length.length + 1;
+    /**
+     * Encode an item into a caller supplied buffer, such as a reused direct buffer, starting at its position.
+     *
+     * @param item   The item to encode.
+     * @param target The buffer to write to. Its position is advanced past the encoding.
+     * @return The target buffer.
+     * @throws BufferOverflowException If the buffer has less than {@link #encodedLength(ASN1Item)} octets remaining.
+     *                                 Nothing is written in that case.
+     */
+    public static ByteBuffer encodeInto(ASN1Item item, ByteBuffer target) {
+        if (target.remaining() < encodedLength(item)) {
+            throw new BufferOverflowException();
+        }
+        writeItem(item, target);
+        return target;
+    }
 
-        // Load every item into a buffer.
-        ByteBuffer bb = ByteBuffer.allocate(totalDEREncodedLength);
-        bb.put(type);
-        bb.put(length);
-        items.forEach(bb::put);
+    public static byte[] encodeSequenceContents(List<ASN1Item> asn1ItemList) {
+        byte[] encoded = new byte[encodedLength(asn1ItemList)];
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        for (ASN1Item item : asn1ItemList) {
+            writeItem(item, buffer);
+        }
+        return encoded;
+    }
 
-        return bb.array();
+    private static int contentsLengthOf(ASN1Item item) {
+        if (item instanceof ASN1Sequence sequence) {
+            return sequence.encodedContentsLength();
+        }
+        if (item instanceof ASN1Set set) {
+            return set.encodedContentsLength();
+        }
+        return item.length;
     }
 
-    private static byte[] encodeSequence(ASN1Sequence sequence) {
+    /**
+     * Write pass. Lengths come from the cached length pass, so nothing is encoded twice except the members of sets
+     * that need sorting.
+     */
+    private static void writeItem(ASN1Item item, ByteBuffer target) {
+        writeIdentifier(item.identifier(), target);
+        writeLength(contentsLengthOf(item), target);
 
+        if (item instanceof ASN1Sequence sequence && sequence.isExpanded()) {
+            for (ASN1Item child : sequence.asn1ItemList()) {
+                writeItem(child, target);
+            }
+        } else if (item instanceof ASN1Set set && set.isExpanded()) {
+            writeSetContents(set, target);
+        } else if (item.isView()) {
+            target.put(item.contentsBuffer());
+        } else {
+            target.put(item.contents());
+        }
+    }
 
-        // Calculate the total length of the contents
-        byte type = (byte) sequence.type().ordinal;
-        byte[] contents = encodeSequenceContents(sequence.asn1ItemList);
-        int contentsLength = contents.length;
-        byte[] length = lengthFor(contentsLength);
-        int totalDEREncodedLength = contentsLength + length.length + 1;
+    /**
+     * DER orders the members of a set by their encodings, compared as unsigned octet strings with shorter encodings
+     * padded with trailing zeros (X.690 11.6).
+     */
+    private static void writeSetContents(ASN1Set set, ByteBuffer target) {
+        Set<ASN1Item> items = set.asn1ItemList();
+        if (items.size() < 2) {
+            for (ASN1Item item : items) {
+                writeItem(item, target);
+            }
+            return;
+        }
 
-        // Load every item into a buffer.
-        ByteBuffer bb = ByteBuffer.allocate(totalDEREncodedLength);
-        bb.put(type);
-        bb.put(length);
-        bb.put(contents);
-        return bb.array();
+        byte[][] encodings = new byte[items.size()][];
+        int index = 0;
+        for (ASN1Item item : items) {
+            encodings[index++] = encodeItem(item);
+        }
+        Arrays.sort(encodings, java.util.Arrays::compareUnsigned);
+        for (byte[] encoding : encodings) {
+            target.put(encoding);
+        }
     }
 
-    public static byte[] encodeSequenceContents(List<ASN1Item> asn1ItemList) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        asn1ItemList.forEach(item -> {
-            try {
-                baos.write(encodeItem(item));
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    private static void writeIdentifier(ASN1Identifier identifier, ByteBuffer target) {
+        target.put((byte) identifier.firstOctet());
+        int tagNumber = identifier.tagNumber();
+        if (tagNumber >= ASN1Identifier.HIGH_TAG_NUMBER) {
+            for (int shift = (identifierLength(identifier) - 2) * 7; shift > 0; shift -= 7) {
+                target.put((byte) (0b1000_0000 | (tagNumber >>> shift) & 0b0111_1111));
             }
-        });
-        return baos.toByteArray();
+            target.put((byte) (tagNumber & 0b0111_1111));
+        }
+    }
+
+    private static void writeLength(int length, ByteBuffer target) {
+        int octets = lengthOctetsFor(length);
+        if (octets == 1) {
+            target.put((byte) length);
+            return;
+        }
+        target.put((byte) (0b1000_0000 | (octets - 1)));
+        for (int shift = (octets - 2) * 8; shift >= 0; shift -= 8) {
+            target.put((byte) (length >>> shift));
+        }
     }
 
     public static byte[] encodeBitString(BitString bitString) {
@@ -103,27 +197,25 @@ public class DEREncodingUtils {
         return buffer.array();
     }
 
+    /**
+     * @return The contents of an INTEGER: the minimal two's complement encoding, as
+     * {@link dev.wobbegong.kmsca.io.DERWriter#integer(BigInteger)} writes. A positive value whose top bit is set keeps
+     * its leading 0x00, without which it would read as negative.
+     */
     public static byte[] encodeInteger(BigInteger integer) {
-        byte[] value = integer.toByteArray();
-        if (value[0] == 0) {
-            value = Arrays.copyOfRange(value, 1, value.length);
-        }
-        return value;
+        return integer.toByteArray();
     }
 
     public static byte[] encodeOID(String oid) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
         // Split the OID into its arc values
-        List<Long> values = java.util.Arrays.stream(oid.split("\\.")).map(Long::parseLong).toList();
+        List<Long> values = Arrays.stream(oid.split("\\.")).map(Long::parseLong).toList();
 
-        // First two values are encoded together as a single byte. 2 bit first value, 6 bit second value.
+        // First two values are encoded together as a single arc of (arc1 * 40) + arc2.
         long arc1 = values.get(0);
         long arc2 = values.get(1);
-
-        // Encode the first two values as the first byte
-        byte firstByte = (byte) (arc1 * 40 + arc2);
-        baos.write(firstByte);
+        baos.writeBytes(encodeOIDArc(arc1 * 40 + arc2));
 
         // Starting at the third item, encode each value
         for (int i = 2; i < values.size(); i++) {
@@ -153,7 +245,8 @@ public class DEREncodingUtils {
 
         // Extract 7 digit values from the arc into an InputBuffer from right to left
         int inOffset = 0;
-        byte[] buffer = new byte[6];
+        // A positive long holds up to 63 bits, which is 9 octets of 7-bit data.
+        byte[] buffer = new byte[9];
         long value = arc;
         while(value != 0) {
             // Encode the lowest 7 bits of the value
@@ -0,0 +1,367 @@
+package dev.wobbegong.kmsca.utils;
+
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.pkcs1.ECPublicKey;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Named elliptic curves and the points on them.
+ *
+ * <p>The domain parameters of every named prime curve the JCA knows are resolved once, into an immutable map shared by
+ * all threads, so decoding a key never looks a curve up again. Binary curves are not supported: RFC 5480 does not
+ * require them and the CA/Browser Forum does not allow them.</p>
+ *
+ * <p>JCA keys are costly to build, so the keys converted by {@link #jcaPublicKey(ECPublicKey)} are kept in a bounded,
+ * least recently used cache keyed by curve and encoded point. Issuer keys are converted again for every certificate they
+ * signed.</p>
+ */
+public class ECCurveUtils {
+
+    public static final int KEY_CACHE_CAPACITY = 1024;
+
+    private static final Map<KnownOids, NamedCurve> CURVES = resolveCurves();
+
+    private static final Map<CachedKey, java.security.interfaces.ECPublicKey> JCA_KEYS = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CachedKey, java.security.interfaces.ECPublicKey> eldest) {
+            return size() > KEY_CACHE_CAPACITY;
+        }
+    };
+
+    private static final ThreadLocal<KeyFactory> KEY_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyFactory.getInstance("EC");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Could not get instance of EC key factory.", e);
+        }
+    });
+
+    /**
+     * @param curve The OID of a named curve.
+     * @return True if keys on the curve can be decoded.
+     */
+    public static boolean isSupported(KnownOids curve) {
+        return CURVES.containsKey(curve);
+    }
+
+    /**
+     * @param curve The OID of a named curve.
+     * @return The shared domain parameters of the curve.
+     * @throws X509CertException If the curve is not supported.
+     */
+    public static ECPublicKey.ECParameters parametersFor(KnownOids curve) throws X509CertException {
+        return curveFor(curve).parameters;
+    }
+
+    /**
+     * Decode a public key from the octets of its subjectPublicKey BIT STRING.
+     *
+     * @param curve   The OID of the named curve.
+     * @param encoded The point, uncompressed or compressed (SEC 1 2.3.3).
+     * @return The key.
+     * @throws X509CertException If the curve is not supported or the point is not on it.
+     */
+    public static ECPublicKey decodePublicKey(KnownOids curve, byte[] encoded) throws X509CertException {
+        NamedCurve namedCurve = curveFor(curve);
+        return new ECPublicKey(curve, decodePoint(namedCurve, encoded), namedCurve.parameters);
+    }
+
+    /**
+     * Decode a point, uncompressed or compressed (SEC 1 2.3.4). The point is checked to be on the curve, and compressed
+     * points are decompressed.
+     *
+     * @param curve   The OID of the named curve.
+     * @param encoded The encoded point.
+     * @return The point.
+     * @throws X509CertException If the curve is not supported or the point is not on it.
+     */
+    public static ECPublicKey.ECPoint decodePoint(KnownOids curve, byte[] encoded) throws X509CertException {
+        return decodePoint(curveFor(curve), encoded);
+    }
+
+    /**
+     * Encode a point compressed: the parity of y followed by x (SEC 1 2.3.3).
+     *
+     * @param curve The OID of the named curve.
+     * @param point The point.
+     * @return The compressed point.
+     * @throws X509CertException If the curve is not supported.
+     */
+    public static byte[] compressPoint(KnownOids curve, ECPublicKey.ECPoint point) throws X509CertException {
+        int fieldLength = curveFor(curve).fieldLength;
+        byte[] encoded = new byte[1 + fieldLength];
+        encoded[0] = (byte) (point.y().testBit(0) ? 0x03 : 0x02);
+        writeUnsigned(point.x(), encoded, 1, fieldLength);
+        return encoded;
+    }
+
+    /**
+     * Encode a point uncompressed: 0x04 followed by x and y (SEC 1 2.3.3).
+     *
+     * @param curve The OID of the named curve.
+     * @param point The point.
+     * @return The uncompressed point.
+     * @throws X509CertException If the curve is not supported.
+     */
+    public static byte[] encodePoint(KnownOids curve, ECPublicKey.ECPoint point) throws X509CertException {
+        int fieldLength = curveFor(curve).fieldLength;
+        byte[] encoded = new byte[1 + 2 * fieldLength];
+        encoded[0] = 0x04;
+        writeUnsigned(point.x(), encoded, 1, fieldLength);
+        writeUnsigned(point.y(), encoded, 1 + fieldLength, fieldLength);
+        return encoded;
+    }
+
+    /**
+     * Convert a key to a JCA key. Keys are cached, so converting the same key again returns the same instance.
+     *
+     * @param publicKey The key.
+     * @return The JCA key.
+     * @throws X509CertException If the curve is not supported or the JCA rejects the key.
+     */
+    public static java.security.interfaces.ECPublicKey jcaPublicKey(ECPublicKey publicKey) throws X509CertException {
+        CachedKey key = new CachedKey(publicKey.curve(), ByteBuffer.wrap(encodePoint(publicKey.curve(), publicKey.w())));
+        java.security.interfaces.ECPublicKey cached = cached(key);
+        return cached != null ? cached : convert(key, publicKey);
+    }
+
+    /**
+     * Convert an encoded key to a JCA key. The cache is keyed by the encoded point, so a cached key is returned without
+     * decoding the point again.
+     *
+     * @param curve   The OID of the named curve.
+     * @param encoded The encoded point, uncompressed or compressed.
+     * @return The JCA key.
+     * @throws X509CertException If the curve is not supported or the point is not on it.
+     */
+    public static java.security.interfaces.ECPublicKey jcaPublicKey(KnownOids curve, byte[] encoded) throws X509CertException {
+        CachedKey key = new CachedKey(curve, ByteBuffer.wrap(encoded));
+        java.security.interfaces.ECPublicKey cached = cached(key);
+        if (cached != null) {
+            return cached;
+        }
+        ECPublicKey publicKey = decodePublicKey(curve, encoded);
+        return convert(new CachedKey(curve, ByteBuffer.wrap(encoded.clone())), publicKey);
+    }
+
+    private static java.security.interfaces.ECPublicKey cached(CachedKey key) {
+        synchronized (JCA_KEYS) {
+            return JCA_KEYS.get(key);
+        }
+    }
+
+    private static java.security.interfaces.ECPublicKey convert(CachedKey key, ECPublicKey publicKey) throws X509CertException {
+        // Convert outside the lock. A racing conversion of the same key keeps whichever key was cached first.
+        NamedCurve namedCurve = curveFor(publicKey.curve());
+        java.security.interfaces.ECPublicKey converted;
+        try {
+            java.security.spec.ECPoint w = new java.security.spec.ECPoint(publicKey.w().x(), publicKey.w().y());
+            converted = (java.security.interfaces.ECPublicKey) KEY_FACTORY.get().generatePublic(new ECPublicKeySpec(w, namedCurve.spec));
+        } catch (InvalidKeySpecException e) {
+            throw new X509CertException("Malformed EC public key on " + publicKey.curve().name() + ".", e);
+        }
+        synchronized (JCA_KEYS) {
+            java.security.interfaces.ECPublicKey cached = JCA_KEYS.putIfAbsent(key, converted);
+            return cached == null ? converted : cached;
+        }
+    }
+
+    private static ECPublicKey.ECPoint decodePoint(NamedCurve curve, byte[] encoded) throws X509CertException {
+        int fieldLength = curve.fieldLength;
+        if (encoded.length == 0) {
+            throw new X509CertException("EC point is empty.");
+        }
+        return switch (encoded[0]) {
+            case 0x04 -> {
+                if (encoded.length != 1 + 2 * fieldLength) {
+                    throw new X509CertException("Uncompressed EC point must be " + (1 + 2 * fieldLength) + " octets. Actual: " + encoded.length);
+                }
+                BigInteger x = new BigInteger(1, encoded, 1, fieldLength);
+                BigInteger y = new BigInteger(1, encoded, 1 + fieldLength, fieldLength);
+                if (x.compareTo(curve.p) >= 0 || y.compareTo(curve.p) >= 0 || !curve.isOnCurve(x, y)) {
+                    throw new X509CertException("EC point is not on " + curve.oid.name() + ".");
+                }
+                yield new ECPublicKey.ECPoint(x, y);
+            }
+            case 0x02, 0x03 -> {
+                if (encoded.length != 1 + fieldLength) {
+                    throw new X509CertException("Compressed EC point must be " + (1 + fieldLength) + " octets. Actual: " + encoded.length);
+                }
+                BigInteger x = new BigInteger(1, encoded, 1, fieldLength);
+                if (x.compareTo(curve.p) >= 0) {
+                    throw new X509CertException("EC point is not on " + curve.oid.name() + ".");
+                }
+                BigInteger y = curve.sqrt(curve.rightHandSide(x));
+                if (y == null) {
+                    throw new X509CertException("EC point is not on " + curve.oid.name() + ".");
+                }
+                if (y.testBit(0) != (encoded[0] == 0x03)) {
+                    y = curve.p.subtract(y).mod(curve.p);
+                }
+                yield new ECPublicKey.ECPoint(x, y);
+            }
+            case 0x00 -> throw new X509CertException("EC public key must not be the point at infinity.");
+            default -> throw new X509CertException("Unknown EC point format: " + encoded[0]);
+        };
+    }
+
+    private static NamedCurve curveFor(KnownOids curve) throws X509CertException {
+        NamedCurve namedCurve = CURVES.get(curve);
+        if (namedCurve == null) {
+            throw new X509CertException("Unsupported curve: " + curve.name() + " - " + curve.desc);
+        }
+        return namedCurve;
+    }
+
+    private static void writeUnsigned(BigInteger value, byte[] destination, int offset, int length) {
+        byte[] bytes = value.toByteArray();
+        int skip = bytes.length > length ? bytes.length - length : 0;
+        System.arraycopy(bytes, skip, destination, offset + length - (bytes.length - skip), bytes.length - skip);
+    }
+
+    private static Map<KnownOids, NamedCurve> resolveCurves() {
+        Map<KnownOids, NamedCurve> curves = new EnumMap<>(KnownOids.class);
+        for (KnownOids oid : KnownOids.values()) {
+            if (!oid.oid.startsWith("1.2.840.10045.3.1.") && !oid.oid.startsWith("1.3.132.0.")) {
+                continue;
+            }
+            try {
+                AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+                parameters.init(new ECGenParameterSpec(oid.oid));
+                ECParameterSpec spec = parameters.getParameterSpec(ECParameterSpec.class);
+                if (spec.getCurve().getField() instanceof ECFieldFp) {
+                    curves.put(oid, new NamedCurve(oid, spec));
+                }
+            } catch (GeneralSecurityException e) {
+                // Curves the JCA does not know cannot be converted to JCA keys, so they are not supported
+            }
+        }
+        return Collections.unmodifiableMap(curves);
+    }
+
+    /**
+     * A named prime curve, with everything needed to decompress points precomputed.
+     */
+    private static final class NamedCurve {
+        private final KnownOids oid;
+        private final ECParameterSpec spec;
+        private final ECPublicKey.ECParameters parameters;
+        private final int fieldLength;
+        private final BigInteger p;
+        private final BigInteger a;
+        private final BigInteger b;
+
+        /*
+         * Square roots mod p. When p = 3 mod 4, as for P-256, P-384 and P-521, the root is a single exponentiation.
+         * Otherwise Tonelli-Shanks is used with p - 1 = q * 2^s and a non-residue z.
+         */
+        private final BigInteger sqrtExponent;
+        private final BigInteger q;
+        private final int s;
+        private final BigInteger zq;
+
+        private NamedCurve(KnownOids oid, ECParameterSpec spec) {
+            this.oid = oid;
+            this.spec = spec;
+            this.p = ((ECFieldFp) spec.getCurve().getField()).getP();
+            this.a = spec.getCurve().getA();
+            this.b = spec.getCurve().getB();
+            this.fieldLength = (p.bitLength() + 7) / 8;
+            this.parameters = new ECPublicKey.ECParameters(p, a, b,
+                    new ECPublicKey.ECPoint(spec.getGenerator().getAffineX(), spec.getGenerator().getAffineY()),
+                    spec.getOrder(), BigInteger.valueOf(spec.getCofactor()));
+
+            if (p.testBit(1)) {
+                this.sqrtExponent = p.add(BigInteger.ONE).shiftRight(2);
+                this.q = null;
+                this.s = 0;
+                this.zq = null;
+            } else {
+                BigInteger pMinusOne = p.subtract(BigInteger.ONE);
+                this.sqrtExponent = null;
+                this.s = pMinusOne.getLowestSetBit();
+                this.q = pMinusOne.shiftRight(s);
+                BigInteger z = BigInteger.TWO;
+                BigInteger legendreExponent = pMinusOne.shiftRight(1);
+                while (!z.modPow(legendreExponent, p).equals(pMinusOne)) {
+                    z = z.add(BigInteger.ONE);
+                }
+                this.zq = z.modPow(q, p);
+            }
+        }
+
+        /**
+         * @return True if y^2 = x^3 + ax + b mod p. The difference is reduced once, as division dominates the check.
+         */
+        private boolean isOnCurve(BigInteger x, BigInteger y) {
+            return y.multiply(y).subtract(x.multiply(x).add(a).multiply(x).add(b)).mod(p).signum() == 0;
+        }
+
+        /**
+         * @return x^3 + ax + b mod p
+         */
+        private BigInteger rightHandSide(BigInteger x) {
+            return x.multiply(x).add(a).multiply(x).add(b).mod(p);
+        }
+
+        /**
+         * @return A square root of n mod p, or null if n is not a square.
+         */
+        private BigInteger sqrt(BigInteger n) {
+            BigInteger root = sqrtExponent != null ? n.modPow(sqrtExponent, p) : tonelliShanks(n);
+            return root != null && root.multiply(root).mod(p).equals(n) ? root : null;
+        }
+
+        private BigInteger tonelliShanks(BigInteger n) {
+            if (n.signum() == 0) {
+                return n;
+            }
+            int m = s;
+            BigInteger c = zq;
+            BigInteger t = n.modPow(q, p);
+            BigInteger root = n.modPow(q.add(BigInteger.ONE).shiftRight(1), p);
+            while (!t.equals(BigInteger.ONE)) {
+                int i = 0;
+                BigInteger t2i = t;
+                while (!t2i.equals(BigInteger.ONE)) {
+                    t2i = t2i.multiply(t2i).mod(p);
+                    if (++i == m) {
+                        return null;
+                    }
+                }
+                BigInteger b = c;
+                for (int j = 0; j < m - i - 1; j++) {
+                    b = b.multiply(b).mod(p);
+                }
+                m = i;
+                c = b.multiply(b).mod(p);
+                t = t.multiply(c).mod(p);
+                root = root.multiply(b).mod(p);
+            }
+            return root;
+        }
+    }
+
+    /**
+     * @param point The encoded point. Wrapped arrays are never written to, so the buffer compares by content.
+     */
+    private record CachedKey(KnownOids curve, ByteBuffer point) {
+
+    }
+}
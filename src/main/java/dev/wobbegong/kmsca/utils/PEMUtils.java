@@ -2,11 +2,13 @@ package dev.wobbegong.kmsca.utils;
 
 import dev.wobbegong.kmsca.entities.PEMObject;
 import dev.wobbegong.kmsca.exceptions.PEMFormatException;
+import dev.wobbegong.kmsca.io.PEMStreamReader;
+import dev.wobbegong.kmsca.io.PEMWriter;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
-import java.nio.CharBuffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
@@ -120,16 +122,24 @@ public class PEMUtils {
     }
 
     /**
-     * Read a PEM object from String data.
+     * Read a PEM object from String data. Accepts the same input as {@link #parsePEMs(BufferedReader)}, but reads it
+     * with a {@link PEMStreamReader}.
      * @param pem The PEM file as string data.
      * @return A "PEM
      */
     public static List<PEMObject> parsePEMBytes(String pem) throws PEMFormatException {
-        try(StringReader sr = new StringReader(pem); BufferedReader br = new BufferedReader(sr)) {
-            return parsePEMs(br);
+        // Characters outside of Latin-1 become '?', which is not valid in a PEM tag or in Base64 either way
+        PEMStreamReader reader = new PEMStreamReader(ByteBuffer.wrap(pem.getBytes(StandardCharsets.ISO_8859_1)));
+        List<PEMObject> pems = new ArrayList<>();
+        try {
+            PEMObject nextPEM;
+            while ((nextPEM = reader.next()) != null) {
+                pems.add(nextPEM);
+            }
         } catch (IOException e) {
-            throw new RuntimeException("Unexpected IO exception throw by StringReader.", e);
+            throw new RuntimeException("Unexpected IO exception reading from a buffer.", e);
         }
+        return pems;
     }
 
     /**
@@ -140,19 +150,17 @@ public class PEMUtils {
      * @return The PEM file as a string.
      */
     public static String pemFor(String type, byte[] encoded) {
-        String base64 = Base64.getEncoder().encodeToString(encoded);
-        CharBuffer buffer = CharBuffer.wrap(base64);
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("-----BEGIN ").append(type).append("-----").append(LINE_SEPARATOR);
-        while (buffer.hasRemaining()) {
-            char[] line = new char[Math.min(64, buffer.remaining())];
-            buffer.get(line);
-            sb.append(line);
-            sb.append(LINE_SEPARATOR);
-        }
-        sb.append("-----END ").append(type).append("-----").append(LINE_SEPARATOR);
-        return sb.toString();
+        return PEMWriter.DEFAULT.toPEM(type, encoded);
+    }
+
+    /**
+     * Generate one PEM String for several objects, such as a certificate chain.
+     *
+     * @param objects The objects, in order.
+     * @return The PEM file as a string.
+     */
+    public static String pemFor(List<PEMObject> objects) {
+        return PEMWriter.DEFAULT.toPEM(objects);
     }
 
 }
@@ -0,0 +1,200 @@
+package dev.wobbegong.kmsca.utils;
+
+import dev.wobbegong.kmsca.entities.CertificateSigningRequest;
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
+import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Set;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.exceptions.PEMFormatException;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses and verifies PKCS#10 certificate signing requests.
+ *
+ * <pre>
+ * CertificationRequest ::= SEQUENCE {
+ *      certificationRequestInfo CertificationRequestInfo,
+ *      signatureAlgorithm AlgorithmIdentifier,
+ *      signature          BIT STRING }
+ *
+ * CertificationRequestInfo ::= SEQUENCE {
+ *      version       INTEGER { v1(0) },
+ *      subject       Name,
+ *      subjectPKInfo SubjectPublicKeyInfo,
+ *      attributes    [0] IMPLICIT SET OF Attribute }
+ * </pre>
+ *
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc2986">RFC-2986</a>
+ */
+public class PKCS10Utils {
+
+    public static final String PEM_TYPE = "CERTIFICATE REQUEST";
+
+    /**
+     * Parse the first certificate request found in PEM data.
+     *
+     * @param pem PEM data holding a CERTIFICATE REQUEST.
+     * @return The parsed request. Its signature has not been verified.
+     * @throws PEMFormatException If there is no certificate request in the PEM data.
+     * @throws X509CertException  If the request is malformed.
+     */
+    public static CertificateSigningRequest fromPEM(String pem) throws PEMFormatException, X509CertException {
+        for (PEMObject pemObject : PEMUtils.parsePEMBytes(pem)) {
+            if (PEM_TYPE.equals(pemObject.type()) || "NEW CERTIFICATE REQUEST".equals(pemObject.type())) {
+                return fromDER(pemObject.content());
+            }
+        }
+        throw new PEMFormatException("No " + PEM_TYPE + " found in PEM data.");
+    }
+
+    /**
+     * Parse a DER encoded certificate request. The items are parsed as views of the array, and only the parts that
+     * are kept are copied out of it.
+     *
+     * @param der The DER encoding of the request.
+     * @return The parsed request. Its signature has not been verified.
+     * @throws X509CertException If the request is malformed.
+     */
+    public static CertificateSigningRequest fromDER(byte[] der) throws X509CertException {
+        try {
+            return parse(der);
+        } catch (RuntimeException e) {
+            throw new X509CertException("Malformed certificate request DER.", e);
+        }
+    }
+
+    private static CertificateSigningRequest parse(byte[] der) throws X509CertException {
+        ASN1Item root = DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der));
+        if (!(root instanceof ASN1Sequence request) || request.asn1ItemList().size() != 3) {
+            throw new X509CertException("Certificate request must be a sequence of 3 items.");
+        }
+        List<ASN1Item> requestItems = request.asn1ItemList();
+
+        if (!(requestItems.get(0) instanceof ASN1Sequence info) || info.asn1ItemList().size() < 3) {
+            throw new X509CertException("Missing certification request info sequence.");
+        }
+        List<ASN1Item> infoItems = info.asn1ItemList();
+
+        ASN1Item version = infoItems.get(0);
+        if (version.type() != ASN1TagType.INTEGER || DERDecodingUtils.decodeInteger(version).signum() != 0) {
+            throw new X509CertException("Only version 1 certificate requests are supported.");
+        }
+
+        if (!(infoItems.get(1) instanceof ASN1Sequence subject)) {
+            throw new X509CertException("Missing subject name sequence. Instead found a: " + infoItems.get(1).type().name());
+        }
+
+        // SubjectPublicKeyInfo ::= SEQUENCE { algorithm AlgorithmIdentifier, subjectPublicKey BIT STRING }
+        if (!(infoItems.get(2) instanceof ASN1Sequence subjectPublicKeyInfo)
+                || subjectPublicKeyInfo.asn1ItemList().size() != 2
+                || !(subjectPublicKeyInfo.asn1ItemList().get(0) instanceof ASN1Sequence keyAlgorithm)
+                || keyAlgorithm.asn1ItemList().isEmpty()
+                || subjectPublicKeyInfo.asn1ItemList().get(1).type() != ASN1TagType.BIT_STRING) {
+            throw new X509CertException("Missing subject public key info sequence.");
+        }
+        KnownOids publicKeyAlgorithm = knownOID(keyAlgorithm.asn1ItemList().get(0), "public key algorithm");
+
+        byte[] requestedSubjectAltName = null;
+        if (infoItems.size() > 3) {
+            requestedSubjectAltName = requestedSubjectAltName(infoItems.get(3));
+        }
+
+        if (!(requestItems.get(1) instanceof ASN1Sequence signatureAlgorithm) || signatureAlgorithm.asn1ItemList().isEmpty()) {
+            throw new X509CertException("Missing signature algorithm sequence.");
+        }
+        ASN1Item signature = requestItems.get(2);
+        if (signature.type() != ASN1TagType.BIT_STRING) {
+            throw new X509CertException("Expected BIT STRING signature. Instead found a: " + signature.type().name());
+        }
+
+        return new CertificateSigningRequest(
+                der,
+                encodingOf(der, info),
+                encodingOf(der, subject),
+                X500NameUtils.fromASN1Item(subject),
+                encodingOf(der, subjectPublicKeyInfo),
+                publicKeyAlgorithm,
+                knownOID(signatureAlgorithm.asn1ItemList().get(0), "signature algorithm"),
+                DERDecodingUtils.decodeBitString(signature).data(),
+                requestedSubjectAltName);
+    }
+
+    /**
+     * Check the self-signature of a request, which proves the requester holds the private key.
+     *
+     * @param csr The request.
+     * @throws X509CertException If the signature does not match the public key of the request.
+     */
+    public static void verify(CertificateSigningRequest csr) throws X509CertException {
+        var publicKey = SignatureUtils.publicKeyFor(csr.subjectPublicKeyInfo(), csr.publicKeyAlgorithm());
+        if (!SignatureUtils.verify(publicKey, csr.signatureAlgorithm(), csr.certificationRequestInfo(), csr.signature())) {
+            throw new X509CertException("Certificate request signature does not match its public key.");
+        }
+    }
+
+    /**
+     * @return The identifier, length and contents octets of an item viewed in the array.
+     */
+    static byte[] encodingOf(byte[] der, ASN1Item item) {
+        return Arrays.copyOfRange(der, item.start, item.contentsOffset() + item.length);
+    }
+
+    private static KnownOids knownOID(ASN1Item item, String what) throws X509CertException {
+        if (item.type() != ASN1TagType.OBJECT_IDENTIFIER) {
+            throw new X509CertException("Expected OID for " + what + ". Instead found a: " + item.type().name());
+        }
+        return DERDecodingUtils.decodeKnownOID(item)
+                .orElseThrow(() -> new X509CertException("Unknown " + what + " OID: " + DERDecodingUtils.decodeOID(item)));
+    }
+
+    /**
+     * Find a subject alternative name extension in the extension request attribute.
+     *
+     * <pre>
+     * Attribute ::= SEQUENCE { type OBJECT IDENTIFIER, values SET OF ANY }
+     * Extensions ::= SEQUENCE OF Extension
+     * Extension ::= SEQUENCE { extnID OBJECT IDENTIFIER, critical BOOLEAN DEFAULT FALSE, extnValue OCTET STRING }
+     * </pre>
+     */
+    private static byte[] requestedSubjectAltName(ASN1Item attributes) throws X509CertException {
+        ASN1Identifier identifier = attributes.identifier();
+        if (identifier.tagClass() != ASN1Identifier.TagClass.ContextSpecific || identifier.tagNumber() != 0) {
+            throw new X509CertException("Expected [0] attributes in certification request info.");
+        }
+
+        ByteBuffer attributeBuffer = attributes.contentsBuffer();
+        while (attributeBuffer.hasRemaining()) {
+            if (!(DERDecodingUtils.viewNextASN1(attributeBuffer) instanceof ASN1Sequence attribute)
+                    || attribute.asn1ItemList().size() != 2
+                    || !(attribute.asn1ItemList().get(1) instanceof ASN1Set values)) {
+                throw new X509CertException("Malformed certificate request attribute.");
+            }
+            if (DERDecodingUtils.decodeKnownOID(attribute.asn1ItemList().get(0)).orElse(null) != KnownOids.extensionRequest) {
+                continue;
+            }
+
+            for (ASN1Item extensions : values.asn1ItemList()) {
+                if (!(extensions instanceof ASN1Sequence extensionSequence)) {
+                    throw new X509CertException("Malformed extension request attribute.");
+                }
+                for (ASN1Item extension : extensionSequence.asn1ItemList()) {
+                    if (!(extension instanceof ASN1Sequence extensionItems) || extensionItems.asn1ItemList().size() < 2) {
+                        throw new X509CertException("Malformed requested extension.");
+                    }
+                    List<ASN1Item> items = extensionItems.asn1ItemList();
+                    if (DERDecodingUtils.decodeKnownOID(items.get(0)).orElse(null) == KnownOids.subjectAltName) {
+                        return items.get(items.size() - 1).contents();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,351 @@
+package dev.wobbegong.kmsca.utils;
+
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Maps X.509 signature algorithms to the JCA and signs and verifies with them. {@link Signature} and
+ * {@link MessageDigest} instances are costly to look up, so one is kept per algorithm per thread and re-initialised for
+ * every use.
+ *
+ * <p>Only verifiers are kept. A {@link Signature} stays initialised with the last key it was given, and a kept signer
+ * would leave private keys reachable from every thread that signed with them, long after a cache such as
+ * {@link dev.wobbegong.kmsca.keys.DataKeyCache} has let them go. Signing takes a new instance instead, which costs far
+ * less than the signature itself.</p>
+ */
+public class SignatureUtils {
+
+    private static final ThreadLocal<Map<String, Signature>> SIGNATURES = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, KeyFactory>> KEY_FACTORIES = ThreadLocal.withInitial(HashMap::new);
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    /*
+     * The DER encoding of a DigestInfo up to the digest octets, for each hash (RFC 8017 9.2 note 1). A PKCS#1 v1.5
+     * signature over a precomputed digest signs the prefix followed by the digest.
+     */
+    private static final byte[] SHA1_DIGEST_INFO = HEX.parseHex("3021300906052b0e03021a05000414");
+    private static final byte[] SHA224_DIGEST_INFO = HEX.parseHex("302d300d06096086480165030402040500041c");
+    private static final byte[] SHA256_DIGEST_INFO = HEX.parseHex("3031300d060960864801650304020105000420");
+    private static final byte[] SHA384_DIGEST_INFO = HEX.parseHex("3041300d060960864801650304020205000430");
+    private static final byte[] SHA512_DIGEST_INFO = HEX.parseHex("3051300d060960864801650304020305000440");
+
+    /**
+     * @param signatureAlgorithm An X.509 signature algorithm.
+     * @return The JCA name of the algorithm.
+     * @throws X509CertException If the algorithm is not supported.
+     */
+    public static String jcaSignatureName(KnownOids signatureAlgorithm) throws X509CertException {
+        return switch (signatureAlgorithm) {
+            case sha1_with_rsa_signature -> "SHA1withRSA";
+            case sha224WithRSAEncryption -> "SHA224withRSA";
+            case sha256WithRSAEncryption -> "SHA256withRSA";
+            case sha384WithRSAEncryption -> "SHA384withRSA";
+            case sha512WithRSAEncryption -> "SHA512withRSA";
+            case ecdsa_with_SHA1 -> "SHA1withECDSA";
+            case ecdsa_with_SHA224 -> "SHA224withECDSA";
+            case ecdsa_with_SHA256 -> "SHA256withECDSA";
+            case ecdsa_with_SHA384 -> "SHA384withECDSA";
+            case ecdsa_with_SHA512 -> "SHA512withECDSA";
+            default -> throw new X509CertException("Unsupported signature algorithm: " + signatureAlgorithm.name() + " - " + signatureAlgorithm.desc);
+        };
+    }
+
+    /**
+     * @param keyAlgorithm The algorithm of a subject public key.
+     * @return The JCA name of the key algorithm.
+     * @throws X509CertException If the algorithm is not supported.
+     */
+    public static String jcaKeyAlgorithm(KnownOids keyAlgorithm) throws X509CertException {
+        return switch (keyAlgorithm) {
+            case rsaEncryption -> "RSA";
+            case ecPublicKey -> "EC";
+            case dsa -> "DSA";
+            default -> throw new X509CertException("Unsupported public key algorithm: " + keyAlgorithm.name() + " - " + keyAlgorithm.desc);
+        };
+    }
+
+    /**
+     * @param signatureAlgorithm An X.509 signature algorithm.
+     * @return The JCA name of the hash the algorithm signs.
+     */
+    public static String digestAlgorithm(KnownOids signatureAlgorithm) {
+        return switch (signatureAlgorithm) {
+            case sha1_with_rsa_signature, ecdsa_with_SHA1 -> "SHA-1";
+            case sha224WithRSAEncryption, ecdsa_with_SHA224 -> "SHA-224";
+            case sha256WithRSAEncryption, ecdsa_with_SHA256 -> "SHA-256";
+            case sha384WithRSAEncryption, ecdsa_with_SHA384 -> "SHA-384";
+            case sha512WithRSAEncryption, ecdsa_with_SHA512 -> "SHA-512";
+            default -> throw new IllegalArgumentException("Unsupported signature algorithm: " + signatureAlgorithm.name());
+        };
+    }
+
+    /**
+     * @param signatureAlgorithm An X.509 signature algorithm.
+     * @return The length in bytes of the hash the algorithm signs.
+     */
+    public static int digestLength(KnownOids signatureAlgorithm) {
+        return switch (digestAlgorithm(signatureAlgorithm)) {
+            case "SHA-1" -> 20;
+            case "SHA-224" -> 28;
+            case "SHA-256" -> 32;
+            case "SHA-384" -> 48;
+            default -> 64;
+        };
+    }
+
+    /**
+     * Hash data with a cached {@link MessageDigest}.
+     *
+     * @param signatureAlgorithm The X.509 signature algorithm the digest will be signed with.
+     * @param data               The data to hash, from its position to its limit. The position is advanced to the
+     *                           limit.
+     * @return The digest.
+     */
+    public static byte[] digest(KnownOids signatureAlgorithm, ByteBuffer data) {
+        MessageDigest digest = messageDigest(signatureAlgorithm);
+        digest.update(data);
+        return digest.digest();
+    }
+
+    /**
+     * Get the cached {@link MessageDigest} of the calling thread, to hash data that arrives in parts. The digest is
+     * reset, and must be finished before the thread hashes anything else with this class.
+     *
+     * @param signatureAlgorithm The X.509 signature algorithm the digest will be signed with.
+     * @return The digest.
+     */
+    public static MessageDigest messageDigest(KnownOids signatureAlgorithm) {
+        String algorithm = digestAlgorithm(signatureAlgorithm);
+        Map<String, MessageDigest> digests = DIGESTS.get();
+        MessageDigest digest = digests.get(algorithm);
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Could not get instance of " + algorithm + ".", e);
+            }
+            digests.put(algorithm, digest);
+        } else {
+            digest.reset();
+        }
+        return digest;
+    }
+
+    /**
+     * RSA PKCS#1 v1.5 algorithm identifiers carry an explicit NULL parameter. ECDSA identifiers have no parameters
+     * (RFC 5758 3.2).
+     *
+     * @param signatureAlgorithm An X.509 signature algorithm.
+     * @return True if the algorithm identifier has NULL parameters.
+     */
+    public static boolean hasNullParameters(KnownOids signatureAlgorithm) {
+        return switch (signatureAlgorithm) {
+            case sha1_with_rsa_signature, sha224WithRSAEncryption, sha256WithRSAEncryption, sha384WithRSAEncryption,
+                    sha512WithRSAEncryption -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Pick the signature algorithm for a key: SHA-256 with RSA, or ECDSA with a hash matching the size of the curve.
+     *
+     * @param key A signing key, or its public key.
+     * @return The signature algorithm.
+     */
+    public static KnownOids signatureAlgorithmFor(Key key) {
+        return switch (key.getAlgorithm()) {
+            case "RSA" -> KnownOids.sha256WithRSAEncryption;
+            case "EC" -> {
+                int fieldSize = ((ECKey) key).getParams().getCurve().getField().getFieldSize();
+                yield fieldSize <= 256 ? KnownOids.ecdsa_with_SHA256 : fieldSize <= 384 ? KnownOids.ecdsa_with_SHA384 : KnownOids.ecdsa_with_SHA512;
+            }
+            default -> throw new IllegalArgumentException("Unsupported signing key algorithm: " + key.getAlgorithm());
+        };
+    }
+
+    /**
+     * Sign data with a new {@link Signature}, so that the private key is not kept by the thread.
+     *
+     * @param privateKey         The signing key.
+     * @param signatureAlgorithm The X.509 signature algorithm.
+     * @param data               The data to sign, from its position to its limit. The position is advanced to the
+     *                           limit.
+     * @return The signature, in the encoding X.509 uses for the algorithm.
+     */
+    public static byte[] sign(PrivateKey privateKey, KnownOids signatureAlgorithm, ByteBuffer data) {
+        try {
+            Signature signature = newSignature(jcaSignatureName(signatureAlgorithm));
+            signature.initSign(privateKey);
+            signature.update(data);
+            return signature.sign();
+        } catch (X509CertException | InvalidKeyException | SignatureException e) {
+            throw new RuntimeException("Could not sign using " + signatureAlgorithm.name() + ".", e);
+        }
+    }
+
+    /**
+     * Sign a precomputed digest with a new {@link Signature}, giving the same signature as signing the data the
+     * digest was made from.
+     *
+     * @param privateKey         The signing key.
+     * @param signatureAlgorithm The X.509 signature algorithm.
+     * @param digest             The digest, made with {@link #digestAlgorithm(KnownOids)}.
+     * @return The signature, in the encoding X.509 uses for the algorithm.
+     */
+    public static byte[] signDigest(PrivateKey privateKey, KnownOids signatureAlgorithm, byte[] digest) {
+        if (digest.length != digestLength(signatureAlgorithm)) {
+            throw new IllegalArgumentException("Expected a " + digestLength(signatureAlgorithm) + " byte digest for " + signatureAlgorithm.name() + " but got " + digest.length + " bytes.");
+        }
+
+        byte[] digestInfo = switch (signatureAlgorithm) {
+            case sha1_with_rsa_signature -> SHA1_DIGEST_INFO;
+            case sha224WithRSAEncryption -> SHA224_DIGEST_INFO;
+            case sha256WithRSAEncryption -> SHA256_DIGEST_INFO;
+            case sha384WithRSAEncryption -> SHA384_DIGEST_INFO;
+            case sha512WithRSAEncryption -> SHA512_DIGEST_INFO;
+            default -> null;
+        };
+        try {
+            // NONEwithRSA pads whatever it is given, so it is given the DigestInfo. NONEwithECDSA signs the digest.
+            Signature signature = newSignature(digestInfo != null ? "NONEwithRSA" : "NONEwithECDSA");
+            signature.initSign(privateKey);
+            if (digestInfo != null) {
+                signature.update(digestInfo);
+            }
+            signature.update(digest);
+            return signature.sign();
+        } catch (InvalidKeyException | SignatureException e) {
+            throw new RuntimeException("Could not sign digest using " + signatureAlgorithm.name() + ".", e);
+        }
+    }
+
+    /**
+     * Verify a signature with a cached {@link Signature}.
+     *
+     * @param publicKey          The key of the signer.
+     * @param signatureAlgorithm The X.509 signature algorithm.
+     * @param data               The signed data.
+     * @param signature          The signature.
+     * @return True if the signature is valid.
+     * @throws X509CertException If the algorithm is not supported or the key cannot be used with it.
+     */
+    public static boolean verify(PublicKey publicKey, KnownOids signatureAlgorithm, byte[] data, byte[] signature) throws X509CertException {
+        return verify(publicKey, signatureAlgorithm, ByteBuffer.wrap(data), signature, 0, signature.length);
+    }
+
+    /**
+     * Verify a signature with a cached {@link Signature}, reading the signed data in place.
+     *
+     * @param publicKey          The key of the signer.
+     * @param signatureAlgorithm The X.509 signature algorithm.
+     * @param data               The signed data, from its position to its limit. The position is advanced to the
+     *                           limit.
+     * @param signature          The array holding the signature.
+     * @param offset             The index of the first octet of the signature.
+     * @param length             The length of the signature.
+     * @return True if the signature is valid.
+     * @throws X509CertException If the algorithm is not supported or the key cannot be used with it.
+     */
+    public static boolean verify(PublicKey publicKey, KnownOids signatureAlgorithm, ByteBuffer data, byte[] signature, int offset, int length) throws X509CertException {
+        Signature verifier = verifier(publicKey, signatureAlgorithm);
+        try {
+            verifier.update(data);
+            return verifier.verify(signature, offset, length);
+        } catch (SignatureException e) {
+            // Thrown for signatures that are not even well-formed
+            return false;
+        }
+    }
+
+    /**
+     * Get a new {@link Signature}, ready to verify data that arrives in parts, such as a CRL read from a stream. It is
+     * not shared with the rest of the thread, so the verification may take as long as the data does.
+     *
+     * @param publicKey          The key of the signer.
+     * @param signatureAlgorithm The X.509 signature algorithm.
+     * @return The signature, initialised for verification.
+     * @throws X509CertException If the algorithm is not supported or the key cannot be used with it.
+     */
+    public static Signature newVerifier(PublicKey publicKey, KnownOids signatureAlgorithm) throws X509CertException {
+        return initVerify(newSignature(jcaSignatureName(signatureAlgorithm)), publicKey, signatureAlgorithm);
+    }
+
+    /**
+     * @return The cached {@link Signature} of the calling thread, initialised for verification.
+     */
+    private static Signature verifier(PublicKey publicKey, KnownOids signatureAlgorithm) throws X509CertException {
+        return initVerify(signatureFor(jcaSignatureName(signatureAlgorithm)), publicKey, signatureAlgorithm);
+    }
+
+    private static Signature initVerify(Signature verifier, PublicKey publicKey, KnownOids signatureAlgorithm) throws X509CertException {
+        try {
+            verifier.initVerify(publicKey);
+        } catch (InvalidKeyException e) {
+            throw new X509CertException("Public key cannot verify " + signatureAlgorithm.name() + " signatures.", e);
+        }
+        return verifier;
+    }
+
+    /**
+     * @param subjectPublicKeyInfo The DER encoding of a subject public key info.
+     * @param keyAlgorithm         The algorithm of the key.
+     * @return The JCA public key.
+     * @throws X509CertException If the algorithm is not supported or the key is malformed.
+     */
+    public static PublicKey publicKeyFor(byte[] subjectPublicKeyInfo, KnownOids keyAlgorithm) throws X509CertException {
+        String algorithm = jcaKeyAlgorithm(keyAlgorithm);
+        try {
+            KeyFactory keyFactory = KEY_FACTORIES.get().get(algorithm);
+            if (keyFactory == null) {
+                keyFactory = KeyFactory.getInstance(algorithm);
+                KEY_FACTORIES.get().put(algorithm, keyFactory);
+            }
+            return keyFactory.generatePublic(new X509EncodedKeySpec(subjectPublicKeyInfo));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Could not get instance of " + algorithm + " key factory.", e);
+        } catch (InvalidKeySpecException e) {
+            throw new X509CertException("Malformed " + algorithm + " public key.", e);
+        }
+    }
+
+    /**
+     * @return The verifier kept by the calling thread for the algorithm. Never initialised with a private key.
+     */
+    private static Signature signatureFor(String jcaName) {
+        Map<String, Signature> signatures = SIGNATURES.get();
+        Signature signature = signatures.get(jcaName);
+        if (signature == null) {
+            signature = newSignature(jcaName);
+            signatures.put(jcaName, signature);
+        }
+        return signature;
+    }
+
+    private static Signature newSignature(String jcaName) {
+        try {
+            return Signature.getInstance(jcaName);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Could not get instance of " + jcaName + " signature.", e);
+        }
+    }
+}
@@ -6,29 +6,91 @@ import dev.wobbegong.kmsca.entities.asn1.charsets.PrintableStringCharset;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Set;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
 import dev.wobbegong.kmsca.entities.pkcs12.X500Name;
 import dev.wobbegong.kmsca.exceptions.X509CertException;
+import org.bouncycastle.util.encoders.Hex;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class X500NameUtils {
+
+    private static final Charset UTF_32BE = Charset.forName("UTF-32BE");
+
+    /**
+     * The RFC 4514 short names of the attribute types they are defined for.
+     */
+    private static final Map<String, String> SHORT_NAMES = Map.of(
+            KnownOids.commonName.oid, "CN",
+            KnownOids.localityName.oid, "L",
+            KnownOids.stateOrProvinceName.oid, "ST",
+            KnownOids.organizationName.oid, "O",
+            KnownOids.organizationUnitName.oid, "OU",
+            KnownOids.countryName.oid, "C",
+            KnownOids.streetAddress.oid, "STREET",
+            "0.9.2342.19200300.100.1.25", "DC",
+            "0.9.2342.19200300.100.1.1", "UID");
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * @param der The DER encoding of a name.
+     * @return The name. The array is kept by the name, so it must not be modified afterwards.
+     * @throws X509CertException If the data is not exactly one name.
+     */
+    public static X500Name fromDER(byte[] der) throws X509CertException {
+        ByteBuffer buffer = ByteBuffer.wrap(der);
+        ASN1Item item;
+        try {
+            item = DERDecodingUtils.viewNextASN1(buffer);
+        } catch (RuntimeException e) {
+            throw new X509CertException("Malformed X500Name.", e);
+        }
+        if (!(item instanceof ASN1Sequence sequence) || buffer.hasRemaining()) {
+            throw new X509CertException("Expected exactly one X500Name sequence.");
+        }
+        return fromASN1Item(sequence, der);
+    }
+
     public static X500Name fromASN1Item(ASN1Sequence asn1Sequence) throws X509CertException {
-        Map<String, String> names = new HashMap<>();
-        for (int i = 0; i < asn1Sequence.asn1ItemList.size(); i++) {
-            ASN1Item item = asn1Sequence.asn1ItemList.get(i);
+        ByteBuffer encodedBuffer = asn1Sequence.encodedBuffer();
+        byte[] encoded = new byte[encodedBuffer.remaining()];
+        encodedBuffer.get(encoded);
+        return fromASN1Item(asn1Sequence, encoded);
+    }
+
+    private static X500Name fromASN1Item(ASN1Sequence asn1Sequence, byte[] encoded) throws X509CertException {
+        List<X500Name.RelativeDistinguishedName> rdns = new ArrayList<>(asn1Sequence.asn1ItemList().size());
+        for (int i = 0; i < asn1Sequence.asn1ItemList().size(); i++) {
+            ASN1Item item = asn1Sequence.asn1ItemList().get(i);
             if (!(item instanceof ASN1Set set)) {
                 throw new X509CertException("Unexpected item in X500Name sequence. Instead found a: " + item.type().name());
             }
+            if (set.asn1ItemList().isEmpty()) {
+                throw new X509CertException("Empty relative distinguished name in X500Name sequence.");
+            }
 
-            for (var setItem : set.asn1ItemList) {
+            List<X500Name.AttributeTypeAndValue> attributes = new ArrayList<>(set.asn1ItemList().size());
+            for (var setItem : set.asn1ItemList()) {
                 if (!(setItem instanceof ASN1Sequence sequence2)) {
-                    throw new X509CertException("Unexpected item in X500Name set. Instead found a: " + item.type().name());
+                    throw new X509CertException("Unexpected item in X500Name set. Instead found a: " + setItem.type().name());
+                }
+                if (sequence2.asn1ItemList().size() != 2) {
+                    throw new X509CertException("Expected two items in X500Name attribute. Instead found: " + sequence2.asn1ItemList().size());
                 }
 
-                ASN1Item oid = sequence2.asn1ItemList.get(0);
-                ASN1Item value = sequence2.asn1ItemList.get(1);
+                ASN1Item oid = sequence2.asn1ItemList().get(0);
+                ASN1Item value = sequence2.asn1ItemList().get(1);
 
                 final String oidString;
                 if (oid.type() != ASN1TagType.OBJECT_IDENTIFIER) {
@@ -37,20 +99,198 @@ public class X500NameUtils {
                     oidString = DERDecodingUtils.decodeOID(oid);
                 }
 
-                final String valueString;
-                if (value.type() == ASN1TagType.IA5String) {
-                    valueString = new String(value.contents(), IA5Charset.singleton());
-                } else if (value.type() == ASN1TagType.UTF8_STRING) {
-                    valueString = new String(value.contents(), StandardCharsets.UTF_8);
-                } else if(value.type() == ASN1TagType.PRINTABLE_STRING) {
-                    valueString = new String(value.contents(), PrintableStringCharset.singleton());
+                attributes.add(new X500Name.AttributeTypeAndValue(oidString, value.type(), valueString(value)));
+            }
+            rdns.add(new X500Name.RelativeDistinguishedName(attributes));
+        }
+        return new X500Name(encoded, rdns);
+    }
+
+    /**
+     * @return The text of a string value, or the {@code #} and hex form of the encoding of any other value.
+     */
+    private static String valueString(ASN1Item value) {
+        Charset charset = charsetOf(value.type());
+        if (charset == null) {
+            return "#" + Hex.toHexString(DEREncodingUtils.encodeItem(value));
+        }
+        return new String(value.contents(), charset);
+    }
+
+    /**
+     * @return The charset of a string type, or null if the type is not a string. TeletexString is read as Latin-1, as
+     * other implementations do.
+     */
+    private static Charset charsetOf(ASN1TagType type) {
+        return switch (type) {
+            case UTF8_STRING -> StandardCharsets.UTF_8;
+            case PRINTABLE_STRING -> PrintableStringCharset.singleton();
+            case IA5String -> IA5Charset.singleton();
+            case NUMERIC_STRING, VisibleString -> StandardCharsets.US_ASCII;
+            case T61_STRING -> StandardCharsets.ISO_8859_1;
+            case BMPString -> StandardCharsets.UTF_16BE;
+            case UniversalString -> UTF_32BE;
+            default -> null;
+        };
+    }
+
+    /**
+     * Build the canonical form names are compared by. Each RDN is its attribute count and then its attributes, sorted
+     * when there are several, and each attribute is its OID and prepared value, all length prefixed so no two
+     * different names encode the same.
+     *
+     * @param rdns The relative distinguished names of a name.
+     * @return The canonical form.
+     */
+    public static byte[] canonicalEncoding(List<X500Name.RelativeDistinguishedName> rdns) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        for (X500Name.RelativeDistinguishedName rdn : rdns) {
+            List<X500Name.AttributeTypeAndValue> attributes = rdn.attributes();
+            writeLength(out, attributes.size());
+            if (attributes.size() == 1) {
+                writeAttribute(out, attributes.get(0));
+                continue;
+            }
+            // A multi-valued RDN is a SET, so its attributes compare in any order
+            byte[][] encodedAttributes = new byte[attributes.size()][];
+            for (int i = 0; i < encodedAttributes.length; i++) {
+                ByteArrayOutputStream attributeOut = new ByteArrayOutputStream(32);
+                writeAttribute(attributeOut, attributes.get(i));
+                encodedAttributes[i] = attributeOut.toByteArray();
+            }
+            Arrays.sort(encodedAttributes, Arrays::compare);
+            for (byte[] encodedAttribute : encodedAttributes) {
+                out.writeBytes(encodedAttribute);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The 64-bit FNV-1a hash of a canonical form.
+     */
+    public static long canonicalHash(byte[] canonical) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : canonical) {
+            hash ^= b & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Prepare a string value for comparison, following RFC 4518 in the ways that matter for names in practice: the
+     * value is normalised to NFKC, case folded, and stripped of leading, trailing and repeated whitespace.
+     *
+     * @param value A string attribute value.
+     * @return The prepared value.
+     * @see <a href="https://datatracker.ietf.org/doc/html/rfc4518">RFC-4518</a>
+     */
+    public static String prepare(String value) {
+        // ASCII is already normalised, which saves the normaliser for nearly every name
+        String normalized = isASCII(value) ? value : Normalizer.normalize(value, Normalizer.Form.NFKC);
+        StringBuilder prepared = new StringBuilder(normalized.length());
+        boolean space = false;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                space = prepared.length() > 0;
+            } else {
+                if (space) {
+                    prepared.append(' ');
+                    space = false;
+                }
+                prepared.append(c);
+            }
+        }
+        return prepared.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isASCII(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The name as an RFC 4514 string, from the most specific RDN to the most general.
+     * @see <a href="https://datatracker.ietf.org/doc/html/rfc4514">RFC-4514</a>
+     */
+    public static String toRFC4514String(X500Name name) {
+        StringBuilder sb = new StringBuilder();
+        List<X500Name.RelativeDistinguishedName> rdns = name.rdns();
+        for (int i = rdns.size() - 1; i >= 0; i--) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            List<X500Name.AttributeTypeAndValue> attributes = rdns.get(i).attributes();
+            for (int j = 0; j < attributes.size(); j++) {
+                if (j > 0) {
+                    sb.append('+');
+                }
+                X500Name.AttributeTypeAndValue attribute = attributes.get(j);
+                sb.append(SHORT_NAMES.getOrDefault(attribute.oid(), attribute.oid())).append('=');
+                if (charsetOf(attribute.valueType()) == null) {
+                    sb.append(attribute.value());
                 } else {
-                    throw new X509CertException("Unknown value type: " + value.type().name());
+                    escape(sb, attribute.value());
                 }
+            }
+        }
+        return sb.toString();
+    }
 
-                names.put(oidString, valueString);
+    /**
+     * Escape a string value as RFC 4514 2.4 requires.
+     */
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == 0) {
+                sb.append("\\00");
+                continue;
             }
+            boolean escaped = switch (c) {
+                case '"', '+', ',', ';', '<', '>', '\\' -> true;
+                case '#' -> i == 0;
+                case ' ' -> i == 0 || i == value.length() - 1;
+                default -> false;
+            };
+            if (escaped) {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+    }
+
+    private static void writeAttribute(ByteArrayOutputStream out, X500Name.AttributeTypeAndValue attribute) {
+        writeString(out, attribute.oid());
+        // Values that are not strings start with '#', which a prepared string can also do, so mark which is which
+        boolean string = charsetOf(attribute.valueType()) != null;
+        out.write(string ? 1 : 0);
+        writeString(out, string ? prepare(attribute.value()) : attribute.value());
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeLength(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    /**
+     * Write a length as a base 128 number, most significant group first, with the high bit set on all but the last.
+     */
+    private static void writeLength(ByteArrayOutputStream out, int length) {
+        int shift = 28;
+        while (shift > 0 && (length >>> shift) == 0) {
+            shift -= 7;
+        }
+        for (; shift > 0; shift -= 7) {
+            out.write(0x80 | ((length >>> shift) & 0x7F));
         }
-        return new X500Name(names);
+        out.write(length & 0x7F);
     }
 }
@@ -0,0 +1,420 @@
+package dev.wobbegong.kmsca.utils;
+
+import dev.wobbegong.kmsca.entities.BitString;
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
+import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.pkcs12.AccessDescription;
+import dev.wobbegong.kmsca.entities.pkcs12.AuthorityKeyIdentifier;
+import dev.wobbegong.kmsca.entities.pkcs12.BasicConstraints;
+import dev.wobbegong.kmsca.entities.pkcs12.DistributionPoint;
+import dev.wobbegong.kmsca.entities.pkcs12.GeneralName;
+import dev.wobbegong.kmsca.entities.pkcs12.KeyUsage;
+import dev.wobbegong.kmsca.entities.pkcs12.NameConstraints;
+import dev.wobbegong.kmsca.entities.pkcs12.X500Name;
+import dev.wobbegong.kmsca.entities.pkcs12.X509Extension;
+import dev.wobbegong.kmsca.entities.pkcs12.X509Extensions;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decodes the values of certificate extensions. {@link #fromASN1Item(ASN1Item)} only splits the extensions of a
+ * certificate apart, and {@link X509Extensions} calls the decoders here for each value when it is first read.
+ *
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc5280#section-4.2">RFC-5280 4.2</a>
+ */
+public class X509ExtensionUtils {
+
+    /**
+     * Split the extensions of a certificate apart without decoding their values.
+     *
+     * @param extensionsItem The [3] EXPLICIT item of the TBS certificate holding the Extensions sequence.
+     * @return The extensions.
+     * @throws X509CertException If the extensions are malformed or an extension appears twice.
+     */
+    public static X509Extensions fromASN1Item(ASN1Item extensionsItem) throws X509CertException {
+        try {
+            return extensionsIn(DERDecodingUtils.viewNextASN1(extensionsItem.contentsBuffer()));
+        } catch (RuntimeException e) {
+            // Views decode their members when they are listed, so the DER parser can fail anywhere below
+            throw new X509CertException("Malformed certificate extensions.", e);
+        }
+    }
+
+    private static X509Extensions extensionsIn(ASN1Item root) throws X509CertException {
+        List<ASN1Item> items = sequence(root, "certificate extensions").asn1ItemList();
+
+        List<X509Extension> extensions = new ArrayList<>(items.size());
+        Set<String> oids = new HashSet<>();
+        for (ASN1Item item : items) {
+            // Extension ::= SEQUENCE { extnID OBJECT IDENTIFIER, critical BOOLEAN DEFAULT FALSE, extnValue OCTET STRING }
+            List<ASN1Item> extensionItems = sequence(item, "certificate extension").asn1ItemList();
+            if (extensionItems.size() < 2 || extensionItems.size() > 3) {
+                throw new X509CertException("Expected 2 or 3 items in certificate extension. Instead found: " + extensionItems.size());
+            }
+
+            ASN1Item oidItem = extensionItems.get(0);
+            if (oidItem.type() != ASN1TagType.OBJECT_IDENTIFIER) {
+                throw new X509CertException("Expected OID as first item of certificate extension. Instead found a: " + oidItem.type().name());
+            }
+            String oid = DERDecodingUtils.decodeOID(oidItem);
+
+            boolean critical = false;
+            if (extensionItems.size() == 3) {
+                critical = decodeBoolean(extensionItems.get(1), "critical flag of extension " + oid);
+            }
+
+            ASN1Item valueItem = extensionItems.get(extensionItems.size() - 1);
+            if (valueItem.type() != ASN1TagType.OCTET_STRING) {
+                throw new X509CertException("Expected OCTET STRING value for extension " + oid + ". Instead found a: " + valueItem.type().name());
+            }
+
+            // A certificate must not include more than one instance of an extension (RFC 5280 4.2)
+            if (!oids.add(oid)) {
+                throw new X509CertException("Certificate has more than one " + oid + " extension.");
+            }
+            extensions.add(new X509Extension(oid, critical, valueItem.contents()));
+        }
+        return new X509Extensions(extensions);
+    }
+
+    /**
+     * GeneralNames ::= SEQUENCE SIZE (1..MAX) OF GeneralName. The value of the subject and issuer alternative name
+     * extensions.
+     *
+     * @param value The extension value.
+     * @return The names.
+     * @throws X509CertException If the value is malformed.
+     */
+    public static List<GeneralName> generalNames(byte[] value) throws X509CertException {
+        return decode(value, "general names", root -> generalNamesIn(sequence(root, "general names").contentsBuffer()));
+    }
+
+    /**
+     * KeyUsage ::= BIT STRING
+     *
+     * @param value The extension value.
+     * @return The bits that are set.
+     * @throws X509CertException If the value is malformed.
+     */
+    public static Set<KeyUsage> keyUsage(byte[] value) throws X509CertException {
+        return decode(value, "key usage", root -> {
+            if (root.type() != ASN1TagType.BIT_STRING) {
+                throw new X509CertException("Key usage is not a BIT STRING. Instead found a: " + root.type().name());
+            }
+            BitString bits = DERDecodingUtils.decodeBitString(root);
+            Set<KeyUsage> keyUsage = EnumSet.noneOf(KeyUsage.class);
+            for (KeyUsage usage : KeyUsage.values()) {
+                int octet = usage.bit / 8;
+                if (octet < bits.data().length && (bits.data()[octet] & (0x80 >>> (usage.bit % 8))) != 0) {
+                    keyUsage.add(usage);
+                }
+            }
+            return Collections.unmodifiableSet(keyUsage);
+        });
+    }
+
+    /**
+     * ExtKeyUsageSyntax ::= SEQUENCE SIZE (1..MAX) OF KeyPurposeId
+     *
+     * @param value The extension value.
+     * @return The dotted OIDs of the purposes.
+     * @throws X509CertException If the value is malformed.
+     */
+    public static List<String> extendedKeyUsage(byte[] value) throws X509CertException {
+        return decode(value, "extended key usage", root -> {
+            List<ASN1Item> items = sequence(root, "extended key usage").asn1ItemList();
+            List<String> purposes = new ArrayList<>(items.size());
+            for (ASN1Item item : items) {
+                if (item.type() != ASN1TagType.OBJECT_IDENTIFIER) {
+                    throw new X509CertException("Expected OID in extended key usage. Instead found a: " + item.type().name());
+                }
+                purposes.add(DERDecodingUtils.decodeOID(item));
+            }
+            return List.copyOf(purposes);
+        });
+    }
+
+    /**
+     * BasicConstraints ::= SEQUENCE { cA BOOLEAN DEFAULT FALSE, pathLenConstraint INTEGER (0..MAX) OPTIONAL }
+     *
+     * @param value The extension value.
+     * @return The basic constraints.
+     * @throws X509CertException If the value is malformed.
+     */
+    public static BasicConstraints basicConstraints(byte[] value) throws X509CertException {
+        return decode(value, "basic constraints", root -> {
+            boolean certificateAuthority = false;
+            int pathLength = BasicConstraints.UNLIMITED_PATH_LENGTH;
+            for (ASN1Item item : sequence(root, "basic constraints").asn1ItemList()) {
+                if (item.type() == ASN1TagType.BOOLEAN) {
+                    certificateAuthority = decodeBoolean(item, "basic constraints");
+                } else if (item.type() == ASN1TagType.INTEGER) {
+                    BigInteger length = DERDecodingUtils.decodeInteger(item);
+                    if (length.signum() < 0 || length.bitLength() > 31) {
+                        throw new X509CertException("Path length constraint is out of range: " + length);
+                    }
+                    pathLength = length.intValue();
+                } else {
+                    throw new X509CertException("Unexpected item in basic constraints. Instead found a: " + item.type().name());
+                }
+            }
+            return new BasicConstraints(certificateAuthority, pathLength);
+        });
+    }
+
+    /**
+     * SubjectKeyIdentifier ::= OCTET STRING
+     *
+     * @param value The extension value.
+     * @return The key identifier.
+     * @throws X509CertException If the value is malformed.
+     */
+    public static byte[] subjectKeyIdentifier(byte[] value) throws X509CertException {
+        return decode(value, "subject key identifier", root -> {
+            if (root.type() != ASN1TagType.OCTET_STRING) {
+                throw new X509CertException("Subject key identifier is not an OCTET STRING. Instead found a: " + root.type().name());
+            }
+            return root.contents();
+        });
+    }
+
+    /**
+     * AuthorityKeyIdentifier ::= SEQUENCE { keyIdentifier [0] IMPLICIT OCTET STRING OPTIONAL, authorityCertIssuer [1]
+     * IMPLICIT GeneralNames OPTIONAL, authorityCertSerialNumber [2] IMPLICIT INTEGER OPTIONAL }
+     *
+     * @param value The extension value.
+     * @return The authority key identifier.
+     * @throws X509CertException If the value is malformed.
+     */
+    public static AuthorityKeyIdentifier authorityKeyIdentifier(byte[] value) throws X509CertException {
+        return decode(value, "authority key identifier", root -> {
+            byte[] keyIdentifier = null;
+            List<GeneralName> issuer = List.of();
+            BigInteger serialNumber = null;
+            for (ASN1Item item : sequence(root, "authority key identifier").asn1ItemList()) {
+                switch (contextTag(item, "authority key identifier")) {
+                    case 0 -> keyIdentifier = item.contents();
+                    case 1 -> issuer = generalNamesIn(item.contentsBuffer());
+                    case 2 -> serialNumber = DERDecodingUtils.decodeInteger(item);
+                    default -> throw new X509CertException("Unexpected [" + item.identifier().tagNumber() + "] item in authority key identifier.");
+                }
+            }
+            return new AuthorityKeyIdentifier(keyIdentifier, issuer, serialNumber);
+        });
+    }
+
+    /**
+     * CRLDistributionPoints ::= SEQUENCE SIZE (1..MAX) OF DistributionPoint
+     *
+     * <pre>
+     * DistributionPoint ::= SEQUENCE {
+     *     distributionPoint       [0]     DistributionPointName OPTIONAL,
+     *     reasons                 [1]     ReasonFlags OPTIONAL,
+     *     cRLIssuer               [2]     GeneralNames OPTIONAL }
+     *
+     * DistributionPointName ::= CHOICE {
+     *     fullName                [0]     GeneralNames,
+     *     nameRelativeToCRLIssuer [1]     RelativeDistinguishedName }
+     * </pre>
+     *
+     * @param value The extension value.
+     * @return The distribution points.
+     * @throws X509CertException If the value is malformed.
+     */
+    public static List<DistributionPoint> crlDistributionPoints(byte[] value) throws X509CertException {
+        return decode(value, "CRL distribution points", root -> {
+            List<ASN1Item> items = sequence(root, "CRL distribution points").asn1ItemList();
+            List<DistributionPoint> points = new ArrayList<>(items.size());
+            for (ASN1Item pointItem : items) {
+                List<GeneralName> fullName = List.of();
+                BitString reasons = null;
+                List<GeneralName> crlIssuer = List.of();
+                for (ASN1Item item : sequence(pointItem, "distribution point").asn1ItemList()) {
+                    switch (contextTag(item, "distribution point")) {
+                        case 0 -> {
+                            // DistributionPointName is a CHOICE, so its [0] tag is explicit
+                            ASN1Item name = DERDecodingUtils.viewNextASN1(item.contentsBuffer());
+                            if (contextTag(name, "distribution point name") == 0) {
+                                fullName = generalNamesIn(name.contentsBuffer());
+                            }
+                        }
+                        case 1 -> reasons = DERDecodingUtils.decodeBitString(item);
+                        case 2 -> crlIssuer = generalNamesIn(item.contentsBuffer());
+                        default -> throw new X509CertException("Unexpected [" + item.identifier().tagNumber() + "] item in distribution point.");
+                    }
+                }
+                points.add(new DistributionPoint(fullName, reasons, crlIssuer));
+            }
+            return List.copyOf(points);
+        });
+    }
+
+    /**
+     * AuthorityInfoAccessSyntax ::= SEQUENCE SIZE (1..MAX) OF AccessDescription
+     * <br>
+     * AccessDescription ::= SEQUENCE { accessMethod OBJECT IDENTIFIER, accessLocation GeneralName }
+     *
+     * @param value The extension value.
+     * @return The access descriptions.
+     * @throws X509CertException If the value is malformed.
+     */
+    public static List<AccessDescription> authorityInfoAccess(byte[] value) throws X509CertException {
+        return decode(value, "authority information access", root -> {
+            List<ASN1Item> items = sequence(root, "authority information access").asn1ItemList();
+            List<AccessDescription> descriptions = new ArrayList<>(items.size());
+            for (ASN1Item item : items) {
+                List<ASN1Item> description = sequence(item, "access description").asn1ItemList();
+                if (description.size() != 2 || description.get(0).type() != ASN1TagType.OBJECT_IDENTIFIER) {
+                    throw new X509CertException("Access description must be an OID and a general name.");
+                }
+                descriptions.add(new AccessDescription(DERDecodingUtils.decodeOID(description.get(0)), generalName(description.get(1))));
+            }
+            return List.copyOf(descriptions);
+        });
+    }
+
+    /**
+     * NameConstraints ::= SEQUENCE { permittedSubtrees [0] GeneralSubtrees OPTIONAL, excludedSubtrees [1]
+     * GeneralSubtrees OPTIONAL }
+     * <br>
+     * GeneralSubtree ::= SEQUENCE { base GeneralName, minimum [0] BaseDistance DEFAULT 0, maximum [1] BaseDistance
+     * OPTIONAL }
+     *
+     * @param value The extension value.
+     * @return The name constraints.
+     * @throws X509CertException If the value is malformed.
+     */
+    public static NameConstraints nameConstraints(byte[] value) throws X509CertException {
+        return decode(value, "name constraints", root -> {
+            List<GeneralName> permitted = List.of();
+            List<GeneralName> excluded = List.of();
+            for (ASN1Item item : sequence(root, "name constraints").asn1ItemList()) {
+                switch (contextTag(item, "name constraints")) {
+                    case 0 -> permitted = subtreesIn(item.contentsBuffer());
+                    case 1 -> excluded = subtreesIn(item.contentsBuffer());
+                    default -> throw new X509CertException("Unexpected [" + item.identifier().tagNumber() + "] item in name constraints.");
+                }
+            }
+            return new NameConstraints(permitted, excluded);
+        });
+    }
+
+    /**
+     * @param name A directory name.
+     * @return The decoded name.
+     * @throws X509CertException If the name is not a directory name or is malformed.
+     */
+    public static X500Name directoryName(GeneralName name) throws X509CertException {
+        if (name.type() != GeneralName.Type.directoryName) {
+            throw new X509CertException("General name is a " + name.type() + ", not a directory name.");
+        }
+        return decode(name.encoded(), "directory name", root -> X500NameUtils.fromASN1Item(sequence(root, "directory name")));
+    }
+
+    private static List<GeneralName> generalNamesIn(ByteBuffer contents) throws X509CertException {
+        List<GeneralName> names = new ArrayList<>();
+        while (contents.hasRemaining()) {
+            names.add(generalName(DERDecodingUtils.viewNextASN1(contents)));
+        }
+        return List.copyOf(names);
+    }
+
+    private static List<GeneralName> subtreesIn(ByteBuffer contents) throws X509CertException {
+        List<GeneralName> bases = new ArrayList<>();
+        while (contents.hasRemaining()) {
+            List<ASN1Item> subtree = sequence(DERDecodingUtils.viewNextASN1(contents), "general subtree").asn1ItemList();
+            if (subtree.isEmpty()) {
+                throw new X509CertException("General subtree has no base name.");
+            }
+            bases.add(generalName(subtree.get(0)));
+        }
+        return List.copyOf(bases);
+    }
+
+    private static GeneralName generalName(ASN1Item item) throws X509CertException {
+        GeneralName.Type type = GeneralName.Type.forTag(contextTag(item, "general name"));
+        if (type == null) {
+            throw new X509CertException("Unknown general name [" + item.identifier().tagNumber() + "].");
+        }
+        byte[] encoded = item.contents();
+        String value = switch (type) {
+            case rfc822Name, dNSName, uniformResourceIdentifier -> DERDecodingUtils.decodeIA5(item);
+            case iPAddress -> ipAddress(encoded);
+            case registeredID -> DERDecodingUtils.decodeOID(item);
+            default -> null;
+        };
+        return new GeneralName(type, value, encoded);
+    }
+
+    /**
+     * @return The address in its usual notation, or address/mask for the 8 and 32 octet forms used in name constraints.
+     */
+    private static String ipAddress(byte[] octets) throws X509CertException {
+        try {
+            return switch (octets.length) {
+                case 4, 16 -> InetAddress.getByAddress(octets).getHostAddress();
+                case 8, 32 -> InetAddress.getByAddress(Arrays.copyOf(octets, octets.length / 2)).getHostAddress() + "/"
+                        + InetAddress.getByAddress(Arrays.copyOfRange(octets, octets.length / 2, octets.length)).getHostAddress();
+                default -> throw new X509CertException("IP address must be 4, 8, 16 or 32 octets. Actual: " + octets.length);
+            };
+        } catch (UnknownHostException e) {
+            throw new X509CertException("Invalid IP address.", e);
+        }
+    }
+
+    private static int contextTag(ASN1Item item, String what) throws X509CertException {
+        if (item.identifier().tagClass() != ASN1Identifier.TagClass.ContextSpecific) {
+            throw new X509CertException("Expected context specific item in " + what + ". Instead found a: " + item.type().name());
+        }
+        return item.identifier().tagNumber();
+    }
+
+    private static ASN1Sequence sequence(ASN1Item item, String what) throws X509CertException {
+        if (!(item instanceof ASN1Sequence sequence)) {
+            throw new X509CertException("Expected " + what + " to be a sequence. Instead found a: " + item.type().name());
+        }
+        return sequence;
+    }
+
+    private static boolean decodeBoolean(ASN1Item item, String what) throws X509CertException {
+        if (item.type() != ASN1TagType.BOOLEAN || item.length != 1) {
+            throw new X509CertException("Expected BOOLEAN for " + what + ". Instead found a: " + item.type().name());
+        }
+        return item.contentAt(0) != 0;
+    }
+
+    /**
+     * Parse an extension value and decode it. The DER parser reports truncated and malformed data with runtime
+     * exceptions, which are turned into {@link X509CertException}s for the extension here.
+     */
+    private static <T> T decode(byte[] value, String what, ValueDecoder<T> decoder) throws X509CertException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(value);
+            ASN1Item root = DERDecodingUtils.viewNextASN1(buffer);
+            if (buffer.hasRemaining()) {
+                throw new X509CertException("Unexpected data after " + what + ".");
+            }
+            return decoder.decode(root);
+        } catch (RuntimeException e) {
+            throw new X509CertException("Malformed " + what + ".", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ValueDecoder<T> {
+        T decode(ASN1Item root) throws X509CertException;
+    }
+}
@@ -2,42 +2,76 @@ package dev.wobbegong.kmsca.utils;
 
 import dev.wobbegong.kmsca.entities.BitString;
 import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
 import dev.wobbegong.kmsca.entities.oid.KnownOids;
 import dev.wobbegong.kmsca.entities.pkcs1.DSAPublicKey;
+import dev.wobbegong.kmsca.entities.pkcs1.ECPublicKey;
 import dev.wobbegong.kmsca.entities.pkcs1.RSAPublicKey;
 import dev.wobbegong.kmsca.entities.pkcs12.X509PublicKey;
 import dev.wobbegong.kmsca.exceptions.X509CertException;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.security.PublicKey;
 
 public class X509PublicKeyUtils {
     public static X509PublicKey<?> fromASN1Item(ASN1Sequence publicKeySequence) throws X509CertException {
-        if (publicKeySequence.asn1ItemList.size() != 2) {
+        if (publicKeySequence.asn1ItemList().size() != 2) {
             throw new X509CertException("Public Key Sequence must have 2 items");
         }
 
-        if (!(publicKeySequence.asn1ItemList.get(0) instanceof ASN1Sequence oidSequence)) {
+        if (!(publicKeySequence.asn1ItemList().get(0) instanceof ASN1Sequence oidSequence)) {
             throw new X509CertException("Public Key Sequence must have OID Sequence as first item");
         }
 
-        if (oidSequence.asn1ItemList.get(0).type() != ASN1TagType.OBJECT_IDENTIFIER) {
+        if (oidSequence.asn1ItemList().get(0).type() != ASN1TagType.OBJECT_IDENTIFIER) {
             throw new X509CertException("Public Key Sequence must have OID Sequence as first item");
         }
 
-        String algorithmOID = DERDecodingUtils.decodeOID(oidSequence.asn1ItemList.get(0));
-        BitString bitString = DERDecodingUtils.decodeBitString(publicKeySequence.asn1ItemList.get(1));
+        ASN1Item algorithmOID = oidSequence.asn1ItemList().get(0);
+        ASN1Item parameters = oidSequence.asn1ItemList().size() > 1 ? oidSequence.asn1ItemList().get(1) : null;
+        BitString bitString = DERDecodingUtils.decodeBitString(publicKeySequence.asn1ItemList().get(1));
 
-        return publicKeyFor(algorithmOID, bitString);
+        return publicKeyFor(algorithmOID, parameters, bitString);
     }
 
-    private static X509PublicKey<?> publicKeyFor(String publicKeyAlg, BitString bitString) throws X509CertException {
-        KnownOids algorithm = KnownOids.forOID(publicKeyAlg)
-                .orElseThrow(() -> new X509CertException("Unknown Algorithm OID: " + publicKeyAlg));
+    /**
+     * Build a JCA key, such as the key of an issuer to verify certificates with. EC keys are decoded and converted
+     * through the cache of {@link ECCurveUtils}, so the key of an issuer is only built once.
+     *
+     * @param subjectPublicKeyInfo The DER encoding of a subject public key info.
+     * @return The JCA public key.
+     * @throws X509CertException If the algorithm is not supported or the key is malformed.
+     */
+    public static PublicKey publicKeyFor(byte[] subjectPublicKeyInfo) throws X509CertException {
+        final KnownOids algorithm;
+        try {
+            if (!(DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(subjectPublicKeyInfo)) instanceof ASN1Sequence keyInfo)
+                    || !(keyInfo.asn1ItemList().get(0) instanceof ASN1Sequence algorithmSequence)
+                    || algorithmSequence.asn1ItemList().get(0).type() != ASN1TagType.OBJECT_IDENTIFIER) {
+                throw new X509CertException("Public Key Sequence must have OID Sequence as first item");
+            }
+            ASN1Item algorithmOID = algorithmSequence.asn1ItemList().get(0);
+            algorithm = DERDecodingUtils.decodeKnownOID(algorithmOID)
+                    .orElseThrow(() -> new X509CertException("Unknown Algorithm OID: " + DERDecodingUtils.decodeOID(algorithmOID)));
+            if (algorithm == KnownOids.ecPublicKey) {
+                ASN1Item parameters = algorithmSequence.asn1ItemList().size() > 1 ? algorithmSequence.asn1ItemList().get(1) : null;
+                BitString bitString = DERDecodingUtils.decodeBitString(keyInfo.asn1ItemList().get(1));
+                return ECCurveUtils.jcaPublicKey(namedCurve(parameters, bitString), bitString.data());
+            }
+        } catch (RuntimeException e) {
+            throw new X509CertException("Malformed subject public key info.", e);
+        }
+        return SignatureUtils.publicKeyFor(subjectPublicKeyInfo, algorithm);
+    }
+
+    private static X509PublicKey<?> publicKeyFor(ASN1Item publicKeyAlg, ASN1Item parameters, BitString bitString) throws X509CertException {
+        KnownOids algorithm = DERDecodingUtils.decodeKnownOID(publicKeyAlg)
+                .orElseThrow(() -> new X509CertException("Unknown Algorithm OID: " + DERDecodingUtils.decodeOID(publicKeyAlg)));
         return switch (algorithm) {
             case rsaEncryption -> rsaPublicKey(bitString);
-            case ecPublicKey -> ecPublicKey(bitString);
+            case ecPublicKey -> ecPublicKey(parameters, bitString);
             case dsa -> dsaPublicKey(bitString);
             default ->
                     throw new X509CertException("Unsupported Algorithm OID: " + algorithm.name() + " - " + algorithm.desc);
@@ -52,18 +86,31 @@ public class X509PublicKeyUtils {
         return new X509PublicKey<>(KnownOids.dsa, new DSAPublicKey(DERDecodingUtils.decodeInteger(item)));
     }
 
-    private static X509PublicKey<?> ecPublicKey(BitString bitString) {
-        KnownOids algorithm = KnownOids.ecPublicKey;
+    private static X509PublicKey<ECPublicKey> ecPublicKey(ASN1Item parameters, BitString bitString) throws X509CertException {
+        return new X509PublicKey<>(KnownOids.ecPublicKey, ECCurveUtils.decodePublicKey(namedCurve(parameters, bitString), bitString.data()));
+    }
 
-        return null;
+    /**
+     * @see <a href="https://datatracker.ietf.org/doc/html/rfc5480#section-2.1.1">RFC-5480</a>
+     */
+    private static KnownOids namedCurve(ASN1Item parameters, BitString bitString) throws X509CertException {
+        // Implicit and specified curves are not allowed in certificates, only named curves
+        if (parameters == null || parameters.type() != ASN1TagType.OBJECT_IDENTIFIER) {
+            throw new X509CertException("EC Public Key parameters must be a named curve OID");
+        }
+        if (bitString.unusedBits() != 0) {
+            throw new X509CertException("EC Public Key must be a whole number of octets");
+        }
+        return DERDecodingUtils.decodeKnownOID(parameters)
+                .orElseThrow(() -> new X509CertException("Unknown curve OID: " + DERDecodingUtils.decodeOID(parameters)));
     }
 
     public static X509PublicKey<RSAPublicKey> rsaPublicKey(BitString bitString) {
         if (!(DERDecodingUtils.parseNextASN1(ByteBuffer.wrap(bitString.data())) instanceof ASN1Sequence sequence)) {
             throw new RuntimeException("Not Yet Implemented");
         }
-        BigInteger modulus = DERDecodingUtils.decodeInteger(sequence.asn1ItemList.get(0));
-        BigInteger publicExponent = DERDecodingUtils.decodeInteger(sequence.asn1ItemList.get(1));
+        BigInteger modulus = DERDecodingUtils.decodeInteger(sequence.asn1ItemList().get(0));
+        BigInteger publicExponent = DERDecodingUtils.decodeInteger(sequence.asn1ItemList().get(1));
 
         return new X509PublicKey<>(KnownOids.rsaEncryption, new RSAPublicKey(modulus, publicExponent));
     }
@@ -1,16 +1,20 @@
 package dev.wobbegong.kmsca.utils;
 
+import dev.wobbegong.kmsca.entities.BitString;
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
 import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
 import dev.wobbegong.kmsca.entities.oid.KnownOids;
 import dev.wobbegong.kmsca.entities.pkcs12.*;
 import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.io.DERStreamReader;
 import org.bouncycastle.util.encoders.Hex;
 
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
@@ -23,30 +27,173 @@ import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 public class X509Utils {
+    /**
+     * @param root The certificate sequence.
+     * @return The certificate.
+     * @throws X509CertException If the data is not a certificate, including when it is malformed DER.
+     */
     public static SignedX509Certificate toCertificate(ASN1Sequence root) throws X509CertException {
+        try {
+            return certificate(root);
+        } catch (RuntimeException e) {
+            throw new X509CertException("Malformed certificate.", e);
+        }
+    }
+
+    private static SignedX509Certificate certificate(ASN1Sequence root) throws X509CertException {
+        if (root.asn1ItemList().size() != 3) {
+            throw new X509CertException("Expected three items in certificate sequence. Instead found: " + root.asn1ItemList().size());
+        }
 
         final ToBeSignedCertificate tbsCertificate;
-        if (root.asn1ItemList.get(0).type() == ASN1TagType.SEQUENCE && root.asn1ItemList.get(0) instanceof ASN1Sequence sequence1) {
+        final ASN1Sequence tbsSequence;
+        if (root.asn1ItemList().get(0).type() == ASN1TagType.SEQUENCE && root.asn1ItemList().get(0) instanceof ASN1Sequence sequence1) {
+            tbsSequence = sequence1;
             tbsCertificate = tbsCertificate(sequence1);
         } else {
-            throw new X509CertException("First item in ASN1 structure of certificate is not a sequence as expected, but is instead a: " + root.asn1ItemList.get(0).type().name());
+            throw new X509CertException("First item in ASN1 structure of certificate is not a sequence as expected, but is instead a: " + root.asn1ItemList().get(0).type().name());
         }
 
         final X509SignatureAlgorithm signatureAlgorithm;
-        if (root.asn1ItemList.get(1).type() == ASN1TagType.SEQUENCE && root.asn1ItemList.get(1) instanceof ASN1Sequence sequence2) {
+        if (root.asn1ItemList().get(1).type() == ASN1TagType.SEQUENCE && root.asn1ItemList().get(1) instanceof ASN1Sequence sequence2) {
             signatureAlgorithm = signatureAlgorithm(sequence2);
         } else {
-            throw new X509CertException("Second item in ASN1 structure of certificate is not a sequence as expected, but is instead a: " + root.asn1ItemList.get(1).type().name());
+            throw new X509CertException("Second item in ASN1 structure of certificate is not a sequence as expected, but is instead a: " + root.asn1ItemList().get(1).type().name());
         }
 
         final byte[] signature;
-        if (root.asn1ItemList.get(2).type() == ASN1TagType.BIT_STRING) {
-            signature = signatureFrom(root.asn1ItemList.get(2));
+        if (root.asn1ItemList().get(2).type() == ASN1TagType.BIT_STRING) {
+            signature = signatureFrom(root.asn1ItemList().get(2));
         } else {
-            throw new X509CertException("Second item in ASN1 structure of certificate is not a sequence as expected, but is instead a: " + root.asn1ItemList.get(1).type().name());
+            throw new X509CertException("Third item in ASN1 structure of certificate is not a bit string as expected, but is instead a: " + root.asn1ItemList().get(2).type().name());
         }
 
-        return new SignedX509Certificate(tbsCertificate, signatureAlgorithm, signature);
+        return new SignedX509Certificate(tbsCertificate, signatureAlgorithm, signature, tbsSequence.encodedBuffer());
+    }
+
+    /**
+     * Read the next certificate from a stream reader. Only the TBS certificate and the signature algorithm are read into
+     * memory, so a reader over a large dump of concatenated certificates can be passed here repeatedly.
+     *
+     * @param reader The reader, positioned before the certificate sequence.
+     * @return The certificate, or null at the end of the input.
+     * @throws IOException       If the reader cannot read its input.
+     * @throws X509CertException If the data is not a certificate.
+     */
+    public static SignedX509Certificate toCertificate(DERStreamReader reader) throws IOException, X509CertException {
+        DERStreamReader.Event event = reader.next();
+        if (event == null) {
+            return null;
+        }
+        if (event != DERStreamReader.Event.START_CONSTRUCTED || reader.tagType() != ASN1TagType.SEQUENCE) {
+            throw new X509CertException("Certificate is not a sequence as expected, but is instead a: " + reader.tagType().name());
+        }
+
+        if (reader.next() != DERStreamReader.Event.START_CONSTRUCTED || !(reader.readItem() instanceof ASN1Sequence tbsSequence)) {
+            throw new X509CertException("First item in ASN1 structure of certificate is not a sequence as expected, but is instead a: " + reader.tagType().name());
+        }
+        final ToBeSignedCertificate tbsCertificate = tbsCertificate(tbsSequence);
+
+        if (reader.next() != DERStreamReader.Event.START_CONSTRUCTED || !(reader.readItem() instanceof ASN1Sequence algorithmSequence)) {
+            throw new X509CertException("Second item in ASN1 structure of certificate is not a sequence as expected, but is instead a: " + reader.tagType().name());
+        }
+        final X509SignatureAlgorithm signatureAlgorithm = signatureAlgorithm(algorithmSequence);
+
+        if (reader.next() != DERStreamReader.Event.PRIMITIVE || reader.tagType() != ASN1TagType.BIT_STRING) {
+            throw new X509CertException("Third item in ASN1 structure of certificate is not a bit string as expected, but is instead a: " + reader.tagType().name());
+        }
+        final byte[] signature = reader.value();
+
+        if (reader.next() != DERStreamReader.Event.END_CONSTRUCTED) {
+            throw new X509CertException("Unexpected item after the signature of the certificate at offset: " + reader.offset());
+        }
+
+        return new SignedX509Certificate(tbsCertificate, signatureAlgorithm, signature, tbsSequence.encodedBuffer());
+    }
+
+    /**
+     * Read only the serial number of a certificate. With a tree from {@link DERDecodingUtils#lazyNextASN1} this only
+     * expands the certificate and TBS certificate sequences.
+     *
+     * @param root The certificate sequence.
+     * @return The serial number of the certificate.
+     * @throws X509CertException If the certificate has no serial number where expected.
+     */
+    public static BigInteger serialNumberOf(ASN1Sequence root) throws X509CertException {
+        ASN1Item serialNumberItem = tbsItem(root, 0);
+        if (serialNumberItem.type() != ASN1TagType.INTEGER) {
+            throw new X509CertException("Missing serial number ASN.1 Integer. Instead found a: " + serialNumberItem.type().name());
+        }
+        return DERDecodingUtils.decodeInteger(serialNumberItem);
+    }
+
+    /**
+     * Read only the issuer of a certificate. With a tree from {@link DERDecodingUtils#lazyNextASN1} this only expands
+     * the path down to the issuer name.
+     *
+     * @param root The certificate sequence.
+     * @return The issuer name of the certificate.
+     * @throws X509CertException If the certificate has no issuer name where expected.
+     */
+    public static X500Name issuerOf(ASN1Sequence root) throws X509CertException {
+        if (!(tbsItem(root, 2) instanceof ASN1Sequence issuerSequence)) {
+            throw new X509CertException("Missing X500Name ASN.1 Sequence. Instead found a: " + tbsItem(root, 2).type().name());
+        }
+        return X500NameUtils.fromASN1Item(issuerSequence);
+    }
+
+    /**
+     * Read only the expiry date of a certificate. With a tree from {@link DERDecodingUtils#lazyNextASN1} this only
+     * expands the path down to the validity sequence.
+     *
+     * @param root The certificate sequence.
+     * @return The date after which the certificate is no longer valid.
+     * @throws X509CertException If the certificate has no validity sequence where expected.
+     */
+    public static ZonedDateTime expiresOf(ASN1Sequence root) throws X509CertException {
+        if (!(tbsItem(root, 3) instanceof ASN1Sequence datesSequence) || datesSequence.asn1ItemList().size() != 2) {
+            throw new X509CertException("Missing validity/issued ASN.1 Sequence. Instead found a: " + tbsItem(root, 3).type().name());
+        }
+        return DERDecodingUtils.decodeTime(datesSequence.asn1ItemList().get(1)).atZone(ZoneId.of("UTC"));
+    }
+
+    /**
+     * Read only the extensions of a certificate. With a tree from {@link DERDecodingUtils#lazyNextASN1} this skips the
+     * names, dates and public key, and the extension values are only decoded when they are read.
+     *
+     * @param root The certificate sequence.
+     * @return The extensions of the certificate, or {@link X509Extensions#NONE}.
+     * @throws X509CertException If the extensions are malformed.
+     */
+    public static X509Extensions extensionsOf(ASN1Sequence root) throws X509CertException {
+        if (!(root.asn1ItemList().get(0) instanceof ASN1Sequence tbsSequence)) {
+            throw new X509CertException("First item in ASN1 structure of certificate is not a sequence as expected, but is instead a: " + root.asn1ItemList().get(0).type().name());
+        }
+        List<ASN1Item> items = tbsSequence.asn1ItemList();
+        ASN1Item last = items.get(items.size() - 1);
+        if (last.identifier().tagClass() == ASN1Identifier.TagClass.ContextSpecific && last.identifier().tagNumber() == 3) {
+            return X509ExtensionUtils.fromASN1Item(last);
+        }
+        return X509Extensions.NONE;
+    }
+
+    /**
+     * Get an item of the TBS certificate, skipping over the optional version.
+     *
+     * @param root  The certificate sequence.
+     * @param index The index of the item counting from the serial number.
+     * @return The item.
+     */
+    private static ASN1Item tbsItem(ASN1Sequence root, int index) throws X509CertException {
+        if (!(root.asn1ItemList().get(0) instanceof ASN1Sequence tbsSequence)) {
+            throw new X509CertException("First item in ASN1 structure of certificate is not a sequence as expected, but is instead a: " + root.asn1ItemList().get(0).type().name());
+        }
+        List<ASN1Item> items = tbsSequence.asn1ItemList();
+        int versionOffset = items.get(0).type() == ASN1TagType.EndOfContent ? 1 : 0;
+        if (items.size() <= versionOffset + index) {
+            throw new X509CertException("TBS certificate sequence is missing items. Found: " + items.size());
+        }
+        return items.get(versionOffset + index);
     }
 
     private static byte[] signatureFrom(ASN1Item asn1Item) {
@@ -54,23 +201,35 @@ public class X509Utils {
     }
 
     private static X509SignatureAlgorithm signatureAlgorithm(ASN1Sequence signatureAlgorithm) throws X509CertException {
-        ASN1Item oidItem = signatureAlgorithm.asn1ItemList.get(0);
+        ASN1Item oidItem = signatureAlgorithm.asn1ItemList().get(0);
         if (oidItem.type() != ASN1TagType.OBJECT_IDENTIFIER) {
             throw new X509CertException("Expected OID as first element of signature algorithm sequence.");
         }
 
         // Decode the DER encoded OID
-        String oidString = DERDecodingUtils.decodeOID(oidItem);
-        KnownOids knownOID = KnownOids.forOID(oidString).orElseThrow(() -> new X509CertException("Unknown algorithm OID: " + oidString));
+        KnownOids knownOID = DERDecodingUtils.decodeKnownOID(oidItem)
+                .orElseThrow(() -> new X509CertException("Unknown algorithm OID: " + DERDecodingUtils.decodeOID(oidItem)));
 
         // Return the signature algorithm specifier
         return new X509SignatureAlgorithm(knownOID);
     }
 
+    /**
+     * The DER parser reports truncated and malformed data with runtime exceptions, which are turned into
+     * {@link X509CertException}s here.
+     */
     private static ToBeSignedCertificate tbsCertificate(ASN1Sequence tbsCertificate) throws X509CertException {
+        try {
+            return parseTBSCertificate(tbsCertificate);
+        } catch (RuntimeException e) {
+            throw new X509CertException("Malformed TBS certificate.", e);
+        }
+    }
+
+    private static ToBeSignedCertificate parseTBSCertificate(ASN1Sequence tbsCertificate) throws X509CertException {
 
         // Start iterating through the TBS Cert sequence
-        Iterator<ASN1Item> certificateItems = tbsCertificate.asn1ItemList.iterator();
+        Iterator<ASN1Item> certificateItems = tbsCertificate.asn1ItemList().iterator();
 
         // Check for EOC version
         // If there is an EOC at the beginning of the TBS that is the version item.
@@ -121,21 +280,22 @@ public class X509Utils {
         }
 
         // Parse the issued and expiry dates
-        if(datesSequence.asn1ItemList.size() != 2) {
-            throw new X509CertException("Expected two items in validity/issued ASN.1 Sequence. Instead found: " + datesSequence.asn1ItemList.size());
+        if(datesSequence.asn1ItemList().size() != 2) {
+            throw new X509CertException("Expected two items in validity/issued ASN.1 Sequence. Instead found: " + datesSequence.asn1ItemList().size());
         }
 
-        if(datesSequence.asn1ItemList.get(0).type() != ASN1TagType.UTCTime) {
-            throw new X509CertException("Expected UTCTime as first item in validity/issued ASN.1 Sequence. Instead found a: " + datesSequence.asn1ItemList.get(0).type().name());
+        // Dates through 2049 are UTCTime and dates from 2050 on are GeneralizedTime (RFC 5280 4.1.2.5)
+        if(!isTime(datesSequence.asn1ItemList().get(0))) {
+            throw new X509CertException("Expected UTCTime or GeneralizedTime as first item in validity/issued ASN.1 Sequence. Instead found a: " + datesSequence.asn1ItemList().get(0).type().name());
         }
 
-        if(datesSequence.asn1ItemList.get(1).type() != ASN1TagType.UTCTime) {
-            throw new X509CertException("Expected UTCTime as second item in validity/issued ASN.1 Sequence. Instead found a: " + datesSequence.asn1ItemList.get(0).type().name());
+        if(!isTime(datesSequence.asn1ItemList().get(1))) {
+            throw new X509CertException("Expected UTCTime or GeneralizedTime as second item in validity/issued ASN.1 Sequence. Instead found a: " + datesSequence.asn1ItemList().get(1).type().name());
         }
 
         // Parse the dates
-        ZonedDateTime issued = DERDecodingUtils.decodeUTCTime(datesSequence.asn1ItemList.get(0)).atZone(ZoneId.of("UTC"));
-        ZonedDateTime expires = DERDecodingUtils.decodeUTCTime(datesSequence.asn1ItemList.get(1)).atZone(ZoneId.of("UTC"));
+        ZonedDateTime issued = DERDecodingUtils.decodeTime(datesSequence.asn1ItemList().get(0)).atZone(ZoneId.of("UTC"));
+        ZonedDateTime expires = DERDecodingUtils.decodeTime(datesSequence.asn1ItemList().get(1)).atZone(ZoneId.of("UTC"));
 
         // Parse the subject X500
         if(!(certificateItems.next() instanceof ASN1Sequence subjectSequence)) {
@@ -147,33 +307,72 @@ public class X509Utils {
             throw new X509CertException("Missing public key ASN.1 Sequence. Instead found a: " + certificateItems.next().type().name());
         }
 
-        X509PublicKey publicKey = X509PublicKeyUtils.fromASN1Item(publicKeySequence);
+        // Check the key can be read, but keep it encoded
+        X509PublicKeyUtils.fromASN1Item(publicKeySequence);
+        byte[] publicKey = DEREncodingUtils.encodeItem(publicKeySequence);
+
+        // The optional [1] issuerUniqueID, [2] subjectUniqueID and [3] extensions follow, in that order
+        BitString issuerUniqueID = null;
+        BitString subjectUniqueID = null;
+        X509Extensions extensions = X509Extensions.NONE;
+        int lastTag = 0;
+        while (certificateItems.hasNext()) {
+            ASN1Item item = certificateItems.next();
+            ASN1Identifier identifier = item.identifier();
+            if (identifier.tagClass() != ASN1Identifier.TagClass.ContextSpecific || identifier.tagNumber() <= lastTag || identifier.tagNumber() > 3) {
+                throw new X509CertException("Unexpected item after the public key of the TBS certificate: " + identifier);
+            }
+            lastTag = identifier.tagNumber();
+            switch (lastTag) {
+                case 1 -> issuerUniqueID = uniqueIdentifier(item, version, "issuer unique identifier");
+                case 2 -> subjectUniqueID = uniqueIdentifier(item, version, "subject unique identifier");
+                default -> extensions = X509ExtensionUtils.fromASN1Item(item);
+            }
+        }
+
+        return new ToBeSignedCertificate(algorithmOID, publicKey, version, serialNumber, issuer, issued, expires, subject,
+                issuerUniqueID, subjectUniqueID, extensions);
+    }
+
+    /**
+     * @param item The [1] or [2] IMPLICIT BIT STRING.
+     */
+    private static BitString uniqueIdentifier(ASN1Item item, X509Version version, String what) throws X509CertException {
+        // Unique identifiers must only appear in version 2 and 3 certificates (RFC 5280 4.1.2.8)
+        if (version == X509Version.V1) {
+            throw new X509CertException("Version 1 certificate has an " + what + ".");
+        }
+        if (item.length < 1 || (item.contentAt(0) & 0xFF) > 7 || (item.length == 1 && item.contentAt(0) != 0)) {
+            throw new X509CertException("Malformed " + what + " BIT STRING.");
+        }
+        return DERDecodingUtils.decodeBitString(item);
+    }
 
-        // TODO: Flesh out certificate information
-        return new ToBeSignedCertificate(algorithmOID, new byte[0], version, serialNumber, issuer, issued, expires, subject);
+    private static boolean isTime(ASN1Item item) {
+        return item.type() == ASN1TagType.UTCTime || item.type() == ASN1TagType.GeneralizedTime;
     }
 
     private static KnownOids certificateOIDForASN1Item(ASN1Item certificateAlgorithm) throws X509CertException {
         if (certificateAlgorithm.type() == ASN1TagType.SEQUENCE) {
             if (certificateAlgorithm instanceof ASN1Sequence sequence) {
-                if (sequence.asn1ItemList.size() == 0) {
+                if (sequence.asn1ItemList().size() == 0) {
                     throw new X509CertException("No items in ASN1Sequence for certificate algorithm identifier.");
                 }
 
-                if (sequence.asn1ItemList.size() > 2) {
+                if (sequence.asn1ItemList().size() > 2) {
                     throw new X509CertException("Too many items in ASN1Sequence for certificate algorithm identifier.");
                 }
 
-                if (sequence.asn1ItemList.size() == 2) {
-                    ASN1Item item2 = sequence.asn1ItemList.get(1);
+                if (sequence.asn1ItemList().size() == 2) {
+                    ASN1Item item2 = sequence.asn1ItemList().get(1);
                     if (item2.type() != ASN1TagType.NULL) {
                         throw new X509CertException("Second item in ASN1Sequence for certificate algorithm identifier should be null.");
                     }
                 }
 
-                ASN1Item item1 = sequence.asn1ItemList.get(0);
-                String oid = DERDecodingUtils.decodeOID(item1);
-                return KnownOids.forOID(oid).orElseThrow(() -> new X509CertException("Unknown OID for algorithm: " + oid));
+                ASN1Item item1 = sequence.asn1ItemList().get(0);
+                return DERDecodingUtils.decodeKnownOID(item1)
+                        .orElseThrow(() -> new X509CertException("Unknown OID for algorithm: " + DERDecodingUtils.decodeOID(item1)));
             } else {
                 throw new RuntimeException("Sequence ASN.1 item was not of the type: " + ASN1Sequence.class.getCanonicalName());
             }
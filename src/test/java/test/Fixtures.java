@@ -0,0 +1,33 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.CertificateAuthority;
+import dev.wobbegong.kmsca.signing.LocalSigningProvider;
+import dev.wobbegong.kmsca.utils.CertificateUtils;
+import org.bouncycastle.asn1.x500.X500Name;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+/**
+ * Keys and CAs shared by the tests.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static KeyPair keyPair(String algorithm, int size) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        generator.initialize(size);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * @return A CA named CN=Wobbegong CRL CA,O=Wobbegong that signs locally with the keys.
+     */
+    static CertificateAuthority ca(KeyPair keys) throws Exception {
+        byte[] subject = new X500Name("CN=Wobbegong CRL CA,O=Wobbegong").getEncoded();
+        byte[] subjectPublicKeyInfo = keys.getPublic().getEncoded();
+        return new CertificateAuthority(subject, CertificateUtils.subjectKeyIdentifierFor(subjectPublicKeyInfo), new LocalSigningProvider(keys));
+    }
+}
@@ -1,10 +1,16 @@
 package test;
 
+import dev.wobbegong.kmsca.entities.asn1.ASN1Identifier;
 import dev.wobbegong.kmsca.entities.asn1.ASN1LengthOctet;
+import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.io.DERStreamReader;
 import dev.wobbegong.kmsca.utils.DERDecodingUtils;
 import org.junit.jupiter.api.Assertions;
+import org.bouncycastle.util.encoders.Hex;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
 import java.nio.ByteBuffer;
 
 public class TestASN1 {
@@ -21,6 +27,96 @@ public class TestASN1 {
 
     }
 
+    @Test
+    public void testIdentifiers() {
+        for (int octet = 0; octet <= 0xFF; octet++) {
+            ASN1Identifier identifier = ASN1Identifier.forOctet(octet);
+            Assertions.assertEquals((octet >> 6) & 0b11, identifier.tagClass().value);
+            Assertions.assertEquals((octet & 0b0010_0000) == 0, identifier.isPrimitive());
+            if ((octet & 0x1F) == 0x1F) {
+                Assertions.assertTrue(identifier.isHighTagNumber());
+            } else {
+                Assertions.assertEquals(octet & 0x1F, identifier.tagType().ordinal);
+                Assertions.assertEquals(octet, identifier.firstOctet());
+                Assertions.assertSame(identifier, DERDecodingUtils.nextIdentifierFrom(ByteBuffer.wrap(new byte[]{(byte) octet})));
+            }
+        }
+
+        // DATE is universal tag 31, which needs the high tag number form
+        ASN1Identifier date = DERDecodingUtils.nextIdentifierFrom(ByteBuffer.wrap(Hex.decode("1f1f")));
+        Assertions.assertEquals(ASN1TagType.DATE, date.tagType());
+        Assertions.assertEquals(ASN1Identifier.TagClass.Universal, date.tagClass());
+
+        // Context specific, constructed [34] then a two octet tag number
+        ASN1Identifier duration = DERDecodingUtils.nextIdentifierFrom(ByteBuffer.wrap(Hex.decode("bf22")));
+        Assertions.assertEquals(ASN1TagType.DURATION, duration.tagType());
+        Assertions.assertEquals(ASN1Identifier.TagClass.ContextSpecific, duration.tagClass());
+        Assertions.assertFalse(duration.isPrimitive());
+        ByteBuffer twoOctets = ByteBuffer.wrap(Hex.decode("9f8023"));
+        Assertions.assertEquals(0x23, DERDecodingUtils.nextIdentifierFrom(twoOctets).tagNumber());
+        Assertions.assertEquals(3, twoOctets.position());
+
+        // Items with high tag numbers are skipped over correctly by both parsers
+        byte[] der = Hex.decode("30071f2102aabb0500");
+        for (ASN1Item item : new ASN1Item[]{DERDecodingUtils.parseNextASN1(ByteBuffer.wrap(der)), DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der))}) {
+            var items = ((dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence) item).asn1ItemList();
+            Assertions.assertEquals(ASN1TagType.DATE_TIME, items.get(0).type());
+            Assertions.assertEquals("aabb", Hex.toHexString(items.get(0).contents()));
+            Assertions.assertEquals(ASN1TagType.NULL, items.get(1).type());
+            Assertions.assertEquals(7, items.get(1).start);
+        }
+    }
+
+    @Test
+    public void testTagNumbersAboveTagTypes() throws Exception {
+        // Context specific [100] in one octet and [200] in two octets, beyond the listed universal tag types
+        ASN1Identifier hundred = DERDecodingUtils.nextIdentifierFrom(ByteBuffer.wrap(Hex.decode("9f64")));
+        Assertions.assertEquals(100, hundred.tagNumber());
+        Assertions.assertEquals(ASN1TagType.UNKNOWN, hundred.tagType());
+        ByteBuffer twoOctets = ByteBuffer.wrap(Hex.decode("bf8148"));
+        ASN1Identifier twoHundred = DERDecodingUtils.nextIdentifierFrom(twoOctets);
+        Assertions.assertEquals(200, twoHundred.tagNumber());
+        Assertions.assertEquals(ASN1TagType.UNKNOWN, twoHundred.tagType());
+        Assertions.assertEquals(ASN1Identifier.TagClass.ContextSpecific, twoHundred.tagClass());
+        Assertions.assertFalse(twoHundred.isPrimitive());
+        Assertions.assertEquals(0xBF, twoHundred.firstOctet());
+        Assertions.assertEquals(3, twoOctets.position());
+
+        // A sequence holding [200] { [100] aabb } then NULL, through every parser
+        byte[] der = Hex.decode("300bbf8148059f6402aabb0500");
+        for (ASN1Item item : new ASN1Item[]{DERDecodingUtils.parseNextASN1(ByteBuffer.wrap(der)), DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der)), DERDecodingUtils.lazyNextASN1(ByteBuffer.wrap(der))}) {
+            var items = ((dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence) item).asn1ItemList();
+            Assertions.assertEquals(200, items.get(0).identifier().tagNumber());
+            Assertions.assertEquals("9f6402aabb", Hex.toHexString(items.get(0).contents()));
+            Assertions.assertEquals(ASN1TagType.NULL, items.get(1).type());
+        }
+        try (DERStreamReader reader = new DERStreamReader(new ByteArrayInputStream(der))) {
+            Assertions.assertEquals(DERStreamReader.Event.START_CONSTRUCTED, reader.next());
+            Assertions.assertEquals(DERStreamReader.Event.START_CONSTRUCTED, reader.next());
+            Assertions.assertEquals(200, reader.tagNumber());
+            Assertions.assertEquals(ASN1TagType.UNKNOWN, reader.tagType());
+            Assertions.assertEquals(DERStreamReader.Event.PRIMITIVE, reader.next());
+            ASN1Item hundredItem = reader.valueItem();
+            Assertions.assertEquals(100, hundredItem.identifier().tagNumber());
+            Assertions.assertEquals("aabb", Hex.toHexString(hundredItem.contents()));
+        }
+    }
+
+    @Test
+    public void testIndefiniteLength() {
+        // BER allows 0x80 for a length ended by two zero octets, DER does not
+        for (String hex : new String[]{"30800500" + "0000", "0480" + "0000"}) {
+            byte[] der = Hex.decode(hex);
+            Assertions.assertThrows(RuntimeException.class, () -> DERDecodingUtils.parseNextASN1(ByteBuffer.wrap(der)), hex);
+            Assertions.assertThrows(RuntimeException.class, () -> DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der)), hex);
+            Assertions.assertThrows(RuntimeException.class, () -> DERDecodingUtils.lazyNextASN1(ByteBuffer.wrap(der)), hex);
+        }
+        Assertions.assertThrows(RuntimeException.class, () -> DERDecodingUtils.parseNextLength(ByteBuffer.wrap(Hex.decode("80"))));
+        // A nested indefinite length fails when its sequence is read
+        Assertions.assertThrows(RuntimeException.class, () -> ((dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence)
+                DERDecodingUtils.lazyNextASN1(ByteBuffer.wrap(Hex.decode("30063080050000000000")))).asn1ItemList());
+    }
+
     private static void testUsing(int value, int expectedOctetLength, boolean expectedLongForm) {
         ByteBuffer buffer = ByteBuffer.allocate(1);
         buffer.put((byte) value);
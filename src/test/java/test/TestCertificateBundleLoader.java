@@ -0,0 +1,165 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.exceptions.PEMFormatException;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.io.CertificateBundleLoader;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class TestCertificateBundleLoader {
+
+    private static final int CERTIFICATES = 300;
+
+    @Test
+    public void testPEMBundle() throws Exception {
+        List<byte[]> certificates = certificates();
+        StringBuilder bundle = new StringBuilder("# Trust store\n");
+        for (int i = 0; i < CERTIFICATES; i++) {
+            if (i == 100) {
+                bundle.append(PEMUtils.pemFor("PRIVATE KEY", new byte[]{1, 2, 3}));
+            } else if (i == 200) {
+                byte[] corrupt = certificates.get(i).clone();
+                corrupt[0] = 0x31;
+                bundle.append(PEMUtils.pemFor("CERTIFICATE", corrupt));
+            } else {
+                bundle.append(PEMUtils.pemFor("CERTIFICATE", certificates.get(i)));
+            }
+            bundle.append(i % 2 == 0 ? "\r\n" : "subject=ignored\n");
+        }
+
+        Path file = Files.createTempFile("bundle", ".pem");
+        try {
+            Files.writeString(file, bundle, StandardCharsets.US_ASCII);
+            ForkJoinPool pool = new ForkJoinPool(4);
+            List<CertificateBundleLoader.Entry> entries = new CertificateBundleLoader(pool).load(file);
+            pool.shutdown();
+
+            Assertions.assertEquals(CERTIFICATES, entries.size());
+            for (int i = 0; i < CERTIFICATES; i++) {
+                CertificateBundleLoader.Entry entry = entries.get(i);
+                Assertions.assertEquals(i, entry.index());
+                if (i == 100) {
+                    Assertions.assertInstanceOf(PEMFormatException.class, entry.failure());
+                } else if (i == 200) {
+                    Assertions.assertFalse(entry.loaded());
+                } else {
+                    Assertions.assertTrue(entry.loaded(), () -> "Object " + entry.index() + ": " + entry.failure());
+                    Assertions.assertEquals(BigInteger.valueOf(i % 20 + 1), entry.certificate().tbsCertificate().serialNumber());
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testDERBundle() throws Exception {
+        List<byte[]> certificates = certificates();
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        for (int i = 0; i < CERTIFICATES; i++) {
+            byte[] certificate = certificates.get(i).clone();
+            if (i == 50) {
+                // Break the TBS certificate but keep the outer length
+                certificate[4] = 0x05;
+            }
+            bundle.write(certificate);
+        }
+        // A truncated certificate
+        bundle.write(certificates.get(0), 0, 100);
+
+        ByteBuffer buffer = ByteBuffer.wrap(bundle.toByteArray());
+        Assertions.assertEquals(CertificateBundleLoader.Format.DER, CertificateBundleLoader.formatOf(buffer));
+        List<CertificateBundleLoader.Entry> entries = new CertificateBundleLoader().load(buffer);
+
+        Assertions.assertEquals(CERTIFICATES + 1, entries.size());
+        Assertions.assertFalse(entries.get(50).loaded());
+        Assertions.assertInstanceOf(X509CertException.class, entries.get(CERTIFICATES).failure());
+        Assertions.assertEquals(bundle.size() - 100, entries.get(CERTIFICATES).offset());
+        long offset = 0;
+        for (int i = 0; i < CERTIFICATES; i++) {
+            Assertions.assertEquals(offset, entries.get(i).offset());
+            offset += certificates.get(i).length;
+            if (i != 50) {
+                SignedX509Certificate certificate = entries.get(i).certificate();
+                Assertions.assertEquals(BigInteger.valueOf(i % 20 + 1), certificate.tbsCertificate().serialNumber());
+            }
+        }
+
+        // The buffer is not moved
+        Assertions.assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void testFormatOf() throws Exception {
+        byte[] certificate = certificates().get(0);
+        String pem = PEMUtils.pemFor("CERTIFICATE", certificate);
+
+        // '0' is the SEQUENCE tag
+        Assertions.assertEquals(CertificateBundleLoader.Format.PEM, formatOf("0 certificates expire this year\n" + pem));
+        Assertions.assertEquals(CertificateBundleLoader.Format.PEM, formatOf("0\n" + pem));
+        Assertions.assertEquals(CertificateBundleLoader.Format.PEM, formatOf("0123456789"));
+        Assertions.assertEquals(CertificateBundleLoader.Format.PEM, formatOf("  " + pem));
+        Assertions.assertEquals(CertificateBundleLoader.Format.PEM, formatOf(""));
+        Assertions.assertEquals(CertificateBundleLoader.Format.DER, CertificateBundleLoader.formatOf(ByteBuffer.wrap(certificate)));
+        Assertions.assertEquals(CertificateBundleLoader.Format.DER, CertificateBundleLoader.formatOf(ByteBuffer.wrap(new byte[]{0x30, 0x03, 0x02, 0x01, 0x05})));
+
+        // A BEGIN tag inside a DER object, such as in a string field, does not make it PEM
+        byte[] text = ("\n" + pem).getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer der = ByteBuffer.allocate(text.length + 8);
+        der.put((byte) 0x30).put((byte) 0x82).putShort((short) (text.length + 4));
+        der.put((byte) 0x04).put((byte) 0x82).putShort((short) text.length).put(text).flip();
+        Assertions.assertEquals(CertificateBundleLoader.Format.DER, CertificateBundleLoader.formatOf(der));
+
+        List<CertificateBundleLoader.Entry> entries = new CertificateBundleLoader()
+                .load(ByteBuffer.wrap(("0 certificates expire this year\n" + pem).getBytes(StandardCharsets.US_ASCII)));
+        Assertions.assertEquals(1, entries.size());
+        Assertions.assertTrue(entries.get(0).loaded());
+    }
+
+    private static CertificateBundleLoader.Format formatOf(String bundle) {
+        return CertificateBundleLoader.formatOf(ByteBuffer.wrap(bundle.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * @return The same 20 certificates repeated, with serial numbers 1 to 20.
+     */
+    private static List<byte[]> certificates() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        KeyPair keyPair = generator.generateKeyPair();
+        X500Name name = new X500Name("CN=Bundle Test,O=Wobbegong");
+        Instant now = Instant.now();
+
+        List<byte[]> distinct = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            var builder = new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(i), Date.from(now), Date.from(now.plus(i, ChronoUnit.DAYS)), name, keyPair.getPublic());
+            distinct.add(builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate())).getEncoded());
+        }
+        List<byte[]> certificates = new ArrayList<>();
+        for (int i = 0; i < CERTIFICATES; i++) {
+            certificates.add(Arrays.copyOf(distinct.get(i % 20), distinct.get(i % 20).length));
+        }
+        return certificates;
+    }
+}
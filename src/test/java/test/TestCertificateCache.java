@@ -0,0 +1,167 @@
+package test;
+
+import dev.wobbegong.kmsca.cache.CertificateCache;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TestCertificateCache {
+
+    @Test
+    public void testHit() throws Exception {
+        byte[] der = certificates(1).get(0);
+        CertificateCache cache = new CertificateCache();
+
+        SignedX509Certificate first = cache.get(der);
+        Assertions.assertEquals(BigInteger.ZERO, first.tbsCertificate().serialNumber());
+
+        // Equal encodings hit, wherever they are
+        byte[] padded = new byte[der.length + 10];
+        System.arraycopy(der, 0, padded, 5, der.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded, 5, der.length);
+        Assertions.assertSame(first, cache.get(buffer));
+        Assertions.assertEquals(5, buffer.position());
+        Assertions.assertSame(first, cache.get(der.clone()));
+        Assertions.assertSame(first, cache.getIfPresent(ByteBuffer.wrap(der)));
+
+        // The cache keeps its own copy
+        Arrays.fill(der, (byte) 0);
+        Assertions.assertTrue(first.verify(first));
+
+        CertificateCache.Metrics metrics = cache.metrics();
+        Assertions.assertEquals(2, metrics.hits());
+        Assertions.assertEquals(1, metrics.misses());
+        Assertions.assertEquals(1, metrics.entries());
+        Assertions.assertEquals(padded.length - 10, metrics.weight());
+        Assertions.assertEquals(2.0 / 3, metrics.hitRatio(), 1e-9);
+
+        cache.clear();
+        Assertions.assertNull(cache.getIfPresent(buffer));
+        Assertions.assertEquals(0, cache.metrics().weight());
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        CertificateCache cache = new CertificateCache();
+        byte[] der = certificates(1).get(0);
+
+        Assertions.assertThrows(X509CertException.class, () -> cache.get(new byte[]{0x30, 0x03, 0x02, 0x01, 0x01}));
+        Assertions.assertThrows(X509CertException.class, () -> cache.get(Arrays.copyOf(der, der.length - 1)));
+        Assertions.assertThrows(X509CertException.class, () -> cache.get(Arrays.copyOf(der, der.length + 1)));
+        Assertions.assertEquals(0, cache.metrics().entries());
+        Assertions.assertEquals(3, cache.metrics().misses());
+    }
+
+    /**
+     * Entries hit more than once are protected from a scan of certificates seen only once.
+     */
+    @Test
+    public void testScanResistance() throws Exception {
+        List<byte[]> certificates = certificates(60);
+        int weight = certificates.get(0).length;
+        CertificateCache cache = new CertificateCache(new CertificateCache.Options(weight * 10L + weight / 2, 1));
+
+        List<byte[]> hot = certificates.subList(0, 5);
+        for (int i = 0; i < 3; i++) {
+            for (byte[] der : hot) {
+                cache.get(der);
+            }
+        }
+        for (byte[] der : certificates.subList(5, 60)) {
+            cache.get(der);
+        }
+
+        for (byte[] der : hot) {
+            Assertions.assertNotNull(cache.getIfPresent(ByteBuffer.wrap(der)));
+        }
+        CertificateCache.Metrics metrics = cache.metrics();
+        Assertions.assertTrue(metrics.weight() <= weight * 10L + weight / 2);
+        Assertions.assertEquals(60 - metrics.entries(), metrics.evictions());
+        Assertions.assertEquals(10, metrics.hits());
+    }
+
+    @Test
+    public void testOversized() throws Exception {
+        byte[] der = certificates(1).get(0);
+        CertificateCache cache = new CertificateCache(new CertificateCache.Options(der.length - 1, 1));
+        SignedX509Certificate certificate = cache.get(der);
+        Assertions.assertNotNull(certificate);
+        Assertions.assertEquals(0, cache.metrics().entries());
+        Assertions.assertEquals(0, cache.metrics().evictions());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        List<byte[]> certificates = certificates(20);
+        CertificateCache cache = new CertificateCache(new CertificateCache.Options(1024 * 1024, 4));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        byte[] der = certificates.get(i % certificates.size());
+                        BigInteger serial = cache.get(der).tbsCertificate().serialNumber();
+                        Assertions.assertEquals(BigInteger.valueOf(i % certificates.size()), serial);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        CertificateCache.Metrics metrics = cache.metrics();
+        Assertions.assertEquals(8000, metrics.hits() + metrics.misses());
+        Assertions.assertEquals(20, metrics.entries());
+        Assertions.assertTrue(metrics.hitRatio() > 0.9);
+    }
+
+    @Test
+    public void testOptions() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CertificateCache.Options(0, 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CertificateCache.Options(1024, 3));
+    }
+
+    /**
+     * @return Certificates of about the same size, as ECDSA signatures vary by a few octets, with serial numbers
+     * counting from 0.
+     */
+    private static List<byte[]> certificates(int count) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        ContentSigner signer = new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate());
+        X500Name name = new X500Name("CN=Cache Test,O=Wobbegong");
+        Instant now = Instant.now();
+        List<byte[]> certificates = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            certificates.add(new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(i), Date.from(now), Date.from(now.plus(1, ChronoUnit.DAYS)), name, keyPair.getPublic())
+                    .build(signer)
+                    .getEncoded());
+        }
+        return certificates;
+    }
+}
@@ -0,0 +1,252 @@
+package test;
+
+import dev.wobbegong.kmsca.chain.CertificateChainValidator;
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+import dev.wobbegong.kmsca.utils.X509Utils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class TestCertificateChainValidator {
+
+    private static final Instant NOW = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+
+    @Test
+    public void testValidate() throws Exception {
+        KeyPair rootKey = Fixtures.keyPair("EC", 256);
+        KeyPair intermediateKey = Fixtures.keyPair("EC", 256);
+        SignedX509Certificate root = certificate("CN=Root", rootKey, "CN=Root", rootKey, ca(1), NOW);
+        SignedX509Certificate intermediate = certificate("CN=Intermediate", intermediateKey, "CN=Root", rootKey, ca(0), NOW);
+        SignedX509Certificate leaf = certificate("CN=Leaf", Fixtures.keyPair("EC", 256), "CN=Intermediate", intermediateKey, null, NOW);
+
+        CertificateChainValidator validator = new CertificateChainValidator(List.of(root));
+        Assertions.assertEquals(List.of(leaf, intermediate, root), validator.validate(List.of(leaf, intermediate), NOW));
+        // Presented certificates may come in any order, and the anchor may be presented too
+        Assertions.assertEquals(List.of(leaf, intermediate, root), validator.validate(leaf, List.of(root, intermediate), NOW));
+        Assertions.assertEquals(List.of(root), validator.validate(root, List.of(), NOW));
+
+        // Intermediates held by the validator complete a path
+        CertificateChainValidator withIntermediates = new CertificateChainValidator(List.of(root), List.of(intermediate));
+        Assertions.assertEquals(List.of(leaf, intermediate, root), withIntermediates.validate(leaf, List.of(), NOW));
+
+        Assertions.assertThrows(X509CertException.class, () -> validator.validate(leaf, List.of(), NOW));
+        Assertions.assertThrows(X509CertException.class, () -> validator.validate(List.of(leaf, intermediate), NOW.plus(2, ChronoUnit.DAYS)));
+        Assertions.assertThrows(X509CertException.class, () -> validator.validate(List.of(leaf, intermediate), NOW.minus(2, ChronoUnit.DAYS)));
+
+        // Another root with the same name does not anchor the chain
+        SignedX509Certificate impostor = certificate("CN=Root", Fixtures.keyPair("EC", 256), "CN=Root", rootKey, ca(1), NOW);
+        CertificateChainValidator wrongAnchor = new CertificateChainValidator(List.of(impostor));
+        Assertions.assertThrows(X509CertException.class, () -> wrongAnchor.validate(List.of(leaf, intermediate), NOW));
+    }
+
+    @Test
+    public void testIssuerConstraints() throws Exception {
+        KeyPair rootKey = Fixtures.keyPair("EC", 256);
+        KeyPair intermediateKey = Fixtures.keyPair("EC", 256);
+        KeyPair subKey = Fixtures.keyPair("EC", 256);
+        SignedX509Certificate root = certificate("CN=Root", rootKey, "CN=Root", rootKey, ca(-1), NOW);
+        CertificateChainValidator validator = new CertificateChainValidator(List.of(root));
+
+        SignedX509Certificate notCA = certificate("CN=Intermediate", intermediateKey, "CN=Root", rootKey, null, NOW);
+        SignedX509Certificate leaf = certificate("CN=Leaf", Fixtures.keyPair("EC", 256), "CN=Intermediate", intermediateKey, null, NOW);
+        X509CertException e = Assertions.assertThrows(X509CertException.class, () -> validator.validate(List.of(leaf, notCA), NOW));
+        Assertions.assertTrue(e.getMessage().contains("not a CA"), e.getMessage());
+
+        SignedX509Certificate expired = certificate("CN=Intermediate", intermediateKey, "CN=Root", rootKey, ca(0), NOW.minus(3, ChronoUnit.DAYS));
+        Assertions.assertThrows(X509CertException.class, () -> validator.validate(List.of(leaf, expired), NOW));
+
+        // A path length of 0 allows no intermediate below
+        SignedX509Certificate intermediate = certificate("CN=Intermediate", intermediateKey, "CN=Root", rootKey, ca(0), NOW);
+        SignedX509Certificate sub = certificate("CN=Sub", subKey, "CN=Intermediate", intermediateKey, ca(0), NOW);
+        SignedX509Certificate subLeaf = certificate("CN=Leaf", Fixtures.keyPair("EC", 256), "CN=Sub", subKey, null, NOW);
+        Assertions.assertThrows(X509CertException.class, () -> validator.validate(List.of(subLeaf, sub, intermediate), NOW));
+
+        // The same chain is fine when the path length allows it, unless the validator's own limit does not
+        SignedX509Certificate longIntermediate = certificate("CN=Intermediate", intermediateKey, "CN=Root", rootKey, ca(1), NOW);
+        Assertions.assertEquals(4, validator.validate(List.of(subLeaf, sub, longIntermediate), NOW).size());
+        CertificateChainValidator limited = new CertificateChainValidator(List.of(root), List.of(), new CertificateChainValidator.Options(1, 8, 16), ForkJoinPool.commonPool());
+        Assertions.assertThrows(X509CertException.class, () -> limited.validate(List.of(subLeaf, sub, longIntermediate), NOW));
+
+        // Of two intermediates with the same name and key, the one that is a CA is used
+        Assertions.assertEquals(List.of(leaf, intermediate, root), validator.validate(List.of(leaf, notCA, intermediate), NOW));
+    }
+
+    /**
+     * A forged certificate copying the name and key identifiers of a valid one must not pass on remembered outcomes.
+     */
+    @Test
+    public void testRememberedSignatures() throws Exception {
+        KeyPair rootKey = Fixtures.keyPair("EC", 256);
+        KeyPair intermediateKey = Fixtures.keyPair("EC", 256);
+        SignedX509Certificate root = certificate("CN=Root", rootKey, "CN=Root", rootKey, ca(1), NOW);
+        SignedX509Certificate intermediate = certificate("CN=Intermediate", intermediateKey, "CN=Root", rootKey, ca(0), NOW);
+        SignedX509Certificate leaf = certificate("CN=Leaf", Fixtures.keyPair("EC", 256), "CN=Intermediate", intermediateKey, null, NOW);
+
+        CertificateChainValidator validator = new CertificateChainValidator(List.of(root));
+        validator.validate(List.of(leaf, intermediate), NOW);
+        Assertions.assertEquals(new CertificateChainValidator.Metrics(0, 2, 2), validator.metrics());
+        validator.validate(List.of(leaf, intermediate), NOW);
+        Assertions.assertEquals(new CertificateChainValidator.Metrics(2, 2, 2), validator.metrics());
+        Assertions.assertEquals(0.5, validator.metrics().hitRatio(), 1e-9);
+
+        // Same issuer name and key, other key pair signing
+        SignedX509Certificate forged = certificate("CN=Leaf", Fixtures.keyPair("EC", 256), "CN=Intermediate", intermediateKey, null, NOW, Fixtures.keyPair("EC", 256));
+        X509CertException e = Assertions.assertThrows(X509CertException.class, () -> validator.validate(List.of(forged, intermediate), NOW));
+        Assertions.assertTrue(e.getMessage().contains("signatures"), e.getMessage());
+        Assertions.assertEquals(3, validator.metrics().misses());
+
+        validator.clear();
+        Assertions.assertEquals(0, validator.metrics().edges());
+        validator.validate(List.of(leaf, intermediate), NOW);
+        Assertions.assertEquals(5, validator.metrics().misses());
+    }
+
+    @Test
+    public void testPurpose() throws Exception {
+        KeyPair rootKey = Fixtures.keyPair("EC", 256);
+        KeyPair intermediateKey = Fixtures.keyPair("EC", 256);
+        SignedX509Certificate root = certificate("CN=Root", rootKey, "CN=Root", rootKey, ca(1), NOW);
+        SignedX509Certificate intermediate = certificate("CN=Intermediate", intermediateKey, "CN=Root", rootKey, ca(0), NOW, rootKey, true,
+                new Extension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(KeyPurposeId.id_kp_serverAuth).getEncoded()));
+        SignedX509Certificate server = certificate("CN=Server", Fixtures.keyPair("EC", 256), "CN=Intermediate", intermediateKey, null, NOW, intermediateKey, true,
+                new Extension(Extension.extendedKeyUsage, true, new ExtendedKeyUsage(KeyPurposeId.id_kp_serverAuth).getEncoded()));
+        SignedX509Certificate client = certificate("CN=Client", Fixtures.keyPair("EC", 256), "CN=Intermediate", intermediateKey, null, NOW, intermediateKey, true,
+                new Extension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(KeyPurposeId.id_kp_clientAuth).getEncoded()));
+        SignedX509Certificate any = certificate("CN=Any", Fixtures.keyPair("EC", 256), "CN=Intermediate", intermediateKey, null, NOW);
+
+        CertificateChainValidator validator = new CertificateChainValidator(List.of(root));
+        Assertions.assertEquals(3, validator.validate(List.of(server, intermediate), NOW, KnownOids.serverAuth).size());
+        Assertions.assertEquals(3, validator.validate(List.of(any, intermediate), NOW, KnownOids.serverAuth).size());
+        X509CertException e = Assertions.assertThrows(X509CertException.class,
+                () -> validator.validate(List.of(client, intermediate), NOW, KnownOids.serverAuth));
+        Assertions.assertTrue(e.getMessage().contains("may not be used for serverAuth"), e.getMessage());
+        // The intermediate only allows server authentication for the certificates it issues
+        Assertions.assertThrows(X509CertException.class, () -> validator.validate(List.of(any, intermediate), NOW, KnownOids.clientAuth));
+
+        // A critical extended key usage is only understood when a purpose is checked
+        Assertions.assertThrows(X509CertException.class, () -> validator.validate(List.of(server, intermediate), NOW));
+        Assertions.assertEquals(3, validator.validate(List.of(client, intermediate), NOW).size());
+    }
+
+    @Test
+    public void testIssuerLookup() throws Exception {
+        KeyPair rootKey = Fixtures.keyPair("EC", 256);
+        KeyPair intermediateKey = Fixtures.keyPair("EC", 256);
+        SignedX509Certificate root = certificate("CN=Root", rootKey, "CN=Root", rootKey, ca(1), NOW);
+        // The issuer has no subject key identifier, and another CA has the one the leaf names
+        SignedX509Certificate intermediate = certificate("CN=Intermediate", intermediateKey, "CN=Root", rootKey, ca(0), NOW, rootKey, false);
+        SignedX509Certificate other = certificate("CN=Other", intermediateKey, "CN=Root", rootKey, ca(0), NOW);
+        SignedX509Certificate leaf = certificate("CN=Leaf", Fixtures.keyPair("EC", 256), "CN=Intermediate", intermediateKey, null, NOW);
+
+        CertificateChainValidator validator = new CertificateChainValidator(List.of(root));
+        Assertions.assertEquals(List.of(leaf, intermediate, root), validator.validate(leaf, List.of(other, intermediate), NOW));
+
+        // Without its TBS octets a copy of the anchor is not the anchor, and its signature cannot be checked
+        SignedX509Certificate copy = new SignedX509Certificate(root.tbsCertificate(), root.signatureAlgorithm(), root.signature());
+        Assertions.assertThrows(X509CertException.class, () -> validator.validate(copy, List.of(), NOW));
+    }
+
+    @Test
+    public void testChains() throws Exception {
+        for (String resource : List.of("google-com-chain.pem", "questionablecontent-net-chain.pem", "www-homedepot-com-chain.pem",
+                "yahoo-com-chain.pem", "stackoverflow-com-chain.pem")) {
+            String pem;
+            try (InputStream is = getClass().getClassLoader().getResourceAsStream("certs/v3/" + resource)) {
+                Assertions.assertNotNull(is, resource);
+                pem = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            List<SignedX509Certificate> chain = new ArrayList<>();
+            for (PEMObject object : PEMUtils.parsePEMBytes(pem)) {
+                chain.add(X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(object.content()))));
+            }
+            SignedX509Certificate anchor = chain.get(chain.size() - 1);
+            Instant at = chain.get(0).tbsCertificate().issued().toInstant().plus(1, ChronoUnit.HOURS);
+
+            CertificateChainValidator validator = new CertificateChainValidator(List.of(anchor));
+            Assertions.assertEquals(chain, validator.validate(chain.subList(0, chain.size() - 1), at), resource);
+            Assertions.assertEquals(chain, validator.validate(chain, at), resource);
+            Assertions.assertEquals(chain.size() - 1, validator.metrics().hits(), resource);
+        }
+    }
+
+    @Test
+    public void testOptions() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CertificateChainValidator.Options(-1, 8, 16));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CertificateChainValidator.Options(8, 0, 16));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CertificateChainValidator.Options(8, 8, -1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CertificateChainValidator(List.of()));
+    }
+
+    /**
+     * @param pathLength The path length constraint, or -1 for none.
+     */
+    private static BasicConstraints ca(int pathLength) {
+        return pathLength < 0 ? new BasicConstraints(true) : new BasicConstraints(pathLength);
+    }
+
+    private static SignedX509Certificate certificate(String subject, KeyPair subjectKey, String issuer, KeyPair issuerKey,
+                                                     BasicConstraints basicConstraints, Instant notBefore) throws Exception {
+        return certificate(subject, subjectKey, issuer, issuerKey, basicConstraints, notBefore, issuerKey);
+    }
+
+    /**
+     * @param signingKey The key that signs the certificate, which is the issuer key unless forging.
+     */
+    private static SignedX509Certificate certificate(String subject, KeyPair subjectKey, String issuer, KeyPair issuerKey,
+                                                     BasicConstraints basicConstraints, Instant notBefore, KeyPair signingKey) throws Exception {
+        return certificate(subject, subjectKey, issuer, issuerKey, basicConstraints, notBefore, signingKey, true);
+    }
+
+    /**
+     * @param subjectKeyIdentifier Whether to add a subject key identifier. The authority key identifier is always added.
+     * @param extensions           Other extensions to add.
+     */
+    private static SignedX509Certificate certificate(String subject, KeyPair subjectKey, String issuer, KeyPair issuerKey,
+                                                     BasicConstraints basicConstraints, Instant notBefore, KeyPair signingKey,
+                                                     boolean subjectKeyIdentifier, Extension... extensions) throws Exception {
+        JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name(issuer), BigInteger.valueOf(notBefore.toEpochMilli()),
+                Date.from(notBefore.minus(1, ChronoUnit.HOURS)), Date.from(notBefore.plus(1, ChronoUnit.DAYS)), new X500Name(subject), subjectKey.getPublic())
+                .addExtension(Extension.authorityKeyIdentifier, false, extensionUtils.createAuthorityKeyIdentifier(issuerKey.getPublic()));
+        if (subjectKeyIdentifier) {
+            builder.addExtension(Extension.subjectKeyIdentifier, false, extensionUtils.createSubjectKeyIdentifier(subjectKey.getPublic()));
+        }
+        for (Extension extension : extensions) {
+            builder.addExtension(extension);
+        }
+        if (basicConstraints != null) {
+            builder.addExtension(Extension.basicConstraints, true, basicConstraints)
+                    .addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+        }
+        byte[] der = builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(signingKey.getPrivate())).getEncoded();
+        return X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der)));
+    }
+}
@@ -0,0 +1,257 @@
+package test;
+
+import dev.wobbegong.kmsca.crl.CRLIssuer;
+import dev.wobbegong.kmsca.crl.CRLScheduler;
+import dev.wobbegong.kmsca.crl.RevocationStore;
+import dev.wobbegong.kmsca.entities.CertificateAuthority;
+import dev.wobbegong.kmsca.entities.pkcs12.RevocationReason;
+import dev.wobbegong.kmsca.entities.pkcs12.RevokedCertificate;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CRLEntryHolder;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestCertificateRevocationList {
+
+    private static final Instant NOW = Instant.parse("2026-03-01T12:00:00Z");
+
+    @Test
+    public void testCRL() throws Exception {
+        KeyPair keys = Fixtures.keyPair("EC", 256);
+        CertificateAuthority ca = Fixtures.ca(keys);
+        RevocationStore store = new RevocationStore();
+        store.revoke(BigInteger.valueOf(300), NOW.minusSeconds(60), RevocationReason.keyCompromise);
+        store.revoke(BigInteger.valueOf(2), NOW.minusSeconds(120), null);
+        store.revoke(BigInteger.ONE.shiftLeft(150), Instant.parse("2051-01-01T00:00:00Z"), RevocationReason.superseded);
+        store.revoke(BigInteger.valueOf(128), NOW.minusSeconds(30), RevocationReason.unspecified);
+
+        CRLIssuer issuer = new CRLIssuer(ca, store, 7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CRLIssuer.IssuedCRL issued = issuer.writeCRL(out, NOW, NOW.plus(Duration.ofDays(1)));
+        Assertions.assertEquals(new CRLIssuer.IssuedCRL(7, null, NOW, NOW.plus(Duration.ofDays(1)), 4, out.size()), issued);
+
+        X509CRL crl = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(out.toByteArray()));
+        crl.verify(keys.getPublic());
+        Assertions.assertEquals(2, crl.getVersion());
+        Assertions.assertArrayEquals(ca.subject(), crl.getIssuerX500Principal().getEncoded());
+        Assertions.assertEquals(NOW, crl.getThisUpdate().toInstant());
+        Assertions.assertEquals(NOW.plus(Duration.ofDays(1)), crl.getNextUpdate().toInstant());
+        Assertions.assertEquals(4, crl.getRevokedCertificates().size());
+
+        X509CRLEntry entry = crl.getRevokedCertificate(BigInteger.valueOf(300));
+        Assertions.assertEquals(NOW.minusSeconds(60), entry.getRevocationDate().toInstant());
+        Assertions.assertEquals(java.security.cert.CRLReason.KEY_COMPROMISE, entry.getRevocationReason());
+        Assertions.assertNull(crl.getRevokedCertificate(BigInteger.valueOf(2)).getRevocationReason());
+        // Unspecified is left out rather than written
+        Assertions.assertNull(crl.getRevokedCertificate(BigInteger.valueOf(128)).getRevocationReason());
+        Assertions.assertEquals(Instant.parse("2051-01-01T00:00:00Z"), crl.getRevokedCertificate(BigInteger.ONE.shiftLeft(150)).getRevocationDate().toInstant());
+        Assertions.assertNull(crl.getRevokedCertificate(BigInteger.valueOf(3)));
+
+        X509CRLHolder holder = new X509CRLHolder(out.toByteArray());
+        Assertions.assertEquals(BigInteger.valueOf(7), ASN1Integer.getInstance(holder.getExtension(Extension.cRLNumber).getParsedValue()).getValue());
+        Assertions.assertArrayEquals(ca.keyIdentifier(), AuthorityKeyIdentifier.getInstance(holder.getExtension(Extension.authorityKeyIdentifier).getParsedValue()).getKeyIdentifier());
+        Assertions.assertNull(holder.getExtension(Extension.deltaCRLIndicator));
+
+        // Entries are in serial number order
+        List<BigInteger> serials = new ArrayList<>();
+        for (Object revoked : holder.getRevokedCertificates()) {
+            serials.add(((X509CRLEntryHolder) revoked).getSerialNumber());
+        }
+        Assertions.assertEquals(List.of(BigInteger.valueOf(2), BigInteger.valueOf(128), BigInteger.valueOf(300), BigInteger.ONE.shiftLeft(150)), serials);
+    }
+
+    @Test
+    public void testDeltaCRL() throws Exception {
+        KeyPair keys = Fixtures.keyPair("RSA", 2048);
+        RevocationStore store = new RevocationStore(1);
+        CRLIssuer issuer = new CRLIssuer(Fixtures.ca(keys), store);
+        Assertions.assertThrows(IllegalStateException.class, () -> issuer.writeDeltaCRL(new ByteArrayOutputStream(), NOW, NOW.plusSeconds(60)));
+
+        // An empty CRL leaves out its revoked certificates
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assertions.assertEquals(0, issuer.writeCRL(out, NOW, NOW.plusSeconds(3600)).entries());
+        X509CRL empty = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(out.toByteArray()));
+        empty.verify(keys.getPublic());
+        Assertions.assertNull(empty.getRevokedCertificates());
+
+        for (int i = 1; i <= 10; i++) {
+            store.revoke(BigInteger.valueOf(i), NOW, RevocationReason.cessationOfOperation);
+        }
+        issuer.writeCRL(new ByteArrayOutputStream(), NOW, NOW.plusSeconds(3600));
+        store.revoke(BigInteger.valueOf(5000), NOW.plusSeconds(10), RevocationReason.cACompromise);
+        store.revoke(BigInteger.valueOf(4), NOW.plusSeconds(20), null);
+        store.revoke(BigInteger.valueOf(11), NOW.plusSeconds(30), RevocationReason.certificateHold);
+
+        out.reset();
+        CRLIssuer.IssuedCRL delta = issuer.writeDeltaCRL(out, NOW.plusSeconds(60), NOW.plusSeconds(120));
+        Assertions.assertTrue(delta.delta());
+        Assertions.assertEquals(3, delta.crlNumber());
+        Assertions.assertEquals(2, delta.baseCRLNumber());
+        Assertions.assertEquals(2, delta.entries());
+        Assertions.assertEquals(out.size(), delta.length());
+
+        X509CRLHolder holder = new X509CRLHolder(out.toByteArray());
+        Extension indicator = holder.getExtension(Extension.deltaCRLIndicator);
+        Assertions.assertTrue(indicator.isCritical());
+        Assertions.assertEquals(BigInteger.TWO, ASN1Integer.getInstance(indicator.getParsedValue()).getValue());
+        Assertions.assertNull(holder.getRevokedCertificate(BigInteger.valueOf(3)));
+        X509CRLEntryHolder held = holder.getRevokedCertificate(BigInteger.valueOf(11));
+        Assertions.assertEquals(CRLReason.lookup(CRLReason.certificateHold), CRLReason.getInstance(held.getExtensions().getExtensionParsedValue(Extension.reasonCode)));
+        Assertions.assertNotNull(holder.getRevokedCertificate(BigInteger.valueOf(5000)));
+        X509CRL crl = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(out.toByteArray()));
+        crl.verify(keys.getPublic());
+
+        // The next complete CRL becomes the base
+        Assertions.assertEquals(12, issuer.writeCRL(new ByteArrayOutputStream(), NOW, NOW.plusSeconds(3600)).entries());
+        CRLIssuer.IssuedCRL emptyDelta = issuer.writeDeltaCRL(new ByteArrayOutputStream(), NOW, NOW.plusSeconds(60));
+        Assertions.assertEquals(0, emptyDelta.entries());
+        Assertions.assertEquals(4, emptyDelta.baseCRLNumber());
+    }
+
+    @Test
+    public void testStore() {
+        RevocationStore store = new RevocationStore(3);
+        for (int i = 100; i > 0; i--) {
+            Assertions.assertTrue(store.revoke(BigInteger.valueOf(i * 37L), NOW.plusMillis(i * 1500L), i % 2 == 0 ? RevocationReason.superseded : null));
+        }
+        Assertions.assertFalse(store.revoke(BigInteger.valueOf(37), NOW, RevocationReason.keyCompromise));
+        Assertions.assertEquals(100, store.size());
+        Assertions.assertEquals(new RevokedCertificate(BigInteger.valueOf(74), NOW.plusSeconds(3), RevocationReason.superseded), store.get(BigInteger.valueOf(74)));
+        Assertions.assertEquals(new RevokedCertificate(BigInteger.valueOf(37), NOW.plusSeconds(1), null), store.get(BigInteger.valueOf(37)));
+        Assertions.assertTrue(store.isRevoked(BigInteger.valueOf(3700)));
+        Assertions.assertFalse(store.isRevoked(BigInteger.valueOf(38)));
+        Assertions.assertFalse(store.isRevoked(BigInteger.valueOf(-37)));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> store.revoke(BigInteger.ZERO, NOW, null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> store.revoke(BigInteger.ONE.shiftLeft(160), NOW, null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> store.revoke(BigInteger.TEN, NOW, RevocationReason.removeFromCRL));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> store.revoke(BigInteger.TEN, Instant.parse("+10000-01-01T00:00:00Z"), null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new RevocationStore(0));
+    }
+
+    @Test
+    public void testScheduler() throws Exception {
+        RevocationStore store = new RevocationStore();
+        store.revoke(BigInteger.TEN, NOW, RevocationReason.keyCompromise);
+        CRLIssuer issuer = new CRLIssuer(Fixtures.ca(Fixtures.keyPair("EC", 256)), store);
+
+        ConcurrentLinkedQueue<CRLIssuer.IssuedCRL> published = new ConcurrentLinkedQueue<>();
+        CountDownLatch latch = new CountDownLatch(4);
+        CRLScheduler.Destination destination = new CRLScheduler.Destination() {
+            @Override
+            public OutputStream open(boolean delta) {
+                return new ByteArrayOutputStream();
+            }
+
+            @Override
+            public void published(CRLIssuer.IssuedCRL crl) {
+                published.add(crl);
+                latch.countDown();
+            }
+        };
+
+        try (CRLScheduler scheduler = new CRLScheduler(issuer, destination, new CRLScheduler.Options(Duration.ofMillis(400), Duration.ofMillis(50), Duration.ofSeconds(5)))) {
+            Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            CRLIssuer.IssuedCRL crl = published.peek();
+            Assertions.assertFalse(crl.delta());
+            Assertions.assertEquals(1, crl.entries());
+            Assertions.assertEquals(crl.thisUpdate().plus(Duration.ofMillis(5400)), crl.nextUpdate());
+            Assertions.assertTrue(published.stream().skip(1).anyMatch(CRLIssuer.IssuedCRL::delta));
+
+            CRLIssuer.IssuedCRL delta = scheduler.publish(true);
+            Assertions.assertTrue(delta.delta());
+            Assertions.assertEquals(delta.thisUpdate().plus(Duration.ofMillis(5050)), delta.nextUpdate());
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CRLScheduler.Options(Duration.ZERO, Duration.ofMillis(1), Duration.ZERO));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CRLScheduler.Options(Duration.ofHours(1), Duration.ofHours(2), Duration.ZERO));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CRLScheduler.Options(Duration.ofHours(1), Duration.ofHours(1), Duration.ofHours(-1)));
+    }
+
+    /**
+     * CRLs published outside the schedule are not written alongside the scheduled ones, and reach the destination in
+     * the order of their numbers.
+     */
+    @Test
+    public void testSchedulerPublishesOneAtATime() throws Exception {
+        CRLIssuer issuer = new CRLIssuer(Fixtures.ca(Fixtures.keyPair("EC", 256)), new RevocationStore());
+        AtomicInteger writing = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        ConcurrentLinkedQueue<CRLIssuer.IssuedCRL> published = new ConcurrentLinkedQueue<>();
+        CRLScheduler.Destination destination = new CRLScheduler.Destination() {
+            @Override
+            public OutputStream open(boolean delta) {
+                if (writing.incrementAndGet() > 1) {
+                    overlapped.set(true);
+                }
+                return new ByteArrayOutputStream();
+            }
+
+            @Override
+            public void published(CRLIssuer.IssuedCRL crl) throws IOException {
+                published.add(crl);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                writing.decrementAndGet();
+            }
+        };
+
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try (CRLScheduler scheduler = new CRLScheduler(issuer, destination, new CRLScheduler.Options(Duration.ofMillis(20), Duration.ofMillis(5), Duration.ZERO))) {
+            // Delta CRLs need a complete one first
+            scheduler.publish(false);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                boolean delta = i % 2 == 1;
+                futures.add(threads.submit(() -> {
+                    for (int j = 0; j < 25; j++) {
+                        scheduler.publish(delta);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            threads.shutdown();
+        }
+
+        Assertions.assertFalse(overlapped.get());
+        long crlNumber = 0;
+        for (CRLIssuer.IssuedCRL crl : published) {
+            Assertions.assertTrue(crl.crlNumber() > crlNumber, "CRL " + crl.crlNumber() + " after " + crlNumber);
+            crlNumber = crl.crlNumber();
+        }
+    }
+}
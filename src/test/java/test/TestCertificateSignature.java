@@ -0,0 +1,115 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.io.DERStreamReader;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+import dev.wobbegong.kmsca.utils.X509Utils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+
+public class TestCertificateSignature {
+
+    @Test
+    public void testVerify() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("RSA", 2048);
+        byte[] der = selfSigned(keyPair);
+        X509Certificate expected = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(der));
+
+        SignedX509Certificate view = X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der)));
+        SignedX509Certificate copy = X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.parseNextASN1(ByteBuffer.wrap(der)));
+        SignedX509Certificate streamed;
+        try (DERStreamReader reader = new DERStreamReader(new ByteArrayInputStream(der))) {
+            streamed = X509Utils.toCertificate(reader);
+        }
+
+        for (SignedX509Certificate certificate : List.of(view, copy, streamed)) {
+            Assertions.assertEquals(ByteBuffer.wrap(expected.getTBSCertificate()), certificate.encodedTBS());
+            Assertions.assertTrue(certificate.verify(keyPair.getPublic()));
+            Assertions.assertTrue(certificate.verify(certificate));
+        }
+
+        // Verifying twice must not consume the kept encoding
+        Assertions.assertTrue(view.verify(keyPair.getPublic()));
+        Assertions.assertFalse(view.verify(Fixtures.keyPair("RSA", 2048).getPublic()));
+
+        byte[] tampered = view.signature().clone();
+        tampered[tampered.length - 1] ^= 1;
+        Assertions.assertFalse(new SignedX509Certificate(view.tbsCertificate(), view.signatureAlgorithm(), tampered, view.encodedTBS()).verify(keyPair.getPublic()));
+
+        SignedX509Certificate withoutEncoding = new SignedX509Certificate(view.tbsCertificate(), view.signatureAlgorithm(), view.signature());
+        Assertions.assertNull(withoutEncoding.encodedTBS());
+        Assertions.assertThrows(IllegalStateException.class, () -> withoutEncoding.verify(keyPair.getPublic()));
+    }
+
+    /**
+     * The TBS certificate of a view is a slice of the parsed buffer, not a copy.
+     */
+    @Test
+    public void testZeroCopy() throws Exception {
+        byte[] der = selfSigned(Fixtures.keyPair("RSA", 2048));
+        SignedX509Certificate certificate = X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der)));
+
+        ByteBuffer encoded = certificate.encodedTBS();
+        Assertions.assertTrue(encoded.isReadOnly());
+        // The certificate sequence header is 4 octets, followed by the TBS certificate
+        byte before = encoded.get(encoded.limit() - 1);
+        der[4 + encoded.limit() - 1] ^= 1;
+        Assertions.assertNotEquals(before, certificate.encodedTBS().get(encoded.limit() - 1));
+    }
+
+    @Test
+    public void testChains() throws Exception {
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        for (String resource : List.of("google-com-chain.pem", "questionablecontent-net-chain.pem", "www-homedepot-com-chain.pem",
+                "yahoo-com-chain.pem", "stackoverflow-com-chain.pem")) {
+            String pem;
+            try (InputStream is = getClass().getClassLoader().getResourceAsStream("certs/v3/" + resource)) {
+                Assertions.assertNotNull(is, resource);
+                pem = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            List<PEMObject> objects = PEMUtils.parsePEMBytes(pem);
+            Assertions.assertTrue(objects.size() > 1, resource);
+            for (int i = 0; i + 1 < objects.size(); i++) {
+                SignedX509Certificate subject = X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(objects.get(i).content())));
+                SignedX509Certificate issuer = X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(objects.get(i + 1).content())));
+                X509Certificate expected = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(objects.get(i).content()));
+
+                Assertions.assertArrayEquals(expected.getTBSCertificate(), toArray(subject.encodedTBS()), resource + " " + i);
+                Assertions.assertTrue(subject.verify(issuer), resource + " " + i);
+            }
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] array = new byte[buffer.remaining()];
+        buffer.get(array);
+        return array;
+    }
+
+    private static byte[] selfSigned(KeyPair keyPair) throws Exception {
+        X500Name name = new X500Name("CN=Signature Test,O=Wobbegong");
+        Instant now = Instant.now();
+        return new JcaX509v3CertificateBuilder(name, BigInteger.TWO, Date.from(now), Date.from(now.plus(1, ChronoUnit.DAYS)), name, keyPair.getPublic())
+                .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate()))
+                .getEncoded();
+    }
+}
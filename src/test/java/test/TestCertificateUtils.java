@@ -0,0 +1,190 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.CertificateAuthority;
+import dev.wobbegong.kmsca.entities.CertificateSigningRequest;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.pkcs12.IssuanceProfile;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.CertificateUtils;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+import dev.wobbegong.kmsca.utils.PKCS10Utils;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public class TestCertificateUtils {
+
+    @Test
+    public void testIssueFromCA() throws Exception {
+        KeyPair caKeys = Fixtures.keyPair("EC", 256);
+        String caKeyPem = PEMUtils.pemFor("PRIVATE KEY", caKeys.getPrivate().getEncoded());
+        String caCertificatePem = CertificateUtils.signCSR(csrPem(caKeys, "CN=Wobbegong Root CA,O=Wobbegong", null), caKeyPem);
+        X509Certificate caCertificate = parse(caCertificatePem);
+
+        KeyPair subjectKeys = Fixtures.keyPair("RSA", 2048);
+        String csr = csrPem(subjectKeys, "CN=www.example.com,O=Example", new GeneralNames(new GeneralName[]{
+                new GeneralName(GeneralName.dNSName, "www.example.com"),
+                new GeneralName(GeneralName.dNSName, "example.com")
+        }));
+
+        X509Certificate certificate = parse(CertificateUtils.signCSR(csr, caCertificatePem, caKeyPem, IssuanceProfile.tlsServer(Duration.ofDays(90)).withRequestedSubjectAltName()));
+        certificate.verify(caKeys.getPublic());
+        certificate.checkValidity();
+        Assertions.assertEquals(3, certificate.getVersion());
+        Assertions.assertEquals("SHA256withECDSA", certificate.getSigAlgName());
+        Assertions.assertEquals(caCertificate.getSubjectX500Principal(), certificate.getIssuerX500Principal());
+        Assertions.assertEquals("O=Example,CN=www.example.com", certificate.getSubjectX500Principal().getName());
+        Assertions.assertEquals(subjectKeys.getPublic(), certificate.getPublicKey());
+        Assertions.assertEquals(-1, certificate.getBasicConstraints());
+        Assertions.assertArrayEquals(new boolean[]{true, false, true, false, false, false, false, false, false}, padded(certificate.getKeyUsage()));
+        Assertions.assertEquals(List.of("www.example.com", "example.com"), dnsNames(certificate.getSubjectAlternativeNames()));
+        Assertions.assertTrue(certificate.getCriticalExtensionOIDs().containsAll(List.of(KnownOids.basicConstraints.oid, KnownOids.keyUsage.oid)));
+        byte[] caKeyIdentifier = SubjectKeyIdentifier.getInstance(JcaX509ExtensionUtils.parseExtensionValue(caCertificate.getExtensionValue(KnownOids.subjectKeyIdentifier.oid))).getKeyIdentifier();
+        byte[] authorityKeyIdentifier = AuthorityKeyIdentifier.getInstance(JcaX509ExtensionUtils.parseExtensionValue(certificate.getExtensionValue(KnownOids.authorityKeyIdentifier.oid))).getKeyIdentifier();
+        Assertions.assertArrayEquals(caKeyIdentifier, authorityKeyIdentifier);
+
+        // The profile names replace the requested names, and requested names are only copied when asked for
+        X509Certificate named = parse(CertificateUtils.signCSR(csr, caCertificatePem, caKeyPem, IssuanceProfile.tlsServer(Duration.ofDays(90)).withDnsNames("api.example.com")));
+        Assertions.assertEquals(List.of("api.example.com"), dnsNames(named.getSubjectAlternativeNames()));
+        X509Certificate unnamed = parse(CertificateUtils.signCSR(csr, caCertificatePem, caKeyPem, IssuanceProfile.tlsServer(Duration.ofDays(90))));
+        Assertions.assertNull(unnamed.getSubjectAlternativeNames());
+
+        // EC keys cannot encipher keys
+        String ecCsr = csrPem(Fixtures.keyPair("EC", 256), "CN=ec.example.com", null);
+        X509Certificate ec = parse(CertificateUtils.signCSR(ecCsr, caCertificatePem, caKeyPem, IssuanceProfile.tlsServer(Duration.ofDays(90))));
+        Assertions.assertArrayEquals(new boolean[]{true, false, false, false, false, false, false, false, false}, padded(ec.getKeyUsage()));
+    }
+
+    @Test
+    public void testMismatchedCAKey() throws Exception {
+        KeyPair caKeys = Fixtures.keyPair("EC", 256);
+        String caKeyPem = PEMUtils.pemFor("PRIVATE KEY", caKeys.getPrivate().getEncoded());
+        String caCertificatePem = CertificateUtils.signCSR(csrPem(caKeys, "CN=Wobbegong Root CA", null), caKeyPem);
+        Assertions.assertNotNull(CertificateUtils.certificateAuthority(caCertificatePem, caKeyPem));
+
+        String otherKeyPem = PEMUtils.pemFor("PRIVATE KEY", Fixtures.keyPair("EC", 256).getPrivate().getEncoded());
+        Assertions.assertThrows(X509CertException.class, () -> CertificateUtils.certificateAuthority(caCertificatePem, otherKeyPem));
+        String rsaKeyPem = PEMUtils.pemFor("PRIVATE KEY", Fixtures.keyPair("RSA", 2048).getPrivate().getEncoded());
+        Assertions.assertThrows(X509CertException.class, () -> CertificateUtils.certificateAuthority(caCertificatePem, rsaKeyPem));
+    }
+
+    @Test
+    public void testMalformedRequest() {
+        // Empty subject public key info, then an empty signature algorithm
+        byte[] emptyKeyInfo = Hex.decode("300f3007020100300030003000" + "03020000");
+        Assertions.assertEquals("Missing subject public key info sequence.", Assertions.assertThrows(X509CertException.class, () -> PKCS10Utils.fromDER(emptyKeyInfo)).getMessage());
+        byte[] emptyAlgorithm = Hex.decode("301e3016020100300030" + "0f300906072a8648ce3d020103020000" + "300003020000");
+        Assertions.assertEquals("Missing signature algorithm sequence.", Assertions.assertThrows(X509CertException.class, () -> PKCS10Utils.fromDER(emptyAlgorithm)).getMessage());
+        Assertions.assertThrows(X509CertException.class, () -> PKCS10Utils.fromDER(Hex.decode("3003020100")));
+    }
+
+    @Test
+    public void testSelfSigned() throws Exception {
+        KeyPair keys = Fixtures.keyPair("RSA", 2048);
+        String keyPem = PEMUtils.pemFor("PRIVATE KEY", keys.getPrivate().getEncoded());
+        X509Certificate certificate = parse(CertificateUtils.signCSR(csrPem(keys, "CN=Self Signed", null), keyPem));
+
+        certificate.verify(keys.getPublic());
+        Assertions.assertEquals(certificate.getSubjectX500Principal(), certificate.getIssuerX500Principal());
+        Assertions.assertEquals("SHA256withRSA", certificate.getSigAlgName());
+        Assertions.assertEquals(Integer.MAX_VALUE, certificate.getBasicConstraints());
+
+        // A key that does not belong to the request cannot self-sign it
+        String otherKeyPem = PEMUtils.pemFor("PRIVATE KEY", Fixtures.keyPair("RSA", 2048).getPrivate().getEncoded());
+        Assertions.assertThrows(X509CertException.class, () -> CertificateUtils.signCSR(csrPem(keys, "CN=Self Signed", null), otherKeyPem));
+    }
+
+    @Test
+    public void testIssue() throws Exception {
+        KeyPair caKeys = Fixtures.keyPair("EC", 384);
+        String caKeyPem = PEMUtils.pemFor("PRIVATE KEY", caKeys.getPrivate().getEncoded());
+        String caCertificatePem = CertificateUtils.signCSR(csrPem(caKeys, "CN=Wobbegong Intermediate CA", null), caKeyPem);
+        CertificateAuthority ca = CertificateUtils.certificateAuthority(caCertificatePem, caKeyPem);
+        Assertions.assertEquals(KnownOids.ecdsa_with_SHA384, ca.signatureAlgorithm());
+
+        CertificateSigningRequest csr = PKCS10Utils.fromPEM(csrPem(Fixtures.keyPair("EC", 256), "CN=Intermediate", null));
+        Instant now = Instant.parse("2049-06-01T00:00:00Z");
+        byte[] der = CertificateUtils.issue(csr, IssuanceProfile.certificateAuthority(Duration.ofDays(3650), 0), ca, BigInteger.valueOf(4242), now);
+
+        X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(der));
+        certificate.verify(caKeys.getPublic());
+        Assertions.assertEquals(BigInteger.valueOf(4242), certificate.getSerialNumber());
+        Assertions.assertEquals(0, certificate.getBasicConstraints());
+        Assertions.assertEquals(now.minus(Duration.ofMinutes(5)), certificate.getNotBefore().toInstant());
+        Assertions.assertEquals(now.plus(Duration.ofDays(3650)), certificate.getNotAfter().toInstant());
+        Assertions.assertNull(certificate.getSubjectAlternativeNames());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CertificateUtils.issue(csr, IssuanceProfile.tlsServer(Duration.ofDays(1)), ca, BigInteger.ZERO, now));
+        Assertions.assertTrue(CertificateUtils.randomSerialNumber().signum() > 0);
+    }
+
+    @Test
+    public void testTamperedRequest() throws Exception {
+        KeyPair caKeys = Fixtures.keyPair("EC", 256);
+        String caKeyPem = PEMUtils.pemFor("PRIVATE KEY", caKeys.getPrivate().getEncoded());
+        String caCertificatePem = CertificateUtils.signCSR(csrPem(caKeys, "CN=Wobbegong Root CA", null), caKeyPem);
+
+        byte[] der = csr(Fixtures.keyPair("EC", 256), "CN=victim.example.com", null).getEncoded();
+        int index = new String(der, StandardCharsets.ISO_8859_1).indexOf("victim");
+        der[index] = 'V';
+        String tampered = PEMUtils.pemFor(PKCS10Utils.PEM_TYPE, der);
+
+        Assertions.assertThrows(X509CertException.class, () -> CertificateUtils.signCSR(tampered, caCertificatePem, caKeyPem, IssuanceProfile.tlsServer(Duration.ofDays(1))));
+    }
+
+
+    private static PKCS10CertificationRequest csr(KeyPair keys, String subject, GeneralNames subjectAltName) throws Exception {
+        var builder = new JcaPKCS10CertificationRequestBuilder(new X500Name(subject), keys.getPublic());
+        if (subjectAltName != null) {
+            ExtensionsGenerator extensions = new ExtensionsGenerator();
+            extensions.addExtension(Extension.subjectAlternativeName, false, subjectAltName);
+            builder.addAttribute(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest, extensions.generate());
+        }
+        String algorithm = keys.getPrivate().getAlgorithm().equals("RSA") ? "SHA256withRSA" : "SHA256withECDSA";
+        return builder.build(new JcaContentSignerBuilder(algorithm).build(keys.getPrivate()));
+    }
+
+    private static String csrPem(KeyPair keys, String subject, GeneralNames subjectAltName) throws Exception {
+        return PEMUtils.pemFor(PKCS10Utils.PEM_TYPE, csr(keys, subject, subjectAltName).getEncoded());
+    }
+
+    private static X509Certificate parse(String pem) throws Exception {
+        return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static boolean[] padded(boolean[] keyUsage) {
+        boolean[] padded = new boolean[9];
+        System.arraycopy(keyUsage, 0, padded, 0, Math.min(keyUsage.length, 9));
+        return padded;
+    }
+
+    private static List<String> dnsNames(Collection<List<?>> names) {
+        return names.stream()
+                .filter(name -> (Integer) name.get(0) == GeneralName.dNSName)
+                .map(name -> (String) name.get(1))
+                .toList();
+    }
+}
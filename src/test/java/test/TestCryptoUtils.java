@@ -4,6 +4,11 @@ import dev.wobbegong.kmsca.utils.CryptoUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HexFormat;
+
 public class TestCryptoUtils {
     @Test
     public void test() {
@@ -18,5 +23,87 @@ public class TestCryptoUtils {
         Assertions.assertNotNull(plaintext);
         Assertions.assertArrayEquals(data, plaintext);
 
+        // The kept cipher is reset between operations, however they follow each other
+        Assertions.assertArrayEquals(data, CryptoUtils.aesGCMDecrypt(ciphertext, key, iv));
+        Assertions.assertThrows(RuntimeException.class, () -> CryptoUtils.aesGCMDecrypt(ciphertext, CryptoUtils.randomKey(), iv));
+        byte[] nextIV = CryptoUtils.randomIV();
+        Assertions.assertArrayEquals(data, CryptoUtils.aesGCMDecrypt(CryptoUtils.aesGCMEncrypt(data, key, nextIV), key, nextIV));
+    }
+
+    @Test
+    public void testByteBuffers() {
+        SecretKey key = CryptoUtils.aesKey(CryptoUtils.randomKey());
+        byte[] data = CryptoUtils.randomBytes(1200);
+        byte[] aad = "header".getBytes();
+
+        for (ByteBuffer output : new ByteBuffer[]{ByteBuffer.allocate(2000), ByteBuffer.allocateDirect(2000)}) {
+            byte[] iv = CryptoUtils.randomIV();
+            Assertions.assertEquals(data.length + CryptoUtils.GCM_TAG_SIZE, CryptoUtils.aesGCMEncrypt(ByteBuffer.wrap(data), output, key, iv, aad));
+            output.flip();
+
+            ByteBuffer plaintext = ByteBuffer.allocate(data.length);
+            CryptoUtils.aesGCMDecrypt(output.duplicate(), plaintext, key, iv, aad);
+            Assertions.assertArrayEquals(data, plaintext.array());
+
+            // The additional data is authenticated
+            Assertions.assertThrows(SecurityException.class, () -> CryptoUtils.aesGCMDecrypt(output.duplicate(), ByteBuffer.allocate(data.length), key, iv, "other".getBytes()));
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CryptoUtils.aesGCMEncrypt(ByteBuffer.wrap(data), ByteBuffer.allocate(data.length), key, CryptoUtils.randomIV(), null));
+
+        // The byte array methods interoperate with the buffer methods
+        byte[] iv = CryptoUtils.randomIV();
+        byte[] ciphertext = CryptoUtils.aesGCMEncrypt(data, key.getEncoded(), iv);
+        ByteBuffer plaintext = ByteBuffer.allocate(data.length);
+        CryptoUtils.aesGCMDecrypt(ByteBuffer.wrap(ciphertext), plaintext, key, iv, null);
+        Assertions.assertArrayEquals(data, plaintext.array());
+    }
+
+    @Test
+    public void testInPlace() {
+        SecretKey key = CryptoUtils.aesKey(CryptoUtils.randomKey());
+        byte[] data = CryptoUtils.randomBytes(600);
+
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(700), ByteBuffer.allocateDirect(700)}) {
+            byte[] iv = CryptoUtils.randomIV();
+            buffer.position(50);
+            buffer.put(data).flip().position(50);
+
+            CryptoUtils.aesGCMEncryptInPlace(buffer, key, iv);
+            Assertions.assertEquals(50, buffer.position());
+            Assertions.assertEquals(50 + data.length + CryptoUtils.GCM_TAG_SIZE, buffer.limit());
+            byte[] ciphertext = new byte[buffer.remaining()];
+            buffer.get(buffer.position(), ciphertext);
+            Assertions.assertArrayEquals(data, CryptoUtils.aesGCMDecrypt(ciphertext, key.getEncoded(), iv));
+
+            CryptoUtils.aesGCMDecryptInPlace(buffer, key, iv);
+            byte[] plaintext = new byte[buffer.remaining()];
+            buffer.get(plaintext);
+            Assertions.assertArrayEquals(data, plaintext);
+
+            // A modified ciphertext is rejected
+            byte[] otherIV = CryptoUtils.randomIV();
+            buffer.position(50);
+            CryptoUtils.aesGCMEncryptInPlace(buffer, key, otherIV);
+            buffer.put(60, (byte) (buffer.get(60) ^ 1));
+            Assertions.assertThrows(SecurityException.class, () -> CryptoUtils.aesGCMDecryptInPlace(buffer, key, otherIV));
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CryptoUtils.aesGCMEncryptInPlace(ByteBuffer.allocate(32), key, CryptoUtils.randomIV()));
+    }
+
+    @Test
+    public void testHKDF() {
+        // RFC 5869 test case 3, truncated to 32 bytes
+        HexFormat hex = HexFormat.of();
+        byte[] inputKey = hex.parseHex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+        Assertions.assertArrayEquals(
+                hex.parseHex("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d"),
+                CryptoUtils.hkdfSHA256(inputKey, new byte[0], "", 32));
+
+        // Keys for different purposes differ
+        byte[] salt = CryptoUtils.randomBytes(16);
+        Assertions.assertFalse(Arrays.equals(CryptoUtils.hkdfSHA256(inputKey, salt, "a", 32), CryptoUtils.hkdfSHA256(inputKey, salt, "b", 32)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CryptoUtils.hkdfSHA256(inputKey, salt, "a", 33));
     }
 }
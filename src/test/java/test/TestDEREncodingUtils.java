@@ -2,7 +2,10 @@ package test;
 
 import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Set;
 import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.io.DERWriter;
 import dev.wobbegong.kmsca.utils.DERDecodingUtils;
 import dev.wobbegong.kmsca.utils.DEREncodingUtils;
 import dev.wobbegong.kmsca.utils.DERNumberUtils;
@@ -11,10 +14,13 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 
 public class TestDEREncodingUtils {
@@ -62,6 +68,67 @@ public class TestDEREncodingUtils {
         System.out.println(DERDecodingUtils.parseNextLength(ByteBuffer.wrap(Hex.decode("820240"))));
     }
 
+    @Test
+    public void testMinimalLengths() {
+        Assertions.assertEquals("7f", Hex.toHexString(DEREncodingUtils.lengthFor(127)));
+        Assertions.assertEquals("8180", Hex.toHexString(DEREncodingUtils.lengthFor(128)));
+        Assertions.assertEquals("81ff", Hex.toHexString(DEREncodingUtils.lengthFor(255)));
+        Assertions.assertEquals("820100", Hex.toHexString(DEREncodingUtils.lengthFor(256)));
+        Assertions.assertEquals("83010000", Hex.toHexString(DEREncodingUtils.lengthFor(65536)));
+        Assertions.assertEquals("847fffffff", Hex.toHexString(DEREncodingUtils.lengthFor(Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void testEncodeInteger() {
+        Assertions.assertEquals("00", Hex.toHexString(DEREncodingUtils.encodeInteger(BigInteger.ZERO)));
+        Assertions.assertEquals("7f", Hex.toHexString(DEREncodingUtils.encodeInteger(BigInteger.valueOf(127))));
+        Assertions.assertEquals("0080", Hex.toHexString(DEREncodingUtils.encodeInteger(BigInteger.valueOf(128))));
+        Assertions.assertEquals("00ff", Hex.toHexString(DEREncodingUtils.encodeInteger(BigInteger.valueOf(255))));
+        Assertions.assertEquals("80", Hex.toHexString(DEREncodingUtils.encodeInteger(BigInteger.valueOf(-128))));
+        Assertions.assertEquals("ff7f", Hex.toHexString(DEREncodingUtils.encodeInteger(BigInteger.valueOf(-129))));
+        for (long value : new long[]{0, 1, -1, 127, 128, 255, 256, -128, -129, 32767, 32768, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            BigInteger integer = BigInteger.valueOf(value);
+            ASN1Item item = new ASN1Item(0, ASN1TagType.INTEGER, DEREncodingUtils.encodeInteger(integer));
+            Assertions.assertEquals(integer, DERDecodingUtils.decodeInteger(item));
+            Assertions.assertArrayEquals(new DERWriter().integer(value).toByteArray(), DEREncodingUtils.encodeItem(item));
+            Assertions.assertArrayEquals(new DERWriter().integer(integer).toByteArray(), DEREncodingUtils.encodeItem(item));
+        }
+    }
+
+    @Test
+    public void testEncodeItems() {
+        ASN1Item integer = new ASN1Item(0, ASN1TagType.INTEGER, DEREncodingUtils.encodeInteger(BigInteger.valueOf(5)));
+        ASN1Item octets = new ASN1Item(0, ASN1TagType.OCTET_STRING, new byte[200]);
+        ASN1Sequence sequence = new ASN1Sequence(List.of(integer, octets));
+
+        byte[] encoded = DEREncodingUtils.encodeItem(sequence);
+        Assertions.assertEquals(DEREncodingUtils.encodedLength(sequence), encoded.length);
+        Assertions.assertEquals("3081ce020105" + "0481c8", Hex.toHexString(encoded, 0, 9));
+        Assertions.assertArrayEquals(encoded, DEREncodingUtils.encodeItem(DERDecodingUtils.parseNextASN1(ByteBuffer.wrap(encoded))));
+
+        // Encoding into a direct buffer starts at its position and fails without writing when it is too small
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length + 1).position(1);
+        DEREncodingUtils.encodeInto(sequence, direct);
+        Assertions.assertFalse(direct.hasRemaining());
+        byte[] written = new byte[encoded.length];
+        direct.get(1, written);
+        Assertions.assertArrayEquals(encoded, written);
+        Assertions.assertThrows(BufferOverflowException.class, () -> DEREncodingUtils.encodeInto(sequence, ByteBuffer.allocate(encoded.length - 1)));
+
+        // Tag numbers of 31 and up keep their identifier octets
+        byte[] highTag = Hex.decode("9f22020102");
+        Assertions.assertArrayEquals(highTag, DEREncodingUtils.encodeItem(DERDecodingUtils.parseNextASN1(ByteBuffer.wrap(highTag))));
+    }
+
+    @Test
+    public void testSetOrdering() {
+        ASN1Item c = new ASN1Item(0, ASN1TagType.INTEGER, new byte[]{3});
+        ASN1Item a = new ASN1Item(0, ASN1TagType.INTEGER, new byte[]{1});
+        ASN1Item b = new ASN1Item(0, ASN1TagType.INTEGER, new byte[]{2});
+        ASN1Set set = new ASN1Set(9, 0, new LinkedHashSet<>(List.of(c, a, b)), new byte[9]);
+        Assertions.assertEquals("3109020101020102020103", Hex.toHexString(DEREncodingUtils.encodeItem(set)));
+    }
+
     @Test
     public void testOIDEncoding() {
         oidMap.forEach((key, value) -> testOIDEncoding(value, key));
@@ -83,4 +150,41 @@ public class TestDEREncodingUtils {
         String decoded = DERDecodingUtils.decodeOID(oidItem);
         Assertions.assertEquals(knownOids, decoded);
     }
+
+    @Test
+    public void testOIDDecoding() {
+        // Known OIDs resolve from their encoded contents to the enum constant, and its string is reused.
+        for (KnownOids knownOid : KnownOids.values()) {
+            ASN1Item oidItem = oidItem(knownOid.oid);
+            Assertions.assertEquals(knownOid, DERDecodingUtils.decodeKnownOID(oidItem).orElseThrow());
+            Assertions.assertSame(knownOid.oid, DERDecodingUtils.decodeOID(oidItem));
+
+            // The same table answers for contents inside a larger array
+            byte[] encoded = knownOid.encoded();
+            byte[] padded = new byte[encoded.length + 2];
+            System.arraycopy(encoded, 0, padded, 1, encoded.length);
+            Assertions.assertEquals(knownOid, KnownOids.forEncoded(padded, 1, encoded.length).orElseThrow());
+        }
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> KnownOids.forEncoded(new byte[2], 1, 2));
+
+        // Unknown OIDs are built once and then shared.
+        String unknown = "1.3.6.1.4.1.99999.1.2.9223372036854775807";
+        Assertions.assertTrue(DERDecodingUtils.decodeKnownOID(oidItem(unknown)).isEmpty());
+        String decoded = DERDecodingUtils.decodeOID(oidItem(unknown));
+        Assertions.assertEquals(unknown, decoded);
+        Assertions.assertSame(decoded, DERDecodingUtils.decodeOID(oidItem(unknown)));
+
+        // Under the joint-iso-itu-t arc the second arc can be 40 and up, which spans more than one octet.
+        Assertions.assertEquals("883703", Hex.toHexString(DEREncodingUtils.encodeOID("2.999.3")));
+        Assertions.assertEquals("2.999.3", DERDecodingUtils.decodeOID(oidItem("2.999.3")));
+        Assertions.assertEquals("0.39", DERDecodingUtils.buildOID(new byte[]{39}));
+        Assertions.assertEquals("1.0", DERDecodingUtils.buildOID(new byte[]{40}));
+
+        Assertions.assertThrows(RuntimeException.class, () -> DERDecodingUtils.buildOID(Hex.decode("2a86")));
+    }
+
+    private static ASN1Item oidItem(String oid) {
+        byte[] encoded = DEREncodingUtils.encodeOID(oid);
+        return new ASN1Item(encoded.length, 0, ASN1TagType.OBJECT_IDENTIFIER, encoded);
+    }
 }
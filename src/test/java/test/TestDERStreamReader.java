@@ -0,0 +1,95 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.exceptions.PEMFormatException;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.io.DERStreamReader;
+import dev.wobbegong.kmsca.utils.ASN1PrinterUtils;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+import dev.wobbegong.kmsca.utils.X509Utils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestDERStreamReader {
+
+    @Test
+    public void testCertificateDump() throws IOException, PEMFormatException, X509CertException, CertificateException {
+        List<PEMObject> pems = new ArrayList<>();
+        pems.addAll(pemsFrom("certs/v3/google-com-chain.pem"));
+        pems.addAll(pemsFrom("certs/v3/yahoo-com-chain.pem"));
+        pems.addAll(pemsFrom("certs/v1/16k-rsa-example-cert.pem"));
+
+        // Concatenate the certificates into a single DER dump
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        for (PEMObject pem : pems) {
+            dump.write(pem.content());
+        }
+
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        try (DERStreamReader reader = new DERStreamReader(new ByteArrayInputStream(dump.toByteArray()))) {
+            for (PEMObject pem : pems) {
+                X509Certificate expected = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(pem.content()));
+                SignedX509Certificate actual = X509Utils.toCertificate(reader);
+                Assertions.assertNotNull(actual);
+                Assertions.assertEquals(expected.getSerialNumber(), actual.tbsCertificate().serialNumber());
+                Assertions.assertArrayEquals(expected.getSignature(), java.util.Arrays.copyOfRange(actual.signature(), 1, actual.signature().length));
+            }
+            Assertions.assertNull(X509Utils.toCertificate(reader));
+        }
+    }
+
+    @Test
+    public void testEvents() throws IOException, PEMFormatException {
+        byte[] der = pemsFrom("certs/v3/github.com_443.pem").get(0).content();
+
+        int open = 0;
+        long lastOffset = -1;
+        try (DERStreamReader reader = new DERStreamReader(new ByteArrayInputStream(der))) {
+            DERStreamReader.Event event;
+            while ((event = reader.next()) != null) {
+                switch (event) {
+                    case START_CONSTRUCTED -> {
+                        Assertions.assertEquals(open, reader.depth());
+                        open++;
+                    }
+                    case END_CONSTRUCTED -> {
+                        open--;
+                        Assertions.assertEquals(open, reader.depth());
+                    }
+                    case PRIMITIVE -> Assertions.assertEquals(open, reader.depth());
+                }
+                if (event != DERStreamReader.Event.END_CONSTRUCTED) {
+                    Assertions.assertTrue(reader.offset() > lastOffset);
+                    lastOffset = reader.offset();
+                }
+            }
+        }
+        Assertions.assertEquals(0, open);
+
+        StringWriter sw = new StringWriter();
+        try (DERStreamReader reader = new DERStreamReader(new ByteArrayInputStream(der))) {
+            ASN1PrinterUtils.printASN1(reader, sw);
+        }
+        System.out.println(sw);
+        Assertions.assertTrue(sw.toString().startsWith("00000000 10"));
+        Assertions.assertTrue(sw.toString().contains("sha256WithRSAEncryption") || sw.toString().contains("Elliptic"));
+    }
+
+    private List<PEMObject> pemsFrom(String resource) throws IOException, PEMFormatException {
+        try (InputStream is = this.getClass().getClassLoader().getResourceAsStream(resource)) {
+            Assertions.assertNotNull(is, "Missing resource: " + resource);
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+                return PEMUtils.parsePEMs(br);
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package test;
 
 import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.io.DERWriter;
 import dev.wobbegong.kmsca.utils.CryptoUtils;
 import dev.wobbegong.kmsca.utils.DERDecodingUtils;
 import dev.wobbegong.kmsca.utils.DERNumberUtils;
@@ -13,6 +14,8 @@ import org.junit.jupiter.api.Test;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 
 public class TestDERUtils {
 
@@ -80,6 +83,42 @@ public class TestDERUtils {
         }
     }
 
+    @Test
+    public void testTimes() {
+        Assertions.assertEquals(Instant.parse("2023-11-25T13:45:07Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.UTCTime, "231125134507Z")));
+        Assertions.assertEquals(Instant.parse("2023-11-25T13:45:00Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.UTCTime, "2311251345Z")));
+        Assertions.assertEquals(Instant.parse("2023-11-25T08:45:07Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.UTCTime, "231125134507+0500")));
+        Assertions.assertEquals(Instant.parse("2023-11-25T18:15:00Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.UTCTime, "2311251345-0430")));
+        Assertions.assertEquals(Instant.parse("2024-02-29T00:00:00Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.UTCTime, "240229000000Z")));
+
+        // Two digit years pivot at 50 whatever the current year, matching what DERWriter encodes as UTCTime
+        Assertions.assertEquals(Instant.parse("2049-12-31T23:59:59Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.UTCTime, "491231235959Z")));
+        Assertions.assertEquals(Instant.parse("1950-01-01T00:00:00Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.UTCTime, "500101000000Z")));
+        Assertions.assertEquals(Instant.parse("2000-01-01T00:00:00Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.UTCTime, "000101000000Z")));
+        Assertions.assertEquals(Instant.parse("1999-12-31T23:59:59Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.UTCTime, "991231235959Z")));
+        for (String time : new String[]{"1950-01-01T00:00:00Z", "2049-12-31T23:59:59Z"}) {
+            byte[] encoded = new DERWriter().utcTime(Instant.parse(time)).toByteArray();
+            Assertions.assertEquals(Instant.parse(time), DERDecodingUtils.decodeTime(DERDecodingUtils.parseNextASN1(ByteBuffer.wrap(encoded))));
+        }
+
+        Assertions.assertEquals(Instant.parse("2050-01-01T00:00:00Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.GeneralizedTime, "20500101000000Z")));
+        Assertions.assertEquals(Instant.parse("9999-12-31T23:59:59Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.GeneralizedTime, "99991231235959Z")));
+        Assertions.assertEquals(Instant.parse("1969-12-31T23:59:59.25Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.GeneralizedTime, "19691231235959.25Z")));
+        Assertions.assertEquals(-1, DERDecodingUtils.decodeTimeEpochSeconds(timeItem(ASN1TagType.GeneralizedTime, "19691231235959.25Z")));
+        Assertions.assertEquals(Instant.parse("2050-01-01T01:00:00Z"), DERDecodingUtils.decodeTime(timeItem(ASN1TagType.GeneralizedTime, "205001010000-0100")));
+
+        for (String malformed : new String[]{"231325134507Z", "230229134507Z", "231125134507", "2311251345070Z", "23112513450Z", "231125134507+05", "2311251345a7Z"}) {
+            Assertions.assertThrows(RuntimeException.class, () -> DERDecodingUtils.decodeTime(timeItem(ASN1TagType.UTCTime, malformed)), malformed);
+        }
+        Assertions.assertThrows(RuntimeException.class, () -> DERDecodingUtils.decodeTime(timeItem(ASN1TagType.GeneralizedTime, "20500101000000")));
+        Assertions.assertThrows(RuntimeException.class, () -> DERDecodingUtils.decodeTime(timeItem(ASN1TagType.GeneralizedTime, "20500101000000.Z")));
+    }
+
+    private static ASN1Item timeItem(ASN1TagType type, String time) {
+        byte[] contents = time.getBytes(StandardCharsets.US_ASCII);
+        return new ASN1Item(contents.length, 0, type, contents);
+    }
+
     @Test
     public void test() throws GSSException {
         testIntegerUsing("48", 72);
@@ -0,0 +1,159 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.io.DERWriter;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.DEREncodingUtils;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1UTCTime;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+public class TestDERWriter {
+
+    @Test
+    public void testIntegers() throws IOException {
+        long[] values = {0, 1, -1, 127, 128, -128, -129, 255, 256, 65535, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            byte[] expected = new ASN1Integer(value).getEncoded(ASN1Encoding.DER);
+            Assertions.assertArrayEquals(expected, new DERWriter().integer(value).toByteArray(), "long " + value);
+            Assertions.assertArrayEquals(expected, new DERWriter().integer(BigInteger.valueOf(value)).toByteArray(), "BigInteger " + value);
+        }
+        Assertions.assertArrayEquals(new ASN1Enumerated(300).getEncoded(ASN1Encoding.DER), new DERWriter().enumerated(300).toByteArray());
+        Assertions.assertArrayEquals(new ASN1Integer(258).getEncoded(ASN1Encoding.DER),
+                new DERWriter().primitive(ASN1TagType.INTEGER, new byte[]{9, 1, 2, 9}, 1, 2).toByteArray());
+    }
+
+    @Test
+    public void testStreamedSequence() throws IOException {
+        // A header written alone, followed by its contents, is the same as the wrapped sequence
+        DERWriter contents = new DERWriter().integer(1L << 40).integer(7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DERWriter().sequenceHeader(contents.size()).writeTo(out);
+        contents.writeTo(out);
+        Assertions.assertArrayEquals(new DERSequence(new ASN1Encodable[]{new ASN1Integer(7), new ASN1Integer(1L << 40)}).getEncoded(ASN1Encoding.DER), out.toByteArray());
+        Assertions.assertEquals("3082012c", Hex.toHexString(new DERWriter().sequenceHeader(300).toByteArray()));
+    }
+
+    @Test
+    public void testAlgorithmIdentifier() throws IOException {
+        byte[] expected = new AlgorithmIdentifier(new ASN1ObjectIdentifier(KnownOids.sha256WithRSAEncryption.oid), DERNull.INSTANCE).getEncoded(ASN1Encoding.DER);
+
+        DERWriter writer = new DERWriter();
+        int algorithm = writer.mark();
+        writer.nullValue()
+                .oid(KnownOids.sha256WithRSAEncryption)
+                .sequence(algorithm);
+        Assertions.assertArrayEquals(expected, writer.toByteArray());
+    }
+
+    @Test
+    public void testName() throws IOException {
+        byte[] expected = new X500NameBuilder(BCStyle.INSTANCE)
+                .addRDN(BCStyle.C, "US")
+                .addMultiValuedRDN(new ASN1ObjectIdentifier[]{BCStyle.OU, BCStyle.O}, new String[]{"Engineering", "Wobbegong"})
+                .addRDN(BCStyle.CN, "Example CA")
+                .build()
+                .getEncoded(ASN1Encoding.DER);
+
+        // Written back to front, with a multi-valued RDN written out of DER order. Starting small forces growth.
+        DERWriter writer = new DERWriter(16);
+        int name = writer.mark();
+        int rdn = writer.mark();
+        int attribute = writer.mark();
+        writer.utf8String("Example CA").oid(KnownOids.commonName).sequence(attribute).set(rdn);
+
+        rdn = writer.mark();
+        attribute = writer.mark();
+        writer.utf8String("Engineering").oid(KnownOids.organizationUnitName).sequence(attribute);
+        attribute = writer.mark();
+        writer.utf8String("Wobbegong").oid(KnownOids.organizationName).sequence(attribute).set(rdn);
+
+        rdn = writer.mark();
+        attribute = writer.mark();
+        writer.printableString("US").oid(KnownOids.countryName).sequence(attribute).set(rdn);
+        writer.sequence(name);
+
+        Assertions.assertEquals(Hex.toHexString(expected), Hex.toHexString(writer.toByteArray()));
+    }
+
+    @Test
+    public void testTimes() throws IOException {
+        Instant utc = Instant.parse("2023-11-25T13:45:07.5Z");
+        Assertions.assertArrayEquals(new ASN1UTCTime(Date.from(Instant.parse("2023-11-25T13:45:07Z"))).getEncoded(ASN1Encoding.DER), new DERWriter().utcTime(utc).toByteArray());
+        Assertions.assertArrayEquals(new DERWriter().utcTime(utc).toByteArray(), new DERWriter().validityTime(utc).toByteArray());
+
+        Instant generalized = Instant.parse("2050-01-01T00:00:00Z");
+        Assertions.assertArrayEquals(new ASN1GeneralizedTime(Date.from(generalized)).getEncoded(ASN1Encoding.DER), new DERWriter().generalizedTime(generalized).toByteArray());
+        Assertions.assertArrayEquals(new DERWriter().generalizedTime(generalized).toByteArray(), new DERWriter().validityTime(generalized).toByteArray());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new DERWriter().utcTime(generalized));
+
+        ASN1Item decoded = DERDecodingUtils.parseNextASN1(new DERWriter().validityTime(generalized).toByteBuffer());
+        Assertions.assertEquals(generalized, DERDecodingUtils.decodeTime(decoded));
+    }
+
+    @Test
+    public void testTagging() throws IOException {
+        byte[] expected = new GeneralNames(new GeneralName[]{
+                new GeneralName(GeneralName.dNSName, "example.com"),
+                new GeneralName(GeneralName.iPAddress, "10.0.0.1")
+        }).getEncoded(ASN1Encoding.DER);
+
+        DERWriter writer = new DERWriter();
+        int names = writer.mark();
+        writer.octetString(new byte[]{10, 0, 0, 1}).implicit(7);
+        writer.ia5String("example.com").implicit(2);
+        writer.sequence(names);
+        Assertions.assertArrayEquals(expected, writer.toByteArray());
+
+        // Explicit tags keep the inner item, and tag numbers of 31 and up take extra identifier octets
+        writer.reset();
+        int version = writer.mark();
+        writer.integer(2).explicit(0, version);
+        Assertions.assertEquals("a003020102", Hex.toHexString(writer.toByteArray()));
+        writer.implicit(40);
+        Assertions.assertEquals("bf2803020102", Hex.toHexString(writer.toByteArray()));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new DERWriter().printableString("user@example.com"));
+    }
+
+    @Test
+    public void testItems() {
+        ASN1Sequence inner = new ASN1Sequence(List.of(new ASN1Item(0, ASN1TagType.BOOLEAN, new byte[]{(byte) 0xFF})));
+        ASN1Sequence outer = new ASN1Sequence(List.of(inner, new ASN1Item(0, ASN1TagType.OCTET_STRING, new byte[300])));
+
+        DERWriter writer = new DERWriter(8);
+        writer.item(outer);
+        byte[] written = writer.toByteArray();
+        Assertions.assertArrayEquals(DEREncodingUtils.encodeItem(outer), written);
+
+        // Sequences built from items only encode their contents once they are read
+        ByteBuffer contents = ByteBuffer.wrap(written, written.length - outer.length, outer.length);
+        Assertions.assertEquals(contents, ByteBuffer.wrap(outer.contents()));
+        Assertions.assertEquals("3003" + "0101ff", Hex.toHexString(outer.contents(), 0, 5));
+    }
+}
@@ -0,0 +1,197 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.EncryptedPrivateKey;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.keys.DataKeyCache;
+import dev.wobbegong.kmsca.keys.DataKeyUnwrapper;
+import dev.wobbegong.kmsca.signing.SigningProvider;
+import dev.wobbegong.kmsca.utils.CryptoUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestDataKeyCache {
+
+    /**
+     * Stands in for KMS by XORing data keys with a fixed byte.
+     */
+    private static final class CountingUnwrapper implements DataKeyUnwrapper {
+        final AtomicInteger calls = new AtomicInteger();
+        final List<byte[]> returned = new ArrayList<>();
+
+        @Override
+        public byte[] unwrap(byte[] encryptedDataKey) {
+            calls.incrementAndGet();
+            byte[] plaintext = xor(encryptedDataKey);
+            returned.add(plaintext);
+            return plaintext;
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+        Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    @Test
+    public void testCaching() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("EC", 256);
+        EncryptedPrivateKey encrypted = encrypt(keyPair, CryptoUtils.randomKey());
+        CountingUnwrapper unwrapper = new CountingUnwrapper();
+        MutableClock clock = new MutableClock();
+
+        try (DataKeyCache cache = new DataKeyCache(unwrapper, new DataKeyCache.Options(4, Duration.ofMinutes(5), 1000, false), clock)) {
+            Assertions.assertEquals(keyPair.getPrivate(), cache.privateKey(encrypted));
+            Assertions.assertEquals(keyPair.getPrivate(), cache.privateKey(encrypted));
+            Assertions.assertEquals(1, unwrapper.calls.get());
+            Assertions.assertEquals(new DataKeyCache.Metrics(1, 2, 0), cache.metrics());
+
+            // Entries expire after the TTL and are zeroed
+            clock.now = clock.now.plus(Duration.ofMinutes(6));
+            Assertions.assertEquals(keyPair.getPrivate(), cache.privateKey(encrypted));
+            Assertions.assertEquals(2, unwrapper.calls.get());
+            Assertions.assertArrayEquals(new byte[32], unwrapper.returned.get(0));
+            Assertions.assertEquals(2, cache.metrics().evictions());
+
+            cache.clear();
+            Assertions.assertArrayEquals(new byte[32], unwrapper.returned.get(1));
+        }
+    }
+
+    @Test
+    public void testCacheKey() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("EC", 256);
+        EncryptedPrivateKey encrypted = encrypt(keyPair, CryptoUtils.randomKey());
+        CountingUnwrapper unwrapper = new CountingUnwrapper();
+        try (DataKeyCache cache = new DataKeyCache(unwrapper, new DataKeyCache.Options(4, Duration.ofMinutes(5), 1000, false), Clock.systemUTC())) {
+            Assertions.assertEquals(keyPair.getPrivate(), cache.privateKey(encrypted));
+
+            // The same ciphertext with another data key or IV is not answered from the cache, so KMS has to unwrap
+            // the data key and the decryption fails
+            EncryptedPrivateKey otherDataKey = new EncryptedPrivateKey(wrap(CryptoUtils.randomKey()), encrypted.iv(), encrypted.privateKey());
+            Assertions.assertThrows(RuntimeException.class, () -> cache.privateKey(otherDataKey));
+            Assertions.assertEquals(2, unwrapper.calls.get());
+
+            EncryptedPrivateKey otherIV = new EncryptedPrivateKey(encrypted.kmsEncryptedAESKey(), CryptoUtils.randomIV(), encrypted.privateKey());
+            Assertions.assertThrows(RuntimeException.class, () -> cache.privateKey(otherIV));
+            Assertions.assertEquals(new DataKeyCache.Metrics(1, 5, 0), cache.metrics());
+
+            Assertions.assertEquals(keyPair.getPrivate(), cache.privateKey(encrypted));
+            Assertions.assertEquals(2, unwrapper.calls.get());
+        }
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        CountingUnwrapper unwrapper = new CountingUnwrapper();
+        try (DataKeyCache cache = new DataKeyCache(unwrapper, new DataKeyCache.Options(2, Duration.ofMinutes(5), 3, true), Clock.systemUTC())) {
+            String first = wrap(CryptoUtils.randomKey());
+            byte[] firstKey = xor(Base64.getDecoder().decode(first));
+
+            // One unwrap allows three uses: the miss that unwrapped it and two hits
+            for (int i = 0; i < 6; i++) {
+                Assertions.assertArrayEquals(firstKey, cache.dataKey(first));
+            }
+            Assertions.assertEquals(2, unwrapper.calls.get());
+
+            // Off heap, the returned plaintext is zeroed as soon as it is copied into the cache
+            Assertions.assertArrayEquals(new byte[32], unwrapper.returned.get(1));
+
+            // The least recently used key is evicted past the maximum size
+            cache.dataKey(wrap(CryptoUtils.randomKey()));
+            cache.dataKey(wrap(CryptoUtils.randomKey()));
+            cache.dataKey(first);
+            Assertions.assertEquals(5, unwrapper.calls.get());
+        }
+    }
+
+    @Test
+    public void testSigner() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("EC", 256);
+        CountingUnwrapper unwrapper = new CountingUnwrapper();
+        try (DataKeyCache cache = new DataKeyCache(unwrapper, new DataKeyCache.Options(4, Duration.ofMinutes(5), 10, false), Clock.systemUTC())) {
+            SigningProvider signer = cache.signer(encrypt(keyPair, CryptoUtils.randomKey()), keyPair.getPublic().getEncoded());
+            Assertions.assertEquals(KnownOids.ecdsa_with_SHA256, signer.signatureAlgorithm());
+
+            // Making the signer does not decrypt the key or count a use of it
+            Assertions.assertEquals(new DataKeyCache.Metrics(0, 0, 0), cache.metrics());
+            byte[] data = "To be signed".getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < 25; i++) {
+                Signature verifier = Signature.getInstance("SHA256withECDSA");
+                verifier.initVerify(keyPair.getPublic());
+                verifier.update(data);
+                Assertions.assertTrue(verifier.verify(signer.sign(ByteBuffer.wrap(data))));
+            }
+
+            // The private key is decrypted again every 10 uses, from the data key that is still cached
+            Assertions.assertEquals(1, unwrapper.calls.get());
+        }
+    }
+
+    @Test
+    public void testEvictedKeysUnreachable() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("EC", 256);
+        EncryptedPrivateKey encrypted = encrypt(keyPair, CryptoUtils.randomKey());
+        keyPair = new KeyPair(keyPair.getPublic(), null);
+        try (DataKeyCache cache = new DataKeyCache(new CountingUnwrapper(), new DataKeyCache.Options(4, Duration.ofMinutes(5), 1000, false), Clock.systemUTC())) {
+            WeakReference<PrivateKey> privateKey = new WeakReference<>(cache.privateKey(encrypted));
+            cache.signer(encrypted, keyPair.getPublic().getEncoded()).sign(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+
+            // Nothing the signature classes keep for this thread holds on to the key once the cache lets it go
+            cache.clear();
+            for (int i = 0; i < 20 && privateKey.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            Assertions.assertNull(privateKey.get());
+        }
+    }
+
+
+    private static EncryptedPrivateKey encrypt(KeyPair keyPair, byte[] dataKey) {
+        byte[] iv = CryptoUtils.randomIV();
+        byte[] ciphertext = CryptoUtils.aesGCMEncrypt(keyPair.getPrivate().getEncoded(), dataKey, iv);
+        return new EncryptedPrivateKey(wrap(dataKey), iv, Base64.getEncoder().encodeToString(ciphertext));
+    }
+
+    private static String wrap(byte[] dataKey) {
+        return Base64.getEncoder().encodeToString(xor(dataKey));
+    }
+
+    private static byte[] xor(byte[] bytes) {
+        byte[] result = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            result[i] = (byte) (bytes[i] ^ 0x5A);
+        }
+        return result;
+    }
+}
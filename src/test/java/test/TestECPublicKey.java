@@ -1,19 +1,37 @@
 package test;
 
-import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
 import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
-import dev.wobbegong.kmsca.utils.ASN1Utils;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.pkcs1.ECPublicKey;
+import dev.wobbegong.kmsca.entities.pkcs12.SignedX509Certificate;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
 import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.ECCurveUtils;
+import dev.wobbegong.kmsca.utils.X509PublicKeyUtils;
+import dev.wobbegong.kmsca.utils.X509Utils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
 import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
 import java.security.PublicKey;
-import java.security.spec.KeySpec;
-import java.security.spec.X509EncodedKeySpec;
-import java.util.ArrayList;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.List;
+import java.util.Date;
+import java.util.Map;
 
 public class TestECPublicKey {
 
@@ -29,27 +47,130 @@ public class TestECPublicKey {
             "BKOkA0YD30ZRVsvJOasizedsWZZ6k6D7uUAckDKINsYJdpxQ9VX3dl5oIJzuIu2DDBUwEEFEXjKskKHVqvLlQ7M=",
             "BMEbxppbmNmkKaDp1AS12+umsmxVwP/tmMZJLwYnUcu/cMEFesOxnYeJuq20ExfJqLSDyLiQ0cx0NTY8g3KwtdD3ImnI8YDEe0CPz2iHJlw5ifFNkU3aiYvkA8ND5b8vcw=="
     };
+
     @Test
     public void test() throws Exception {
         for (String ecPublicKey : ecPublicKeys) {
-            testUsing(Base64.getDecoder().decode(ecPublicKey));
+            byte[] encoded = Base64.getDecoder().decode(ecPublicKey);
+            testUsing(encoded.length == 65 ? KnownOids.prime256v1 : KnownOids.ansip384r1, encoded);
+        }
+    }
+
+    /**
+     * Decode an uncompressed point and its compressed form, and check both against the JCA.
+     */
+    private static void testUsing(KnownOids curve, byte[] encoded) throws Exception {
+        ECPublicKey publicKey = ECCurveUtils.decodePublicKey(curve, encoded);
+        Assertions.assertSame(ECCurveUtils.parametersFor(curve), publicKey.parameters());
+        Assertions.assertEquals(1, publicKey.h());
+
+        AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+        parameters.init(new ECGenParameterSpec(curve.oid));
+        ECParameterSpec spec = parameters.getParameterSpec(ECParameterSpec.class);
+        PublicKey expected = KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(
+                new ECPoint(publicKey.w().x(), publicKey.w().y()), spec));
+        Assertions.assertEquals(spec.getOrder(), publicKey.n());
+        Assertions.assertEquals(expected, ECCurveUtils.jcaPublicKey(publicKey));
+        Assertions.assertArrayEquals(encoded, ECCurveUtils.encodePoint(curve, publicKey.w()));
+
+        byte[] compressed = ECCurveUtils.compressPoint(curve, publicKey.w());
+        Assertions.assertEquals(publicKey.w(), ECCurveUtils.decodePoint(curve, compressed));
+    }
+
+    @Test
+    public void testSubjectPublicKeyInfo() throws Exception {
+        for (Map.Entry<String, KnownOids> curve : Map.of("secp256r1", KnownOids.prime256v1, "secp384r1", KnownOids.ansip384r1,
+                "secp521r1", KnownOids.ansip521r1).entrySet()) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec(curve.getKey()));
+            java.security.interfaces.ECPublicKey expected = (java.security.interfaces.ECPublicKey) generator.generateKeyPair().getPublic();
+
+            var x509PublicKey = X509PublicKeyUtils.fromASN1Item((ASN1Sequence) DERDecodingUtils.parseNextASN1(ByteBuffer.wrap(expected.getEncoded())));
+            Assertions.assertEquals(KnownOids.ecPublicKey, x509PublicKey.algorithmOID);
+            if (!(x509PublicKey.publicKey instanceof ECPublicKey publicKey)) {
+                Assertions.fail("Expected EC public key.");
+                return;
+            }
+            Assertions.assertEquals(curve.getValue(), publicKey.curve());
+            Assertions.assertEquals(expected.getW().getAffineX(), publicKey.w().x());
+            Assertions.assertEquals(expected.getW().getAffineY(), publicKey.w().y());
+
+            // Converted keys are cached
+            PublicKey converted = X509PublicKeyUtils.publicKeyFor(expected.getEncoded());
+            Assertions.assertEquals(expected, converted);
+            Assertions.assertSame(converted, ECCurveUtils.jcaPublicKey(publicKey));
         }
     }
 
-    private static void testUsing(byte[] encoded) throws Exception {
+    /**
+     * P-224 has p = 1 mod 4, so its points are decompressed with Tonelli-Shanks.
+     */
+    @Test
+    public void testDecompress() throws Exception {
+        for (KnownOids curve : new KnownOids[]{KnownOids.prime256v1, KnownOids.ansip224r1, KnownOids.ansip384r1, KnownOids.ansip521r1, KnownOids.ansip256k1}) {
+            if (!ECCurveUtils.isSupported(curve)) {
+                continue;
+            }
+            ECPublicKey.ECParameters parameters = ECCurveUtils.parametersFor(curve);
+            ECPublicKey.ECPoint generator = parameters.generator();
+            ECPublicKey.ECPoint negated = new ECPublicKey.ECPoint(generator.x(), parameters.p().subtract(generator.y()));
+            for (ECPublicKey.ECPoint point : new ECPublicKey.ECPoint[]{generator, negated}) {
+                Assertions.assertEquals(point, ECCurveUtils.decodePoint(curve, ECCurveUtils.compressPoint(curve, point)), curve.name());
+                Assertions.assertEquals(point, ECCurveUtils.decodePoint(curve, ECCurveUtils.encodePoint(curve, point)), curve.name());
+            }
+        }
+        Assertions.assertTrue(ECCurveUtils.isSupported(KnownOids.ansip224r1));
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        KnownOids curve = KnownOids.prime256v1;
+        byte[] encoded = Base64.getDecoder().decode(ecPublicKeys[2]);
 
-        //ASN1Item nullItem = ;
-        //ASN1Sequence oidSequence = new ASN1Sequence(List.of(oid, nullItem));
-        List<ASN1Item> items = new ArrayList<>();
+        byte[] offCurve = encoded.clone();
+        offCurve[offCurve.length - 1] ^= 1;
+        Assertions.assertThrows(X509CertException.class, () -> ECCurveUtils.decodePoint(curve, offCurve));
+        Assertions.assertThrows(X509CertException.class, () -> ECCurveUtils.decodePoint(curve, Arrays.copyOf(encoded, 64)));
+        Assertions.assertThrows(X509CertException.class, () -> ECCurveUtils.decodePoint(curve, new byte[]{0}));
+        Assertions.assertThrows(X509CertException.class, () -> ECCurveUtils.decodePoint(KnownOids.ansip384r1, encoded));
+        Assertions.assertThrows(X509CertException.class, () -> ECCurveUtils.decodePoint(KnownOids.ansit571r1, encoded));
 
+        // x = p is not a field element
+        byte[] compressed = new byte[33];
+        compressed[0] = 0x02;
+        byte[] p = ECCurveUtils.parametersFor(curve).p().toByteArray();
+        System.arraycopy(p, p.length - 32, compressed, 1, 32);
+        Assertions.assertThrows(X509CertException.class, () -> ECCurveUtils.decodePoint(curve, compressed));
 
-        ASN1Sequence publicKeySequence = new ASN1Sequence(items);
-        KeyFactory keyFactory = KeyFactory.getInstance("EC");
-        KeySpec keyspec = new X509EncodedKeySpec(encoded);
-        PublicKey publicKey = keyFactory.generatePublic(keyspec);
+        // Some x have no point on the curve
+        boolean rejected = false;
+        for (int x = 1; x < 16 && !rejected; x++) {
+            compressed[32] = (byte) x;
+            Arrays.fill(compressed, 1, 32, (byte) 0);
+            try {
+                ECCurveUtils.decodePoint(curve, compressed);
+            } catch (X509CertException e) {
+                rejected = true;
+            }
+        }
+        Assertions.assertTrue(rejected);
+    }
+
+    /**
+     * Certificates with EC keys parse, and verify with an EC issuer key.
+     */
+    @Test
+    public void testCertificate() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp384r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        X500Name name = new X500Name("CN=EC Test,O=Wobbegong");
+        Instant now = Instant.now();
+        byte[] der = new JcaX509v3CertificateBuilder(name, BigInteger.TEN, Date.from(now), Date.from(now.plus(1, ChronoUnit.DAYS)), name, keyPair.getPublic())
+                .build(new JcaContentSignerBuilder("SHA384withECDSA").build(keyPair.getPrivate()))
+                .getEncoded();
 
-        System.out.println(publicKey.getClass());
-        var item = DERDecodingUtils.parseNextASN1(ByteBuffer.wrap(encoded));
-        System.out.println(ASN1Utils.toString(item));
+        SignedX509Certificate certificate = X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der)));
+        Assertions.assertTrue(certificate.verify(certificate));
     }
 }
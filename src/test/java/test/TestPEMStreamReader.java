@@ -0,0 +1,183 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.exceptions.KMSCAException;
+import dev.wobbegong.kmsca.exceptions.PEMFormatException;
+import dev.wobbegong.kmsca.io.PEMStreamReader;
+import dev.wobbegong.kmsca.random.DeterministicRandomSource;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class TestPEMStreamReader {
+
+    @Test
+    public void testBundle() throws Exception {
+        DeterministicRandomSource random = new DeterministicRandomSource(15);
+        StringBuilder bundle = new StringBuilder("Comments before the first object are skipped\n");
+        List<PEMObject> expected = new ArrayList<>();
+        String[] lineEndings = {"\n", "\r\n", "\r"};
+        for (int i = 0; i < 200; i++) {
+            String type = i % 3 == 0 ? "PRIVATE KEY" : "CERTIFICATE";
+            byte[] content = random.nextBytes(i * 7 % 301);
+            expected.add(new PEMObject(type, content));
+            bundle.append(PEMUtils.pemFor(type, content).replace(PEMUtils.LINE_SEPARATOR, lineEndings[i % 3]));
+            if (i % 5 == 0) {
+                bundle.append("\n   \nsubject=CN=Between objects\r\n");
+            }
+        }
+        String pem = bundle.toString();
+        byte[] bytes = pem.getBytes(StandardCharsets.US_ASCII);
+
+        assertPEMsEqual(expected, PEMUtils.parsePEMs(new BufferedReader(new StringReader(pem))));
+        assertPEMsEqual(expected, PEMUtils.parsePEMBytes(pem));
+        assertPEMsEqual(expected, readAll(new PEMStreamReader(new ByteArrayInputStream(bytes))));
+        assertPEMsEqual(expected, readAll(new PEMStreamReader(new TrickleChannel(bytes))));
+
+        Path file = Files.createTempFile("bundle", ".pem");
+        try {
+            Files.write(file, bytes);
+            try (Stream<PEMObject> pems = PEMStreamReader.open(file).stream()) {
+                assertPEMsEqual(expected, pems.toList());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSameAsLineReader() throws Exception {
+        String abc = Base64.getEncoder().encodeToString("abcde".getBytes(StandardCharsets.US_ASCII));
+        List<String> inputs = List.of(
+                "",
+                "no objects\n",
+                "-----BEGIN A-----\n" + abc + "\n-----END A-----",
+                "-----BEGIN A-----\n" + abc + "\n-----END A-----\n-----BEGIN A-----\n",
+                "-----BEGIN A-----\n" + abc + "\n\n-----END A-----\n",
+                "-----BEGIN A-----\n" + abc + "\n \t\n-----END A-----\n",
+                "-----BEGIN A-----\n" + abc + "\n  abc\n-----END A-----\n",
+                "-----BEGIN A-----\n" + abc + " \n-----END A-----\n",
+                "-----BEGIN A-----\n" + abc + "\n-----END B-----\n",
+                "-----BEGIN A-----\n" + abc + "\n-----END a-----\n",
+                "-----BEGIN A-----\n-----END A-----\n",
+                " -----BEGIN A-----\n" + abc + "\n-----END A-----\n",
+                "-----BEGIN a-----\n" + abc + "\n-----END A-----\n",
+                "-----BEGIN A B 1-----\nYWJj\nZGVm\n-----END A B 1-----\n",
+                "-----BEGIN A-----\nYW\nJj\n-----END A-----\n",
+                "-----BEGIN A-----\nYWI\n-----END A-----\n",
+                "-----BEGIN A-----\nYQ==\n-----END A-----\n");
+        for (String input : inputs) {
+            Object expected = result(() -> PEMUtils.parsePEMs(new BufferedReader(new StringReader(input))));
+            Object actual = result(() -> readAll(new PEMStreamReader(ByteBuffer.wrap(input.getBytes(StandardCharsets.US_ASCII)))));
+            if (expected instanceof List<?> expectedPEMs) {
+                Assertions.assertInstanceOf(List.class, actual, input);
+                assertPEMsEqual(cast(expectedPEMs), cast((List<?>) actual));
+            } else {
+                Assertions.assertEquals(expected, actual, input);
+            }
+        }
+    }
+
+    @Test
+    public void testBase64Errors() throws Exception {
+        // The line reader lets the Base64 decoder throw IllegalArgumentException for these
+        for (String base64 : List.of("Y", "YWJjZ", "YQ=", "YQ===", "Y===", "YQ==YQ==", "YWI=YQ")) {
+            String pem = "-----BEGIN A-----\n" + base64 + "\n-----END A-----\n";
+            Assertions.assertThrows(IllegalArgumentException.class, () -> PEMUtils.parsePEMs(new BufferedReader(new StringReader(pem))), base64);
+            Assertions.assertThrows(PEMFormatException.class, () -> PEMUtils.parsePEMBytes(pem), base64);
+        }
+
+        // Padding may end any line as long as it ends the data
+        Assertions.assertArrayEquals("a".getBytes(StandardCharsets.US_ASCII), PEMUtils.parsePEMBytes("-----BEGIN A-----\nYQ=\n=\n-----END A-----\n").get(0).content());
+
+        Iterator<PEMObject> iterator = new PEMStreamReader(ByteBuffer.wrap("-----BEGIN A-----\n\n".getBytes(StandardCharsets.US_ASCII))).iterator();
+        KMSCAException e = Assertions.assertThrows(KMSCAException.class, iterator::hasNext);
+        Assertions.assertTrue(e.getMessage().contains("line 2"), e.getMessage());
+    }
+
+    private static List<PEMObject> readAll(PEMStreamReader reader) throws IOException, PEMFormatException {
+        List<PEMObject> pems = new ArrayList<>();
+        try (reader) {
+            PEMObject pem;
+            while ((pem = reader.next()) != null) {
+                pems.add(pem);
+            }
+        }
+        return pems;
+    }
+
+    private static void assertPEMsEqual(List<PEMObject> expected, List<PEMObject> actual) {
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.get(i).type(), actual.get(i).type());
+            Assertions.assertArrayEquals(expected.get(i).content(), actual.get(i).content(), "Object " + i);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<PEMObject> cast(List<?> list) {
+        return (List<PEMObject>) list;
+    }
+
+    /**
+     * @return The PEM objects, or the class of the exception.
+     */
+    private static Object result(Parse parse) {
+        try {
+            return parse.parse();
+        } catch (Exception e) {
+            return e.getClass();
+        }
+    }
+
+    private interface Parse {
+        List<PEMObject> parse() throws Exception;
+    }
+
+    /**
+     * Returns a few bytes per read, so reads end at every position in the input.
+     */
+    private static class TrickleChannel implements ReadableByteChannel {
+        private final ByteBuffer data;
+        private int reads;
+
+        TrickleChannel(byte[] data) {
+            this.data = ByteBuffer.wrap(data);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(Math.min(dst.remaining(), data.remaining()), reads++ % 7 + 1);
+            dst.put(data.slice(data.position(), n));
+            data.position(data.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
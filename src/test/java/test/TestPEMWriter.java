@@ -0,0 +1,107 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.io.PEMStreamReader;
+import dev.wobbegong.kmsca.io.PEMWriter;
+import dev.wobbegong.kmsca.random.DeterministicRandomSource;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+public class TestPEMWriter {
+
+    @Test
+    public void testSameAsStringBuilder() {
+        DeterministicRandomSource random = new DeterministicRandomSource(17);
+        for (int length = 0; length < 400; length++) {
+            byte[] content = random.nextBytes(length);
+            String expected = stringBuilderPEM("CERTIFICATE", content, PEMUtils.LINE_SEPARATOR);
+
+            Assertions.assertEquals(expected, PEMUtils.pemFor("CERTIFICATE", content));
+            Assertions.assertEquals(expected.length(), PEMWriter.DEFAULT.pemLength("CERTIFICATE", length));
+
+            PEMWriter crlf = new PEMWriter("\r\n");
+            Assertions.assertEquals(stringBuilderPEM("RSA PRIVATE KEY", content, "\r\n"), new String(crlf.encode("RSA PRIVATE KEY", content), StandardCharsets.US_ASCII));
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PEMUtils.pemFor("CERTIFICATÉ", new byte[1]));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new PEMWriter(""));
+    }
+
+    @Test
+    public void testChainAndOutputs() throws Exception {
+        DeterministicRandomSource random = new DeterministicRandomSource(18);
+        List<PEMObject> chain = new ArrayList<>();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            PEMObject object = new PEMObject("CERTIFICATE", random.nextBytes(500 + i * 101));
+            chain.add(object);
+            expected.append(PEMUtils.pemFor(object.type(), object.content()));
+        }
+
+        PEMWriter writer = new PEMWriter("\n");
+        String text = expected.toString().replace(PEMUtils.LINE_SEPARATOR, "\n");
+        Assertions.assertEquals(text, writer.toPEM(chain));
+        Assertions.assertEquals(text.length(), writer.pemLength(chain));
+        Assertions.assertEquals(expected.toString(), PEMUtils.pemFor(chain));
+
+        // Written at an offset into a larger array
+        byte[] array = new byte[writer.pemLength(chain.subList(0, 1)) + 10];
+        Assertions.assertEquals(array.length - 5, writer.write("CERTIFICATE", chain.get(0).content(), array, 5));
+        Assertions.assertEquals(writer.toPEM(chain.subList(0, 1)), new String(array, 5, array.length - 10, StandardCharsets.US_ASCII));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> writer.write("CERTIFICATE", chain.get(0).content(), array, 11));
+
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(4000), ByteBuffer.allocateDirect(4000)}) {
+            buffer.position(3);
+            writer.write("CERTIFICATE", chain.get(1).content(), buffer);
+            buffer.flip().position(3);
+            Assertions.assertEquals(writer.toPEM("CERTIFICATE", chain.get(1).content()), StandardCharsets.US_ASCII.decode(buffer).toString());
+        }
+
+        // Direct buffers get the same text for every length of the last line
+        PEMWriter crlf = new PEMWriter("\r\n");
+        for (int length = 0; length < 100; length++) {
+            byte[] content = Arrays.copyOf(chain.get(0).content(), length);
+            ByteBuffer direct = ByteBuffer.allocateDirect(crlf.pemLength("DATA", length) + 1).position(1);
+            crlf.write("DATA", content, direct);
+            Assertions.assertFalse(direct.hasRemaining());
+            byte[] written = new byte[direct.capacity() - 1];
+            direct.get(1, written);
+            Assertions.assertArrayEquals(crlf.encode("DATA", content), written);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(chain, Channels.newChannel(out));
+        Assertions.assertEquals(text, out.toString(StandardCharsets.US_ASCII));
+
+        // What is written reads back
+        PEMStreamReader reader = new PEMStreamReader(ByteBuffer.wrap(out.toByteArray()));
+        for (PEMObject object : chain) {
+            Assertions.assertArrayEquals(object.content(), reader.next().content());
+        }
+        Assertions.assertNull(reader.next());
+    }
+
+    /**
+     * The encoding {@link PEMUtils#pemFor(String, byte[])} used before it wrote through {@link PEMWriter}.
+     */
+    private static String stringBuilderPEM(String type, byte[] encoded, String lineSeparator) {
+        String base64 = Base64.getEncoder().encodeToString(encoded);
+        StringBuilder sb = new StringBuilder();
+        sb.append("-----BEGIN ").append(type).append("-----").append(lineSeparator);
+        for (int i = 0; i < base64.length(); i += 64) {
+            sb.append(base64, i, Math.min(i + 64, base64.length())).append(lineSeparator);
+        }
+        sb.append("-----END ").append(type).append("-----").append(lineSeparator);
+        return sb.toString();
+    }
+}
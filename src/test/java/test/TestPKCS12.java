@@ -8,6 +8,7 @@ import dev.wobbegong.kmsca.exceptions.PEMFormatException;
 import dev.wobbegong.kmsca.exceptions.X509CertException;
 import dev.wobbegong.kmsca.utils.ASN1Utils;
 import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.DEREncodingUtils;
 import dev.wobbegong.kmsca.utils.PEMUtils;
 import dev.wobbegong.kmsca.utils.X509Utils;
 import org.junit.jupiter.api.Assertions;
@@ -71,6 +72,39 @@ public class TestPKCS12 {
                 });
     }
 
+    @Test
+    public void testLazy() throws IOException, X509CertException {
+        byte[] der;
+        try (InputStream is = this.getClass().getClassLoader().getResourceAsStream("certs/v1/16k-dsa-example-cert.der")) {
+            Assertions.assertNotNull(is);
+            der = is.readAllBytes();
+        }
+        X509Certificate expected;
+        try {
+            expected = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(der));
+        } catch (CertificateException e) {
+            throw new RuntimeException(e);
+        }
+
+        ASN1Sequence root = (ASN1Sequence) DERDecodingUtils.lazyNextASN1(ByteBuffer.wrap(der));
+        Assertions.assertFalse(root.isExpanded());
+        Assertions.assertEquals(expected.getSerialNumber(), X509Utils.serialNumberOf(root));
+
+        // Only the path to the serial number has been parsed
+        ASN1Sequence tbs = (ASN1Sequence) root.asn1ItemList().get(0);
+        Assertions.assertTrue(tbs.isExpanded());
+        Assertions.assertFalse(((ASN1Sequence) root.asn1ItemList().get(1)).isExpanded());
+        for (ASN1Item item : tbs.asn1ItemList()) {
+            if (item instanceof ASN1Sequence sequence) {
+                Assertions.assertFalse(sequence.isExpanded());
+            }
+        }
+
+        Assertions.assertEquals(expected.getNotAfter().toInstant(), X509Utils.expiresOf(root).toInstant());
+        Assertions.assertFalse(X509Utils.issuerOf(root).oidValues().isEmpty());
+        Assertions.assertEquals(expected.getSerialNumber(), X509Utils.toCertificate(root).tbsCertificate().serialNumber());
+    }
+
     private void testUsingCRT(String resource) throws CertificateException, PEMFormatException, X509CertException {
         List<PEMObject> certObjects;
         if(resource.endsWith(".der")) {
@@ -123,10 +157,34 @@ public class TestPKCS12 {
                 throw new RuntimeException("Could not parse certificate: " + resource);
             }
 
+            // The zero-copy parse must produce the same tree as the copying parse
+            ASN1Item view = DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(pem.content()));
+            assertSameTree(item, view);
+            SignedX509Certificate viewCertificate = X509Utils.toCertificate((ASN1Sequence) view);
+            Assertions.assertEquals(certificate.getSerialNumber(), viewCertificate.tbsCertificate().serialNumber());
+
+            // Re-encoding either tree must give back the original DER
+            Assertions.assertArrayEquals(pem.content(), DEREncodingUtils.encodeItem(item));
+            Assertions.assertArrayEquals(pem.content(), DEREncodingUtils.encodeItem(view));
         }
 
     }
 
+    private static void assertSameTree(ASN1Item expected, ASN1Item actual) {
+        Assertions.assertTrue(actual.isView());
+        Assertions.assertEquals(expected.type(), actual.type());
+        Assertions.assertEquals(expected.start, actual.start);
+        Assertions.assertEquals(expected.length, actual.length);
+        Assertions.assertArrayEquals(expected.contents(), actual.contents());
+        if (expected instanceof ASN1Sequence expectedSequence) {
+            List<ASN1Item> actualItems = ((ASN1Sequence) actual).asn1ItemList();
+            Assertions.assertEquals(expectedSequence.asn1ItemList().size(), actualItems.size());
+            for (int i = 0; i < actualItems.size(); i++) {
+                assertSameTree(expectedSequence.asn1ItemList().get(i), actualItems.get(i));
+            }
+        }
+    }
+
     /**
      * Get the first PEM object in the byte data and return its contents.
      *
@@ -0,0 +1,115 @@
+package test;
+
+import dev.wobbegong.kmsca.random.DeterministicRandomSource;
+import dev.wobbegong.kmsca.random.PrefetchingRandomSource;
+import dev.wobbegong.kmsca.random.RandomSource;
+import dev.wobbegong.kmsca.random.ThreadLocalDRBGSource;
+import dev.wobbegong.kmsca.utils.CertificateUtils;
+import dev.wobbegong.kmsca.utils.CryptoUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TestRandomSource {
+
+    @Test
+    public void testDeterministic() {
+        byte[] first = new DeterministicRandomSource(42).nextBytes(100);
+
+        // The same bytes however they are requested
+        DeterministicRandomSource pieces = new DeterministicRandomSource(42);
+        byte[] second = new byte[100];
+        System.arraycopy(pieces.nextBytes(7), 0, second, 0, 7);
+        System.arraycopy(pieces.nextBytes(60), 0, second, 7, 60);
+        System.arraycopy(pieces.nextBytes(33), 0, second, 67, 33);
+        Assertions.assertArrayEquals(first, second);
+
+        Assertions.assertFalse(Arrays.equals(first, new DeterministicRandomSource(43).nextBytes(100)));
+        Assertions.assertEquals(CertificateUtils.randomSerialNumber(new DeterministicRandomSource(7)), CertificateUtils.randomSerialNumber(new DeterministicRandomSource(7)));
+        IllegalArgumentException e = Assertions.assertThrows(IllegalArgumentException.class, () -> new DeterministicRandomSource(42).nextBytes(-1));
+        Assertions.assertTrue(e.getMessage().contains(String.valueOf(RandomSource.MAX_SIZE)) && e.getMessage().contains("Actual: -1"), e.getMessage());
+        e = Assertions.assertThrows(IllegalArgumentException.class, () -> new DeterministicRandomSource(42).nextBytes(Integer.MAX_VALUE));
+        Assertions.assertTrue(e.getMessage().contains("Actual: " + Integer.MAX_VALUE), e.getMessage());
+        Assertions.assertEquals(0, new DeterministicRandomSource(42).nextBytes(0).length);
+    }
+
+    @Test
+    public void testCryptoUtilsSource() {
+        RandomSource original = CryptoUtils.randomSource();
+        try {
+            CryptoUtils.setRandomSource(new DeterministicRandomSource(1));
+            byte[] key = CryptoUtils.randomKey();
+            byte[] serial = CertificateUtils.randomSerialNumber().toByteArray();
+
+            CryptoUtils.setRandomSource(new DeterministicRandomSource(1));
+            Assertions.assertArrayEquals(key, CryptoUtils.randomKey());
+            Assertions.assertArrayEquals(serial, CertificateUtils.randomSerialNumber().toByteArray());
+        } finally {
+            CryptoUtils.setRandomSource(original);
+        }
+    }
+
+    @Test
+    public void testConcurrentSources() throws Exception {
+        try (PrefetchingRandomSource prefetching = new PrefetchingRandomSource(new ThreadLocalDRBGSource(), 64, 4)) {
+            for (RandomSource source : List.of(new ThreadLocalDRBGSource(), prefetching)) {
+                // No two threads, and no two calls, ever see the same bytes
+                Set<String> seen = ConcurrentHashMap.newKeySet();
+                ExecutorService executor = Executors.newFixedThreadPool(8);
+                List<Future<?>> results = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    results.add(executor.submit(() -> {
+                        for (int j = 0; j < 500; j++) {
+                            Assertions.assertTrue(seen.add(HexFormat.of().formatHex(source.nextBytes(16 + j % 40))));
+                        }
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+                executor.shutdown();
+                Assertions.assertEquals(4000, seen.size());
+            }
+
+            // Larger than a block
+            Assertions.assertEquals(1000, prefetching.nextBytes(1000).length);
+        }
+    }
+
+    @Test
+    public void testCloseZeroesBlocks() {
+        // Fills each array with its own number, so the bytes handed out tell which block they came from
+        List<byte[]> filled = new ArrayList<>();
+        RandomSource numbered = bytes -> {
+            synchronized (filled) {
+                filled.add(bytes);
+                Arrays.fill(bytes, (byte) filled.size());
+            }
+        };
+        PrefetchingRandomSource prefetching = new PrefetchingRandomSource(numbered, 64, 2);
+        byte[] first = prefetching.nextBytes(16);
+        byte[] block;
+        synchronized (filled) {
+            block = filled.get(first[0] - 1);
+        }
+        Assertions.assertArrayEquals(new byte[16], Arrays.copyOf(block, 16));
+        Assertions.assertEquals(first[0], block[16]);
+
+        // The rest of the block this thread holds is zeroed, and later requests go to the source
+        prefetching.close();
+        Assertions.assertArrayEquals(new byte[64], block);
+        byte[] after = prefetching.nextBytes(16);
+        synchronized (filled) {
+            Assertions.assertTrue(filled.contains(after));
+        }
+    }
+}
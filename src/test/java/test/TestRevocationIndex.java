@@ -0,0 +1,220 @@
+package test;
+
+import dev.wobbegong.kmsca.crl.CRLIssuer;
+import dev.wobbegong.kmsca.crl.RevocationIndex;
+import dev.wobbegong.kmsca.crl.RevocationStore;
+import dev.wobbegong.kmsca.entities.CertificateAuthority;
+import dev.wobbegong.kmsca.entities.pkcs12.RevocationReason;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+public class TestRevocationIndex {
+
+    private static final Instant NOW = Instant.parse("2026-03-01T12:00:00Z");
+
+    @Test
+    public void testIndex(@TempDir Path directory) throws Exception {
+        KeyPair keys = Fixtures.keyPair("EC", 256);
+        RevocationStore store = new RevocationStore();
+        Random random = new Random(7);
+        List<BigInteger> revoked = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            BigInteger serialNumber = new BigInteger(1 + random.nextInt(159), random).add(BigInteger.ONE);
+            if (store.revoke(serialNumber, NOW, i % 3 == 0 ? RevocationReason.keyCompromise : null)) {
+                revoked.add(serialNumber);
+            }
+        }
+        byte[] crl = crl(keys, store);
+
+        RevocationIndex index = RevocationIndex.parse(new ByteArrayInputStream(crl), keys.getPublic());
+        Assertions.assertEquals(revoked.size(), index.size());
+        Assertions.assertEquals(NOW, index.thisUpdate());
+        Assertions.assertEquals(NOW.plus(Duration.ofDays(1)), index.nextUpdate());
+        for (BigInteger serialNumber : revoked) {
+            Assertions.assertTrue(index.isRevoked(serialNumber), serialNumber.toString(16));
+        }
+        for (int i = 0; i < 20000; i++) {
+            BigInteger serialNumber = new BigInteger(1 + random.nextInt(159), random);
+            Assertions.assertEquals(store.isRevoked(serialNumber), index.isRevoked(serialNumber), serialNumber.toString(16));
+        }
+        Assertions.assertFalse(index.isRevoked(BigInteger.ONE.shiftLeft(300)));
+        Assertions.assertFalse(index.isRevoked(BigInteger.valueOf(-1)));
+
+        // A saved index maps back without parsing the CRL
+        Path file = directory.resolve("crl.index");
+        index.writeTo(file);
+        RevocationIndex mapped = RevocationIndex.map(file);
+        Assertions.assertEquals(index.size(), mapped.size());
+        Assertions.assertEquals(index.nextUpdate(), mapped.nextUpdate());
+        for (BigInteger serialNumber : revoked.subList(0, 1000)) {
+            Assertions.assertTrue(mapped.isRevoked(serialNumber));
+        }
+        Assertions.assertFalse(mapped.isRevoked(BigInteger.ZERO));
+
+        // The index names the CRL it was built from
+        byte[] crlDigest = MessageDigest.getInstance("SHA-256").digest(crl);
+        Assertions.assertArrayEquals(crlDigest, index.crlDigest());
+        Assertions.assertArrayEquals(crlDigest, mapped.crlDigest());
+        Path crlFile = directory.resolve("crl.der");
+        Files.write(crlFile, crl);
+        Assertions.assertArrayEquals(crlDigest, RevocationIndex.crlDigest(crlFile));
+        Assertions.assertEquals(index.size(), RevocationIndex.map(file, crlDigest).size());
+        byte[] otherDigest = crlDigest.clone();
+        otherDigest[0] ^= 1;
+        Assertions.assertThrows(IOException.class, () -> RevocationIndex.map(file, otherDigest));
+
+        // A header that does not match the length of the file is refused before the file is mapped
+        byte[] saved = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(saved, saved.length - 8));
+        IOException e = Assertions.assertThrows(IOException.class, () -> RevocationIndex.map(file));
+        Assertions.assertTrue(e.getMessage().contains("Actual: " + (saved.length - 8)), e.getMessage());
+        byte[] moreRecords = saved.clone();
+        ByteBuffer.wrap(moreRecords).putInt(8, index.size() + 1);
+        Files.write(file, moreRecords);
+        Assertions.assertThrows(IOException.class, () -> RevocationIndex.map(file));
+        byte[] badMagic = saved.clone();
+        badMagic[0] ^= 1;
+        Files.write(file, badMagic);
+        Assertions.assertThrows(IOException.class, () -> RevocationIndex.map(file));
+
+        Files.write(file, new byte[]{1, 2, 3});
+        Assertions.assertThrows(IOException.class, () -> RevocationIndex.map(file));
+        Files.write(file, crl);
+        Assertions.assertThrows(IOException.class, () -> RevocationIndex.map(file));
+    }
+
+    @Test
+    public void testSmallSerialNumbers() throws Exception {
+        KeyPair keys = Fixtures.keyPair("RSA", 2048);
+        RevocationStore store = new RevocationStore();
+        for (long serialNumber : new long[]{1, 127, 128, 255, 256, 65536, Long.MAX_VALUE}) {
+            store.revoke(BigInteger.valueOf(serialNumber), NOW, null);
+        }
+        RevocationIndex index = RevocationIndex.parse(new ByteArrayInputStream(crl(keys, store)), keys.getPublic());
+        Assertions.assertEquals(7, index.size());
+        Assertions.assertTrue(index.isRevoked(BigInteger.valueOf(128)));
+        Assertions.assertTrue(index.isRevoked(BigInteger.valueOf(Long.MAX_VALUE)));
+        Assertions.assertFalse(index.isRevoked(BigInteger.valueOf(129)));
+        Assertions.assertFalse(index.isRevoked(BigInteger.valueOf(-128)));
+
+        // A CRL without revoked certificates
+        RevocationIndex empty = RevocationIndex.parse(new ByteArrayInputStream(crl(keys, new RevocationStore())), keys.getPublic());
+        Assertions.assertEquals(0, empty.size());
+        Assertions.assertFalse(empty.isRevoked(BigInteger.ONE));
+    }
+
+    @Test
+    public void testOtherIssuers() throws Exception {
+        KeyPair keys = Fixtures.keyPair("EC", 256);
+        // Entries with extensions, a negative serial number and no next update, as other CAs write them
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=Other CA"), Date.from(NOW));
+        builder.addCRLEntry(BigInteger.valueOf(-5), Date.from(NOW), CRLReason.superseded);
+        ExtensionsGenerator entryExtensions = new ExtensionsGenerator();
+        entryExtensions.addExtension(Extension.reasonCode, false, CRLReason.lookup(CRLReason.keyCompromise));
+        entryExtensions.addExtension(Extension.invalidityDate, false, new ASN1GeneralizedTime(Date.from(NOW.minusSeconds(3600))));
+        builder.addCRLEntry(BigInteger.valueOf(1000), Date.from(NOW), entryExtensions.generate());
+        builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(1));
+        byte[] crl = builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(keys.getPrivate())).getEncoded();
+
+        RevocationIndex index = RevocationIndex.parse(new ByteArrayInputStream(crl), keys.getPublic());
+        Assertions.assertEquals(2, index.size());
+        Assertions.assertTrue(index.isRevoked(BigInteger.valueOf(-5)));
+        Assertions.assertTrue(index.isRevoked(BigInteger.valueOf(1000)));
+        Assertions.assertFalse(index.isRevoked(BigInteger.valueOf(5)));
+        Assertions.assertNull(index.nextUpdate());
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        KeyPair keys = Fixtures.keyPair("EC", 256);
+        RevocationStore store = new RevocationStore();
+        store.revoke(BigInteger.TEN, NOW, null);
+        byte[] crl = crl(keys, store);
+
+        // Wrong key, altered entries and cut short
+        Assertions.assertThrows(X509CertException.class, () -> RevocationIndex.parse(new ByteArrayInputStream(crl), Fixtures.keyPair("EC", 256).getPublic()));
+        byte[] altered = crl.clone();
+        int serial = indexOf(altered, new byte[]{0x02, 0x01, 0x0A});
+        altered[serial + 2] = 0x0B;
+        Assertions.assertThrows(X509CertException.class, () -> RevocationIndex.parse(new ByteArrayInputStream(altered), keys.getPublic()));
+        Assertions.assertThrows(Exception.class, () -> RevocationIndex.parse(new ByteArrayInputStream(crl, 0, crl.length - 10), keys.getPublic()));
+
+        // Delta CRLs, indirect CRLs and critical entry extensions
+        CertificateAuthority ca = Fixtures.ca(keys);
+        CRLIssuer issuer = new CRLIssuer(ca, store);
+        issuer.writeCRL(new ByteArrayOutputStream(), NOW, NOW.plusSeconds(60));
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        issuer.writeDeltaCRL(delta, NOW, NOW.plusSeconds(60));
+        Assertions.assertThrows(X509CertException.class, () -> RevocationIndex.parse(new ByteArrayInputStream(delta.toByteArray()), keys.getPublic()));
+
+        ExtensionsGenerator indirect = new ExtensionsGenerator();
+        indirect.addExtension(Extension.certificateIssuer, true, new GeneralNames(new GeneralName(new X500Name("CN=Someone Else"))));
+        Assertions.assertThrows(X509CertException.class, () -> RevocationIndex.parse(new ByteArrayInputStream(crlWithEntryExtensions(keys, indirect)), keys.getPublic()));
+        ExtensionsGenerator critical = new ExtensionsGenerator();
+        critical.addExtension(Extension.invalidityDate, true, new ASN1GeneralizedTime(Date.from(NOW)));
+        Assertions.assertThrows(X509CertException.class, () -> RevocationIndex.parse(new ByteArrayInputStream(crlWithEntryExtensions(keys, critical)), keys.getPublic()));
+
+        // An entry extension value that is not an OCTET STRING
+        ExtensionsGenerator invalidityDate = new ExtensionsGenerator();
+        invalidityDate.addExtension(Extension.invalidityDate, false, new ASN1GeneralizedTime(Date.from(NOW)));
+        byte[] notOctets = crlWithEntryExtensions(keys, invalidityDate);
+        RevocationIndex.parse(new ByteArrayInputStream(notOctets), keys.getPublic());
+        notOctets[indexOf(notOctets, new byte[]{0x06, 0x03, 0x55, 0x1D, 0x18, 0x04}) + 5] = 0x0C;
+        X509CertException e = Assertions.assertThrows(X509CertException.class, () -> RevocationIndex.parse(new ByteArrayInputStream(notOctets), keys.getPublic()));
+        Assertions.assertTrue(e.getMessage().startsWith("Expected the value of a CRL entry extension"), e.getMessage());
+    }
+
+    private static byte[] crl(KeyPair keys, RevocationStore store) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CRLIssuer(Fixtures.ca(keys), store).writeCRL(out, NOW, NOW.plus(Duration.ofDays(1)));
+        return out.toByteArray();
+    }
+
+    private static byte[] crlWithEntryExtensions(KeyPair keys, ExtensionsGenerator extensions) throws Exception {
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=Other CA"), Date.from(NOW));
+        builder.addCRLEntry(BigInteger.TEN, Date.from(NOW), extensions.generate());
+        return builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(keys.getPrivate())).getEncoded();
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new IllegalArgumentException("Pattern not found.");
+    }
+}
@@ -0,0 +1,97 @@
+package test;
+
+import dev.wobbegong.kmsca.io.SegmentedAESGCMInputStream;
+import dev.wobbegong.kmsca.io.SegmentedAESGCMOutputStream;
+import dev.wobbegong.kmsca.utils.CryptoUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class TestSegmentedAESGCM {
+
+    private static final int SEGMENT_SIZE = 64;
+    private static final int HEADER_SIZE = 28;
+    private static final int SEGMENT_CIPHERTEXT_SIZE = SEGMENT_SIZE + CryptoUtils.GCM_TAG_SIZE;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] key = CryptoUtils.randomKey();
+        for (int size : new int[]{0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 3 * SEGMENT_SIZE, 3 * SEGMENT_SIZE + 5}) {
+            byte[] data = CryptoUtils.randomBytes(size);
+            byte[] encrypted = encrypt(key, data, SEGMENT_SIZE);
+
+            // Every segment but the last is full, and only an empty stream has an empty segment
+            int segments = Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            Assertions.assertEquals(HEADER_SIZE + size + segments * CryptoUtils.GCM_TAG_SIZE, encrypted.length, "Size " + size);
+            Assertions.assertArrayEquals(data, decrypt(key, encrypted), "Size " + size);
+        }
+
+        // Several megabytes in the default segment size, written and read a byte at a time around the edges
+        byte[] data = CryptoUtils.randomBytes(3 * 1024 * 1024 + 17);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SegmentedAESGCMOutputStream encrypting = new SegmentedAESGCMOutputStream(out, key)) {
+            encrypting.write(data[0]);
+            encrypting.write(data, 1, data.length - 2);
+            encrypting.write(data[data.length - 1]);
+        }
+        try (InputStream decrypting = new SegmentedAESGCMInputStream(new ByteArrayInputStream(out.toByteArray()), key)) {
+            Assertions.assertEquals(data[0] & 0xFF, decrypting.read());
+            byte[] rest = decrypting.readAllBytes();
+            Assertions.assertArrayEquals(Arrays.copyOfRange(data, 1, data.length), rest);
+            Assertions.assertEquals(-1, decrypting.read());
+        }
+    }
+
+    @Test
+    public void testTampering() throws IOException {
+        byte[] key = CryptoUtils.randomKey();
+        byte[] data = CryptoUtils.randomBytes(3 * SEGMENT_SIZE + 5);
+        byte[] encrypted = encrypt(key, data, SEGMENT_SIZE);
+
+        // Wrong key
+        Assertions.assertThrows(IOException.class, () -> decrypt(CryptoUtils.randomKey(), encrypted));
+
+        // A modified header, segment or tag
+        for (int index : new int[]{10, HEADER_SIZE + 3, HEADER_SIZE + SEGMENT_CIPHERTEXT_SIZE - 1, encrypted.length - 1}) {
+            byte[] modified = encrypted.clone();
+            modified[index] ^= 1;
+            Assertions.assertThrows(IOException.class, () -> decrypt(key, modified), "Index " + index);
+        }
+
+        // Cut at a segment boundary, cut inside a segment, or cut in the header
+        for (int length : new int[]{HEADER_SIZE + 2 * SEGMENT_CIPHERTEXT_SIZE, encrypted.length - 1, HEADER_SIZE + 10, HEADER_SIZE - 1}) {
+            Assertions.assertThrows(IOException.class, () -> decrypt(key, Arrays.copyOf(encrypted, length)), "Length " + length);
+        }
+
+        // Data after the last segment
+        Assertions.assertThrows(IOException.class, () -> decrypt(key, Arrays.copyOf(encrypted, encrypted.length + CryptoUtils.GCM_TAG_SIZE)));
+
+        // Swapped segments
+        byte[] swapped = encrypted.clone();
+        System.arraycopy(encrypted, HEADER_SIZE, swapped, HEADER_SIZE + SEGMENT_CIPHERTEXT_SIZE, SEGMENT_CIPHERTEXT_SIZE);
+        System.arraycopy(encrypted, HEADER_SIZE + SEGMENT_CIPHERTEXT_SIZE, swapped, HEADER_SIZE, SEGMENT_CIPHERTEXT_SIZE);
+        Assertions.assertThrows(IOException.class, () -> decrypt(key, swapped));
+
+        // Streams from the same key do not share nonces or keys
+        Assertions.assertFalse(Arrays.equals(encrypted, encrypt(key, data, SEGMENT_SIZE)));
+    }
+
+    private static byte[] encrypt(byte[] key, byte[] data, int segmentSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SegmentedAESGCMOutputStream encrypting = new SegmentedAESGCMOutputStream(out, key, segmentSize)) {
+            encrypting.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] key, byte[] encrypted) throws IOException {
+        try (InputStream decrypting = new SegmentedAESGCMInputStream(new ByteArrayInputStream(encrypted), key)) {
+            return decrypting.readAllBytes();
+        }
+    }
+}
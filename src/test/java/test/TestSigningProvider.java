@@ -0,0 +1,151 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.exceptions.SigningException;
+import dev.wobbegong.kmsca.signing.KMSSigningProvider;
+import dev.wobbegong.kmsca.signing.LocalSigningProvider;
+import dev.wobbegong.kmsca.signing.SigningProvider;
+import dev.wobbegong.kmsca.utils.SignatureUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DisabledException;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.MessageType;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestSigningProvider {
+
+    private static final byte[] DATA = "To be signed".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void testLocalSigning() throws Exception {
+        for (String algorithm : List.of("RSA:2048:SHA256withRSA", "EC:256:SHA256withECDSA", "EC:384:SHA384withECDSA")) {
+            String[] parts = algorithm.split(":");
+            KeyPair keyPair = Fixtures.keyPair(parts[0], Integer.parseInt(parts[1]));
+            SigningProvider signer = new LocalSigningProvider(keyPair);
+
+            byte[] signature = signer.sign(ByteBuffer.wrap(DATA));
+            Assertions.assertTrue(verify(parts[2], keyPair, signature), algorithm);
+            Assertions.assertArrayEquals(keyPair.getPublic().getEncoded(), signer.subjectPublicKeyInfo());
+        }
+    }
+
+    @Test
+    public void testLocalFailures() throws Exception {
+        LocalSigningProvider signer = new LocalSigningProvider(Fixtures.keyPair("EC", 256));
+        byte[] digest = SignatureUtils.digest(signer.signatureAlgorithm(), ByteBuffer.wrap(DATA));
+
+        SigningException wrongLength = Assertions.assertThrows(SigningException.class, () -> signer.signDigest(new byte[20]));
+        Assertions.assertFalse(wrongLength.retryable());
+
+        LocalSigningProvider quota = signer.withRequestQuota(2);
+        quota.signDigest(digest);
+        quota.signDigest(digest);
+        Assertions.assertTrue(Assertions.assertThrows(SigningException.class, () -> quota.signDigest(digest)).retryable());
+
+        LocalSigningProvider failing = signer.withFailureRate(1);
+        Assertions.assertTrue(Assertions.assertThrows(SigningException.class, () -> failing.signDigest(digest)).retryable());
+
+        LocalSigningProvider slow = signer.withLatency(Duration.ofMillis(20), Duration.ofMillis(20));
+        long start = System.nanoTime();
+        slow.signDigest(digest);
+        Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(20).toNanos());
+    }
+
+    @Test
+    public void testKMSSigning() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("EC", 384);
+        LocalSigningProvider local = new LocalSigningProvider(keyPair);
+        List<SignRequest> requests = new ArrayList<>();
+        KmsClient kms = new StubKmsClient() {
+            @Override
+            public GetPublicKeyResponse getPublicKey(GetPublicKeyRequest request) {
+                return GetPublicKeyResponse.builder()
+                        .keyId(request.keyId())
+                        .keySpec(KeySpec.ECC_NIST_P384)
+                        .publicKey(SdkBytes.fromByteArray(keyPair.getPublic().getEncoded()))
+                        .build();
+            }
+
+            @Override
+            public SignResponse sign(SignRequest request) {
+                requests.add(request);
+                return SignResponse.builder()
+                        .signature(SdkBytes.fromByteArray(local.signDigest(request.message().asByteArray())))
+                        .build();
+            }
+        };
+
+        KMSSigningProvider signer = new KMSSigningProvider(kms, "alias/ca");
+        Assertions.assertEquals(KnownOids.ecdsa_with_SHA384, signer.signatureAlgorithm());
+        Assertions.assertArrayEquals(keyPair.getPublic().getEncoded(), signer.subjectPublicKeyInfo());
+
+        byte[] signature = signer.sign(ByteBuffer.wrap(DATA));
+        Assertions.assertTrue(verify("SHA384withECDSA", keyPair, signature));
+
+        // Only the digest is sent
+        SignRequest request = requests.get(0);
+        Assertions.assertEquals("alias/ca", request.keyId());
+        Assertions.assertEquals(MessageType.DIGEST, request.messageType());
+        Assertions.assertEquals(SigningAlgorithmSpec.ECDSA_SHA_384, request.signingAlgorithm());
+        Assertions.assertArrayEquals(SignatureUtils.digest(KnownOids.ecdsa_with_SHA384, ByteBuffer.wrap(DATA)), request.message().asByteArray());
+    }
+
+    @Test
+    public void testKMSFailures() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("RSA", 2048);
+        List<KmsException> failures = new ArrayList<>(List.of(
+                (KmsException) KmsException.builder()
+                        .statusCode(400)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("ThrottlingException").build())
+                        .build(),
+                DisabledException.builder().statusCode(400).build()));
+        KmsClient kms = new StubKmsClient() {
+            @Override
+            public SignResponse sign(SignRequest request) {
+                throw failures.remove(0);
+            }
+        };
+
+        KMSSigningProvider signer = new KMSSigningProvider(kms, "key", KnownOids.sha256WithRSAEncryption, keyPair.getPublic().getEncoded());
+        ByteBuffer data = ByteBuffer.wrap(DATA);
+        Assertions.assertTrue(Assertions.assertThrows(SigningException.class, () -> signer.sign(data.duplicate())).retryable());
+        Assertions.assertFalse(Assertions.assertThrows(SigningException.class, () -> signer.sign(data.duplicate())).retryable());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new KMSSigningProvider(kms, "key", KnownOids.sha1_with_rsa_signature, new byte[0]));
+    }
+
+
+    private static boolean verify(String algorithm, KeyPair keyPair, byte[] signature) throws Exception {
+        Signature verifier = Signature.getInstance(algorithm);
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(DATA);
+        return verifier.verify(signature);
+    }
+
+    private abstract static class StubKmsClient implements KmsClient {
+        @Override
+        public String serviceName() {
+            return "kms";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
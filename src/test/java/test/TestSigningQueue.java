@@ -0,0 +1,263 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.exceptions.SigningException;
+import dev.wobbegong.kmsca.signing.LocalSigningProvider;
+import dev.wobbegong.kmsca.signing.SigningProvider;
+import dev.wobbegong.kmsca.signing.SigningQueue;
+import dev.wobbegong.kmsca.utils.SignatureUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSigningQueue {
+
+    private static final byte[] DATA = "To be signed".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void testConcurrentSigning() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("EC", 256);
+        CountingSigner counting = new CountingSigner(new LocalSigningProvider(keyPair).withLatency(Duration.ofMillis(2), Duration.ofMillis(5)));
+        SigningQueue.Options options = new SigningQueue.Options(8, Duration.ofMillis(1), 4, 1000, Duration.ofSeconds(10), Duration.ofMillis(10));
+
+        try (SigningQueue queue = new SigningQueue(counting, options)) {
+            List<CompletableFuture<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(queue.submit("tenant-" + i % 3, digest(), Duration.ofSeconds(10)));
+            }
+            for (CompletableFuture<byte[]> result : results) {
+                Assertions.assertTrue(verify(keyPair, result.join()));
+            }
+
+            // The queue is also a blocking signer
+            Assertions.assertTrue(verify(keyPair, queue.sign(ByteBuffer.wrap(DATA))));
+            Assertions.assertTrue(verify(keyPair, queue.forTenant("other").sign(ByteBuffer.wrap(DATA))));
+        }
+        Assertions.assertTrue(counting.maxInFlight.get() <= 4, "In flight: " + counting.maxInFlight.get());
+        Assertions.assertEquals(202, counting.calls.get());
+    }
+
+    @Test
+    public void testBackpressureAndDeadlines() throws Exception {
+        BlockingSigner blocking = new BlockingSigner(new LocalSigningProvider(Fixtures.keyPair("EC", 256)));
+        SigningQueue.Options options = new SigningQueue.Options(1, Duration.ZERO, 1, 3, Duration.ofMillis(100), Duration.ZERO);
+
+        try (SigningQueue queue = new SigningQueue(blocking, options)) {
+            CompletableFuture<byte[]> first = queue.submit("a", digest(), Duration.ofSeconds(10));
+            blocking.entered.await();
+
+            CompletableFuture<byte[]> expiring = queue.submit("a", digest(), Duration.ofMillis(500));
+            CompletableFuture<byte[]> waiting = queue.submit("a", digest(), Duration.ofSeconds(10));
+            CompletableFuture<byte[]> alsoWaiting = queue.submit("a", digest(), Duration.ofSeconds(10));
+
+            SigningException full = failure(queue.submit("a", digest(), Duration.ofSeconds(10)));
+            Assertions.assertTrue(full.retryable());
+
+            // An expired request leaves the queue, and blocking callers give up at the default deadline
+            Assertions.assertFalse(failure(expiring).retryable());
+            Assertions.assertFalse(Assertions.assertThrows(SigningException.class, () -> queue.signDigest(digest())).retryable());
+
+            blocking.release.countDown();
+            first.join();
+            waiting.join();
+            alsoWaiting.join();
+        }
+    }
+
+    @Test
+    public void testExpiredWhileQueued() throws Exception {
+        BlockingSigner blocking = new BlockingSigner(new LocalSigningProvider(Fixtures.keyPair("EC", 256)));
+        SigningQueue.Options options = new SigningQueue.Options(1, Duration.ZERO, 1, 100, Duration.ofSeconds(10), Duration.ZERO);
+
+        try (SigningQueue queue = new SigningQueue(blocking, options)) {
+            CompletableFuture<byte[]> first = queue.submit("a", digest(), Duration.ofSeconds(10));
+            blocking.entered.await();
+
+            // Fails at its deadline while the only request slot is still taken
+            CompletableFuture<byte[]> expiring = queue.submit("b", digest(), Duration.ofMillis(20));
+            CompletableFuture<byte[]> waiting = queue.submit("a", digest(), Duration.ofSeconds(10));
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> expiring.get(5, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(SigningException.class, e.getCause());
+            Assertions.assertFalse(first.isDone());
+            Assertions.assertEquals(1, queue.queued());
+
+            blocking.release.countDown();
+            first.join();
+            waiting.join();
+        }
+    }
+
+    @Test
+    public void testCloseWhileSubmitting() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("EC", 256);
+        SigningProvider slow = new LocalSigningProvider(keyPair).withLatency(Duration.ofMillis(1), Duration.ofMillis(2));
+        SigningQueue.Options options = new SigningQueue.Options(4, Duration.ZERO, 2, 10000, Duration.ofSeconds(10), Duration.ZERO);
+
+        for (int round = 0; round < 20; round++) {
+            SigningQueue queue = new SigningQueue(slow, options);
+            List<CompletableFuture<byte[]>> results = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch started = new CountDownLatch(4);
+            List<Thread> submitters = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Thread submitter = new Thread(() -> {
+                    started.countDown();
+                    for (int i = 0; i < 200; i++) {
+                        results.add(queue.submit("tenant", digest(), Duration.ofSeconds(10)));
+                    }
+                });
+                submitter.start();
+                submitters.add(submitter);
+            }
+            started.await();
+            queue.close();
+            for (Thread submitter : submitters) {
+                submitter.join();
+            }
+
+            // Every request is signed or failed, none is left waiting
+            for (CompletableFuture<byte[]> result : results) {
+                try {
+                    Assertions.assertTrue(verify(keyPair, result.get(5, TimeUnit.SECONDS)));
+                } catch (ExecutionException e) {
+                    Assertions.assertInstanceOf(SigningException.class, e.getCause());
+                }
+            }
+            Assertions.assertTrue(failure(queue.submit("tenant", digest(), Duration.ofSeconds(10))).getMessage().contains("closed"));
+        }
+    }
+
+    @Test
+    public void testTenantFairness() throws Exception {
+        BlockingSigner blocking = new BlockingSigner(new LocalSigningProvider(Fixtures.keyPair("EC", 256)));
+        SigningQueue.Options options = new SigningQueue.Options(1, Duration.ZERO, 1, 100, Duration.ofSeconds(10), Duration.ZERO);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        try (SigningQueue queue = new SigningQueue(blocking, options)) {
+            CompletableFuture<byte[]> first = queue.submit("busy", digest(), Duration.ofSeconds(10));
+            blocking.entered.await();
+
+            List<CompletableFuture<?>> results = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                results.add(queue.submit("busy", digest(), Duration.ofSeconds(10)).thenRun(() -> order.add("busy")));
+            }
+            for (int i = 0; i < 2; i++) {
+                results.add(queue.submit("quiet", digest(), Duration.ofSeconds(10)).thenRun(() -> order.add("quiet")));
+            }
+            blocking.release.countDown();
+            first.join();
+            results.forEach(CompletableFuture::join);
+        }
+
+        // The quiet tenant's requests take turns with the busy tenant's instead of waiting behind all of them
+        Assertions.assertEquals(12, order.size());
+        Assertions.assertEquals(List.of("busy", "quiet", "busy", "quiet"), order.subList(0, 4));
+    }
+
+    @Test
+    public void testThrottling() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("EC", 256);
+        SigningProvider throttled = new LocalSigningProvider(keyPair).withRequestQuota(40);
+        SigningQueue.Options options = new SigningQueue.Options(16, Duration.ofMillis(1), 8, 1000, Duration.ofSeconds(10), Duration.ofMillis(50));
+
+        try (SigningQueue queue = new SigningQueue(throttled, options)) {
+            List<CompletableFuture<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                results.add(queue.submit(SigningQueue.DEFAULT_TENANT, digest(), Duration.ofSeconds(10)));
+            }
+
+            // Every request eventually fits in the quota instead of failing
+            for (CompletableFuture<byte[]> result : results) {
+                Assertions.assertTrue(verify(keyPair, result.join()));
+            }
+            Assertions.assertTrue(queue.concurrencyLimit() < 8);
+        }
+    }
+
+
+    private static byte[] digest() {
+        return SignatureUtils.digest(KnownOids.ecdsa_with_SHA256, ByteBuffer.wrap(DATA));
+    }
+
+    private static boolean verify(KeyPair keyPair, byte[] signature) throws Exception {
+        Signature verifier = Signature.getInstance("SHA256withECDSA");
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(DATA);
+        return verifier.verify(signature);
+    }
+
+    private static SigningException failure(CompletableFuture<byte[]> result) {
+        CompletionException e = Assertions.assertThrows(CompletionException.class, result::join);
+        return Assertions.assertInstanceOf(SigningException.class, e.getCause());
+    }
+
+    private static class CountingSigner implements SigningProvider {
+        final SigningProvider signer;
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        CountingSigner(SigningProvider signer) {
+            this.signer = signer;
+        }
+
+        @Override
+        public KnownOids signatureAlgorithm() {
+            return signer.signatureAlgorithm();
+        }
+
+        @Override
+        public byte[] subjectPublicKeyInfo() {
+            return signer.subjectPublicKeyInfo();
+        }
+
+        @Override
+        public byte[] signDigest(byte[] digest) {
+            calls.incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                return signer.signDigest(digest);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Holds the first request until released.
+     */
+    private static class BlockingSigner extends CountingSigner {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingSigner(SigningProvider signer) {
+            super(signer);
+        }
+
+        @Override
+        public byte[] signDigest(byte[] digest) {
+            if (entered.getCount() > 0) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.signDigest(digest);
+        }
+    }
+}
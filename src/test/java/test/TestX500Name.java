@@ -0,0 +1,108 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.asn1.ASN1TagType;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.pkcs12.X500Name;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.utils.X500NameUtils;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERBMPString;
+import org.bouncycastle.asn1.DERPrintableString;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.bouncycastle.asn1.x500.AttributeTypeAndValue;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestX500Name {
+
+    @Test
+    public void testDecode() throws Exception {
+        byte[] der = new X500NameBuilder(BCStyle.INSTANCE)
+                .addRDN(BCStyle.C, "US")
+                .addRDN(BCStyle.O, "Wobbegong")
+                .addRDN(BCStyle.OU, "Engineering")
+                .addRDN(BCStyle.OU, "Platform")
+                .addRDN(BCStyle.CN, "Root, \"Primary\"")
+                .build()
+                .getEncoded();
+        X500Name name = X500NameUtils.fromDER(der);
+
+        Assertions.assertArrayEquals(der, name.encoded());
+        Assertions.assertEquals(5, name.rdns().size());
+        Assertions.assertEquals(new X500Name.AttributeTypeAndValue(KnownOids.organizationUnitName.oid, ASN1TagType.UTF8_STRING, "Engineering"),
+                name.rdns().get(2).attributes().get(0));
+        Assertions.assertEquals("Platform", name.rdns().get(3).attributes().get(0).value());
+
+        // The map keeps encoded order and the last of repeated attributes
+        Assertions.assertEquals(List.of(KnownOids.countryName.oid, KnownOids.organizationName.oid, KnownOids.organizationUnitName.oid, KnownOids.commonName.oid),
+                List.copyOf(name.oidValues().keySet()));
+        Assertions.assertEquals("Platform", name.oidValues().get(KnownOids.organizationUnitName.oid));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> name.oidValues().put("2.5.4.3", "x"));
+
+        Assertions.assertEquals("CN=Root\\, \\\"Primary\\\",OU=Platform,OU=Engineering,O=Wobbegong,C=US", name.toString());
+        Assertions.assertEquals(new org.bouncycastle.asn1.x500.X500Name(BCStyle.INSTANCE, name.toString()), org.bouncycastle.asn1.x500.X500Name.getInstance(der));
+    }
+
+    @Test
+    public void testCanonicalEquality() throws Exception {
+        X500Name printable = name(new RDN(BCStyle.C, new DERPrintableString("US")), new RDN(BCStyle.CN, new DERPrintableString("Wobbegong  Root CA ")));
+        X500Name utf8 = name(new RDN(BCStyle.C, new DERUTF8String("us")), new RDN(BCStyle.CN, new DERUTF8String(" wobbegong root\tca")));
+        X500Name bmp = name(new RDN(BCStyle.C, new DERBMPString("US")), new RDN(BCStyle.CN, new DERBMPString("WOBBEGONG ROOT CA")));
+        Assertions.assertEquals(printable, utf8);
+        Assertions.assertEquals(printable, bmp);
+        Assertions.assertEquals(printable.hashCode(), utf8.hashCode());
+        Assertions.assertEquals(printable.canonicalHash(), bmp.canonicalHash());
+        Assertions.assertEquals("WOBBEGONG ROOT CA", bmp.oidValues().get(KnownOids.commonName.oid));
+
+        // RDN order matters, and so does the value
+        Assertions.assertNotEquals(printable, name(new RDN(BCStyle.CN, new DERPrintableString("Wobbegong Root CA")), new RDN(BCStyle.C, new DERPrintableString("US"))));
+        Assertions.assertNotEquals(printable, name(new RDN(BCStyle.C, new DERPrintableString("US")), new RDN(BCStyle.CN, new DERPrintableString("Wobbegong RootCA"))));
+        Assertions.assertNotEquals(printable, name(new RDN(BCStyle.C, new DERPrintableString("US"))));
+
+        // The attributes of a multi-valued RDN compare as a set
+        AttributeTypeAndValue cn = new AttributeTypeAndValue(BCStyle.CN, new DERUTF8String("Service"));
+        AttributeTypeAndValue uid = new AttributeTypeAndValue(BCStyle.UID, new DERUTF8String("svc-1"));
+        X500Name multi = name(new RDN(new AttributeTypeAndValue[]{cn, uid}));
+        Assertions.assertEquals(multi, name(new RDN(new AttributeTypeAndValue[]{uid, cn})));
+        Assertions.assertEquals(2, multi.rdns().get(0).attributes().size());
+        Assertions.assertNotEquals(multi, name(new RDN(cn.getType(), cn.getValue()), new RDN(uid.getType(), uid.getValue())));
+
+        Map<X500Name, String> index = new HashMap<>();
+        index.put(printable, "root");
+        Assertions.assertEquals("root", index.get(utf8));
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        // Values that are not strings keep their encoding
+        X500Name name = name(new RDN(BCStyle.SERIALNUMBER, new ASN1Integer(258)));
+        X500Name.AttributeTypeAndValue attribute = name.rdns().get(0).attributes().get(0);
+        Assertions.assertEquals(ASN1TagType.INTEGER, attribute.valueType());
+        Assertions.assertEquals("#02020102", attribute.value());
+        Assertions.assertEquals("2.5.4.5=#02020102", name.toString());
+        Assertions.assertNotEquals(name, name(new RDN(BCStyle.SERIALNUMBER, new DERUTF8String("#02020102"))));
+
+        Assertions.assertEquals(0, X500NameUtils.fromDER(new byte[]{0x30, 0x00}).rdns().size());
+        Assertions.assertEquals(X500NameUtils.fromDER(new byte[]{0x30, 0x00}), X500NameUtils.fromDER(new byte[]{0x30, 0x00}));
+        Assertions.assertEquals("a b", X500NameUtils.prepare("  A  B "));
+    }
+
+    @Test
+    public void testMalformed() {
+        Assertions.assertThrows(X509CertException.class, () -> X500NameUtils.fromDER(new byte[]{0x30, 0x02, 0x31, 0x00}));
+        Assertions.assertThrows(X509CertException.class, () -> X500NameUtils.fromDER(new byte[]{0x30, 0x02, 0x04, 0x00}));
+        Assertions.assertThrows(X509CertException.class, () -> X500NameUtils.fromDER(new byte[]{0x30, 0x00, 0x00}));
+        Assertions.assertThrows(X509CertException.class, () -> X500NameUtils.fromDER(new byte[]{0x31, 0x00}));
+    }
+
+    private static X500Name name(RDN... rdns) throws Exception {
+        return X500NameUtils.fromDER(new org.bouncycastle.asn1.x500.X500Name(rdns).getEncoded());
+    }
+}
@@ -0,0 +1,331 @@
+package test;
+
+import dev.wobbegong.kmsca.entities.PEMObject;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Item;
+import dev.wobbegong.kmsca.entities.asn1.types.ASN1Sequence;
+import dev.wobbegong.kmsca.entities.oid.KnownOids;
+import dev.wobbegong.kmsca.entities.pkcs12.AccessDescription;
+import dev.wobbegong.kmsca.entities.pkcs12.AuthorityKeyIdentifier;
+import dev.wobbegong.kmsca.entities.pkcs12.BasicConstraints;
+import dev.wobbegong.kmsca.entities.pkcs12.DistributionPoint;
+import dev.wobbegong.kmsca.entities.pkcs12.GeneralName;
+import dev.wobbegong.kmsca.entities.pkcs12.KeyUsage;
+import dev.wobbegong.kmsca.entities.pkcs12.NameConstraints;
+import dev.wobbegong.kmsca.entities.pkcs12.ToBeSignedCertificate;
+import dev.wobbegong.kmsca.entities.pkcs12.X509Extension;
+import dev.wobbegong.kmsca.entities.pkcs12.X509Extensions;
+import dev.wobbegong.kmsca.exceptions.X509CertException;
+import dev.wobbegong.kmsca.io.DERWriter;
+import dev.wobbegong.kmsca.utils.DERDecodingUtils;
+import dev.wobbegong.kmsca.utils.PEMUtils;
+import dev.wobbegong.kmsca.utils.X509ExtensionUtils;
+import dev.wobbegong.kmsca.utils.X509Utils;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.GeneralSubtree;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TestX509Extensions {
+
+    @Test
+    public void testDecodeAll() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("RSA", 2048);
+        JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+        X509v3CertificateBuilder builder = builder(keyPair)
+                .addExtension(Extension.subjectAlternativeName, false, new GeneralNames(new org.bouncycastle.asn1.x509.GeneralName[]{
+                        new org.bouncycastle.asn1.x509.GeneralName(org.bouncycastle.asn1.x509.GeneralName.dNSName, "www.example.com"),
+                        new org.bouncycastle.asn1.x509.GeneralName(org.bouncycastle.asn1.x509.GeneralName.iPAddress, "192.0.2.1"),
+                        new org.bouncycastle.asn1.x509.GeneralName(org.bouncycastle.asn1.x509.GeneralName.rfc822Name, "admin@example.com"),
+                        new org.bouncycastle.asn1.x509.GeneralName(org.bouncycastle.asn1.x509.GeneralName.uniformResourceIdentifier, "https://example.com/"),
+                        new org.bouncycastle.asn1.x509.GeneralName(new X500Name("CN=Directory,O=Example"))
+                }))
+                .addExtension(Extension.keyUsage, true, new org.bouncycastle.asn1.x509.KeyUsage(
+                        org.bouncycastle.asn1.x509.KeyUsage.keyCertSign | org.bouncycastle.asn1.x509.KeyUsage.cRLSign | org.bouncycastle.asn1.x509.KeyUsage.decipherOnly))
+                .addExtension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(new KeyPurposeId[]{KeyPurposeId.id_kp_serverAuth, KeyPurposeId.id_kp_clientAuth}))
+                .addExtension(Extension.basicConstraints, true, new org.bouncycastle.asn1.x509.BasicConstraints(2))
+                .addExtension(Extension.subjectKeyIdentifier, false, extensionUtils.createSubjectKeyIdentifier(keyPair.getPublic()))
+                .addExtension(Extension.authorityKeyIdentifier, false, extensionUtils.createAuthorityKeyIdentifier(keyPair.getPublic()))
+                .addExtension(Extension.cRLDistributionPoints, false, new CRLDistPoint(new org.bouncycastle.asn1.x509.DistributionPoint[]{
+                        new org.bouncycastle.asn1.x509.DistributionPoint(new DistributionPointName(new GeneralNames(
+                                new org.bouncycastle.asn1.x509.GeneralName(org.bouncycastle.asn1.x509.GeneralName.uniformResourceIdentifier, "http://crl.example.com/ca.crl"))), null, null)
+                }))
+                .addExtension(Extension.authorityInfoAccess, false, new AuthorityInformationAccess(new org.bouncycastle.asn1.x509.AccessDescription[]{
+                        new org.bouncycastle.asn1.x509.AccessDescription(org.bouncycastle.asn1.x509.AccessDescription.id_ad_ocsp,
+                                new org.bouncycastle.asn1.x509.GeneralName(org.bouncycastle.asn1.x509.GeneralName.uniformResourceIdentifier, "http://ocsp.example.com")),
+                        new org.bouncycastle.asn1.x509.AccessDescription(org.bouncycastle.asn1.x509.AccessDescription.id_ad_caIssuers,
+                                new org.bouncycastle.asn1.x509.GeneralName(org.bouncycastle.asn1.x509.GeneralName.uniformResourceIdentifier, "http://ca.example.com/ca.crt"))
+                }))
+                .addExtension(Extension.nameConstraints, true, new org.bouncycastle.asn1.x509.NameConstraints(
+                        new GeneralSubtree[]{
+                                new GeneralSubtree(new org.bouncycastle.asn1.x509.GeneralName(org.bouncycastle.asn1.x509.GeneralName.dNSName, ".example.com")),
+                                new GeneralSubtree(new org.bouncycastle.asn1.x509.GeneralName(org.bouncycastle.asn1.x509.GeneralName.iPAddress, "10.0.0.0/8"))
+                        },
+                        new GeneralSubtree[]{
+                                new GeneralSubtree(new org.bouncycastle.asn1.x509.GeneralName(org.bouncycastle.asn1.x509.GeneralName.dNSName, "bad.example.com"))
+                        }));
+        byte[] der = builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())).getEncoded();
+
+        ToBeSignedCertificate tbs = X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der))).tbsCertificate();
+        Assertions.assertArrayEquals(keyPair.getPublic().getEncoded(), tbs.publicKey());
+        X509Extensions extensions = tbs.extensions();
+        Assertions.assertEquals(9, extensions.all().size());
+        Assertions.assertEquals(3, extensions.critical().size());
+
+        List<GeneralName> names = extensions.subjectAltNames();
+        Assertions.assertEquals(5, names.size());
+        Assertions.assertEquals(new GeneralNameValue(GeneralName.Type.dNSName, "www.example.com"), value(names.get(0)));
+        Assertions.assertEquals(new GeneralNameValue(GeneralName.Type.iPAddress, "192.0.2.1"), value(names.get(1)));
+        Assertions.assertEquals(new GeneralNameValue(GeneralName.Type.rfc822Name, "admin@example.com"), value(names.get(2)));
+        Assertions.assertEquals(new GeneralNameValue(GeneralName.Type.uniformResourceIdentifier, "https://example.com/"), value(names.get(3)));
+        Assertions.assertEquals(GeneralName.Type.directoryName, names.get(4).type());
+        Assertions.assertEquals("Directory", X509ExtensionUtils.directoryName(names.get(4)).oidValues().get(KnownOids.commonName.oid));
+
+        Assertions.assertEquals(EnumSet.of(KeyUsage.keyCertSign, KeyUsage.cRLSign, KeyUsage.decipherOnly), extensions.keyUsage());
+        Assertions.assertEquals(List.of(KnownOids.serverAuth.oid, KnownOids.clientAuth.oid), extensions.extendedKeyUsage());
+        Assertions.assertEquals(new BasicConstraints(true, 2), extensions.basicConstraints());
+
+        byte[] keyIdentifier = extensions.subjectKeyIdentifier();
+        Assertions.assertEquals(20, keyIdentifier.length);
+        AuthorityKeyIdentifier authorityKeyIdentifier = extensions.authorityKeyIdentifier();
+        Assertions.assertArrayEquals(keyIdentifier, authorityKeyIdentifier.keyIdentifier());
+        Assertions.assertTrue(authorityKeyIdentifier.authorityCertIssuer().isEmpty());
+        Assertions.assertNull(authorityKeyIdentifier.authorityCertSerialNumber());
+
+        List<DistributionPoint> points = extensions.crlDistributionPoints();
+        Assertions.assertEquals(1, points.size());
+        Assertions.assertEquals("http://crl.example.com/ca.crl", points.get(0).fullName().get(0).value());
+        Assertions.assertNull(points.get(0).reasons());
+
+        List<AccessDescription> access = extensions.authorityInfoAccess();
+        Assertions.assertEquals(2, access.size());
+        Assertions.assertTrue(access.get(0).is(KnownOids.ocsp));
+        Assertions.assertEquals("http://ocsp.example.com", access.get(0).accessLocation().value());
+        Assertions.assertTrue(access.get(1).is(KnownOids.caIssuers));
+
+        NameConstraints constraints = extensions.nameConstraints();
+        Assertions.assertEquals(List.of(new GeneralNameValue(GeneralName.Type.dNSName, ".example.com"), new GeneralNameValue(GeneralName.Type.iPAddress, "10.0.0.0/255.0.0.0")),
+                constraints.permitted().stream().map(TestX509Extensions::value).toList());
+        Assertions.assertEquals(List.of(new GeneralNameValue(GeneralName.Type.dNSName, "bad.example.com")),
+                constraints.excluded().stream().map(TestX509Extensions::value).toList());
+
+        // Decoded values are kept
+        Assertions.assertSame(names, extensions.subjectAltNames());
+        Assertions.assertSame(constraints, extensions.nameConstraints());
+    }
+
+    @Test
+    public void testAbsent() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("RSA", 2048);
+        byte[] der = builder(keyPair).build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())).getEncoded();
+        X509Extensions extensions = X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der))).tbsCertificate().extensions();
+        Assertions.assertSame(X509Extensions.NONE, extensions);
+        Assertions.assertTrue(extensions.subjectAltNames().isEmpty());
+        Assertions.assertNull(extensions.keyUsage());
+        Assertions.assertNull(extensions.basicConstraints());
+        Assertions.assertNull(extensions.subjectKeyIdentifier());
+        Assertions.assertTrue(extensions.crlDistributionPoints().isEmpty());
+    }
+
+    /**
+     * Values are only decoded when read, so a malformed extension does not stop the others from being read.
+     */
+    @Test
+    public void testLazy() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("RSA", 2048);
+        byte[] der = builder(keyPair)
+                .addExtension(Extension.subjectAlternativeName, false, new GeneralNames(
+                        new org.bouncycastle.asn1.x509.GeneralName(org.bouncycastle.asn1.x509.GeneralName.dNSName, "www.example.com")))
+                .addExtension(Extension.keyUsage, true, new byte[]{0x30, 0x05, 0x01})
+                .addExtension(new ASN1ObjectIdentifier("1.3.6.1.4.1.99999.1"), false, new DERSequence())
+                .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())).getEncoded();
+
+        ASN1Sequence root = (ASN1Sequence) DERDecodingUtils.lazyNextASN1(ByteBuffer.wrap(der));
+        X509Extensions extensions = X509Utils.extensionsOf(root);
+        Assertions.assertEquals("www.example.com", extensions.subjectAltNames().get(0).value());
+        Assertions.assertThrows(X509CertException.class, extensions::keyUsage);
+
+        X509Extension unknown = extensions.get("1.3.6.1.4.1.99999.1");
+        Assertions.assertNotNull(unknown);
+        Assertions.assertFalse(unknown.critical());
+        Assertions.assertArrayEquals(new byte[]{0x30, 0x00}, unknown.value());
+        Assertions.assertTrue(extensions.get(KnownOids.keyUsage).critical());
+    }
+
+    /**
+     * Malformed certificates fail with {@link X509CertException}, not with the runtime exceptions of the DER parser.
+     */
+    @Test
+    public void testMalformedTBS() throws Exception {
+        KeyPair keyPair = Fixtures.keyPair("RSA", 2048);
+        byte[] der = builder(keyPair)
+                .addExtension(Extension.basicConstraints, true, new org.bouncycastle.asn1.x509.BasicConstraints(false))
+                .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())).getEncoded();
+        ASN1Sequence certificate = (ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(der));
+
+        // Version 3 with a unique identifier is fine, unless the BIT STRING is empty
+        byte[] uniqueIdentifier = {(byte) 0x81, 0x02, 0x00, 0x2a};
+        ToBeSignedCertificate tbs = X509Utils.toCertificate(withTBS(certificate, 0, uniqueIdentifier)).tbsCertificate();
+        Assertions.assertArrayEquals(new byte[]{0x2a}, tbs.issuerUniqueID().data());
+        Assertions.assertThrows(X509CertException.class, () -> X509Utils.toCertificate(withTBS(certificate, 0, new byte[]{(byte) 0x81, 0x00})));
+        Assertions.assertThrows(X509CertException.class, () -> X509Utils.toCertificate(withTBS(certificate, 0, new byte[]{(byte) 0x82, 0x01, 0x03})));
+
+        // Version 1, without the [0] version, may not have one
+        Assertions.assertNotNull(X509Utils.toCertificate(withTBS(certificate, 1)));
+        Assertions.assertThrows(X509CertException.class, () -> X509Utils.toCertificate(withTBS(certificate, 1, uniqueIdentifier)));
+
+        // A SEQUENCE of extensions whose member runs past its end
+        byte[] extensions = {(byte) 0xa3, 0x05, 0x30, 0x03, 0x04, 0x05, 0x00};
+        Assertions.assertThrows(X509CertException.class, () -> X509ExtensionUtils.fromASN1Item(DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(extensions))));
+        Assertions.assertThrows(X509CertException.class, () -> X509Utils.toCertificate(withTBS(certificate, 0, extensions)));
+    }
+
+    @Test
+    public void testAgainstJDK() throws Exception {
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        for (String resource : List.of("google-com-chain.pem", "questionablecontent-net-chain.pem", "www-homedepot-com-chain.pem",
+                "yahoo-com-chain.pem", "github.com_443.pem", "en.wikipedia.org_443.pem", "DigiCert Global Root CA.crt")) {
+            String pem;
+            try (InputStream is = getClass().getClassLoader().getResourceAsStream("certs/v3/" + resource)) {
+                Assertions.assertNotNull(is, resource);
+                pem = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            for (PEMObject object : PEMUtils.parsePEMBytes(pem)) {
+                X509Certificate expected = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(object.content()));
+                ToBeSignedCertificate tbs = X509Utils.toCertificate((ASN1Sequence) DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(object.content()))).tbsCertificate();
+                assertMatches(resource, expected, tbs);
+            }
+        }
+    }
+
+    private static void assertMatches(String resource, X509Certificate expected, ToBeSignedCertificate tbs) throws Exception {
+        X509Extensions extensions = tbs.extensions();
+        Assertions.assertArrayEquals(expected.getPublicKey().getEncoded(), tbs.publicKey(), resource);
+
+        Set<String> critical = new HashSet<>();
+        Set<String> nonCritical = new HashSet<>();
+        for (X509Extension extension : extensions.all()) {
+            (extension.critical() ? critical : nonCritical).add(extension.oid());
+            // The JDK returns the extnValue OCTET STRING itself
+            byte[] expectedValue = DERDecodingUtils.viewNextASN1(ByteBuffer.wrap(expected.getExtensionValue(extension.oid()))).contents();
+            Assertions.assertArrayEquals(expectedValue, extension.value(), resource + " " + extension.oid());
+        }
+        Assertions.assertEquals(nullToEmpty(expected.getCriticalExtensionOIDs()), critical, resource);
+        Assertions.assertEquals(nullToEmpty(expected.getNonCriticalExtensionOIDs()), nonCritical, resource);
+
+        List<String> expectedDnsNames = new ArrayList<>();
+        if (expected.getSubjectAlternativeNames() != null) {
+            for (List<?> name : expected.getSubjectAlternativeNames()) {
+                if ((Integer) name.get(0) == GeneralName.Type.dNSName.tag) {
+                    expectedDnsNames.add((String) name.get(1));
+                }
+            }
+        }
+        Assertions.assertEquals(expectedDnsNames, extensions.subjectAltNames().stream()
+                .filter(name -> name.type() == GeneralName.Type.dNSName).map(GeneralName::value).toList(), resource);
+
+        boolean[] expectedKeyUsage = expected.getKeyUsage();
+        Set<KeyUsage> keyUsage = extensions.keyUsage();
+        if (expectedKeyUsage == null) {
+            Assertions.assertNull(keyUsage, resource);
+        } else {
+            for (KeyUsage usage : KeyUsage.values()) {
+                Assertions.assertEquals(usage.bit < expectedKeyUsage.length && expectedKeyUsage[usage.bit], keyUsage.contains(usage), resource + " " + usage);
+            }
+        }
+
+        Assertions.assertEquals(expected.getExtendedKeyUsage(), extensions.extendedKeyUsage(), resource);
+
+        BasicConstraints basicConstraints = extensions.basicConstraints();
+        int expectedPathLength = expected.getBasicConstraints();
+        if (basicConstraints == null || !basicConstraints.certificateAuthority()) {
+            Assertions.assertEquals(-1, expectedPathLength, resource);
+        } else if (basicConstraints.pathLength() == BasicConstraints.UNLIMITED_PATH_LENGTH) {
+            Assertions.assertEquals(Integer.MAX_VALUE, expectedPathLength, resource);
+        } else {
+            Assertions.assertEquals(expectedPathLength, basicConstraints.pathLength(), resource);
+        }
+
+        // The remaining extensions only need to decode
+        extensions.subjectKeyIdentifier();
+        extensions.authorityKeyIdentifier();
+        for (DistributionPoint point : extensions.crlDistributionPoints()) {
+            Assertions.assertTrue(point.fullName().get(0).value().startsWith("http"), resource);
+        }
+        for (AccessDescription description : extensions.authorityInfoAccess()) {
+            Assertions.assertEquals(GeneralName.Type.uniformResourceIdentifier, description.accessLocation().type(), resource);
+        }
+        extensions.nameConstraints();
+    }
+
+    private static Set<String> nullToEmpty(Set<String> oids) {
+        return oids == null ? Set.of() : oids;
+    }
+
+    private record GeneralNameValue(GeneralName.Type type, String value) {
+
+    }
+
+    private static GeneralNameValue value(GeneralName name) {
+        return new GeneralNameValue(name.type(), name.value());
+    }
+
+    /**
+     * @param certificate A version 3 certificate.
+     * @param from        The first TBS item kept: 0 keeps the version, 1 drops it.
+     * @param after       Encoded items to put after the subject public key info in place of the extensions.
+     * @return The certificate with the TBS certificate rebuilt. The signature no longer matches.
+     */
+    private static ASN1Sequence withTBS(ASN1Sequence certificate, int from, byte[]... after) {
+        List<ASN1Item> tbs = ((ASN1Sequence) certificate.asn1ItemList().get(0)).asn1ItemList();
+        DERWriter writer = new DERWriter();
+        int outer = writer.mark();
+        writer.item(certificate.asn1ItemList().get(2)).item(certificate.asn1ItemList().get(1));
+        int tbsMark = writer.mark();
+        for (int i = after.length - 1; i >= 0; i--) {
+            writer.encoded(after[i]);
+        }
+        // The version, serial number, signature, issuer, validity, subject and subject public key info
+        for (int i = 6; i >= from; i--) {
+            writer.item(tbs.get(i));
+        }
+        writer.sequence(tbsMark).sequence(outer);
+        return (ASN1Sequence) DERDecodingUtils.viewNextASN1(writer.toByteBuffer());
+    }
+
+
+    private static X509v3CertificateBuilder builder(KeyPair keyPair) {
+        X500Name name = new X500Name("CN=Extensions Test,O=Wobbegong");
+        Instant now = Instant.now();
+        return new JcaX509v3CertificateBuilder(name, BigInteger.ONE, Date.from(now), Date.from(now.plus(1, ChronoUnit.DAYS)), name, keyPair.getPublic());
+    }
+}